@@ -200,6 +200,29 @@ public final class EtagUtils
         return b.toString();
     }
 
+    /**
+     * Compute a strong etag from a digest of the content bytes.
+     *
+     * <p>
+     * Unlike {@link #computeWeakEtag(Resource)}, the result depends only on the content,
+     * so identical content has the same etag across restarts, {@code touch} and cluster nodes.
+     * </p>
+     *
+     * @param digest the digest of the content (for example SHA-256)
+     * @param etagSuffix the optional etag suffix
+     * @return the strong etag
+     */
+    public static String computeStrongEtag(byte[] digest, String etagSuffix)
+    {
+        StringBuilder b = new StringBuilder(48);
+        b.append('"');
+        b.append(Base64.getEncoder().withoutPadding().encodeToString(digest));
+        if (etagSuffix != null)
+            b.append(etagSuffix);
+        b.append('"');
+        return b.toString();
+    }
+
     /**
      * Rewrite etag with a new suffix, satisfying quoting rules, and preserving optional weak flag.
      *
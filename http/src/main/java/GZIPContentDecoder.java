@@ -35,6 +35,9 @@ public class GZIPContentDecoder implements Destroyable
 {
     // Unsigned Integer Max == 2^32
     private static final long UINT_MAX = 0xFFFFFFFFL;
+    // The inflate ratio assumed before any data has been inflated.
+    private static final int INITIAL_RATIO = 4;
+    private static final int MIN_BUFFER_SIZE = 1024;
 
     private final List<RetainableByteBuffer> _inflateds = new ArrayList<>();
     private final ByteBufferPool _pool;
@@ -46,6 +49,10 @@ public class GZIPContentDecoder implements Destroyable
     private long _value;
     private byte _flags;
     private RetainableByteBuffer _inflated;
+    private long _maxInflatedSize = -1;
+    private int _maxInflateRatio = -1;
+    private long _compressedBytes;
+    private long _inflatedBytes;
 
     public GZIPContentDecoder()
     {
@@ -71,6 +78,62 @@ public class GZIPContentDecoder implements Destroyable
         reset();
     }
 
+    /**
+     * @return the max number of bytes that may be inflated, or -1 for no limit
+     */
+    public long getMaxInflatedSize()
+    {
+        return _maxInflatedSize;
+    }
+
+    /**
+     * <p>Sets the max number of bytes that may be inflated, across all the gzip members.</p>
+     * <p>Output buffers are never acquired larger than the remaining allowance, so that the
+     * limit is detected as soon as it is exceeded by one byte, and never after the fact.</p>
+     *
+     * @param maxInflatedSize the max number of bytes that may be inflated, or -1 for no limit
+     */
+    public void setMaxInflatedSize(long maxInflatedSize)
+    {
+        _maxInflatedSize = maxInflatedSize;
+    }
+
+    /**
+     * @return the max ratio between inflated and compressed bytes, or -1 for no limit
+     */
+    public int getMaxInflateRatio()
+    {
+        return _maxInflateRatio;
+    }
+
+    /**
+     * <p>Sets the max ratio between the bytes inflated and the compressed bytes consumed.</p>
+     * <p>The ratio is checked every time a buffer is inflated, once more than one buffer
+     * of data has been inflated, as the ratio is not significant for small contents.</p>
+     *
+     * @param maxInflateRatio the max inflate ratio, or -1 for no limit
+     */
+    public void setMaxInflateRatio(int maxInflateRatio)
+    {
+        _maxInflateRatio = maxInflateRatio;
+    }
+
+    /**
+     * @return the number of compressed bytes consumed
+     */
+    public long getCompressedBytes()
+    {
+        return _compressedBytes;
+    }
+
+    /**
+     * @return the number of bytes inflated
+     */
+    public long getInflatedBytes()
+    {
+        return _inflatedBytes;
+    }
+
     /**
      * <p>Inflates compressed data from a buffer.</p>
      * <p>The {@link RetainableByteBuffer} returned by this method
@@ -151,6 +214,7 @@ public class GZIPContentDecoder implements Destroyable
      */
     protected void decodeChunks(ByteBuffer compressed)
     {
+        int position = compressed.position();
         RetainableByteBuffer buffer = null;
         try
         {
@@ -195,7 +259,7 @@ public class GZIPContentDecoder implements Destroyable
                         while (true)
                         {
                             if (buffer == null)
-                                buffer = acquire(_bufferSize);
+                                buffer = acquire(outputBufferSize(compressed, _compressedBytes + compressed.position() - position));
 
                             try
                             {
@@ -211,6 +275,8 @@ public class GZIPContentDecoder implements Destroyable
 
                             if (buffer.hasRemaining())
                             {
+                                _inflatedBytes += buffer.remaining();
+                                checkLimits(_compressedBytes + compressed.position() - position);
                                 boolean stop = decodedChunk(buffer);
                                 buffer.release();
                                 buffer = null;
@@ -384,11 +450,43 @@ public class GZIPContentDecoder implements Destroyable
         }
         finally
         {
+            _compressedBytes += compressed.position() - position;
             if (buffer != null)
                 buffer.release();
         }
     }
 
+    /**
+     * <p>Computes the capacity of the next buffer to inflate into, from the ratio observed
+     * so far and the compressed bytes still to be inflated, so that small contents do not
+     * use buffers of the configured size, and never larger than the remaining allowance.</p>
+     *
+     * @param compressed the buffer of compressed data
+     * @param consumed the number of compressed bytes consumed so far
+     * @return the capacity of the buffer to inflate into
+     */
+    private int outputBufferSize(ByteBuffer compressed, long consumed)
+    {
+        long size = _bufferSize;
+        // Without input left, the inflater may still hold an unknown amount of output.
+        if (compressed.hasRemaining())
+        {
+            long ratio = consumed > 0 && _inflatedBytes > 0 ? _inflatedBytes / consumed + 1 : INITIAL_RATIO;
+            size = Math.min(size, Math.max(MIN_BUFFER_SIZE, compressed.remaining() * ratio));
+        }
+        if (_maxInflatedSize >= 0)
+            size = Math.min(size, Math.max(0, _maxInflatedSize - _inflatedBytes) + 1);
+        return (int)size;
+    }
+
+    private void checkLimits(long consumed)
+    {
+        if (_maxInflatedSize >= 0 && _inflatedBytes > _maxInflatedSize)
+            throw new BadMessageException(HttpStatus.PAYLOAD_TOO_LARGE_413, "Inflated content too large");
+        if (_maxInflateRatio > 0 && _inflatedBytes > _bufferSize && _inflatedBytes > _maxInflateRatio * consumed)
+            throw new BadMessageException(HttpStatus.PAYLOAD_TOO_LARGE_413, "Inflate ratio too large");
+    }
+
     private void reset()
     {
         _inflater.reset();
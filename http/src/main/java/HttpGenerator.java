@@ -591,6 +591,22 @@ public class HttpGenerator
             {
                 HttpField field = fields.getField(f);
                 HttpHeader h = field.getHeader();
+
+                // Copy a run of fields pre encoded in the same block with a single put.
+                if (field instanceof PreEncodedHttpField first && first.isInBlock())
+                {
+                    PreEncodedHttpField end = first;
+                    contentType |= h == HttpHeader.CONTENT_TYPE;
+                    while (f + 1 < n && fields.getField(f + 1) instanceof PreEncodedHttpField next && next.isBlockSuccessorOf(end))
+                    {
+                        contentType |= next.getHeader() == HttpHeader.CONTENT_TYPE;
+                        end = next;
+                        f++;
+                    }
+                    first.putBlockTo(header, end);
+                    continue;
+                }
+
                 if (h == null)
                     putTo(field, header);
                 else
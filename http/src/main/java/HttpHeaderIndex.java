@@ -0,0 +1,97 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http;
+
+import java.util.Arrays;
+
+/**
+ * <p>An index of the position of the first field of each {@link HttpHeader}
+ * in an array of fields, keyed by {@link HttpHeader#ordinal()}.</p>
+ * <p>A bitmask of the headers present is kept alongside the positions,
+ * so that looking up a header, and in particular a missing one, does
+ * not scan the fields.</p>
+ * <p>Like the lookups of {@link HttpFields}, the index matches fields by
+ * {@link HttpField#getHeader()}; whether a field without a header has
+ * the name of a known header is only tracked by {@link #mayContainName(HttpHeader)}.</p>
+ */
+class HttpHeaderIndex
+{
+    private static final int HEADERS = HttpHeader.values().length;
+
+    private final long[] _present = new long[(HEADERS + Long.SIZE - 1) / Long.SIZE];
+    private final int[] _first = new int[HEADERS];
+    private boolean _ambiguous;
+
+    HttpHeaderIndex(HttpField[] fields, int size)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            HttpField field = fields[i];
+            if (field != null)
+                add(field, i);
+        }
+    }
+
+    /**
+     * <p>Indexes a field appended at the given position.</p>
+     *
+     * @param field the field
+     * @param position the position of the field, after all the indexed ones
+     */
+    void add(HttpField field, int position)
+    {
+        HttpHeader header = field.getHeader();
+        if (header == null)
+        {
+            if (!_ambiguous && HttpHeader.CACHE.get(field.getName()) != null)
+                _ambiguous = true;
+            return;
+        }
+        int ordinal = header.ordinal();
+        long bit = 1L << ordinal;
+        if ((_present[ordinal / Long.SIZE] & bit) == 0)
+        {
+            _present[ordinal / Long.SIZE] |= bit;
+            _first[ordinal] = position;
+        }
+    }
+
+    void clear()
+    {
+        Arrays.fill(_present, 0L);
+        _ambiguous = false;
+    }
+
+    /**
+     * @param header the header
+     * @return the position of the first field with the given header, or -1
+     */
+    int indexOf(HttpHeader header)
+    {
+        int ordinal = header.ordinal();
+        if ((_present[ordinal / Long.SIZE] & (1L << ordinal)) == 0)
+            return -1;
+        return _first[ordinal];
+    }
+
+    /**
+     * @param header the header
+     * @return whether a field may have the name of the given header, either with that
+     * header or without a header, so that {@code false} means that no field has that name
+     */
+    boolean mayContainName(HttpHeader header)
+    {
+        return _ambiguous || indexOf(header) >= 0;
+    }
+}
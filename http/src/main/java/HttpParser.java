@@ -248,6 +248,8 @@ public class HttpParser
     private final int _maxHeaderBytes;
     private final HttpCompliance _complianceMode;
     private final Utf8StringBuilder _uri = new Utf8StringBuilder(INITIAL_URI_LENGTH);
+    private HttpURICache _uriCache;
+    private String _cachedUri;
     private final FieldCache _fieldCache = new FieldCache();
     private HttpField _field;
     private HttpHeader _header;
@@ -359,6 +361,24 @@ public class HttpParser
         _fieldCache.setCaseSensitive(headerCacheCaseSensitive);
     }
 
+    public HttpURICache getUriCache()
+    {
+        return _uriCache;
+    }
+
+    /**
+     * @param uriCache the cache of request targets to look up before decoding the target bytes, or null for no cache
+     */
+    public void setUriCache(HttpURICache uriCache)
+    {
+        _uriCache = uriCache;
+    }
+
+    private String getUri()
+    {
+        return _cachedUri != null ? _cachedUri : _uri.toCompleteString();
+    }
+
     protected void checkViolation(Violation violation) throws BadMessageException
     {
         if (violation.isAllowedBy(_complianceMode))
@@ -830,6 +850,7 @@ public class HttpParser
                             else
                             {
                                 _uri.reset();
+                                _cachedUri = null;
                                 setState(State.URI);
                                 // quick scan for space or EoBuffer
                                 if (buffer.hasArray())
@@ -837,11 +858,7 @@ public class HttpParser
                                     byte[] array = buffer.array();
                                     int p = buffer.arrayOffset() + buffer.position();
                                     int l = buffer.arrayOffset() + buffer.limit();
-                                    int i = p;
-                                    while (i < l && array[i] > HttpTokens.SPACE)
-                                    {
-                                        i++;
-                                    }
+                                    int i = HttpTokens.skipVisibleAscii(array, p, l);
 
                                     int len = i - p;
                                     _headerBytes += len;
@@ -851,7 +868,11 @@ public class HttpParser
                                         LOG.warn("URI is too large >{}", _maxHeaderBytes);
                                         throw new BadMessageException(HttpStatus.URI_TOO_LONG_414);
                                     }
-                                    _uri.append(array, p - 1, len + 1);
+                                    // A complete target may already be known to the cache.
+                                    if (_uriCache != null && i < l && array[i] == HttpTokens.SPACE)
+                                        _cachedUri = _uriCache.get(array, p - 1, len + 1);
+                                    if (_cachedUri == null)
+                                        _uri.append(array, p - 1, len + 1);
                                     buffer.position(i - buffer.arrayOffset());
                                 }
                                 else
@@ -914,7 +935,7 @@ public class HttpParser
                                     checkVersion();
                                     _fieldCache.prepare();
                                     setState(State.HEADER);
-                                    _requestHandler.startRequest(_methodString, _uri.toCompleteString(), _version);
+                                    _requestHandler.startRequest(_methodString, getUri(), _version);
                                     continue;
                                 }
                             }
@@ -926,7 +947,7 @@ public class HttpParser
                             if (Violation.HTTP_0_9.isAllowedBy(_complianceMode))
                             {
                                 reportComplianceViolation(HTTP_0_9, HTTP_0_9.getDescription());
-                                _requestHandler.startRequest(_methodString, _uri.toCompleteString(), HttpVersion.HTTP_0_9);
+                                _requestHandler.startRequest(_methodString, getUri(), HttpVersion.HTTP_0_9);
                                 setState(State.CONTENT);
                                 _endOfContent = EndOfContent.NO_CONTENT;
                                 BufferUtil.clear(buffer);
@@ -980,7 +1001,7 @@ public class HttpParser
                             {
                                 // HTTP/0.9
                                 checkViolation(Violation.HTTP_0_9);
-                                _requestHandler.startRequest(_methodString, _uri.toCompleteString(), HttpVersion.HTTP_0_9);
+                                _requestHandler.startRequest(_methodString, getUri(), HttpVersion.HTTP_0_9);
                                 setState(State.CONTENT);
                                 _endOfContent = EndOfContent.NO_CONTENT;
                                 BufferUtil.clear(buffer);
@@ -1006,7 +1027,7 @@ public class HttpParser
                             _fieldCache.prepare();
                             setState(State.HEADER);
 
-                            _requestHandler.startRequest(_methodString, _uri.toCompleteString(), _version);
+                            _requestHandler.startRequest(_methodString, getUri(), _version);
                             continue;
 
                         case ALPHA:
@@ -1555,6 +1576,7 @@ public class HttpParser
                             _string.append(t.getChar());
                             _length = _string.length();
                             setState(FieldState.IN_VALUE);
+                            quickValue(buffer);
                             break;
 
                         default:
@@ -1587,6 +1609,7 @@ public class HttpParser
                         case OTEXT: // TODO review? should this be a utf8 string?
                             _string.append(t.getChar());
                             _length = _string.length();
+                            quickValue(buffer);
                             break;
 
                         default:
@@ -1602,6 +1625,44 @@ public class HttpParser
         return false;
     }
 
+    /**
+     * <p>Appends the run of field content that follows a field value octet, so that long
+     * values (cookies, tokens) are not parsed octet by octet; the octets that end the run
+     * (HTAB, CR, LF or illegal ones) are left to be parsed as usual.</p>
+     *
+     * @param buffer the buffer positioned after a field value octet
+     */
+    private void quickValue(ByteBuffer buffer)
+    {
+        if (!buffer.hasArray())
+            return;
+        byte[] array = buffer.array();
+        int p = buffer.arrayOffset() + buffer.position();
+        int l = buffer.arrayOffset() + buffer.limit();
+        // Leave the octet that exceeds the max header size to the octet by octet parsing.
+        if (_maxHeaderBytes > 0)
+            l = Math.min(l, p + Math.max(0, _maxHeaderBytes - _headerBytes));
+        int i = HttpTokens.skipFieldContent(array, p, l);
+        if (i == p)
+            return;
+
+        if (_maxHeaderBytes > 0)
+            _headerBytes += i - p;
+        for (int j = p; j < i; j++)
+        {
+            _string.append((char)(0xFF & array[j]));
+        }
+        // Trailing spaces are not part of the value, unless more content follows.
+        int last = i - 1;
+        while (last >= p && array[last] == HttpTokens.SPACE)
+        {
+            last--;
+        }
+        if (last >= p)
+            _length = _string.length() - (i - 1 - last);
+        buffer.position(i - buffer.arrayOffset());
+    }
+
     /**
      * Parse until next Event.
      *
@@ -2034,7 +2095,7 @@ public class HttpParser
                     info = _requestHandler == null ? _version.asString() : _methodString;
                     break;
                 case SPACE2:
-                    info = _requestHandler == null ? Integer.toString(_responseStatus) : _uri.toCompleteString();
+                    info = _requestHandler == null ? Integer.toString(_responseStatus) : getUri();
                     break;
                 case CONTENT_END:
                 case TRAILER:
@@ -13,6 +13,10 @@
 
 package ab.eazy.http;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 import ab.eazy.util.TypeUtil;
 
 /**
@@ -27,6 +31,11 @@ public class HttpTokens
     static final byte SPACE = 0x20;
     static final byte[] CRLF = {CARRIAGE_RETURN, LINE_FEED};
 
+    // Reads 8 octets at a time, the first octet being the least significant.
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
     public enum EndOfContent
     {
         UNKNOWN_CONTENT, NO_CONTENT, EOF_CONTENT, CONTENT_LENGTH, CHUNKED_CONTENT
@@ -275,5 +284,68 @@ public class HttpTokens
     {
         return (c >= 256 || c < ' ');
     }
-}
 
+    /**
+     * <p>Skips a run of field content octets, that is SP, VCHAR and obs-text, which excludes
+     * CTLs (including HTAB, CR and LF) and DEL, so that the octets that have a meaning for
+     * the parser, or that it rejects, are left to the parser.</p>
+     * <p>The octets are tested 8 at a time as a {@code long}, with a zero octet test
+     * (<code>(x - 0x01..) &amp; ~x &amp; 0x80..</code>) whose least significant
+     * match is always exact.</p>
+     *
+     * @param array the array to scan
+     * @param from the index to start from
+     * @param to the index to stop at (exclusive)
+     * @return the index of the first octet that is not field content, or {@code to}
+     */
+    static int skipFieldContent(byte[] array, int from, int to)
+    {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES)
+        {
+            long x = (long)LONG_LE.get(array, i);
+            // Octets less than SP, then octets equal to DEL.
+            long cntl = (x - SPACE * ONES) & ~x & HIGHS;
+            long y = x ^ (0x7F * ONES);
+            long del = (y - ONES) & ~y & HIGHS;
+            long stop = cntl | del;
+            if (stop != 0)
+                return i + (Long.numberOfTrailingZeros(stop) >>> 3);
+        }
+        while (i < to)
+        {
+            int b = 0xFF & array[i];
+            if (b < SPACE || b == 0x7F)
+                return i;
+            i++;
+        }
+        return to;
+    }
+
+    /**
+     * <p>Skips a run of US-ASCII octets greater than SP, as found in a request target.</p>
+     * <p>The octets are tested 8 at a time, like in {@link #skipFieldContent(byte[], int, int)}.</p>
+     *
+     * @param array the array to scan
+     * @param from the index to start from
+     * @param to the index to stop at (exclusive)
+     * @return the index of the first octet that is SP, a CTL or not US-ASCII, or {@code to}
+     */
+    static int skipVisibleAscii(byte[] array, int from, int to)
+    {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES)
+        {
+            long x = (long)LONG_LE.get(array, i);
+            // Octets less than or equal to SP, then octets with the high bit set.
+            long stop = ((x - (SPACE + 1) * ONES) & ~x & HIGHS) | (x & HIGHS);
+            if (stop != 0)
+                return i + (Long.numberOfTrailingZeros(stop) >>> 3);
+        }
+        while (i < to && array[i] > SPACE)
+        {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,190 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A bounded, lock free cache of parsed request targets.</p>
+ * <p>Servers typically receive the same few hundred origin form targets (for example {@code /index.html}
+ * or {@code /api/status}) over and over. This cache memoizes both the {@link String} of a target and
+ * its parsed and canonicalized {@link HttpURI}, so that the {@link HttpParser} can avoid decoding the
+ * target bytes into a new {@link String}, and the connection can avoid parsing and canonicalizing the path.</p>
+ * <p>The cache is an open addressing table of a power of two capacity, where a slot is selected by
+ * the hash of the target and an entry is validated by comparing its length and characters.
+ * Entries are never removed, but are overwritten by later targets that collide with them,
+ * so the cache never grows beyond its capacity and needs no locking.</p>
+ * <p>Only ASCII origin form targets up to {@link #getMaxUriLength()} are cached, so that the byte
+ * and the character representations of a cached target are identical.
+ * Targets with a fragment are not cached, as {@link HttpURI.Mutable#uri(HttpURI)} does not copy it.</p>
+ */
+public class HttpURICache
+{
+    private static final int PROBES = 4;
+
+    private final AtomicReferenceArray<Entry> _entries;
+    private final int _mask;
+    private final int _maxUriLength;
+
+    /**
+     * @param capacity the maximum number of cached targets, rounded up to a power of two
+     * @param maxUriLength the maximum length of a cached target
+     */
+    public HttpURICache(int capacity, int maxUriLength)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+        _entries = new AtomicReferenceArray<>(size);
+        _mask = size - 1;
+        _maxUriLength = maxUriLength;
+    }
+
+    public int getCapacity()
+    {
+        return _entries.length();
+    }
+
+    public int getMaxUriLength()
+    {
+        return _maxUriLength;
+    }
+
+    /**
+     * <p>Look up a target from its raw bytes.</p>
+     *
+     * @param array the bytes of the request line
+     * @param offset the offset of the target
+     * @param length the length of the target
+     * @return the cached target {@link String}, or null if the target is not cached
+     */
+    public String get(byte[] array, int offset, int length)
+    {
+        if (length == 0 || length > _maxUriLength || array[offset] != '/')
+            return null;
+
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; i++)
+        {
+            hash = 31 * hash + array[i];
+        }
+
+        for (int p = 0; p < PROBES; p++)
+        {
+            Entry entry = _entries.get((hash + p) & _mask);
+            if (entry != null && entry._hash == hash && entry.matches(array, offset, length))
+                return entry._target;
+        }
+        return null;
+    }
+
+    /**
+     * <p>Build the {@link HttpURI} of a request target, from the cache if possible.</p>
+     * <p>The result is the same as {@link HttpURI#build(String, String)}.</p>
+     *
+     * @param method the request method
+     * @param target the request target
+     * @return a new {@link HttpURI.Mutable} for the target
+     */
+    public HttpURI.Mutable build(String method, String target)
+    {
+        if (!isCacheable(method, target))
+            return HttpURI.build(method, target);
+
+        int hash = target.hashCode();
+        for (int p = 0; p < PROBES; p++)
+        {
+            Entry entry = _entries.get((hash + p) & _mask);
+            if (entry != null && entry._hash == hash && target.equals(entry._target))
+                return HttpURI.build(entry._uri);
+        }
+
+        HttpURI.Mutable uri = HttpURI.build(method, target);
+        if (isAscii(target))
+            put(hash, new Entry(hash, target, uri.asImmutable()));
+        return uri;
+    }
+
+    private boolean isCacheable(String method, String target)
+    {
+        return target.length() <= _maxUriLength &&
+            target.startsWith("/") &&
+            !HttpMethod.CONNECT.is(method) &&
+            target.indexOf('#') < 0;
+    }
+
+    private void put(int hash, Entry entry)
+    {
+        // Use an empty slot if there is one, otherwise overwrite the first slot.
+        for (int p = 0; p < PROBES; p++)
+        {
+            if (_entries.compareAndSet((hash + p) & _mask, null, entry))
+                return;
+        }
+        _entries.set(hash & _mask, entry);
+    }
+
+    private static boolean isAscii(String target)
+    {
+        for (int i = target.length(); i-- > 0; )
+        {
+            if (target.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove all the cached targets.
+     */
+    public void clear()
+    {
+        for (int i = _entries.length(); i-- > 0; )
+        {
+            _entries.set(i, null);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{capacity=%d,maxUriLength=%d}", getClass().getSimpleName(), hashCode(), getCapacity(), _maxUriLength);
+    }
+
+    private static class Entry
+    {
+        private final int _hash;
+        private final String _target;
+        private final HttpURI.Immutable _uri;
+
+        private Entry(int hash, String target, HttpURI.Immutable uri)
+        {
+            _hash = hash;
+            _target = target;
+            _uri = uri;
+        }
+
+        private boolean matches(byte[] array, int offset, int length)
+        {
+            if (_target.length() != length)
+                return false;
+            for (int i = 0; i < length; i++)
+            {
+                if (_target.charAt(i) != array[offset + i])
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -26,6 +26,9 @@ class ImmutableHttpFields implements HttpFields
 {
     final HttpField[] _fields;
     final int _size;
+    // Lazily built, may be built more than once by concurrent threads, but
+    // the index is immutable after construction and safely published.
+    private HttpHeaderIndex _index;
 
     /**
      * Initialize HttpFields from copy.
@@ -82,22 +85,32 @@ class ImmutableHttpFields implements HttpFields
         return null;
     }
 
+    @Override
+    public boolean contains(HttpHeader header)
+    {
+        return getField(header) != null;
+    }
+
     @Override
     public String get(HttpHeader header)
     {
         // default impl overridden for efficiency
-        for (HttpField f : _fields)
-        {
-            if (f != null && f.getHeader() == header)
-                return f.getValue();
-        }
-        return null;
+        HttpField field = getField(header);
+        return field == null ? null : field.getValue();
     }
 
     @Override
     public HttpField getField(HttpHeader header)
     {
         // default impl overridden for efficiency
+        if (header != null)
+        {
+            HttpHeaderIndex index = _index;
+            if (index == null)
+                _index = index = new HttpHeaderIndex(_fields, _size);
+            int i = index.indexOf(header);
+            return i < 0 ? null : _fields[i];
+        }
         for (HttpField f : _fields)
         {
             if (f != null && f.getHeader() == header)
@@ -32,6 +32,9 @@ import java.util.stream.Stream;
  * single thread.
  *
  * <p>The cookie handling provided by this class is guided by the Servlet specification and RFC6265.
+ *
+ * <p>Lookups by {@link HttpHeader} use a {@link HttpHeaderIndex}, built lazily and kept up to date
+ * when fields are appended, but discarded when fields are removed, replaced or inserted.
  */
 class MutableHttpFields implements HttpFields.Mutable
 {
@@ -41,6 +44,7 @@ class MutableHttpFields implements HttpFields.Mutable
     private HttpField[] _fields;
     private boolean _immutable;
     private int _size;
+    private HttpHeaderIndex _index;
 
     /**
      * Initialize an empty HttpFields.
@@ -140,6 +144,8 @@ class MutableHttpFields implements HttpFields.Mutable
                 _fields = Arrays.copyOf(_fields, _size + SIZE_INCREMENT);
             }
             _fields[_size++] = field;
+            if (_index != null)
+                _index.add(field, _size - 1);
         }
         return this;
     }
@@ -156,6 +162,7 @@ class MutableHttpFields implements HttpFields.Mutable
             _fields = Arrays.copyOf(_fields, _size + fields.size() + SIZE_INCREMENT);
         }
 
+        int size = _size;
         if (fields instanceof ab.eazy.http.ImmutableHttpFields immutable)
         {
             System.arraycopy(immutable._fields, 0, _fields, _size, immutable._size);
@@ -173,6 +180,13 @@ class MutableHttpFields implements HttpFields.Mutable
                 _fields[_size++] = f;
             }
         }
+        if (_index != null)
+        {
+            for (int i = size; i < _size; i++)
+            {
+                _index.add(_fields[i], i);
+            }
+        }
         return this;
     }
 
@@ -201,6 +215,8 @@ class MutableHttpFields implements HttpFields.Mutable
             _immutable = false;
         }
         _size = 0;
+        if (_index != null)
+            _index.clear();
         return this;
     }
 
@@ -242,10 +258,35 @@ class MutableHttpFields implements HttpFields.Mutable
         return _fields[index];
     }
 
+    private HttpHeaderIndex index()
+    {
+        if (_index == null)
+            _index = new HttpHeaderIndex(_fields, _size);
+        return _index;
+    }
+
+    @Override
+    public boolean contains(HttpHeader header)
+    {
+        return getField(header) != null;
+    }
+
+    @Override
+    public String get(HttpHeader header)
+    {
+        HttpField field = getField(header);
+        return field == null ? null : field.getValue();
+    }
+
     @Override
     public HttpField getField(HttpHeader header)
     {
         // default impl overridden for efficiency
+        if (header != null)
+        {
+            int index = index().indexOf(header);
+            return index < 0 ? null : _fields[index];
+        }
         for (int i = 0; i < _size; i++)
         {
             HttpField f = _fields[i];
@@ -313,6 +354,14 @@ class MutableHttpFields implements HttpFields.Mutable
     @Override
     public Mutable put(HttpField field)
     {
+        if (field == null)
+            return this;
+
+        // A field with a header that is not present can just be appended.
+        HttpHeader header = field.getHeader();
+        if (header != null && !index().mayContainName(header))
+            return add(field);
+
         copyImmutable();
         boolean put = false;
 
@@ -322,9 +371,14 @@ class MutableHttpFields implements HttpFields.Mutable
             if (f.isSameName(field))
             {
                 if (put)
+                {
                     System.arraycopy(_fields, i + 1, _fields, i, _size-- - i-- - 1);
+                    _index = null;
+                }
                 else
                 {
+                    if (f.getHeader() != header)
+                        _index = null;
                     _fields[i] = field;
                     put = true;
                 }
@@ -419,16 +473,29 @@ class MutableHttpFields implements HttpFields.Mutable
 
         HttpField newField = computeFn.apply(header, found);
         if (newField == null)
+        {
             remove(first);
+        }
         else
+        {
+            if (newField.getHeader() != _fields[first].getHeader())
+                _index = null;
             _fields[first] = newField;
+        }
         return this;
     }
 
     @Override
     public Mutable remove(HttpHeader name)
     {
-        for (int i = 0; i < _size; i++)
+        int first = 0;
+        if (name != null)
+        {
+            first = index().indexOf(name);
+            if (first < 0)
+                return this;
+        }
+        for (int i = first; i < _size; i++)
         {
             HttpField f = _fields[i];
             if (f.getHeader() == name)
@@ -464,6 +531,7 @@ class MutableHttpFields implements HttpFields.Mutable
     private void remove(int i)
     {
         _size--;
+        _index = null;
         if (_immutable)
         {
             _immutable = false;
@@ -520,6 +588,7 @@ class MutableHttpFields implements HttpFields.Mutable
             System.arraycopy(_fields, _index, _fields, _index + 1, last - _index);
             _fields[_index++] = field;
             _last = -1;
+            ab.eazy.http.MutableHttpFields.this._index = null;
         }
 
         @Override
@@ -580,9 +649,14 @@ class MutableHttpFields implements HttpFields.Mutable
             if (_last < 0)
                 throw new IllegalStateException();
             if (field == null)
+            {
                 remove();
+            }
             else
+            {
                 _fields[_last] = field;
+                ab.eazy.http.MutableHttpFields.this._index = null;
+            }
         }
     }
 }
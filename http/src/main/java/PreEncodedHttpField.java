@@ -13,8 +13,11 @@
 
 package ab.eazy.http;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.ServiceLoader;
 
 import ab.eazy.util.TypeUtil;
@@ -29,6 +32,10 @@ import org.slf4j.LoggerFactory;
  * for each version of HTTP in use.  This will save garbage
  * and CPU each time the field is encoded into a response.
  * </p>
+ * <p>Fields that are always sent together can be created with {@link #newBlock(HttpField...)},
+ * so that their HTTP/1 encodings are laid out contiguously in a single byte array.
+ * When such fields are added in order to a response, the generator copies
+ * them all with a single put (see {@link #putBlockTo(ByteBuffer, PreEncodedHttpField)}).</p>
  */
 public class PreEncodedHttpField extends HttpField
 {
@@ -65,11 +72,20 @@ public class PreEncodedHttpField extends HttpField
 
     private final EnumMap<HttpVersion, byte[]> _encodedFields = new EnumMap<>(HttpVersion.class);
     private final long _longValue;
+    private final byte[] _block;
+    private final int _blockOffset;
 
     private PreEncodedHttpField(HttpHeader header, String name, String value, long longValue)
+    {
+        this(header, name, value, longValue, null, 0);
+    }
+
+    private PreEncodedHttpField(HttpHeader header, String name, String value, long longValue, byte[] block, int blockOffset)
     {
         super(header, name, value);
         _longValue = longValue;
+        _block = block;
+        _blockOffset = blockOffset;
         for (HttpFieldPreEncoder encoder : __encoders.values())
         {
             HttpVersion version = encoder.getHttpVersion();
@@ -105,6 +121,78 @@ public class PreEncodedHttpField extends HttpField
         this(null, name, Long.toString(value), value);
     }
 
+    /**
+     * <p>Pre encode the given fields into a single block.</p>
+     * <p>The returned fields behave as normal {@link PreEncodedHttpField}s, but their HTTP/1
+     * encodings are contiguous slices of one shared byte array, in the given order.</p>
+     *
+     * @param fields the fields to encode, null elements are ignored
+     * @return the pre encoded fields, in the same order
+     * @throws IllegalArgumentException if a field is a message framing field
+     * ({@code Content-Length}, {@code Transfer-Encoding} or {@code Connection}),
+     * as these are handled specially by the generator.
+     */
+    public static List<PreEncodedHttpField> newBlock(HttpField... fields)
+    {
+        HttpFieldPreEncoder encoder = __encoders.get(HttpVersion.HTTP_1_0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * fields.length);
+        List<Integer> offsets = new ArrayList<>(fields.length);
+        for (HttpField field : fields)
+        {
+            if (field == null)
+                continue;
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.CONTENT_LENGTH || header == HttpHeader.TRANSFER_ENCODING || header == HttpHeader.CONNECTION)
+                throw new IllegalArgumentException("Cannot pre encode in a block: " + field);
+            offsets.add(out.size());
+            out.writeBytes(encoder.getEncodedField(header, field.getName(), field.getValue()));
+        }
+
+        byte[] block = out.toByteArray();
+        List<PreEncodedHttpField> encoded = new ArrayList<>(offsets.size());
+        int i = 0;
+        for (HttpField field : fields)
+        {
+            if (field != null)
+                encoded.add(new PreEncodedHttpField(field.getHeader(), field.getName(), field.getValue(), Long.MIN_VALUE, block, offsets.get(i++)));
+        }
+        return encoded;
+    }
+
+    /**
+     * @param previous the field that precedes this field in a response
+     * @return true if this field and {@code previous} were created by the same {@link #newBlock(HttpField...)}
+     * and this field immediately follows {@code previous} in that block.
+     */
+    public boolean isBlockSuccessorOf(PreEncodedHttpField previous)
+    {
+        return _block != null && previous._block == _block &&
+            previous._blockOffset + previous.getEncodedLength(HttpVersion.HTTP_1_0) == _blockOffset;
+    }
+
+    /**
+     * @return true if this field was created by {@link #newBlock(HttpField...)}
+     */
+    public boolean isInBlock()
+    {
+        return _block != null;
+    }
+
+    /**
+     * <p>Put the HTTP/1 encoding of the fields from this field up to and including {@code last}
+     * with a single copy.</p>
+     *
+     * @param bufferInFillMode the buffer to put the encoded fields to
+     * @param last the last field of the run, which must be this field or one of its block successors
+     */
+    public void putBlockTo(ByteBuffer bufferInFillMode, PreEncodedHttpField last)
+    {
+        if (last._block != _block || last._blockOffset < _blockOffset)
+            throw new IllegalArgumentException("Not in block: " + last);
+        int end = last._blockOffset + last.getEncodedLength(HttpVersion.HTTP_1_0);
+        bufferInFillMode.put(_block, _blockOffset, end - _blockOffset);
+    }
+
     public void putTo(ByteBuffer bufferInFillMode, HttpVersion version)
     {
         bufferInFillMode.put(_encodedFields.get(version));
@@ -13,6 +13,8 @@
 
 package ab.eazy.http.compression;
 
+import ab.eazy.http.HttpTokens;
+
 /**
  * This class contains the Huffman Codes defined in RFC7541.
  */
@@ -288,13 +290,21 @@ public class Huffman
     static final int[][] LCCODES = new int[CODES.length][];
     static final char EOS = 256;
 
-    // Huffman decode tree stored in a flattened char array for good
-    // locality of reference.
-    static final char[] tree;
-    static final char[] rowsym;
-    static final byte[] rowbits;
+    // The decoding state machine, indexed by the current state (an internal node
+    // of the Huffman tree, the root being 0) in the high byte and the next input
+    // octet in the low byte, so that each input octet is decoded with one lookup.
+    // Since the shortest code is 5 bits, an octet completes at most 2 symbols.
+    // Each entry packs the next state, the (sanitized) symbols and flags:
+    // |bad termination|accepting|failed|count (2 bits)|symbol 2 (8 bits)|symbol 1 (8 bits)|state (8 bits)|
+    static final int[] DECODE = new int[256 * 256];
+    static final int DECODE_COUNT_SHIFT = 24;
+    static final int DECODE_FAILED = 1 << 26;
+    static final int DECODE_ACCEPTING = 1 << 27;
+    // Set on the states that are not accepting, but whose trailing partial octet is all ones,
+    // so that a string ending there is reported as badly terminated rather than badly padded.
+    static final int DECODE_BAD_TERMINATION = 1 << 28;
 
-    // Build the Huffman lookup tree and LC TABLE
+    // Build the LC TABLE and the decoding state machine
     static
     {
         System.arraycopy(CODES, 0, LCCODES, 0, CODES.length);
@@ -303,49 +313,80 @@ public class Huffman
             LCCODES[i] = LCCODES['a' + i - 'A'];
         }
 
-        int r = 0;
-        for (int[] ints : CODES)
-        {
-            r += (ints[1] + 7) / 8;
-        }
-        tree = new char[r * 256];
-        rowsym = new char[r];
-        rowbits = new byte[r];
-
-        r = 0;
+        // The binary tree, where children[node * 2 + bit] is either
+        // an internal node or, when negative, the leaf for (-1 - symbol).
+        int[] children = new int[256 * 2];
+        // The depth of each internal node and the bits of the path to it.
+        int[] depths = new int[256];
+        int[] paths = new int[256];
+        int nodes = 1;
         for (int sym = 0; sym < CODES.length; sym++)
         {
             int code = CODES[sym][0];
             int len = CODES[sym][1];
-
-            int current = 0;
-
-            while (len > 8)
+            int node = 0;
+            for (int bit = len - 1; bit > 0; bit--)
             {
-                len -= 8;
-                int i = ((code >>> len) & 0xFF);
-
-                int t = current * 256 + i;
-                current = tree[t];
-                if (current == 0)
+                int index = node * 2 + ((code >>> bit) & 1);
+                if (children[index] == 0)
                 {
-                    tree[t] = (char)++r;
-                    current = r;
+                    depths[nodes] = depths[node] + 1;
+                    paths[nodes] = paths[node] << 1 | ((code >>> bit) & 1);
+                    children[index] = nodes++;
                 }
+                node = children[index];
             }
+            children[node * 2 + (code & 1)] = -1 - sym;
+        }
 
-            int terminal = ++r;
-            rowsym[r] = (char)sym;
-            int b = len & 0x07;
-            int terminalBits = b == 0 ? 8 : b;
+        // A string may only end at the root, or after a padding
+        // of less than 8 bits, which is a prefix of the EOS code.
+        boolean[] accepting = new boolean[nodes];
+        accepting[0] = true;
+        for (int i = 0, node = 0; i < 7; i++)
+        {
+            node = children[node * 2 + 1];
+            accepting[node] = true;
+        }
 
-            rowbits[r] = (byte)terminalBits;
-            int shift = 8 - len;
-            int start = current * 256 + ((code << shift) & 0xFF);
-            int end = start + (1 << shift);
-            for (int i = start; i < end; i++)
+        for (int state = 0; state < nodes; state++)
+        {
+            for (int octet = 0; octet < 256; octet++)
             {
-                tree[i] = (char)terminal;
+                int node = state;
+                int count = 0;
+                int symbols = 0;
+                boolean failed = false;
+                for (int bit = 7; bit >= 0; bit--)
+                {
+                    int next = children[node * 2 + ((octet >>> bit) & 1)];
+                    if (next >= 0)
+                    {
+                        node = next;
+                        continue;
+                    }
+                    int sym = -1 - next;
+                    if (sym == EOS)
+                    {
+                        failed = true;
+                        break;
+                    }
+                    char c = HttpTokens.sanitizeFieldVchar((char)sym);
+                    symbols |= (c & 0xFF) << (8 * count++);
+                    node = 0;
+                }
+                int entry = failed ? DECODE_FAILED : node | symbols << 8 | count << DECODE_COUNT_SHIFT;
+                if (!failed && accepting[node])
+                {
+                    entry |= DECODE_ACCEPTING;
+                }
+                else if (!failed)
+                {
+                    int padding = (1 << (depths[node] % 8)) - 1;
+                    if ((paths[node] & padding) == padding)
+                        entry |= DECODE_BAD_TERMINATION;
+                }
+                DECODE[state << 8 | octet] = entry;
             }
         }
     }
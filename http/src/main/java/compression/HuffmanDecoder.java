@@ -14,27 +14,33 @@
 package ab.eazy.http.compression;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
-import ab.eazy.http.HttpTokens;
-import ab.eazy.util.CharsetStringBuilder;
-
-import static ab.eazy.http.compression.Huffman.rowbits;
-import static ab.eazy.http.compression.Huffman.rowsym;
+import static ab.eazy.http.compression.Huffman.DECODE;
+import static ab.eazy.http.compression.Huffman.DECODE_ACCEPTING;
+import static ab.eazy.http.compression.Huffman.DECODE_BAD_TERMINATION;
+import static ab.eazy.http.compression.Huffman.DECODE_COUNT_SHIFT;
+import static ab.eazy.http.compression.Huffman.DECODE_FAILED;
 
 /**
  * <p>Used to decoded Huffman encoded strings.</p>
  *
  * <p>Characters which are illegal field-vchar values are replaced with
  * either ' ' or '?' as described in RFC9110</p>
+ *
+ * <p>Decoding is driven by the {@link Huffman#DECODE} state machine, that consumes one
+ * octet per lookup and yields up to 2 already sanitized symbols, which are written to
+ * a byte array reused across strings, that is converted to a ISO-8859-1 String in bulk.</p>
  */
 public class HuffmanDecoder
 {
-    private final CharsetStringBuilder.Iso88591StringBuilder _builder = new CharsetStringBuilder.Iso88591StringBuilder();
+    private byte[] _bytes = new byte[64];
+    private int _size = 0;
     private int _length = 0;
     private int _count = 0;
-    private int _node = 0;
-    private int _current = 0;
-    private int _bits = 0;
+    // The last entry of the state machine, starting at the (accepting) root.
+    private int _entry = DECODE_ACCEPTING;
 
     /**
      * Set in bytes of the huffman data..
@@ -49,91 +55,57 @@ public class HuffmanDecoder
 
     /**
      * @param buffer the buffer containing the Huffman encoded bytes.
-     * @return the decoded String.
+     * @return the decoded String, or null if more bytes are needed.
      * @throws EncodingException if the huffman encoding is invalid.
      */
     public String decode(ByteBuffer buffer) throws EncodingException
     {
-        for (; _count < _length; _count++)
+        int octets = Math.min(_length - _count, buffer.remaining());
+        // Each octet yields at most 2 symbols; they are always
+        // both written, so the array has room for 2 per octet.
+        int capacity = _size + 2 * octets;
+        if (capacity > _bytes.length)
+            _bytes = Arrays.copyOf(_bytes, Math.max(capacity, 2 * _bytes.length));
+
+        byte[] bytes = _bytes;
+        int size = _size;
+        int entry = _entry;
+        int position = buffer.position();
+        for (int i = 0; i < octets; i++)
         {
-            if (!buffer.hasRemaining())
-                return null;
-
-            int b = buffer.get() & 0xFF;
-            _current = (_current << 8) | b;
-            _bits += 8;
-            while (_bits >= 8)
+            entry = DECODE[(entry & 0xFF) << 8 | buffer.get(position + i) & 0xFF];
+            bytes[size] = (byte)(entry >>> 8);
+            bytes[size + 1] = (byte)(entry >>> 16);
+            size += (entry >>> DECODE_COUNT_SHIFT) & 0x3;
+            if ((entry & DECODE_FAILED) != 0)
             {
-                int i = (_current >>> (_bits - 8)) & 0xFF;
-                _node = Huffman.tree[_node * 256 + i];
-                if (rowbits[_node] != 0)
-                {
-                    if (rowsym[_node] == Huffman.EOS)
-                    {
-                        reset();
-                        throw new EncodingException("eos_in_content");
-                    }
-
-                    // terminal node
-                    char c = rowsym[_node];
-                    c = HttpTokens.sanitizeFieldVchar(c);
-                    _builder.append((byte)c);
-                    _bits -= rowbits[_node];
-                    _node = 0;
-                }
-                else
-                {
-                    // non-terminal node
-                    _bits -= 8;
-                }
+                reset();
+                throw new EncodingException("eos_in_content");
             }
         }
+        buffer.position(position + octets);
+        _count += octets;
+        _size = size;
+        _entry = entry;
 
-        while (_bits > 0)
-        {
-            int i = (_current << (8 - _bits)) & 0xFF;
-            int lastNode = _node;
-            _node = Huffman.tree[_node * 256 + i];
-
-            if (rowbits[_node] == 0 || rowbits[_node] > _bits)
-            {
-                int requiredPadding = 0;
-                for (int j = 0; j < _bits; j++)
-                {
-                    requiredPadding = (requiredPadding << 1) | 1;
-                }
-
-                if ((i >> (8 - _bits)) != requiredPadding)
-                    throw new EncodingException("incorrect_padding");
-
-                _node = lastNode;
-                break;
-            }
-
-            char c = rowsym[_node];
-            c = HttpTokens.sanitizeFieldVchar(c);
-            _builder.append((byte)c);
-            _bits -= rowbits[_node];
-            _node = 0;
-        }
+        if (_count < _length)
+            return null;
 
-        if (_node != 0)
+        if ((entry & DECODE_ACCEPTING) == 0)
         {
             reset();
-            throw new EncodingException("bad_termination");
+            throw new EncodingException((entry & DECODE_BAD_TERMINATION) != 0 ? "bad_termination" : "incorrect_padding");
         }
 
-        String value = _builder.build();
+        String value = new String(bytes, 0, size, StandardCharsets.ISO_8859_1);
         reset();
         return value;
     }
 
     public void reset()
     {
-        _builder.reset();
+        _size = 0;
         _count = 0;
-        _current = 0;
-        _node = 0;
-        _bits = 0;
+        _entry = DECODE_ACCEPTING;
     }
 }
@@ -14,6 +14,7 @@
 package ab.eazy.http.compression;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import ab.eazy.http.HttpTokens;
 
@@ -99,12 +100,16 @@ public class HuffmanEncoder
     }
 
     /**
+     * <p>Encodes the string accumulating the codes in a long, that is
+     * flushed to the buffer 32 bits at a time, rather than octet by octet.</p>
+     *
      * @param table The table to encode by
      * @param buffer The buffer to encode to
      * @param s The string to encode
      */
     private static void encode(final int[][] table, ByteBuffer buffer, String s)
     {
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
         long current = 0;
         int n = 0;
         int len = s.length();
@@ -113,20 +118,27 @@ public class HuffmanEncoder
             char c = s.charAt(i);
             if (HttpTokens.isIllegalFieldVchar(c))
                  throw new IllegalArgumentException();
-            int code = table[c][0];
-            int bits = table[c][1];
+            int[] entry = table[c];
+            int bits = entry[1];
 
-            current <<= bits;
-            current |= code;
+            // At most 31 pending bits plus a 30 bits code fit in the long.
+            current = (current << bits) | entry[0];
             n += bits;
 
-            while (n >= 8)
+            if (n >= 32)
             {
-                n -= 8;
-                buffer.put((byte)(current >> n));
+                n -= 32;
+                int word = (int)(current >>> n);
+                buffer.putInt(bigEndian ? word : Integer.reverseBytes(word));
             }
         }
 
+        while (n >= 8)
+        {
+            n -= 8;
+            buffer.put((byte)(current >> n));
+        }
+
         if (n > 0)
         {
             current <<= (8 - n);
@@ -16,6 +16,7 @@ package ab.eazy.http.content;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -307,6 +308,8 @@ public class CachingHttpContentFactory implements HttpContent.Factory
         private final HttpField _contentLength;
         private final Instant _lastModifiedInstant;
         private final HttpField _lastModified;
+        private final HttpField _contentType;
+        private final HttpField _contentEncoding;
         private final long _bytesOccupied;
         private final boolean _isValid;
         private final Retainable.ReferenceCounter _referenceCount = new Retainable.ReferenceCounter();
@@ -317,13 +320,21 @@ public class CachingHttpContentFactory implements HttpContent.Factory
             _cacheKey = key;
 
             // TODO: do all the following lazily and asynchronously.
+            // The fields that ResourceService puts on every response are pre encoded
+            // in a single block, in the order they are put, so they are generated with one copy.
             HttpField etagField = httpContent.getETag();
             String eTagValue = httpContent.getETagValue();
             if (StringUtil.isNotBlank(eTagValue))
-            {
-                etagField = new PreEncodedHttpField(HttpHeader.ETAG, eTagValue);
-            }
-            _etagField = etagField;
+                etagField = new HttpField(HttpHeader.ETAG, eTagValue);
+            HttpField lastModified = httpContent.getLastModified();
+            HttpField contentType = httpContent.getContentType();
+            HttpField contentEncoding = httpContent.getContentEncoding();
+            List<PreEncodedHttpField> block = PreEncodedHttpField.newBlock(lastModified, contentType, contentEncoding, etagField);
+            int field = 0;
+            _lastModified = lastModified == null ? null : block.get(field++);
+            _contentType = contentType == null ? null : block.get(field++);
+            _contentEncoding = contentEncoding == null ? null : block.get(field++);
+            _etagField = etagField == null ? null : block.get(field);
             _contentLengthValue = httpContent.getContentLengthValue();
             boolean isValid = true;
 
@@ -363,7 +374,6 @@ public class CachingHttpContentFactory implements HttpContent.Factory
             _mimeType = httpContent.getMimeType();
             _contentLength = httpContent.getContentLength();
             _lastModifiedInstant = httpContent.getLastModifiedInstant();
-            _lastModified = httpContent.getLastModified();
             _lastAccessed = NanoTime.now();
         }
 
@@ -444,6 +454,18 @@ public class CachingHttpContentFactory implements HttpContent.Factory
             return _characterEncoding;
         }
 
+        @Override
+        public HttpField getContentType()
+        {
+            return _contentType;
+        }
+
+        @Override
+        public HttpField getContentEncoding()
+        {
+            return _contentEncoding;
+        }
+
         @Override
         public MimeTypes.Type getMimeType()
         {
@@ -0,0 +1,374 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.content;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import ab.eazy.http.EtagUtils;
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.PreEncodedHttpField;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * {@link HttpContent.Factory} that replaces the weak etag of file based {@link HttpContent}
+ * with a strong etag computed from a digest of the file bytes.
+ * </p>
+ * <p>
+ * Digests are computed asynchronously on the given {@link Executor}: until the digest of the
+ * current version of a file is known, the wrapped content is returned unchanged, with its weak etag.
+ * A digest is only valid for the last modified time and size it was computed for, so a changed file
+ * is hashed again, while a {@code touch} that leaves the content intact still results in the same etag.
+ * </p>
+ * <p>
+ * If an index file is configured, every computed digest is appended to it and the index is loaded
+ * back at construction, so that a restart does not need to hash the content again.
+ * The index is an append only log; {@link #compact()} rewrites it with only the current entries.
+ * Files are recorded by their {@code file:} URI, whose escaping keeps paths with spaces or
+ * line breaks on one line.
+ * </p>
+ */
+public class DigestEtagHttpContentFactory implements HttpContent.Factory
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DigestEtagHttpContentFactory.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final Map<Path, Digest> _digests = new ConcurrentHashMap<>();
+    private final Set<Path> _pending = ConcurrentHashMap.newKeySet();
+    private final HttpContent.Factory _factory;
+    private final Executor _executor;
+    private final Path _indexFile;
+    private final String _algorithm;
+
+    /**
+     * @param factory the wrapped {@link HttpContent.Factory}
+     * @param executor the executor on which digests are computed
+     * @param indexFile the file where the digests are persisted, or null to keep them in memory only
+     */
+    public DigestEtagHttpContentFactory(HttpContent.Factory factory, Executor executor, Path indexFile)
+    {
+        this(factory, executor, indexFile, "SHA-256");
+    }
+
+    /**
+     * @param factory the wrapped {@link HttpContent.Factory}
+     * @param executor the executor on which digests are computed
+     * @param indexFile the file where the digests are persisted, or null to keep them in memory only
+     * @param algorithm the {@link MessageDigest} algorithm
+     */
+    public DigestEtagHttpContentFactory(HttpContent.Factory factory, Executor executor, Path indexFile, String algorithm)
+    {
+        _factory = factory;
+        _executor = executor;
+        _indexFile = indexFile;
+        _algorithm = algorithm;
+        try
+        {
+            MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException x)
+        {
+            throw new IllegalArgumentException(x);
+        }
+        load();
+    }
+
+    public String getAlgorithm()
+    {
+        return _algorithm;
+    }
+
+    public Path getIndexFile()
+    {
+        return _indexFile;
+    }
+
+    /**
+     * @return the number of files with a known digest
+     */
+    public int getDigestCount()
+    {
+        return _digests.size();
+    }
+
+    @Override
+    public HttpContent getContent(String path) throws IOException
+    {
+        HttpContent content = _factory.getContent(path);
+        if (content == null || content.getResource() == null)
+            return content;
+
+        Path resourcePath = content.getResource().getPath();
+        if (resourcePath == null || content.getResource().isDirectory())
+            return content;
+        // Digests are keyed by absolute path, as they are in the index file.
+        Path file = resourcePath.toAbsolutePath();
+
+        Instant lastModified = content.getLastModifiedInstant();
+        long size = content.getContentLengthValue();
+        if (lastModified == null || size < 0)
+            return content;
+
+        long lastModifiedMillis = lastModified.toEpochMilli();
+        Digest digest = _digests.get(file);
+        if (digest != null && digest.lastModified == lastModifiedMillis && digest.size == size)
+            return digest.wrap(content);
+
+        if (_pending.add(file))
+        {
+            try
+            {
+                _executor.execute(() -> digest(file, lastModifiedMillis, size));
+            }
+            catch (RuntimeException x)
+            {
+                // The digest is attempted again by a later request.
+                _pending.remove(file);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Failed to schedule digest of {}", file, x);
+            }
+        }
+        return content;
+    }
+
+    private void digest(Path file, long lastModified, long size)
+    {
+        try
+        {
+            MessageDigest messageDigest = MessageDigest.getInstance(_algorithm);
+            byte[] buffer = new byte[8192];
+            try (InputStream in = Files.newInputStream(file))
+            {
+                int len;
+                while ((len = in.read(buffer)) >= 0)
+                {
+                    messageDigest.update(buffer, 0, len);
+                }
+            }
+
+            // The file may have changed while being read.
+            if (Files.getLastModifiedTime(file).toMillis() != lastModified || Files.size(file) != size)
+                return;
+
+            Digest digest = new Digest(lastModified, size, EtagUtils.computeStrongEtag(messageDigest.digest(), null));
+            _digests.put(file, digest);
+            append(file, digest);
+        }
+        catch (Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Failed to digest {}", file, x);
+        }
+        finally
+        {
+            _pending.remove(file);
+        }
+    }
+
+    private void load()
+    {
+        if (_indexFile == null || !Files.exists(_indexFile))
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(_indexFile, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                // <etag> <lastModified> <size> <file URI>
+                String[] parts = line.split(" ", 4);
+                if (parts.length != 4)
+                    continue;
+                try
+                {
+                    _digests.put(Paths.get(URI.create(parts[3])), new Digest(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0]));
+                }
+                catch (RuntimeException x)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Ignoring invalid digest index entry {}", line, x);
+                }
+            }
+        }
+        catch (IOException x)
+        {
+            LOG.warn("Failed to load digest index {}", _indexFile, x);
+        }
+    }
+
+    private void append(Path file, Digest digest)
+    {
+        if (_indexFile == null)
+            return;
+
+        try (AutoLock ignored = _lock.lock())
+        {
+            Files.writeString(_indexFile, digest.toLine(file), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        catch (IOException x)
+        {
+            LOG.warn("Failed to update digest index {}", _indexFile, x);
+        }
+    }
+
+    /**
+     * <p>Rewrite the index file with only the latest digest of each file, dropping
+     * the entries of files that no longer exist or that changed since they were hashed.</p>
+     *
+     * @throws IOException if the index cannot be written
+     */
+    public void compact() throws IOException
+    {
+        _digests.entrySet().removeIf(entry ->
+        {
+            Path file = entry.getKey();
+            Digest digest = entry.getValue();
+            try
+            {
+                return Files.getLastModifiedTime(file).toMillis() != digest.lastModified || Files.size(file) != digest.size;
+            }
+            catch (IOException x)
+            {
+                return true;
+            }
+        });
+
+        if (_indexFile == null)
+            return;
+
+        try (AutoLock ignored = _lock.lock())
+        {
+            StringBuilder builder = new StringBuilder();
+            _digests.forEach((file, digest) -> builder.append(digest.toLine(file)));
+            Path tmp = _indexFile.resolveSibling(_indexFile.getFileName() + ".tmp");
+            Files.writeString(tmp, builder, StandardCharsets.UTF_8);
+            Files.move(tmp, _indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "%s@%x[%s,%s,%s]".formatted(getClass().getSimpleName(), hashCode(), _factory, _algorithm, _indexFile);
+    }
+
+    private static class Digest
+    {
+        private final long lastModified;
+        private final long size;
+        private final String etag;
+        private volatile StrongEtagHttpContent _content;
+
+        private Digest(long lastModified, long size, String etag)
+        {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.etag = etag;
+        }
+
+        /**
+         * <p>Wraps the content with the strong etag, reusing the last wrapper as long as the
+         * wrapped factory returns the same content, as a caching factory does.</p>
+         */
+        private HttpContent wrap(HttpContent content)
+        {
+            StrongEtagHttpContent strong = _content;
+            if (strong == null || strong.getWrapped() != content)
+            {
+                strong = new StrongEtagHttpContent(content, etag);
+                _content = strong;
+            }
+            return strong;
+        }
+
+        private String toLine(Path file)
+        {
+            return etag + ' ' + lastModified + ' ' + size + ' ' + file.toUri() + '\n';
+        }
+    }
+
+    private static class StrongEtagHttpContent extends HttpContent.Wrapper
+    {
+        private final HttpField _lastModified;
+        private final HttpField _contentType;
+        private final HttpField _contentEncoding;
+        private final HttpField _etag;
+
+        public StrongEtagHttpContent(HttpContent content, String etag)
+        {
+            super(content);
+            // The etag is pre encoded in one block with the other fields that ResourceService puts, as cached content does.
+            HttpField lastModified = content.getLastModified();
+            HttpField contentType = content.getContentType();
+            HttpField contentEncoding = content.getContentEncoding();
+            List<PreEncodedHttpField> block = PreEncodedHttpField.newBlock(lastModified, contentType, contentEncoding, new HttpField(HttpHeader.ETAG, etag));
+            int field = 0;
+            _lastModified = lastModified == null ? null : block.get(field++);
+            _contentType = contentType == null ? null : block.get(field++);
+            _contentEncoding = contentEncoding == null ? null : block.get(field++);
+            _etag = block.get(field);
+        }
+
+        @Override
+        public HttpField getLastModified()
+        {
+            return _lastModified;
+        }
+
+        @Override
+        public HttpField getContentType()
+        {
+            return _contentType;
+        }
+
+        @Override
+        public HttpField getContentEncoding()
+        {
+            return _contentEncoding;
+        }
+
+        @Override
+        public HttpField getETag()
+        {
+            return _etag;
+        }
+
+        @Override
+        public String getETagValue()
+        {
+            return _etag.getValue();
+        }
+    }
+}
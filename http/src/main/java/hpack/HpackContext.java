@@ -0,0 +1,363 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.hpack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The HPACK indexing tables: the static table of RFC 7541, Appendix A,
+ * and a dynamic table of bounded size.</p>
+ * <p>Entries are addressed by the index space of RFC 7541, section 2.3.3:
+ * indexes from 1 to {@link #STATIC_SIZE} address the static table, and the
+ * following indexes address the dynamic table, most recently added first.
+ * Adding an entry to the dynamic table evicts the oldest entries, until the
+ * table fits its maximum size.</p>
+ * <p>Instances are not thread safe; each direction of a connection uses its own context.</p>
+ */
+public class HpackContext
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HpackContext.class);
+
+    /**
+     * The number of entries of the static table.
+     */
+    public static final int STATIC_SIZE = 61;
+
+    /**
+     * The per entry overhead in bytes, used to compute the size of the dynamic table.
+     */
+    public static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * The default maximum size in bytes of the dynamic table.
+     */
+    public static final int DEFAULT_MAX_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE =
+        {
+            {null, null},
+            /* 1  */ {":authority", null},
+            /* 2  */ {":method", "GET"},
+            /* 3  */ {":method", "POST"},
+            /* 4  */ {":path", "/"},
+            /* 5  */ {":path", "/index.html"},
+            /* 6  */ {":scheme", "http"},
+            /* 7  */ {":scheme", "https"},
+            /* 8  */ {":status", "200"},
+            /* 9  */ {":status", "204"},
+            /* 10 */ {":status", "206"},
+            /* 11 */ {":status", "304"},
+            /* 12 */ {":status", "400"},
+            /* 13 */ {":status", "404"},
+            /* 14 */ {":status", "500"},
+            /* 15 */ {"accept-charset", null},
+            /* 16 */ {"accept-encoding", "gzip, deflate"},
+            /* 17 */ {"accept-language", null},
+            /* 18 */ {"accept-ranges", null},
+            /* 19 */ {"accept", null},
+            /* 20 */ {"access-control-allow-origin", null},
+            /* 21 */ {"age", null},
+            /* 22 */ {"allow", null},
+            /* 23 */ {"authorization", null},
+            /* 24 */ {"cache-control", null},
+            /* 25 */ {"content-disposition", null},
+            /* 26 */ {"content-encoding", null},
+            /* 27 */ {"content-language", null},
+            /* 28 */ {"content-length", null},
+            /* 29 */ {"content-location", null},
+            /* 30 */ {"content-range", null},
+            /* 31 */ {"content-type", null},
+            /* 32 */ {"cookie", null},
+            /* 33 */ {"date", null},
+            /* 34 */ {"etag", null},
+            /* 35 */ {"expect", null},
+            /* 36 */ {"expires", null},
+            /* 37 */ {"from", null},
+            /* 38 */ {"host", null},
+            /* 39 */ {"if-match", null},
+            /* 40 */ {"if-modified-since", null},
+            /* 41 */ {"if-none-match", null},
+            /* 42 */ {"if-range", null},
+            /* 43 */ {"if-unmodified-since", null},
+            /* 44 */ {"last-modified", null},
+            /* 45 */ {"link", null},
+            /* 46 */ {"location", null},
+            /* 47 */ {"max-forwards", null},
+            /* 48 */ {"proxy-authenticate", null},
+            /* 49 */ {"proxy-authorization", null},
+            /* 50 */ {"range", null},
+            /* 51 */ {"referer", null},
+            /* 52 */ {"refresh", null},
+            /* 53 */ {"retry-after", null},
+            /* 54 */ {"server", null},
+            /* 55 */ {"set-cookie", null},
+            /* 56 */ {"strict-transport-security", null},
+            /* 57 */ {"transfer-encoding", null},
+            /* 58 */ {"user-agent", null},
+            /* 59 */ {"vary", null},
+            /* 60 */ {"via", null},
+            /* 61 */ {"www-authenticate", null}
+        };
+
+    private static final Entry[] STATIC_ENTRIES = new Entry[STATIC_SIZE + 1];
+    private static final Map<HttpField, Entry> STATIC_FIELD_MAP = new HashMap<>();
+    private static final Map<String, Entry> STATIC_NAME_MAP = new HashMap<>();
+
+    static
+    {
+        for (int i = 1; i <= STATIC_SIZE; i++)
+        {
+            String name = STATIC_TABLE[i][0];
+            String value = STATIC_TABLE[i][1];
+            Entry entry = new Entry(new HttpField(name, value == null ? "" : value), i);
+            STATIC_ENTRIES[i] = entry;
+            if (value != null)
+                STATIC_FIELD_MAP.put(entry.getHttpField(), entry);
+            STATIC_NAME_MAP.putIfAbsent(name, entry);
+        }
+    }
+
+    private final Map<HttpField, Entry> _fieldMap = new HashMap<>();
+    private final Map<String, Entry> _nameMap = new HashMap<>();
+    private Entry[] _entries = new Entry[16];
+    // The slot of the oldest entry, and the number of entries.
+    private int _offset;
+    private int _size;
+    // The number of entries ever added, that numbers the dynamic entries.
+    private long _added;
+    private int _tableSize;
+    private int _maxTableSize;
+
+    public HpackContext(int maxTableSize)
+    {
+        _maxTableSize = maxTableSize;
+    }
+
+    /**
+     * @return the maximum size in bytes of the dynamic table
+     */
+    public int getMaxTableSize()
+    {
+        return _maxTableSize;
+    }
+
+    /**
+     * @return the current size in bytes of the dynamic table
+     */
+    public int getTableSize()
+    {
+        return _tableSize;
+    }
+
+    /**
+     * @return the number of entries of the dynamic table
+     */
+    public int getDynamicEntries()
+    {
+        return _size;
+    }
+
+    /**
+     * <p>Changes the maximum size of the dynamic table, evicting entries as needed.</p>
+     *
+     * @param maxTableSize the new maximum size in bytes
+     */
+    public void resize(int maxTableSize)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Resize {}->{} {}", _maxTableSize, maxTableSize, this);
+        _maxTableSize = maxTableSize;
+        evict(0);
+    }
+
+    /**
+     * @param index an index of the HPACK index space
+     * @return the entry at the given index, or {@code null} if there is no such entry
+     */
+    public Entry get(int index)
+    {
+        if (index <= 0)
+            return null;
+        if (index <= STATIC_SIZE)
+            return STATIC_ENTRIES[index];
+        int dynamic = index - STATIC_SIZE - 1;
+        if (dynamic >= _size)
+            return null;
+        return _entries[(_offset + _size - 1 - dynamic) % _entries.length];
+    }
+
+    /**
+     * @param field a header field
+     * @return the entry with the same name and value, preferring the static table, or {@code null}
+     */
+    public Entry get(HttpField field)
+    {
+        Entry entry = STATIC_FIELD_MAP.get(field);
+        return entry != null ? entry : _fieldMap.get(field);
+    }
+
+    /**
+     * @param lowerCaseName a lower case header name
+     * @return an entry with the same name, preferring the static table, or {@code null}
+     */
+    public Entry get(String lowerCaseName)
+    {
+        Entry entry = STATIC_NAME_MAP.get(lowerCaseName);
+        return entry != null ? entry : _nameMap.get(lowerCaseName);
+    }
+
+    /**
+     * @param entry an entry of this context
+     * @return the index of the entry in the HPACK index space
+     */
+    public int index(Entry entry)
+    {
+        if (entry.isStatic())
+            return (int)entry._slot;
+        return STATIC_SIZE + 1 + (int)(_added - 1 - entry._slot);
+    }
+
+    /**
+     * <p>Adds a field to the dynamic table, evicting the oldest entries to make room.</p>
+     *
+     * @param field the field to add
+     * @return the new entry, or {@code null} if the field is larger than the table,
+     * in which case the table is emptied as required by RFC 7541, section 4.4
+     */
+    public Entry add(HttpField field)
+    {
+        int size = entrySize(field);
+        if (size > _maxTableSize)
+        {
+            evict(_maxTableSize);
+            return null;
+        }
+        evict(size);
+
+        Entry entry = new Entry(field, _added++);
+        if (_size == _entries.length)
+        {
+            Entry[] entries = new Entry[_entries.length * 2];
+            for (int i = 0; i < _size; i++)
+            {
+                entries[i] = _entries[(_offset + i) % _entries.length];
+            }
+            _entries = entries;
+            _offset = 0;
+        }
+        _entries[(_offset + _size) % _entries.length] = entry;
+        _size++;
+        _tableSize += size;
+        _fieldMap.put(field, entry);
+        _nameMap.put(entry.getLowerCaseName(), entry);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Added {} {}", entry, this);
+        return entry;
+    }
+
+    private void evict(int room)
+    {
+        while (_size > 0 && _tableSize + room > _maxTableSize)
+        {
+            Entry entry = _entries[_offset];
+            _entries[_offset] = null;
+            _offset = (_offset + 1) % _entries.length;
+            _size--;
+            _tableSize -= entrySize(entry.getHttpField());
+            // Only unmap the entry if it was not replaced by a more recent one.
+            _fieldMap.remove(entry.getHttpField(), entry);
+            _nameMap.remove(entry.getLowerCaseName(), entry);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Evicted {} {}", entry, this);
+        }
+    }
+
+    /**
+     * @param field a header field
+     * @return the size in bytes the field would take in the dynamic table
+     */
+    public static int entrySize(HttpField field)
+    {
+        return field.getName().length() + field.getValue().length() + ENTRY_OVERHEAD;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{entries=%d,size=%d,max=%d}", getClass().getSimpleName(), hashCode(), _size, _tableSize, _maxTableSize);
+    }
+
+    /**
+     * <p>An entry of the static or dynamic table.</p>
+     */
+    public static class Entry
+    {
+        private final HttpField _field;
+        private final String _lowerCaseName;
+        // The static index, or the insertion number of a dynamic entry.
+        private final long _slot;
+        private final boolean _static;
+
+        private Entry(HttpField field, int index)
+        {
+            _field = field;
+            _lowerCaseName = field.getName();
+            _slot = index;
+            _static = true;
+        }
+
+        private Entry(HttpField field, long added)
+        {
+            _field = field;
+            _lowerCaseName = StringUtil.asciiToLowerCase(field.getName());
+            _slot = added;
+            _static = false;
+        }
+
+        public HttpField getHttpField()
+        {
+            return _field;
+        }
+
+        String getLowerCaseName()
+        {
+            return _lowerCaseName;
+        }
+
+        public boolean isStatic()
+        {
+            return _static;
+        }
+
+        /**
+         * @return whether this static entry has a value, rather than only a name
+         */
+        public boolean hasStaticValue()
+        {
+            return _static && STATIC_TABLE[(int)_slot][1] != null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s{%s,%d,%s}", getClass().getSimpleName(), _static ? "S" : "D", _slot, _field);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.hpack;
+
+import java.nio.ByteBuffer;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.http.MetaData;
+import ab.eazy.http.compression.EncodingException;
+import ab.eazy.http.compression.NBitIntegerDecoder;
+import ab.eazy.http.compression.NBitStringDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Decodes HPACK header blocks, as defined by RFC 7541, into {@link MetaData}.</p>
+ * <p>A header block must be decoded whole, after all its {@code HEADERS} and {@code CONTINUATION}
+ * frames have been received, and all the header blocks of a connection must be decoded in order,
+ * even those of streams that are going to be refused, because they update the dynamic table.</p>
+ */
+public class HpackDecoder
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HpackDecoder.class);
+
+    private final HpackContext _context;
+    private final MetaDataBuilder _builder;
+    private final NBitIntegerDecoder _integerDecoder = new NBitIntegerDecoder();
+    private final NBitStringDecoder _stringDecoder = new NBitStringDecoder();
+    private int _maxTableCapacity;
+
+    /**
+     * @param maxHeaderListSize the maximum size of a decoded header list, or a non-positive value for no limit
+     */
+    public HpackDecoder(int maxHeaderListSize)
+    {
+        _context = new HpackContext(HpackContext.DEFAULT_MAX_TABLE_SIZE);
+        _builder = new MetaDataBuilder(maxHeaderListSize);
+        _maxTableCapacity = HpackContext.DEFAULT_MAX_TABLE_SIZE;
+    }
+
+    public HpackContext getHpackContext()
+    {
+        return _context;
+    }
+
+    /**
+     * @return the maximum size of the dynamic table that the encoder may use,
+     * as advertised with {@code SETTINGS_HEADER_TABLE_SIZE}
+     */
+    public int getMaxTableCapacity()
+    {
+        return _maxTableCapacity;
+    }
+
+    public void setMaxTableCapacity(int maxTableCapacity)
+    {
+        _maxTableCapacity = maxTableCapacity;
+    }
+
+    /**
+     * <p>Decodes a whole header block.</p>
+     *
+     * @param buffer the header block
+     * @return the decoded metadata
+     * @throws HpackException.SessionException if the header block cannot be decoded
+     * @throws HpackException.StreamException if the header block is not a valid HTTP message
+     */
+    public MetaData decode(ByteBuffer buffer) throws HpackException.SessionException, HpackException.StreamException
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Decoding {} bytes {}", buffer.remaining(), _context);
+        try
+        {
+            boolean emitted = false;
+            while (buffer.hasRemaining())
+            {
+                int b = buffer.get(buffer.position()) & 0xFF;
+                if ((b & 0x80) != 0)
+                {
+                    // Indexed field, RFC 7541, section 6.1.
+                    int index = decodeInt(buffer, 7);
+                    HpackContext.Entry entry = _context.get(index);
+                    if (entry == null)
+                        throw new HpackException.CompressionException("Unknown index %d", index);
+                    _builder.emit(entry.getHttpField());
+                    emitted = true;
+                }
+                else if ((b & 0x40) != 0)
+                {
+                    // Literal field with incremental indexing, RFC 7541, section 6.2.1.
+                    HttpField field = decodeLiteral(buffer, 6);
+                    _context.add(field);
+                    _builder.emit(field);
+                    emitted = true;
+                }
+                else if ((b & 0x20) != 0)
+                {
+                    // Dynamic table size update, RFC 7541, section 6.3.
+                    if (emitted)
+                        throw new HpackException.CompressionException("Dynamic table size update after fields");
+                    int size = decodeInt(buffer, 5);
+                    if (size > _maxTableCapacity)
+                        throw new HpackException.CompressionException("Dynamic table size %d > %d", size, _maxTableCapacity);
+                    _context.resize(size);
+                }
+                else
+                {
+                    // Literal field without indexing or never indexed, RFC 7541, sections 6.2.2 and 6.2.3.
+                    _builder.emit(decodeLiteral(buffer, 4));
+                    emitted = true;
+                }
+            }
+            return _builder.build();
+        }
+        catch (HpackException.SessionException x)
+        {
+            reset();
+            throw x;
+        }
+        catch (EncodingException | ArithmeticException x)
+        {
+            reset();
+            throw new HpackException.CompressionException("Invalid encoding: %s", x.getMessage());
+        }
+    }
+
+    private HttpField decodeLiteral(ByteBuffer buffer, int prefix) throws HpackException.SessionException, EncodingException
+    {
+        int nameIndex = decodeInt(buffer, prefix);
+        HttpField field;
+        if (nameIndex > 0)
+        {
+            HpackContext.Entry entry = _context.get(nameIndex);
+            if (entry == null)
+                throw new HpackException.CompressionException("Unknown name index %d", nameIndex);
+            HttpField named = entry.getHttpField();
+            field = new HttpField(named.getHeader(), named.getName(), decodeString(buffer));
+        }
+        else
+        {
+            String name = decodeString(buffer);
+            field = new HttpField(name, decodeString(buffer));
+        }
+        return field;
+    }
+
+    private int decodeInt(ByteBuffer buffer, int prefix) throws HpackException.SessionException
+    {
+        _integerDecoder.setPrefix(prefix);
+        int value = _integerDecoder.decodeInt(buffer);
+        if (value < 0)
+            throw new HpackException.CompressionException("Truncated integer");
+        return value;
+    }
+
+    private String decodeString(ByteBuffer buffer) throws HpackException.SessionException, EncodingException
+    {
+        if (!buffer.hasRemaining())
+            throw new HpackException.CompressionException("Truncated string");
+        _stringDecoder.setPrefix(8);
+        String value = _stringDecoder.decode(buffer);
+        if (value == null)
+            throw new HpackException.CompressionException("Truncated string");
+        return value;
+    }
+
+    private void reset()
+    {
+        _integerDecoder.reset();
+        _stringDecoder.reset();
+        try
+        {
+            // Discard the fields emitted so far.
+            _builder.build();
+        }
+        catch (HpackException.StreamException ignored)
+        {
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), _context);
+    }
+}
@@ -0,0 +1,242 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.hpack;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpURI;
+import ab.eazy.http.MetaData;
+import ab.eazy.http.compression.HuffmanEncoder;
+import ab.eazy.http.compression.NBitIntegerEncoder;
+import ab.eazy.http.compression.NBitStringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Encodes {@link MetaData} into HPACK header blocks, as defined by RFC 7541.</p>
+ * <p>Fields that are in the static or dynamic table are encoded as an index. Other fields
+ * are added to the dynamic table, unless their values are unlikely to be repeated, such as
+ * {@code content-length}, or are sensitive, such as {@code authorization}, which is never indexed.
+ * Strings are Huffman encoded when that is shorter. Connection-specific fields, that are not
+ * allowed in HTTP/2, are not encoded.</p>
+ * <p>The dynamic table size is the minimum of {@link #getMaxTableCapacity()} and the
+ * {@code SETTINGS_HEADER_TABLE_SIZE} of the remote peer; a change of size is signalled
+ * at the start of the next header block.</p>
+ */
+public class HpackEncoder
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HpackEncoder.class);
+    private static final EnumSet<HttpHeader> IGNORED = EnumSet.of(
+        HttpHeader.CONNECTION,
+        HttpHeader.KEEP_ALIVE,
+        HttpHeader.PROXY_CONNECTION,
+        HttpHeader.TRANSFER_ENCODING,
+        HttpHeader.UPGRADE,
+        HttpHeader.HTTP2_SETTINGS
+    );
+    private static final EnumSet<HttpHeader> DO_NOT_INDEX = EnumSet.of(
+        HttpHeader.C_PATH,
+        HttpHeader.CONTENT_LENGTH,
+        HttpHeader.CONTENT_RANGE,
+        HttpHeader.ETAG,
+        HttpHeader.IF_MODIFIED_SINCE,
+        HttpHeader.IF_UNMODIFIED_SINCE,
+        HttpHeader.IF_NONE_MATCH,
+        HttpHeader.IF_RANGE,
+        HttpHeader.IF_MATCH,
+        HttpHeader.LOCATION,
+        HttpHeader.RANGE,
+        HttpHeader.RETRY_AFTER,
+        HttpHeader.LAST_MODIFIED,
+        HttpHeader.SET_COOKIE,
+        HttpHeader.SET_COOKIE2
+    );
+    private static final EnumSet<HttpHeader> NEVER_INDEX = EnumSet.of(
+        HttpHeader.AUTHORIZATION,
+        HttpHeader.PROXY_AUTHORIZATION,
+        HttpHeader.COOKIE
+    );
+    private static final EnumSet<HttpHeader> DO_NOT_HUFFMAN = EnumSet.of(
+        HttpHeader.AUTHORIZATION,
+        HttpHeader.CONTENT_MD5,
+        HttpHeader.PROXY_AUTHENTICATE,
+        HttpHeader.PROXY_AUTHORIZATION
+    );
+
+    private final HpackContext _context;
+    private int _maxTableCapacity;
+    private int _remoteMaxTableSize = HpackContext.DEFAULT_MAX_TABLE_SIZE;
+    private boolean _resize;
+
+    public HpackEncoder()
+    {
+        this(HpackContext.DEFAULT_MAX_TABLE_SIZE);
+    }
+
+    /**
+     * @param maxTableCapacity the maximum size of the dynamic table, whatever the remote peer allows
+     */
+    public HpackEncoder(int maxTableCapacity)
+    {
+        _maxTableCapacity = maxTableCapacity;
+        _context = new HpackContext(Math.min(maxTableCapacity, _remoteMaxTableSize));
+        _resize = _context.getMaxTableSize() != HpackContext.DEFAULT_MAX_TABLE_SIZE;
+    }
+
+    public HpackContext getHpackContext()
+    {
+        return _context;
+    }
+
+    public int getMaxTableCapacity()
+    {
+        return _maxTableCapacity;
+    }
+
+    /**
+     * @param remoteMaxTableSize the {@code SETTINGS_HEADER_TABLE_SIZE} of the remote peer
+     */
+    public void setRemoteMaxTableSize(int remoteMaxTableSize)
+    {
+        _remoteMaxTableSize = remoteMaxTableSize;
+        if (Math.min(_maxTableCapacity, remoteMaxTableSize) != _context.getMaxTableSize())
+            _resize = true;
+    }
+
+    /**
+     * <p>Encodes a header block.</p>
+     *
+     * @param buffer the buffer to encode into, in fill mode
+     * @param metaData the metadata to encode
+     * @throws java.nio.BufferOverflowException if the buffer is too small for the header block
+     */
+    public void encode(ByteBuffer buffer, MetaData metaData)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Encoding {} {}", metaData, _context);
+
+        if (_resize)
+        {
+            _resize = false;
+            int size = Math.min(_maxTableCapacity, _remoteMaxTableSize);
+            _context.resize(size);
+            buffer.put((byte)0x20);
+            NBitIntegerEncoder.encode(buffer, 5, size);
+        }
+
+        if (metaData instanceof MetaData.Response response)
+        {
+            encode(buffer, new HttpField(HttpHeader.C_STATUS, Integer.toString(response.getStatus())));
+        }
+        else if (metaData instanceof MetaData.Request request)
+        {
+            HttpURI uri = request.getHttpURI();
+            encode(buffer, new HttpField(HttpHeader.C_METHOD, request.getMethod()));
+            if (uri.getScheme() != null)
+                encode(buffer, new HttpField(HttpHeader.C_SCHEME, uri.getScheme()));
+            if (uri.getAuthority() != null)
+                encode(buffer, new HttpField(HttpHeader.C_AUTHORITY, uri.getAuthority()));
+            if (uri.getPathQuery() != null)
+                encode(buffer, new HttpField(HttpHeader.C_PATH, uri.getPathQuery()));
+        }
+
+        HttpFields fields = metaData.getHttpFields();
+        if (fields != null)
+        {
+            for (HttpField field : fields)
+            {
+                HttpHeader header = field.getHeader();
+                if (header != null)
+                {
+                    if (IGNORED.contains(header))
+                        continue;
+                    if (header == HttpHeader.TE && !"trailers".equalsIgnoreCase(field.getValue()))
+                        continue;
+                }
+                encode(buffer, field);
+            }
+        }
+    }
+
+    private void encode(ByteBuffer buffer, HttpField field)
+    {
+        String value = field.getValue();
+        if (value == null)
+            value = "";
+
+        HpackContext.Entry entry = _context.get(field);
+        if (entry != null && (!entry.isStatic() || entry.hasStaticValue()))
+        {
+            // Indexed field, RFC 7541, section 6.1.
+            buffer.put((byte)0x80);
+            NBitIntegerEncoder.encode(buffer, 7, _context.index(entry));
+            return;
+        }
+
+        HttpHeader header = field.getHeader();
+        String name = field.getLowerCaseName();
+        boolean never = header != null && NEVER_INDEX.contains(header);
+        boolean index = !never && (header == null || !DO_NOT_INDEX.contains(header)) &&
+            HpackContext.entrySize(field) <= _context.getMaxTableSize() * 3 / 4;
+        int prefix;
+        if (index)
+        {
+            // Literal field with incremental indexing, RFC 7541, section 6.2.1.
+            buffer.put((byte)0x40);
+            prefix = 6;
+        }
+        else
+        {
+            // Literal field never indexed or without indexing, RFC 7541, sections 6.2.3 and 6.2.2.
+            buffer.put((byte)(never ? 0x10 : 0x00));
+            prefix = 4;
+        }
+
+        HpackContext.Entry named = _context.get(name);
+        if (named != null)
+        {
+            NBitIntegerEncoder.encode(buffer, prefix, _context.index(named));
+        }
+        else
+        {
+            NBitIntegerEncoder.encode(buffer, prefix, 0);
+            encodeString(buffer, name, true);
+        }
+        encodeString(buffer, value, header == null || !DO_NOT_HUFFMAN.contains(header));
+
+        if (index)
+            _context.add(field);
+    }
+
+    private static void encodeString(ByteBuffer buffer, String value, boolean huffman)
+    {
+        // Use the Huffman encoding only if it is shorter.
+        if (huffman)
+        {
+            int octets = HuffmanEncoder.octetsNeeded(value);
+            huffman = octets >= 0 && octets < value.length();
+        }
+        NBitStringEncoder.encode(buffer, 8, value, huffman);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), _context);
+    }
+}
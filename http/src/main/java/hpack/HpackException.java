@@ -0,0 +1,78 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.hpack;
+
+import ab.eazy.http.HttpStatus;
+
+/**
+ * <p>A failure to decode a HPACK header block.</p>
+ */
+public abstract class HpackException extends Exception
+{
+    HpackException(String messageFormat, Object... args)
+    {
+        super(String.format(messageFormat, args));
+    }
+
+    /**
+     * <p>A header block that could be decoded, so that the HPACK state is still consistent,
+     * but that is not a valid HTTP message; only the stream that carried it must be failed.</p>
+     */
+    public static class StreamException extends HpackException
+    {
+        private final int _status;
+
+        public StreamException(String messageFormat, Object... args)
+        {
+            this(HttpStatus.BAD_REQUEST_400, messageFormat, args);
+        }
+
+        public StreamException(int status, String messageFormat, Object... args)
+        {
+            super(messageFormat, args);
+            _status = status;
+        }
+
+        /**
+         * @return the HTTP status to respond with, if the stream can still be responded to
+         */
+        public int getStatus()
+        {
+            return _status;
+        }
+    }
+
+    /**
+     * <p>A header block that could not be decoded, so that the HPACK state may be
+     * inconsistent; the whole connection must be failed.</p>
+     */
+    public static class SessionException extends HpackException
+    {
+        public SessionException(String messageFormat, Object... args)
+        {
+            super(messageFormat, args);
+        }
+    }
+
+    /**
+     * <p>A header block with an invalid HPACK encoding.</p>
+     */
+    public static class CompressionException extends SessionException
+    {
+        public CompressionException(String messageFormat, Object... args)
+        {
+            super(messageFormat, args);
+        }
+    }
+}
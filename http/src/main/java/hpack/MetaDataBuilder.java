@@ -0,0 +1,343 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.hpack;
+
+import ab.eazy.http.HostPortHttpField;
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpMethod;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.http.HttpURI;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+
+/**
+ * <p>Builds the {@link MetaData} of a HTTP/2 header block from the fields decoded by a {@link HpackDecoder}.</p>
+ * <p>The fields are validated as required by RFC 9113, section 8.2 and 8.3: pseudo-header fields
+ * must precede the regular fields and must not be repeated, field names must be lower case, and
+ * connection-specific fields are not allowed. An invalid field does not stop the decoding of the
+ * header block, so that the HPACK state stays consistent, but fails the build of the metadata with
+ * a {@link HpackException.StreamException}.</p>
+ */
+public class MetaDataBuilder
+{
+    private final int _maxSize;
+    private HttpFields.Mutable _fields = HttpFields.build();
+    private int _size;
+    private int _status = -1;
+    private String _method;
+    private String _scheme;
+    private HostPortHttpField _authority;
+    private String _path;
+    private String _protocol;
+    private long _contentLength = -1;
+    private boolean _regular;
+    private HpackException.StreamException _failure;
+
+    /**
+     * @param maxSize the maximum size of the header list, as defined by
+     * {@code SETTINGS_MAX_HEADER_LIST_SIZE}, or a non-positive value for no limit
+     */
+    public MetaDataBuilder(int maxSize)
+    {
+        _maxSize = maxSize;
+    }
+
+    public int getMaxSize()
+    {
+        return _maxSize;
+    }
+
+    /**
+     * <p>Adds a decoded field to the metadata being built.</p>
+     *
+     * @param field the decoded field
+     */
+    public void emit(HttpField field)
+    {
+        String name = field.getName();
+        String value = field.getValue();
+        _size += name.length() + value.length() + HpackContext.ENTRY_OVERHEAD;
+        if (_maxSize > 0 && _size > _maxSize)
+        {
+            fail(HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE_431, "Header size %d > %d", _size, _maxSize);
+            return;
+        }
+
+        if (name.isEmpty())
+        {
+            fail("Empty field name");
+            return;
+        }
+
+        if (name.charAt(0) == ':')
+        {
+            emitPseudo(field, name, value);
+            return;
+        }
+
+        _regular = true;
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+            {
+                fail("Upper case field name %s", name);
+                return;
+            }
+        }
+
+        HttpHeader header = field.getHeader();
+        if (header != null)
+        {
+            switch (header)
+            {
+                case CONNECTION, KEEP_ALIVE, PROXY_CONNECTION, TRANSFER_ENCODING, UPGRADE ->
+                {
+                    fail("Connection specific field %s", name);
+                    return;
+                }
+                case TE ->
+                {
+                    if (!"trailers".equalsIgnoreCase(value.trim()))
+                    {
+                        fail("Invalid TE %s", value);
+                        return;
+                    }
+                }
+                case CONTENT_LENGTH ->
+                {
+                    long contentLength;
+                    try
+                    {
+                        contentLength = Long.parseLong(value.trim());
+                    }
+                    catch (NumberFormatException x)
+                    {
+                        fail("Invalid Content-Length %s", value);
+                        return;
+                    }
+                    if (contentLength < 0 || _contentLength >= 0 && _contentLength != contentLength)
+                    {
+                        fail("Invalid Content-Length %s", value);
+                        return;
+                    }
+                    _contentLength = contentLength;
+                }
+                default ->
+                {
+                }
+            }
+        }
+        _fields.add(field);
+    }
+
+    private void emitPseudo(HttpField field, String name, String value)
+    {
+        if (_regular)
+        {
+            fail("Pseudo header %s after fields", name);
+            return;
+        }
+
+        HttpHeader header = field.getHeader();
+        if (header == null || !header.isPseudo() && header != HttpHeader.C_PROTOCOL)
+        {
+            fail("Unknown pseudo header %s", name);
+            return;
+        }
+
+        switch (header)
+        {
+            case C_STATUS ->
+            {
+                if (_status >= 0)
+                {
+                    fail("Duplicate %s", name);
+                    return;
+                }
+                try
+                {
+                    _status = Integer.parseInt(value);
+                }
+                catch (NumberFormatException x)
+                {
+                    fail("Invalid %s %s", name, value);
+                }
+            }
+            case C_METHOD ->
+            {
+                if (_method != null)
+                {
+                    fail("Duplicate %s", name);
+                    return;
+                }
+                HttpMethod method = HttpMethod.CACHE.get(value);
+                _method = method == null ? value : method.asString();
+            }
+            case C_SCHEME ->
+            {
+                if (_scheme != null)
+                {
+                    fail("Duplicate %s", name);
+                    return;
+                }
+                _scheme = value;
+            }
+            case C_AUTHORITY ->
+            {
+                if (_authority != null)
+                {
+                    fail("Duplicate %s", name);
+                    return;
+                }
+                try
+                {
+                    _authority = field instanceof HostPortHttpField hostPort ? hostPort : new HostPortHttpField(value);
+                }
+                catch (Throwable x)
+                {
+                    fail("Invalid %s %s", name, value);
+                }
+            }
+            case C_PATH ->
+            {
+                if (_path != null)
+                {
+                    fail("Duplicate %s", name);
+                    return;
+                }
+                if (value.isEmpty())
+                {
+                    fail("Empty %s", name);
+                    return;
+                }
+                _path = value;
+            }
+            case C_PROTOCOL ->
+            {
+                _protocol = value;
+            }
+            default -> fail("Unknown pseudo header %s", name);
+        }
+    }
+
+    private void fail(String messageFormat, Object... args)
+    {
+        fail(HttpStatus.BAD_REQUEST_400, messageFormat, args);
+    }
+
+    private void fail(int status, String messageFormat, Object... args)
+    {
+        // Report the first failure only.
+        if (_failure == null)
+            _failure = new HpackException.StreamException(status, messageFormat, args);
+    }
+
+    /**
+     * <p>Builds the metadata from the fields emitted so far, and resets this builder.</p>
+     *
+     * @return a {@link MetaData.Request} if the header block has request pseudo-headers,
+     * a {@link MetaData.Response} if it has a {@code :status}, or a plain {@link MetaData}
+     * for a trailer block without pseudo-headers.
+     * @throws HpackException.StreamException if the header block is not a valid HTTP message
+     */
+    public MetaData build() throws HpackException.StreamException
+    {
+        try
+        {
+            if (_failure != null)
+                throw _failure;
+
+            HttpFields fields = _fields.asImmutable();
+            boolean request = _method != null || _scheme != null || _path != null || _authority != null || _protocol != null;
+            if (request && _status >= 0)
+                throw new HpackException.StreamException("Request and response pseudo headers");
+
+            if (request)
+            {
+                if (_method == null)
+                    throw new HpackException.StreamException("No :method");
+
+                if (HttpMethod.CONNECT.is(_method) && _protocol == null)
+                {
+                    // A CONNECT request only has an authority, see RFC 9113, section 8.5.
+                    if (_authority == null || _scheme != null || _path != null)
+                        throw new HpackException.StreamException("Invalid CONNECT");
+                    return new MetaData.Request(_method, HttpURI.build().host(_authority.getHost()).port(_authority.getPort()), HttpVersion.HTTP_2, fields, _contentLength);
+                }
+
+                if (_scheme == null)
+                    throw new HpackException.StreamException("No :scheme");
+                if (_path == null)
+                    throw new HpackException.StreamException("No :path");
+
+                HostPortHttpField authority = _authority;
+                if (authority == null)
+                {
+                    String host = fields.get(HttpHeader.HOST);
+                    if (host != null)
+                    {
+                        try
+                        {
+                            authority = new HostPortHttpField(host);
+                        }
+                        catch (Throwable x)
+                        {
+                            throw new HpackException.StreamException("Invalid Host %s", host);
+                        }
+                    }
+                }
+
+                if (_protocol != null)
+                    return new MetaData.ConnectRequest(_scheme, authority, _path, fields, _protocol);
+
+                HttpURI.Mutable uri = HttpURI.build().scheme(_scheme);
+                if (authority != null)
+                    uri.host(authority.getHost()).port(authority.getPort());
+                // The asterisk form is only allowed for OPTIONS, see RFC 9113, section 8.3.1.
+                if ("*".equals(_path))
+                    uri.path(_path);
+                else
+                    uri.pathQuery(_path);
+                return new MetaData.Request(_method, uri, HttpVersion.HTTP_2, fields, _contentLength);
+            }
+
+            if (_status >= 0)
+                return new MetaData.Response(_status, null, HttpVersion.HTTP_2, fields, _contentLength);
+
+            return new MetaData(HttpVersion.HTTP_2, fields, _contentLength);
+        }
+        finally
+        {
+            reset();
+        }
+    }
+
+    private void reset()
+    {
+        _fields = HttpFields.build();
+        _size = 0;
+        _status = -1;
+        _method = null;
+        _scheme = null;
+        _authority = null;
+        _path = null;
+        _protocol = null;
+        _contentLength = -1;
+        _regular = false;
+        _failure = null;
+    }
+}
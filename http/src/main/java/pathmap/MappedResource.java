@@ -14,6 +14,7 @@
 package ab.eazy.http.pathmap;
 
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import ab.eazy.util.annotation.ManagedAttribute;
 import ab.eazy.util.annotation.ManagedObject;
@@ -24,6 +25,7 @@ public class MappedResource<E> implements Comparable<MappedResource<E>>, Map.Ent
     private final PathSpec pathSpec;
     private final E resource;
     private final MatchedResource<E> preMatched;
+    private final String literalPrefix;
 
     public MappedResource(PathSpec pathSpec, E resource)
     {
@@ -43,6 +45,77 @@ public class MappedResource<E> implements Comparable<MappedResource<E>>, Map.Ent
                 matched = null;
         }
         this.preMatched = matched;
+
+        // Only the exact classes are known to match the whole path with their pattern.
+        if (pathSpec.getClass() == RegexPathSpec.class)
+            this.literalPrefix = literalPrefix(((RegexPathSpec)pathSpec).getPattern());
+        else if (pathSpec.getClass() == UriTemplatePathSpec.class)
+            this.literalPrefix = literalPrefix(((UriTemplatePathSpec)pathSpec).getPattern());
+        else
+            this.literalPrefix = "";
+    }
+
+    /**
+     * <p>Get the literal prefix that every path matched by a regex pattern must start with.</p>
+     * <p>The prefix is computed conservatively, stopping at the first regex construct,
+     * including a literal made optional by a quantifier, and is empty if the pattern
+     * has flags or alternations.</p>
+     *
+     * @param pattern the pattern that must match the whole path
+     * @return the literal prefix, possibly empty
+     */
+    static String literalPrefix(Pattern pattern)
+    {
+        String regex = pattern.pattern();
+        if (pattern.flags() != 0 || regex.indexOf('|') >= 0)
+            return "";
+
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length())
+        {
+            char c = regex.charAt(i++);
+            if (c == '\\')
+            {
+                // Only an escaped non-alphanumeric ASCII character is a literal.
+                if (i == regex.length())
+                    break;
+                c = regex.charAt(i++);
+                if (Character.isLetterOrDigit(c))
+                    break;
+            }
+            else if ("[](){}.*+?^$".indexOf(c) >= 0)
+            {
+                break;
+            }
+            if (c >= 0x80)
+                break;
+
+            char quantifier = i < regex.length() ? regex.charAt(i) : 0;
+            if (quantifier == '?' || quantifier == '*' || quantifier == '{')
+                break;
+            prefix.append(c);
+            if (quantifier == '+')
+                break;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * @return the literal prefix of the paths that a regex or template path spec may match, or the empty string
+     */
+    String getLiteralPrefix()
+    {
+        return literalPrefix;
+    }
+
+    /**
+     * @param path the path
+     * @return false if the path spec cannot match the path, true if it may match it
+     */
+    boolean mayMatch(String path)
+    {
+        return path.startsWith(literalPrefix);
     }
 
     /**
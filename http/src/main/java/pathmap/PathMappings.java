@@ -67,6 +67,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
 
     private MappedResource<E> _servletRoot;
     private MappedResource<E> _servletDefault;
+    private PrefixFilter<E> _prefixFilter;
 
     @Override
     public Set<Entry<PathSpec, E>> entrySet()
@@ -98,6 +99,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
         _orderIsSignificant = false;
         _servletRoot = null;
         _servletDefault = null;
+        _prefixFilter = null;
     }
 
     public Stream<MappedResource<E>> streamResources()
@@ -107,6 +109,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
 
     public boolean removeIf(Predicate<MappedResource<E>> predicate)
     {
+        _prefixFilter = null;
         return _mappings.removeIf(predicate);
     }
 
@@ -121,7 +124,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
         List<MatchedResource<E>> ret = new ArrayList<>();
         for (MappedResource<E> mr : _mappings)
         {
-            MatchedPath matchedPath = mr.getPathSpec().matched(path);
+            MatchedPath matchedPath = mr.mayMatch(path) ? mr.getPathSpec().matched(path) : null;
             if (matchedPath != null)
             {
                 ret.add(new MatchedResource<>(mr.getResource(), mr.getPathSpec(), matchedPath));
@@ -166,7 +169,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
                     }
                     break;
                 default:
-                    if (mr.getPathSpec().matched(path) != null)
+                    if (mr.mayMatch(path) && mr.getPathSpec().matched(path) != null)
                     {
                         if (matches == null)
                             matches = new ArrayList<>();
@@ -237,7 +240,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
         // If order is significant, then we need to match by iterating over all mappings.
         if (_orderIsSignificant)
         {
-            for (MappedResource<E> mr : _mappings)
+            for (MappedResource<E> mr : getCandidates(path))
             {
                 if (mr.getPathSpec() instanceof ServletPathSpec)
                     continue;
@@ -328,8 +331,8 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
         PathSpecGroup lastGroup = null;
 
         boolean skipRestOfGroup = false;
-        // Search all the mappings
-        for (MappedResource<E> mr : _mappings)
+        // Search all the mappings that may match
+        for (MappedResource<E> mr : getCandidates(path))
         {
             PathSpecGroup group = mr.getPathSpec().getGroup();
             if (group == lastGroup && skipRestOfGroup)
@@ -420,6 +423,22 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
         return null;
     }
 
+    /**
+     * @param path the path to match
+     * @return the mappings, in order, without the regex and template path specs
+     * whose literal prefix the path does not start with
+     */
+    private Iterable<MappedResource<E>> getCandidates(String path)
+    {
+        PrefixFilter<E> prefixFilter = _prefixFilter;
+        if (prefixFilter == null)
+        {
+            prefixFilter = new PrefixFilter<>(_mappings);
+            _prefixFilter = prefixFilter;
+        }
+        return prefixFilter.isEnabled() ? prefixFilter.getCandidates(path) : _mappings;
+    }
+
     @Override
     public Iterator<MappedResource<E>> iterator()
     {
@@ -456,6 +475,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
         E old = remove(pathSpec);
         MappedResource<E> entry = new MappedResource<>(pathSpec, resource);
         _mappings.add(entry);
+        _prefixFilter = null;
         if (LOG.isDebugEnabled())
             LOG.debug("Added {} replacing {} to {}", entry, old, this);
 
@@ -563,6 +583,7 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
             {
                 removed = entry.getResource();
                 iter.remove();
+                _prefixFilter = null;
                 break;
             }
         }
@@ -642,4 +663,95 @@ public class PathMappings<E> extends AbstractMap<PathSpec, E> implements Iterabl
     {
         return String.format("%s[size=%d]", this.getClass().getSimpleName(), _mappings.size());
     }
+
+    /**
+     * <p>The mappings compiled, when they are modified, into a trie of the literal prefixes of
+     * the regex and template path specs, so that the iterative match only runs the regular
+     * expressions of the path specs that may match a path.</p>
+     * <p>The candidates of a path are the mappings without a literal prefix, plus the mappings
+     * found walking the trie along the path, kept in the mapping order as a bit set of ordinals.</p>
+     * <p>Skipping mappings preserves the result only if they are grouped by {@link PathSpecGroup},
+     * so the filter is disabled if there are path specs that are not {@link AbstractPathSpec}s.</p>
+     */
+    private static class PrefixFilter<E>
+    {
+        private final List<MappedResource<E>> _mappings;
+        private final long[] _unfiltered;
+        private final Node _root = new Node();
+        private final boolean _enabled;
+
+        private PrefixFilter(Set<MappedResource<E>> mappings)
+        {
+            _mappings = new ArrayList<>(mappings);
+            _unfiltered = new long[(_mappings.size() + 63) >> 6];
+            boolean enabled = false;
+            for (int ordinal = 0; ordinal < _mappings.size(); ordinal++)
+            {
+                MappedResource<E> mapping = _mappings.get(ordinal);
+                if (!(mapping.getPathSpec() instanceof AbstractPathSpec))
+                {
+                    enabled = false;
+                    break;
+                }
+                String prefix = mapping.getLiteralPrefix();
+                if (prefix.isEmpty())
+                {
+                    _unfiltered[ordinal >> 6] |= 1L << ordinal;
+                    continue;
+                }
+                enabled = true;
+                Node node = _root;
+                for (int i = 0; i < prefix.length(); i++)
+                {
+                    node = node._children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+                }
+                node._ordinals.add(ordinal);
+            }
+            _enabled = enabled;
+        }
+
+        private boolean isEnabled()
+        {
+            return _enabled;
+        }
+
+        private List<MappedResource<E>> getCandidates(String path)
+        {
+            long[] candidates = _unfiltered.clone();
+            Node node = _root;
+            for (int i = 0; i < path.length(); i++)
+            {
+                node = node._children.get(path.charAt(i));
+                if (node == null)
+                    break;
+                for (int ordinal : node._ordinals)
+                {
+                    candidates[ordinal >> 6] |= 1L << ordinal;
+                }
+            }
+
+            int count = 0;
+            for (long word : candidates)
+            {
+                count += Long.bitCount(word);
+            }
+            List<MappedResource<E>> result = new ArrayList<>(count);
+            for (int w = 0; w < candidates.length; w++)
+            {
+                long word = candidates[w];
+                while (word != 0)
+                {
+                    result.add(_mappings.get((w << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+            return result;
+        }
+
+        private static class Node
+        {
+            private final Map<Character, Node> _children = new HashMap<>();
+            private final List<Integer> _ordinals = new ArrayList<>();
+        }
+    }
 }
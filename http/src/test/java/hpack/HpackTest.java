@@ -0,0 +1,284 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.http.hpack;
+
+import java.nio.ByteBuffer;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpURI;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.StringUtil;
+
+import nut.annotations.Test;
+import static nut.Assert.*;
+
+/**
+ * <p>Tests of {@link HpackEncoder} and {@link HpackDecoder}, with the examples of RFC 7541, Appendix C.</p>
+ */
+public class HpackTest
+{
+    private static ByteBuffer hex(String hex)
+    {
+        return ByteBuffer.wrap(StringUtil.fromHexString(hex.replace(" ", "")));
+    }
+
+    private static MetaData.Request decodeRequest(HpackDecoder decoder, String hex) throws Exception
+    {
+        MetaData metaData = decoder.decode(hex(hex));
+        assertTrue(metaData instanceof MetaData.Request, String.valueOf(metaData));
+        return (MetaData.Request)metaData;
+    }
+
+    private static MetaData.Response decodeResponse(HpackDecoder decoder, String hex) throws Exception
+    {
+        MetaData metaData = decoder.decode(hex(hex));
+        assertTrue(metaData instanceof MetaData.Response, String.valueOf(metaData));
+        return (MetaData.Response)metaData;
+    }
+
+    private static void assertDynamicEntry(HpackContext context, int index, String name, String value)
+    {
+        HttpField field = context.get(index).getHttpField();
+        assertEquals(field.getName(), name);
+        assertEquals(field.getValue(), value);
+    }
+
+    private static void assertRequests(HpackDecoder decoder, String first, String second, String third) throws Exception
+    {
+        HpackContext context = decoder.getHpackContext();
+
+        // C.3.1 and C.4.1
+        MetaData.Request request = decodeRequest(decoder, first);
+        assertEquals(request.getMethod(), "GET");
+        assertEquals(request.getHttpURI().getScheme(), "http");
+        assertEquals(request.getHttpURI().getPath(), "/");
+        assertEquals(request.getHttpURI().getHost(), "www.example.com");
+        assertEquals(context.getDynamicEntries(), 1);
+        assertEquals(context.getTableSize(), 57);
+        assertDynamicEntry(context, 62, ":authority", "www.example.com");
+
+        // C.3.2 and C.4.2
+        request = decodeRequest(decoder, second);
+        assertEquals(request.getHttpURI().getHost(), "www.example.com");
+        assertEquals(request.getHttpFields().get(HttpHeader.CACHE_CONTROL), "no-cache");
+        assertEquals(context.getDynamicEntries(), 2);
+        assertEquals(context.getTableSize(), 110);
+        assertDynamicEntry(context, 62, "cache-control", "no-cache");
+        assertDynamicEntry(context, 63, ":authority", "www.example.com");
+
+        // C.3.3 and C.4.3
+        request = decodeRequest(decoder, third);
+        assertEquals(request.getHttpURI().getScheme(), "https");
+        assertEquals(request.getHttpURI().getPath(), "/index.html");
+        assertEquals(request.getHttpURI().getHost(), "www.example.com");
+        assertEquals(request.getHttpFields().get("custom-key"), "custom-value");
+        assertNull(request.getHttpFields().get(HttpHeader.CACHE_CONTROL));
+        assertEquals(context.getDynamicEntries(), 3);
+        assertEquals(context.getTableSize(), 164);
+        assertDynamicEntry(context, 62, "custom-key", "custom-value");
+        assertDynamicEntry(context, 63, "cache-control", "no-cache");
+        assertDynamicEntry(context, 64, ":authority", "www.example.com");
+    }
+
+    private static void assertResponses(HpackDecoder decoder, String first, String second, String third) throws Exception
+    {
+        // The examples use a dynamic table of 256 bytes, to exercise the eviction of entries.
+        HpackContext context = decoder.getHpackContext();
+        context.resize(256);
+
+        // C.5.1 and C.6.1
+        MetaData.Response response = decodeResponse(decoder, first);
+        assertEquals(response.getStatus(), 302);
+        HttpFields fields = response.getHttpFields();
+        assertEquals(fields.get(HttpHeader.CACHE_CONTROL), "private");
+        assertEquals(fields.get(HttpHeader.DATE), "Mon, 21 Oct 2013 20:13:21 GMT");
+        assertEquals(fields.get(HttpHeader.LOCATION), "https://www.example.com");
+        assertEquals(context.getDynamicEntries(), 4);
+        assertEquals(context.getTableSize(), 222);
+        assertDynamicEntry(context, 62, "location", "https://www.example.com");
+        assertDynamicEntry(context, 65, ":status", "302");
+
+        // C.5.2 and C.6.2: ":status: 302" is evicted.
+        response = decodeResponse(decoder, second);
+        assertEquals(response.getStatus(), 307);
+        fields = response.getHttpFields();
+        assertEquals(fields.get(HttpHeader.CACHE_CONTROL), "private");
+        assertEquals(fields.get(HttpHeader.DATE), "Mon, 21 Oct 2013 20:13:21 GMT");
+        assertEquals(fields.get(HttpHeader.LOCATION), "https://www.example.com");
+        assertEquals(context.getDynamicEntries(), 4);
+        assertEquals(context.getTableSize(), 222);
+        assertDynamicEntry(context, 62, ":status", "307");
+        assertDynamicEntry(context, 65, "cache-control", "private");
+
+        // C.5.3 and C.6.3: several entries are evicted.
+        response = decodeResponse(decoder, third);
+        assertEquals(response.getStatus(), 200);
+        fields = response.getHttpFields();
+        assertEquals(fields.get(HttpHeader.CACHE_CONTROL), "private");
+        assertEquals(fields.get(HttpHeader.DATE), "Mon, 21 Oct 2013 20:13:22 GMT");
+        assertEquals(fields.get(HttpHeader.LOCATION), "https://www.example.com");
+        assertEquals(fields.get(HttpHeader.CONTENT_ENCODING), "gzip");
+        assertEquals(fields.get(HttpHeader.SET_COOKIE), "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+        assertEquals(context.getDynamicEntries(), 3);
+        assertEquals(context.getTableSize(), 215);
+        assertDynamicEntry(context, 62, "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+        assertDynamicEntry(context, 63, "content-encoding", "gzip");
+        assertDynamicEntry(context, 64, "date", "Mon, 21 Oct 2013 20:13:22 GMT");
+    }
+
+    @Test
+    public void testDecodeRequestsWithoutHuffman() throws Exception
+    {
+        assertRequests(new HpackDecoder(0),
+            "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d",
+            "8286 84be 5808 6e6f 2d63 6163 6865",
+            "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65");
+    }
+
+    @Test
+    public void testDecodeRequestsWithHuffman() throws Exception
+    {
+        assertRequests(new HpackDecoder(0),
+            "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff",
+            "8286 84be 5886 a8eb 1064 9cbf",
+            "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf");
+    }
+
+    @Test
+    public void testDecodeResponsesWithoutHuffman() throws Exception
+    {
+        assertResponses(new HpackDecoder(0),
+            "4803 3330 3258 0770 7269 7661 7465 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133 2032 303a 3133 3a32 3120 474d 546e " +
+                "1768 7474 7073 3a2f 2f77 7777 2e65 7861 6d70 6c65 2e63 6f6d",
+            "4803 3330 37c1 c0bf",
+            "88c1 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133 2032 303a 3133 3a32 3220 474d 54c0 5a04 677a 6970 7738 666f 6f3d " +
+                "4153 444a 4b48 514b 425a 584f 5157 454f 5049 5541 5851 5745 4f49 553b 206d 6178 2d61 6765 3d33 3630 303b 2076 " +
+                "6572 7369 6f6e 3d31");
+    }
+
+    @Test
+    public void testDecodeResponsesWithHuffman() throws Exception
+    {
+        assertResponses(new HpackDecoder(0),
+            "4882 6402 5885 aec3 771a 4b61 96d0 7abe 9410 54d4 44a8 2005 9504 0b81 66e0 82a6 2d1b ff6e 919d 29ad 1718 63c7 8f0b " +
+                "97c8 e9ae 82ae 43d3",
+            "4883 640e ffc1 c0bf",
+            "88c1 6196 d07a be94 1054 d444 a820 0595 040b 8166 e084 a62d 1bff c05a 839b d9ab 77ad 94e7 821d d7f2 e6c7 b335 dfdf " +
+                "cd5b 3960 d5af 2708 7f36 72c1 ab27 0fb5 291f 9587 3160 65c0 03ed 4ee5 b106 3d50 07");
+    }
+
+    @Test
+    public void testEncodeDecodeRoundTrip() throws Exception
+    {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(0);
+
+        HttpFields fields = HttpFields.build()
+            .add(HttpHeader.ACCEPT, "text/html")
+            .add(HttpHeader.USER_AGENT, "HpackTest/1.0")
+            .add("x-custom", "some value")
+            .add(HttpHeader.CONNECTION, "keep-alive");
+        MetaData.Request request = new MetaData.Request("GET", HttpURI.from("http://www.example.com/path?query"), HttpVersion.HTTP_2, fields);
+
+        int[] lengths = new int[2];
+        for (int i = 0; i < lengths.length; i++)
+        {
+            ByteBuffer buffer = BufferUtil.allocate(1024);
+            int position = BufferUtil.flipToFill(buffer);
+            encoder.encode(buffer, request);
+            BufferUtil.flipToFlush(buffer, position);
+            lengths[i] = buffer.remaining();
+
+            // :method GET and :scheme http are in the static table.
+            assertEquals(buffer.get(0) & 0xFF, 0x82);
+            assertEquals(buffer.get(1) & 0xFF, 0x86);
+
+            MetaData.Request decoded = decodeRequest(decoder, BufferUtil.toHexString(buffer));
+            assertEquals(decoded.getMethod(), "GET");
+            assertEquals(decoded.getHttpURI().getHost(), "www.example.com");
+            assertEquals(decoded.getHttpURI().getPathQuery(), "/path?query");
+            assertEquals(decoded.getHttpFields().get(HttpHeader.ACCEPT), "text/html");
+            assertEquals(decoded.getHttpFields().get(HttpHeader.USER_AGENT), "HpackTest/1.0");
+            assertEquals(decoded.getHttpFields().get("x-custom"), "some value");
+            // Connection specific fields are not allowed in HTTP/2.
+            assertNull(decoded.getHttpFields().get(HttpHeader.CONNECTION));
+
+            // Both dynamic tables are kept in sync.
+            assertEquals(decoder.getHpackContext().getDynamicEntries(), encoder.getHpackContext().getDynamicEntries());
+            assertEquals(decoder.getHpackContext().getTableSize(), encoder.getHpackContext().getTableSize());
+        }
+        // The second header block only has indexes, except for the non indexed :path.
+        assertTrue(lengths[1] < lengths[0], lengths[1] + " < " + lengths[0]);
+    }
+
+    @Test
+    public void testEncodeResponseNeverIndexed() throws Exception
+    {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(0);
+
+        HttpFields fields = HttpFields.build()
+            .add(HttpHeader.COOKIE, "secret=value")
+            .add(HttpHeader.CONTENT_LENGTH, "42");
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        encoder.encode(buffer, new MetaData.Response(200, null, HttpVersion.HTTP_2, fields));
+        buffer.flip();
+
+        // :status 200 is in the static table, followed by a cookie never indexed, with the static name index 32.
+        assertEquals(buffer.get(0) & 0xFF, 0x88);
+        assertEquals(buffer.get(1) & 0xFF, 0x1F);
+        assertEquals(buffer.get(2) & 0xFF, 32 - 15);
+
+        MetaData.Response response = decodeResponse(decoder, BufferUtil.toHexString(buffer));
+        assertEquals(response.getStatus(), 200);
+        assertEquals(response.getHttpFields().get(HttpHeader.COOKIE), "secret=value");
+        assertEquals(response.getHttpFields().get(HttpHeader.CONTENT_LENGTH), "42");
+        assertEquals(encoder.getHpackContext().getDynamicEntries(), 0);
+        assertEquals(decoder.getHpackContext().getDynamicEntries(), 0);
+    }
+
+    @Test
+    public void testEncodeTableSizeUpdate() throws Exception
+    {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder(0);
+        encoder.setRemoteMaxTableSize(256);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        encoder.encode(buffer, new MetaData.Response(200, null, HttpVersion.HTTP_2, HttpFields.EMPTY));
+        buffer.flip();
+
+        // A dynamic table size update to 256, RFC 7541, section 6.3, then the indexed :status.
+        assertEquals(buffer, hex("3fe10188"));
+        assertEquals(decodeResponse(decoder, "3fe10188").getStatus(), 200);
+        assertEquals(decoder.getHpackContext().getMaxTableSize(), 256);
+    }
+
+    @Test(expectedExceptions = HpackException.CompressionException.class)
+    public void testDecodeUnknownIndex() throws Exception
+    {
+        // Index 62 addresses the dynamic table, that is empty.
+        new HpackDecoder(0).decode(hex("be"));
+    }
+
+    @Test(expectedExceptions = HpackException.CompressionException.class)
+    public void testDecodeTableSizeUpdateAfterField() throws Exception
+    {
+        new HpackDecoder(0).decode(hex("88 3f e1 01"));
+    }
+}
@@ -735,7 +735,7 @@ public class ManagedSelector extends ContainerLifeCycle
                     channel = _selectorManager.doAccept(_channel);
                     if (channel == null)
                         break;
-                    _selectorManager.accepted(channel);
+                    _selectorManager.accepted(channel, ManagedSelector.this);
                 }
             }
             catch (Throwable x)
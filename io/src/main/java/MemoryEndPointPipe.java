@@ -125,6 +125,14 @@ public class MemoryEndPointPipe implements EndPoint.Pipe
         @Override
         protected void needsFillInterest()
         {
+            // The peer may have flushed before the fill interest was registered.
+            boolean fillable;
+            try (AutoLock ignored = peerEndPoint.lock.lock())
+            {
+                fillable = !peerEndPoint.byteBuffers.isEmpty();
+            }
+            if (fillable)
+                taskConsumer.accept(peerEndPoint.fillableTask);
         }
 
         @Override
@@ -260,6 +268,16 @@ public class MemoryEndPointPipe implements EndPoint.Pipe
             onFlushed();
         }
 
+        @Override
+        public void onClose(Throwable failure)
+        {
+            super.onClose(failure);
+            // There is no selector to tell the connection that this end point is closed.
+            Connection connection = getConnection();
+            if (connection != null)
+                connection.onClose(failure);
+        }
+
         private void onFlushed()
         {
             taskConsumer.accept(fillableTask);
@@ -211,6 +211,20 @@ public abstract class SelectorManager extends ContainerLifeCycle
         selector.submit(selector.new Accept(channel, attachment));
     }
 
+    /**
+     * <p>Registers a channel to perform non-blocking read/write operations on the given selector,
+     * rather than on the next selector in turn.</p>
+     *
+     * @param channel the channel to register
+     * @param attachment the attachment object
+     * @param selector the selector to register the channel with
+     * @see #accept(SelectableChannel, Object)
+     */
+    public void accept(SelectableChannel channel, Object attachment, ManagedSelector selector)
+    {
+        selector.submit(selector.new Accept(channel, attachment));
+    }
+
     /**
      * <p>Registers a server channel for accept operations.
      * When a {@link SocketChannel} is accepted from the given {@link ServerSocketChannel}
@@ -228,6 +242,25 @@ public abstract class SelectorManager extends ContainerLifeCycle
         return acceptor;
     }
 
+    /**
+     * <p>Registers a server channel for accept operations with the selector of the given id,
+     * modulo the number of selectors.</p>
+     * <p>Registering each of several server channels bound with {@code SO_REUSEPORT} with
+     * a different selector allows the kernel to spread the accepts over the selectors.</p>
+     *
+     * @param server the server channel to register
+     * @param id the id of the selector
+     * @return A Closable that allows the acceptor to be cancelled
+     * @see #accepted(SelectableChannel, ManagedSelector)
+     */
+    public Closeable acceptor(SelectableChannel server, int id)
+    {
+        ManagedSelector selector = _selectors[Math.floorMod(id, _selectors.length)];
+        ManagedSelector.Acceptor acceptor = selector.new Acceptor(server);
+        selector.submit(acceptor);
+        return acceptor;
+    }
+
     /**
      * Callback method when a channel is accepted from the {@link ServerSocketChannel}
      * passed to {@link #acceptor(SelectableChannel)}.
@@ -242,6 +275,20 @@ public abstract class SelectorManager extends ContainerLifeCycle
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * <p>Callback method when a channel is accepted from a server channel registered
+     * with {@link #acceptor(SelectableChannel)} or {@link #acceptor(SelectableChannel, int)}.</p>
+     * <p>The default implementation calls {@link #accepted(SelectableChannel)}.</p>
+     *
+     * @param channel the accepted channel
+     * @param selector the selector of the server channel
+     * @throws IOException if unable to accept channel
+     */
+    protected void accepted(SelectableChannel channel, ManagedSelector selector) throws IOException
+    {
+        accepted(channel);
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -84,8 +84,9 @@ public interface ConnectionMetaData extends Attributes
         SocketAddress localSocketAddress = getLocalSocketAddress();
         if (localSocketAddress instanceof InetSocketAddress inetSocketAddress)
             return new HostPort(inetSocketAddress.getHostString(), inetSocketAddress.getPort());
+        // A Unix-Domain path or a memory address is not a valid authority, but the peer is always local.
         else if (localSocketAddress != null)
-            return new HostPort(localSocketAddress.toString());
+            return new HostPort("localhost");
         return null;
     }
 
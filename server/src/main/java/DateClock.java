@@ -0,0 +1,176 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import ab.eazy.http.DateGenerator;
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.server.internal.ResponseHttpFields;
+import ab.eazy.util.DateCache;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.component.AbstractLifeCycle;
+import ab.eazy.util.thread.AutoLock;
+import ab.eazy.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A server wide clock that keeps the pre encoded {@code Date} response header up to date.</p>
+ * <p>Once started, a timer fires at every second boundary and prepares the {@code Date} field
+ * for the current and the next second, so that threads handling requests never format a date:
+ * the field is a {@link ab.eazy.http.PreEncodedHttpField}, which the generator copies with a single put.
+ * {@link DateCache}s registered with {@link #addDateCache(DateCache)}, for example by a request log,
+ * are primed with the next second on the same timer.</p>
+ * <p>If the clock is not started, or the timer is late, the field is formatted on demand.</p>
+ */
+@ManagedObject
+public class DateClock extends AbstractLifeCycle implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DateClock.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final List<DateCache> _dateCaches = new CopyOnWriteArrayList<>();
+    private final Scheduler _scheduler;
+    private volatile DateField _current;
+    private volatile DateField _next;
+    private Scheduler.Task _task;
+
+    public DateClock(Scheduler scheduler)
+    {
+        _scheduler = scheduler;
+    }
+
+    /**
+     * @param dateCache a {@link DateCache} to prime every second
+     */
+    public void addDateCache(DateCache dateCache)
+    {
+        _dateCaches.add(dateCache);
+    }
+
+    public boolean removeDateCache(DateCache dateCache)
+    {
+        return _dateCaches.remove(dateCache);
+    }
+
+    /**
+     * @return A {@link HttpField} instance recording the current time to a second resolution,
+     * that cannot be cleared from a {@link ResponseHttpFields} instance.
+     */
+    public HttpField getDateField()
+    {
+        long now = System.currentTimeMillis();
+        long seconds = now / 1000;
+
+        DateField current = _current;
+        if (current != null && current._seconds == seconds)
+            return current._field;
+        DateField next = _next;
+        if (next != null && next._seconds == seconds)
+            return next._field;
+
+        try (AutoLock ignored = _lock.lock())
+        {
+            current = _current;
+            if (current == null || current._seconds != seconds)
+            {
+                current = new DateField(seconds);
+                _current = current;
+            }
+            return current._field;
+        }
+    }
+
+    @ManagedAttribute("The number of DateCaches primed every second")
+    public int getDateCacheCount()
+    {
+        return _dateCaches.size();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        run();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_task != null)
+                _task.cancel();
+            _task = null;
+        }
+        super.doStop();
+    }
+
+    @Override
+    public void run()
+    {
+        long now = System.currentTimeMillis();
+        long seconds = now / 1000;
+        try
+        {
+            DateField current = _next;
+            if (current == null || current._seconds != seconds)
+                current = new DateField(seconds);
+            DateField next = new DateField(seconds + 1);
+            _current = current;
+            _next = next;
+
+            for (DateCache dateCache : _dateCaches)
+            {
+                dateCache.format(next._seconds * 1000);
+            }
+        }
+        catch (Throwable x)
+        {
+            LOG.warn("Failed to update date {}", this, x);
+        }
+        finally
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                if (isRunning())
+                    _task = _scheduler.schedule(this, 1000 - now % 1000, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        DateField current = _current;
+        return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), current == null ? null : current._field.getValue());
+    }
+
+    private static class DateField
+    {
+        final long _seconds;
+        final HttpField _field;
+
+        private DateField(long seconds)
+        {
+            _seconds = seconds;
+            _field = new ResponseHttpFields.PersistentPreEncodedHttpField(HttpHeader.DATE, DateGenerator.formatDate(seconds * 1000));
+        }
+    }
+}
@@ -159,4 +159,59 @@ public interface Handler extends LifeCycle, Destroyable, Request.Handler
 
     }
 
+    /**
+     * <p>A {@link Handler} that wraps another {@link Handler}, to which it
+     * forwards the requests by default.</p>
+     * <p>The wrapped {@code Handler} is a managed bean of the wrapper,
+     * so it is started and stopped with it, and shares its {@link Server}.</p>
+     */
+    @ManagedObject
+    class Wrapper extends Abstract
+    {
+        private Handler _handler;
+
+        public Wrapper()
+        {
+        }
+
+        public Wrapper(Handler handler)
+        {
+            setHandler(handler);
+        }
+
+        @Override
+        @ManagedAttribute(value = "The Handler wrapped by this Handler", readonly = true)
+        public Handler getHandler()
+        {
+            return _handler;
+        }
+
+        @Override
+        public void setHandler(Handler handler)
+        {
+            if (isStarted())
+                throw new IllegalStateException(getState());
+            if (handler == this)
+                throw new IllegalArgumentException("Handler loop");
+            if (handler instanceof Abstract abstractHandler && getServer() != null)
+                abstractHandler.setServer(getServer());
+            updateBean(_handler, handler);
+            _handler = handler;
+        }
+
+        @Override
+        public void setServer(Server server)
+        {
+            super.setServer(server);
+            if (_handler instanceof Abstract abstractHandler)
+                abstractHandler.setServer(server);
+        }
+
+        @Override
+        public boolean handle(Request request, Response response, Callback callback) throws Exception
+        {
+            Handler next = getHandler();
+            return next != null && next.handle(request, response, callback);
+        }
+    }
 }
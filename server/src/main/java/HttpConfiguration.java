@@ -27,6 +27,7 @@ import ab.eazy.http.HttpCompliance;
 import ab.eazy.http.HttpFields;
 import ab.eazy.http.HttpMethod;
 import ab.eazy.http.HttpScheme;
+import ab.eazy.http.HttpURICache;
 import ab.eazy.http.MultiPartCompliance;
 import ab.eazy.http.UriCompliance;
 import ab.eazy.util.HostPort;
@@ -50,6 +51,7 @@ public class HttpConfiguration
 {
     public static final String SERVER_VERSION = "Eazy 1.0.0";
     public static final String POWERED_BY = "Powered by Eazy 1.0.0";
+    private static final int MAX_CACHED_URI_LENGTH = 256;
     private final List<Customizer> _customizers = new CopyOnWriteArrayList<>();
     private final Index.Mutable<Boolean> _formEncodedMethods = new Index.Builder<Boolean>()
         .caseSensitive(false)
@@ -62,6 +64,8 @@ public class HttpConfiguration
     private int _responseHeaderSize = 8 * 1024;
     private int _headerCacheSize = 1024;
     private boolean _headerCacheCaseSensitive = false;
+    private int _uriCacheSize = 512;
+    private HttpURICache _uriCache = new HttpURICache(_uriCacheSize, MAX_CACHED_URI_LENGTH);
     private int _securePort;
     private long _idleTimeout = -1;
     private String _secureScheme = HttpScheme.HTTPS.asString();
@@ -137,6 +141,8 @@ public class HttpConfiguration
         _responseHeaderSize = config._responseHeaderSize;
         _headerCacheSize = config._headerCacheSize;
         _headerCacheCaseSensitive = config._headerCacheCaseSensitive;
+        _uriCacheSize = config._uriCacheSize;
+        _uriCache = _uriCacheSize > 0 ? new HttpURICache(_uriCacheSize, MAX_CACHED_URI_LENGTH) : null;
         _secureScheme = config._secureScheme;
         _securePort = config._securePort;
         _idleTimeout = config._idleTimeout;
@@ -226,6 +232,20 @@ public class HttpConfiguration
         return _headerCacheSize;
     }
 
+    @ManagedAttribute("The maximum number of request targets in the parsed URI cache")
+    public int getUriCacheSize()
+    {
+        return _uriCacheSize;
+    }
+
+    /**
+     * @return the cache of parsed request targets shared by the connections using this configuration, or null if disabled
+     */
+    public HttpURICache getUriCache()
+    {
+        return _uriCache;
+    }
+
     @ManagedAttribute("True if the header field cache is case sensitive")
     public boolean isHeaderCacheCaseSensitive()
     {
@@ -455,6 +475,16 @@ public class HttpConfiguration
         _headerCacheSize = headerCacheSize;
     }
 
+    /**
+     * @param uriCacheSize The maximum number of request targets whose parsed {@link ab.eazy.http.HttpURI}
+     * is cached, or 0 to disable the cache.
+     */
+    public void setUriCacheSize(int uriCacheSize)
+    {
+        _uriCacheSize = uriCacheSize;
+        _uriCache = uriCacheSize > 0 ? new HttpURICache(uriCacheSize, MAX_CACHED_URI_LENGTH) : null;
+    }
+
     public void setHeaderCacheCaseSensitive(boolean headerCacheCaseSensitive)
     {
         this._headerCacheCaseSensitive = headerCacheCaseSensitive;
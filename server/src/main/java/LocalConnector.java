@@ -0,0 +1,383 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpParser;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.Connection;
+import ab.eazy.io.EndPoint;
+import ab.eazy.io.MemoryEndPointPipe;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.FutureCallback;
+import ab.eazy.util.IO;
+import ab.eazy.util.NanoTime;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.Name;
+import ab.eazy.util.thread.Invocable;
+import ab.eazy.util.thread.Scheduler;
+
+/**
+ * <p>A {@link Connector} for in-process connections, that do not use the network.</p>
+ * <p>Each call to {@link #connect()} creates a {@link MemoryEndPointPipe}, whose local
+ * {@link EndPoint} is given to a connection created by the default {@link ConnectionFactory},
+ * exactly as if it was accepted from a socket, and whose remote {@link EndPoint} is used by
+ * the returned {@link Client} to send raw requests and to receive raw responses.</p>
+ * <p>Requests may be pipelined: all the requests can be sent at once, and the responses
+ * are then received one by one, each in its own {@link ByteBuffer}.</p>
+ * <pre>{@code
+ * try (LocalConnector.Client client = connector.connect())
+ * {
+ *     client.send(BufferUtil.toBuffer("GET /a HTTP/1.1\r\nHost: local\r\n\r\nGET /b HTTP/1.1\r\nHost: local\r\n\r\n"));
+ *     ByteBuffer a = client.receive(5, TimeUnit.SECONDS);
+ *     ByteBuffer b = client.receive(5, TimeUnit.SECONDS);
+ * }
+ * }</pre>
+ * <p>This makes possible to exercise the whole {@link Handler} chain, for example in
+ * benchmarks or in tests, without the noise of the kernel networking stack.</p>
+ */
+@ManagedObject("Local connector")
+public class LocalConnector extends AbstractConnector
+{
+    private final SocketAddress _socketAddress = new LocalSocketAddress();
+
+    public LocalConnector(
+        @Name("server") Server server,
+        @Name("factories") ConnectionFactory... factories)
+    {
+        this(server, null, null, null, factories);
+    }
+
+    public LocalConnector(
+        @Name("server") Server server,
+        @Name("executor") Executor executor,
+        @Name("scheduler") Scheduler scheduler,
+        @Name("bufferPool") ByteBufferPool bufferPool,
+        @Name("factories") ConnectionFactory... factories)
+    {
+        super(server, executor, scheduler, bufferPool, 0, factories.length > 0 ? factories : new ConnectionFactory[]{new HttpConnectionFactory()});
+        setIdleTimeout(30000);
+    }
+
+    @Override
+    public Object getTransport()
+    {
+        return this;
+    }
+
+    /**
+     * <p>Does nothing: this connector is created with no acceptors, so this method is
+     * never called; connections are instead opened by {@link #connect()}.</p>
+     *
+     * @param acceptorID the acceptor id, unused
+     */
+    @Override
+    protected void accept(int acceptorID)
+    {
+    }
+
+    /**
+     * <p>Open a new connection to this connector.</p>
+     *
+     * @return the client side of the new connection
+     * @throws IOException if the connector is not started
+     */
+    public Client connect() throws IOException
+    {
+        if (!isStarted())
+            throw new IOException("Not started " + this);
+
+        MemoryEndPointPipe pipe = new MemoryEndPointPipe(getScheduler(), this::execute, _socketAddress);
+
+        EndPoint endPoint = pipe.getLocalEndPoint();
+        endPoint.setIdleTimeout(getIdleTimeout());
+        Connection connection = getDefaultConnectionFactory().newConnection(this, endPoint);
+        connection.addEventListener(new Connection.Listener()
+        {
+            @Override
+            public void onClosed(Connection connection)
+            {
+                onEndPointClosed(endPoint);
+            }
+        });
+        endPoint.setConnection(connection);
+        endPoint.onOpen();
+        onEndPointOpened(endPoint);
+        connection.onOpen();
+
+        EndPoint clientEndPoint = pipe.getRemoteEndPoint();
+        clientEndPoint.onOpen();
+        return new Client(clientEndPoint);
+    }
+
+    private void execute(Invocable.Task task)
+    {
+        if (Invocable.getInvocationType(task) == Invocable.InvocationType.NON_BLOCKING)
+            task.run();
+        else
+            getExecutor().execute(task);
+    }
+
+    /**
+     * <p>Send a single request on a new connection, and receive its response.</p>
+     *
+     * @param rawRequest the raw request bytes
+     * @param time the maximum time to wait for the response
+     * @param unit the unit of the time
+     * @return the raw response bytes, or null if no complete response was received
+     * @throws Exception if the request cannot be sent or the response cannot be received
+     */
+    public ByteBuffer getResponse(ByteBuffer rawRequest, long time, TimeUnit unit) throws Exception
+    {
+        try (Client client = connect())
+        {
+            client.send(rawRequest);
+            return client.receive(time, unit);
+        }
+    }
+
+    /**
+     * <p>Send a single request on a new connection, and receive its response within 10 seconds.</p>
+     *
+     * @param rawRequest the raw request, encoded in ISO-8859-1
+     * @return the raw response, decoded from ISO-8859-1, or null if no complete response was received
+     * @throws Exception if the request cannot be sent or the response cannot be received
+     */
+    public String getResponse(String rawRequest) throws Exception
+    {
+        ByteBuffer response = getResponse(BufferUtil.toBuffer(rawRequest, StandardCharsets.ISO_8859_1), 10, TimeUnit.SECONDS);
+        return response == null ? null : BufferUtil.toString(response, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), _socketAddress);
+    }
+
+    /**
+     * <p>The client side of a connection to a {@link LocalConnector}.</p>
+     * <p>A client is not thread safe: requests must be sent and responses
+     * received by one thread at a time.</p>
+     */
+    public static class Client implements Closeable
+    {
+        private final HttpParser _parser = new HttpParser(new ResponseHandler());
+        private final EndPoint _endPoint;
+        private ByteBuffer _buffer = BufferUtil.allocate(4096);
+        private int _mark;
+        private FutureCallback _fillable;
+
+        private Client(EndPoint endPoint)
+        {
+            _endPoint = endPoint;
+        }
+
+        public EndPoint getEndPoint()
+        {
+            return _endPoint;
+        }
+
+        /**
+         * @param head whether the next response received is the response to a {@code HEAD} request
+         */
+        public void setHeadResponse(boolean head)
+        {
+            _parser.setHeadResponse(head);
+        }
+
+        /**
+         * <p>Send raw bytes, typically one or more pipelined requests.</p>
+         *
+         * @param buffers the bytes to send
+         * @throws IOException if the bytes cannot be sent
+         */
+        public void send(ByteBuffer... buffers) throws IOException
+        {
+            FutureCallback callback = new FutureCallback();
+            _endPoint.write(callback, buffers);
+            callback.block();
+        }
+
+        /**
+         * <p>Receive the next complete response.</p>
+         *
+         * @param time the maximum time to wait for the response
+         * @param unit the unit of the time
+         * @return the raw response bytes, or null if the time elapsed or the connection
+         * was closed before a complete response was received
+         * @throws IOException if the response cannot be received or parsed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public ByteBuffer receive(long time, TimeUnit unit) throws IOException, InterruptedException
+        {
+            long deadline = NanoTime.now() + unit.toNanos(time);
+            while (true)
+            {
+                if (_parser.parseNext(_buffer))
+                    return take();
+
+                int filled = fill();
+                if (filled > 0)
+                    continue;
+
+                if (filled < 0)
+                {
+                    _parser.atEOF();
+                    if (_parser.parseNext(_buffer))
+                        return take();
+                    return null;
+                }
+
+                if (_fillable == null)
+                {
+                    _fillable = new FutureCallback();
+                    _endPoint.fillInterested(_fillable);
+                }
+                try
+                {
+                    _fillable.get(Math.max(0, deadline - NanoTime.now()), TimeUnit.NANOSECONDS);
+                    _fillable = null;
+                }
+                catch (TimeoutException x)
+                {
+                    // Keep the fill interest for the next receive.
+                    return null;
+                }
+                catch (ExecutionException x)
+                {
+                    _fillable = null;
+                    throw IO.rethrow(x.getCause());
+                }
+            }
+        }
+
+        private int fill() throws IOException
+        {
+            if (_mark == _buffer.limit())
+            {
+                BufferUtil.clear(_buffer);
+                _mark = 0;
+            }
+            else if (BufferUtil.space(_buffer) == 0)
+            {
+                compact();
+            }
+
+            // Fill after the limit, without moving the bytes of the current response.
+            int limit = _buffer.limit();
+            ByteBuffer space = _buffer.duplicate().limit(_buffer.capacity()).position(limit).slice().limit(0);
+            int filled = _endPoint.fill(space);
+            if (filled > 0)
+                _buffer.limit(limit + filled);
+            return filled;
+        }
+
+        private ByteBuffer take()
+        {
+            int end = _buffer.position();
+            ByteBuffer response = BufferUtil.allocate(end - _mark);
+            BufferUtil.append(response, _buffer.duplicate().position(_mark).limit(end));
+            _mark = end;
+            _parser.reset();
+            _parser.setHeadResponse(false);
+            return response;
+        }
+
+        private void compact()
+        {
+            // Drop the bytes of the responses already taken, or make room for a larger response.
+            int parsed = _buffer.position() - _mark;
+            ByteBuffer buffer = BufferUtil.allocate(_mark > 0 ? _buffer.capacity() : _buffer.capacity() * 2);
+            BufferUtil.append(buffer, _buffer.position(_mark));
+            buffer.position(parsed);
+            _buffer = buffer;
+            _mark = 0;
+        }
+
+        @Override
+        public void close()
+        {
+            _endPoint.close();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), _endPoint);
+        }
+    }
+
+    private static class ResponseHandler implements HttpParser.ResponseHandler
+    {
+        @Override
+        public void startResponse(HttpVersion version, int status, String reason)
+        {
+        }
+
+        @Override
+        public void parsedHeader(HttpField field)
+        {
+        }
+
+        @Override
+        public boolean headerComplete()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean content(ByteBuffer item)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean contentComplete()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean messageComplete()
+        {
+            return true;
+        }
+
+        @Override
+        public void earlyEOF()
+        {
+        }
+    }
+
+    private static class LocalSocketAddress extends SocketAddress
+    {
+        @Override
+        public String toString()
+        {
+            return "[local:%x]".formatted(hashCode());
+        }
+    }
+}
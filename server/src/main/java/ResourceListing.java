@@ -0,0 +1,509 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ab.eazy.io.ByteBufferOutputStream2;
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.Retainable;
+import ab.eazy.io.RetainableByteBuffer;
+import ab.eazy.util.Fields;
+import ab.eazy.util.NanoTime;
+import ab.eazy.util.StringUtil;
+import ab.eazy.util.URIUtil;
+import ab.eazy.util.UrlEncoded;
+import ab.eazy.util.resource.Resource;
+import ab.eazy.util.resource.ResourceCollators;
+
+/**
+ * Directory listing of a {@link Resource} rendered as XHTML.
+ * <p>The listing can be sorted with the query parameters {@code C} (column: {@code N} name,
+ * {@code M} last modified or {@code S} size) and {@code O} (order: {@code A} ascending or {@code D} descending).</p>
+ */
+public class ResourceListing
+{
+    private ResourceListing()
+    {
+    }
+
+    /**
+     * Convert the Resource directory into an XHTML directory listing.
+     *
+     * @param resource the resource to build the listing from
+     * @param base The base URL
+     * @param parent True if the parent directory should be included
+     * @param query query params
+     * @return the XHTML as String, or null if the resource is not a directory
+     */
+    public static String getAsXHTML(Resource resource, String base, boolean parent, String query)
+    {
+        try
+        {
+            StringWriter out = new StringWriter(4096);
+            if (!writeAsXHTML(out, resource, base, parent, query))
+                return null;
+            return out.toString();
+        }
+        catch (IOException x)
+        {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Write the Resource directory as an XHTML directory listing.
+     *
+     * @param out the writer to stream the listing to
+     * @param resource the resource to build the listing from
+     * @param base The base URL
+     * @param parent True if the parent directory should be included
+     * @param query query params
+     * @return true if the listing was written, false if the resource is not a directory
+     * @throws IOException if the listing cannot be written
+     */
+    public static boolean writeAsXHTML(Writer out, Resource resource, String base, boolean parent, String query) throws IOException
+    {
+        return writeAsXHTML(out, resource, base, parent, SortOrder.from(query));
+    }
+
+    private static boolean writeAsXHTML(Writer out, Resource resource, String base, boolean parent, SortOrder sortOrder) throws IOException
+    {
+        // This method doesn't check aliases, so it is OK to canonicalize here.
+        base = URIUtil.normalizePath(base);
+        if (base == null || !resource.isDirectory())
+            return false;
+
+        // A combined resource may list the same file name more than once.
+        List<Resource> listing = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Resource item : resource.list())
+        {
+            if (names.add(item.getFileName()))
+                listing.add(item);
+        }
+        listing.sort(sortOrder.comparator());
+
+        String title = "Directory: " + deTag(URIUtil.decodePath(base));
+
+        out.write("""
+            <?xml version="1.0" encoding="utf-8"?>
+            <!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+            <html xmlns="http://www.w3.org/1999/xhtml" lang="en">
+            <head>
+            <meta charset="utf-8"/>
+            <title>""");
+        out.write(title);
+        out.write("</title>\n</head><body>\n<h1 class=\"title\">");
+        out.write(title);
+        out.write("</h1>\n");
+
+        out.write("<table class=\"listing\">\n<thead>\n<tr>");
+        writeHeader(out, sortOrder, 'N', "name", "Name");
+        writeHeader(out, sortOrder, 'M', "lastmodified", "Last Modified");
+        writeHeader(out, sortOrder, 'S', "size", "Size");
+        out.write("</tr>\n</thead>\n<tbody>\n");
+
+        String encodedBase = hrefEncodeURI(base);
+
+        if (parent)
+        {
+            out.write("<tr><td class=\"name\"><a href=\"");
+            out.write(URIUtil.addPaths(encodedBase, "../"));
+            out.write("\">Parent Directory</a></td><td class=\"lastmodified\">-</td><td class=\"size\">-</td></tr>\n");
+        }
+
+        DateFormat dfmt = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+        for (Resource item : listing)
+        {
+            String name = item.getFileName();
+            if (StringUtil.isBlank(name))
+                continue;
+
+            boolean isDir = item.isDirectory();
+            if (isDir && !name.endsWith("/"))
+                name += "/";
+
+            out.write("<tr><td class=\"name\"><a href=\"");
+            out.write(URIUtil.addEncodedPaths(encodedBase, URIUtil.encodePath(name)));
+            out.write("\">");
+            out.write(deTag(name));
+            out.write("&nbsp;</a></td><td class=\"lastmodified\">");
+            Instant lastModified = item.lastModified();
+            out.write(dfmt.format(new Date(lastModified.toEpochMilli())));
+            out.write("&nbsp;</td><td class=\"size\">");
+            if (isDir)
+                out.write("-");
+            else
+                out.write(String.format("%,d bytes", item.length()));
+            out.write("&nbsp;</td></tr>\n");
+        }
+
+        out.write("</tbody>\n</table>\n</body></html>\n");
+        return true;
+    }
+
+    private static void writeHeader(Writer out, SortOrder sortOrder, char column, String cssClass, String label) throws IOException
+    {
+        String order = "A";
+        String arrow = "";
+        if (sortOrder.column() == column)
+        {
+            order = sortOrder.ascending() ? "D" : "A";
+            arrow = sortOrder.ascending() ? "&nbsp; &#8679;" : "&nbsp; &#8681;";
+        }
+        out.write("<th class=\"");
+        out.write(cssClass);
+        out.write("\"><a href=\"?C=");
+        out.write(column);
+        out.write("&amp;O=");
+        out.write(order);
+        out.write("\">");
+        out.write(label);
+        out.write(arrow);
+        out.write("</a></th>");
+    }
+
+    /**
+     * Encode any characters that could break the URI string in an HREF.
+     * <p>
+     * Such as:
+     * {@code <a href="/path/to;<script>Window.alert('XSS'+'%20'+'here');</script>">Link</a>}
+     * </p>
+     * The above example would parse incorrectly on various browsers as the "<" or '"' characters
+     * would end the href attribute value string prematurely.
+     *
+     * @param raw the raw text to encode.
+     * @return the defanged text.
+     */
+    private static String hrefEncodeURI(String raw)
+    {
+        StringBuilder buf = null;
+
+        loop:
+        for (int i = 0; i < raw.length(); i++)
+        {
+            char c = raw.charAt(i);
+            switch (c)
+            {
+                case '\'':
+                case '"':
+                case '<':
+                case '>':
+                    buf = new StringBuilder(raw.length() << 1);
+                    break loop;
+                default:
+                    break;
+            }
+        }
+        if (buf == null)
+            return raw;
+
+        for (int i = 0; i < raw.length(); i++)
+        {
+            char c = raw.charAt(i);
+            switch (c)
+            {
+                case '"' -> buf.append("%22");
+                case '\'' -> buf.append("%27");
+                case '<' -> buf.append("%3C");
+                case '>' -> buf.append("%3E");
+                default -> buf.append(c);
+            }
+        }
+
+        return buf.toString();
+    }
+
+    private static String deTag(String raw)
+    {
+        return StringUtil.sanitizeXmlString(raw);
+    }
+
+    private record SortOrder(char column, boolean ascending)
+    {
+        private static final SortOrder DEFAULT = new SortOrder('N', true);
+
+        static SortOrder from(String query)
+        {
+            if (StringUtil.isBlank(query))
+                return DEFAULT;
+
+            Fields params = new Fields();
+            UrlEncoded.decodeUtf8To(query, 0, query.length(), params);
+
+            char column = 'N';
+            String paramC = params.getValue("C");
+            if ("M".equals(paramC) || "S".equals(paramC))
+                column = paramC.charAt(0);
+            boolean ascending = !"D".equals(params.getValue("O"));
+            return (column == 'N' && ascending) ? DEFAULT : new SortOrder(column, ascending);
+        }
+
+        Comparator<? super Resource> comparator()
+        {
+            return switch (column)
+            {
+                case 'M' -> ResourceCollators.byLastModified(ascending);
+                case 'S' -> ResourceCollators.bySize(ascending);
+                default -> ResourceCollators.byFileName(ascending);
+            };
+        }
+
+        @Override
+        public String toString()
+        {
+            return column + (ascending ? "A" : "D");
+        }
+    }
+
+    /**
+     * <p>A bounded cache of rendered directory listings.</p>
+     * <p>Listings are rendered into {@link ByteBufferPool} buffers and cached by directory,
+     * base URI and sort order. A cached listing is valid as long as the last modified time of its
+     * directory is unchanged, that is until entries are added, removed or renamed; changes to
+     * the size or the last modified time of the entries themselves are not reflected.
+     * When the cache exceeds its maximum size, the least recently used listings are evicted.</p>
+     */
+    public static class Cache
+    {
+        private static final long DEFAULT_MAX_CACHE_SIZE = 16 * 1024 * 1024;
+
+        private final ConcurrentHashMap<String, Listing> _cache = new ConcurrentHashMap<>();
+        private final AtomicLong _cachedSize = new AtomicLong();
+        private final ByteBufferPool _bufferPool;
+        private final boolean _useDirectByteBuffers;
+        private long _maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+        public Cache(ByteBufferPool bufferPool, boolean useDirectByteBuffers)
+        {
+            _bufferPool = bufferPool != null ? bufferPool : ByteBufferPool.NON_POOLING;
+            _useDirectByteBuffers = useDirectByteBuffers;
+        }
+
+        public long getCachedSize()
+        {
+            return _cachedSize.get();
+        }
+
+        public int getCachedListings()
+        {
+            return _cache.size();
+        }
+
+        public long getMaxCacheSize()
+        {
+            return _maxCacheSize;
+        }
+
+        /**
+         * @param maxCacheSize the maximum number of bytes of rendered listings to cache, 0 to disable caching
+         */
+        public void setMaxCacheSize(long maxCacheSize)
+        {
+            _maxCacheSize = maxCacheSize;
+            shrinkCache();
+        }
+
+        /**
+         * <p>Get the rendered listing of a directory, rendering it if it is not cached or stale.</p>
+         * <p>The returned listing is retained and must be {@link Listing#release() released}.</p>
+         *
+         * @param resource the directory resource
+         * @param base The base URL
+         * @param parent True if the parent directory should be included
+         * @param query query params
+         * @return the retained listing, or null if the resource is not a directory
+         * @throws IOException if the listing cannot be rendered
+         */
+        public Listing getListing(Resource resource, String base, boolean parent, String query) throws IOException
+        {
+            SortOrder sortOrder = SortOrder.from(query);
+            Instant lastModified = resource.lastModified();
+            String key = resource.getURI() + "|" + base + "|" + parent + "|" + sortOrder;
+
+            Listing listing = _cache.get(key);
+            if (listing != null)
+            {
+                if (listing._lastModified.equals(lastModified) && listing.retain())
+                {
+                    listing._lastAccessed = NanoTime.now();
+                    return listing;
+                }
+                removeFromCache(listing);
+            }
+
+            RetainableByteBuffer buffer;
+            ByteBufferOutputStream2 out = new ByteBufferOutputStream2(_bufferPool, _useDirectByteBuffers);
+            try
+            {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                if (!writeAsXHTML(writer, resource, base, parent, sortOrder))
+                    return null;
+                writer.flush();
+                buffer = out.takeByteBuffer();
+            }
+            finally
+            {
+                out.close();
+            }
+
+            listing = new Listing(key, buffer, lastModified);
+            if (_maxCacheSize <= 0 || listing.getContentLength() > _maxCacheSize)
+                return listing;
+
+            // The cache holds its own reference.
+            listing.retain();
+            Listing previous = _cache.put(key, listing);
+            _cachedSize.addAndGet(listing.getContentLength());
+            if (previous != null)
+            {
+                _cachedSize.addAndGet(-previous.getContentLength());
+                previous.release();
+            }
+            shrinkCache();
+            return listing;
+        }
+
+        public void flushCache()
+        {
+            for (Listing listing : _cache.values())
+            {
+                removeFromCache(listing);
+            }
+        }
+
+        private void removeFromCache(Listing listing)
+        {
+            if (_cache.remove(listing._key, listing))
+            {
+                _cachedSize.addAndGet(-listing.getContentLength());
+                listing.release();
+            }
+        }
+
+        private void shrinkCache()
+        {
+            if (_cachedSize.get() <= _maxCacheSize)
+                return;
+
+            SortedSet<Listing> sorted = new TreeSet<>((l1, l2) ->
+            {
+                long delta = NanoTime.elapsed(l2._lastAccessed, l1._lastAccessed);
+                if (delta != 0)
+                    return delta < 0 ? -1 : 1;
+                return l1._key.compareTo(l2._key);
+            });
+            sorted.addAll(_cache.values());
+
+            // Evict least recently used first.
+            for (Listing listing : sorted)
+            {
+                if (_cachedSize.get() <= _maxCacheSize)
+                    break;
+                removeFromCache(listing);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%s@%x[listings=%d,size=%d,max=%d]".formatted(getClass().getSimpleName(), hashCode(), _cache.size(), _cachedSize.get(), _maxCacheSize);
+        }
+    }
+
+    /**
+     * A rendered directory listing.
+     */
+    public static class Listing
+    {
+        private final Retainable.ReferenceCounter _referenceCount = new Retainable.ReferenceCounter();
+        private final String _key;
+        private final RetainableByteBuffer _buffer;
+        private final Instant _lastModified;
+        private final String _etag;
+        private volatile long _lastAccessed = NanoTime.now();
+
+        private Listing(String key, RetainableByteBuffer buffer, Instant lastModified)
+        {
+            _key = key;
+            _buffer = buffer;
+            _lastModified = lastModified;
+            Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+            _etag = "W/\"" + encoder.encodeToString(toBytes(lastModified.toEpochMilli() ^ key.hashCode())) +
+                encoder.encodeToString(toBytes(buffer.remaining())) + "\"";
+        }
+
+        private static byte[] toBytes(long value)
+        {
+            return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+        }
+
+        /**
+         * @return a new read-only {@link ByteBuffer} over the rendered listing
+         */
+        public ByteBuffer getByteBuffer()
+        {
+            return _buffer.getByteBuffer().asReadOnlyBuffer();
+        }
+
+        public long getContentLength()
+        {
+            return _buffer.remaining();
+        }
+
+        public Instant getLastModified()
+        {
+            return _lastModified;
+        }
+
+        /**
+         * @return a weak etag for the listing, derived from the directory last modified time and the sort order
+         */
+        public String getETag()
+        {
+            return _etag;
+        }
+
+        private boolean retain()
+        {
+            return _referenceCount.tryRetain();
+        }
+
+        public void release()
+        {
+            if (_referenceCount.release())
+                _buffer.release();
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import ab.eazy.http.ByteRange;
 import ab.eazy.http.CompressedContentFormat;
+import ab.eazy.http.DateGenerator;
 import ab.eazy.http.EtagUtils;
 import ab.eazy.http.HttpDateTime;
 import ab.eazy.http.HttpField;
@@ -39,6 +40,7 @@ import ab.eazy.http.HttpFields;
 import ab.eazy.http.HttpHeader;
 import ab.eazy.http.HttpStatus;
 import ab.eazy.http.HttpURI;
+import ab.eazy.http.MimeTypes;
 import ab.eazy.http.MultiPart;
 import ab.eazy.http.MultiPartByteRanges;
 import ab.eazy.http.PreEncodedHttpField;
@@ -59,8 +61,9 @@ import ab.eazy.io.Content;
 import ab.eazy.io.IOResources;
 import ab.eazy.server.handler.ContextHandler;
 import ab.eazy.util.Callback;
-/*
 import ab.eazy.util.URIUtil;
+import ab.eazy.util.thread.AutoLock;
+/*
 import ab.eazy.util.resource.Resource;
 import ab.eazy.util.resource.Resources;
 */
@@ -76,19 +79,23 @@ public class ResourceService
     private static final Logger LOG = LoggerFactory.getLogger(ResourceService.class);
     private static final int NO_CONTENT_LENGTH = -1;
     private static final int USE_KNOWN_CONTENT_LENGTH = -2;
+    private static final HttpField ACCEPT_RANGES_BYTES = new PreEncodedHttpField(HttpHeader.ACCEPT_RANGES, "bytes");
 
     private final List<CompressedContentFormat> _precompressedFormats = new ArrayList<>();
     private final Map<String, List<String>> _preferredEncodingOrderCache = new ConcurrentHashMap<>();
     private final List<String> _preferredEncodingOrder = new ArrayList<>();
+    private final AutoLock _lock = new AutoLock();
 
     private String _rootDir = "./";
     private boolean _etags = false;
     private int _encodingCacheSize = 100;
-    private boolean _dirAllowed = true;
+    private boolean _dirAllowed = false;
     private boolean _acceptRanges = true;
     private HttpContent.Factory _contentFactory;
     private HttpField _cacheControl;
     private List<String> _gzipEquivalentFileExtensions;
+    private long _maxListingCacheSize = 16 * 1024 * 1024;
+    private volatile ResourceListing.Cache _listingCache;
 
     public ResourceService()
     {
@@ -455,6 +462,8 @@ public class ResourceService
         if (Files.isReadable(Paths.get(welcomeTarget))) {
             HttpContent c = _contentFactory.getContent(welcomeTarget);
             sendData(request, response, callback, c, List.of());
+        } else if (_dirAllowed) {
+            sendDirectory(request, response, callback, content, pathInContext);
         } else {
 
             if (!passConditionalHeaders(request, response, content, callback)) {
@@ -463,6 +472,77 @@ public class ResourceService
         }
     }
 
+    private void sendDirectory(Request request, Response response, Callback callback, HttpContent content, String pathInContext) throws IOException
+    {
+        String base = URIUtil.addEncodedPaths(request.getHttpURI().getPath(), "/");
+        ResourceListing.Listing listing = getListingCache(request).getListing(content.getResource(), base, pathInContext.length() > 1, request.getHttpURI().getQuery());
+        if (listing == null)
+        {
+            writeHttpError(request, response, callback, HttpStatus.FORBIDDEN_403);
+            return;
+        }
+        callback = Callback.from(callback, listing::release);
+
+        try
+        {
+            String ifnm = request.getHeaders().get(HttpHeader.IF_NONE_MATCH);
+            if (_etags && ifnm != null)
+            {
+                String matched = matchesEtag(listing.getETag(), ifnm);
+                if (matched != null)
+                {
+                    response.getHeaders().put(HttpHeader.ETAG, matched);
+                    writeHttpError(request, response, callback, HttpStatus.NOT_MODIFIED_304);
+                    return;
+                }
+            }
+            else
+            {
+                String ifms = request.getHeaders().get(HttpHeader.IF_MODIFIED_SINCE);
+                long ifmsl = ifms == null ? -1 : HttpDateTime.parseToEpoch(ifms);
+                if (ifmsl != -1 && listing.getLastModified().toEpochMilli() / 1000 <= ifmsl / 1000)
+                {
+                    writeHttpError(request, response, callback, HttpStatus.NOT_MODIFIED_304);
+                    return;
+                }
+            }
+
+            HttpFields.Mutable headers = response.getHeaders();
+            headers.put(MimeTypes.Type.TEXT_HTML_UTF_8.getContentTypeField());
+            headers.put(HttpHeader.CONTENT_LENGTH, listing.getContentLength());
+            headers.put(HttpHeader.LAST_MODIFIED, DateGenerator.formatDate(listing.getLastModified()));
+            if (_etags)
+                headers.put(HttpHeader.ETAG, listing.getETag());
+            if (_cacheControl != null && !headers.contains(HttpHeader.CACHE_CONTROL))
+                headers.put(_cacheControl);
+            response.write(true, listing.getByteBuffer(), callback);
+        }
+        catch (Throwable x)
+        {
+            callback.failed(x);
+        }
+    }
+
+    private ResourceListing.Cache getListingCache(Request request)
+    {
+        ResourceListing.Cache cache = _listingCache;
+        if (cache == null)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                cache = _listingCache;
+                if (cache == null)
+                {
+                    cache = new ResourceListing.Cache(request.getComponents().getByteBufferPool(),
+                        request.getConnectionMetaData().getHttpConfiguration().isUseOutputDirectByteBuffers());
+                    cache.setMaxCacheSize(_maxListingCacheSize);
+                    _listingCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
     private void sendData(Request request, Response response, Callback callback, HttpContent content, List<String> reqRanges) throws IOException
     {
         if (LOG.isDebugEnabled()) {
@@ -569,38 +649,41 @@ public class ResourceService
 //            headers.add(lm);
 //        etc.
 
+        // Put the content fields first and in this order, so that fields pre encoded
+        // in a block by a cached content are generated with a single copy.
+        HttpFields.Mutable headers = response.getHeaders();
         HttpField lm = content.getLastModified();
         if (lm != null)
-            response.getHeaders().put(lm);
-
-        if (contentLength == USE_KNOWN_CONTENT_LENGTH)
-        {
-            response.getHeaders().put(content.getContentLength());
-        }
-        else if (contentLength > NO_CONTENT_LENGTH)
-        {
-            response.getHeaders().put(HttpHeader.CONTENT_LENGTH, contentLength);
-        }
+            headers.put(lm);
 
         HttpField ct = content.getContentType();
         if (ct != null)
-            response.getHeaders().put(ct);
+            headers.put(ct);
 
         HttpField ce = content.getContentEncoding();
         if (ce != null)
-            response.getHeaders().put(ce);
+            headers.put(ce);
 
         if (_etags)
         {
             HttpField et = content.getETag();
             if (et != null)
-                response.getHeaders().put(et);
+                headers.put(et);
         }
 
-        if (_acceptRanges && !response.getHeaders().contains(HttpHeader.ACCEPT_RANGES))
-            response.getHeaders().put(new PreEncodedHttpField(HttpHeader.ACCEPT_RANGES, "bytes"));
-        if (_cacheControl != null && !response.getHeaders().contains(HttpHeader.CACHE_CONTROL))
-            response.getHeaders().put(_cacheControl);
+        if (contentLength == USE_KNOWN_CONTENT_LENGTH)
+        {
+            headers.put(content.getContentLength());
+        }
+        else if (contentLength > NO_CONTENT_LENGTH)
+        {
+            headers.put(HttpHeader.CONTENT_LENGTH, contentLength);
+        }
+
+        if (_acceptRanges && !headers.contains(HttpHeader.ACCEPT_RANGES))
+            headers.put(ACCEPT_RANGES_BYTES);
+        if (_cacheControl != null && !headers.contains(HttpHeader.CACHE_CONTROL))
+            headers.put(_cacheControl);
     }
 
     /**
@@ -713,6 +796,25 @@ public class ResourceService
         return _encodingCacheSize;
     }
 
+    /**
+     * @return the maximum number of bytes of rendered directory listings to cache
+     */
+    public long getMaxListingCacheSize()
+    {
+        return _maxListingCacheSize;
+    }
+
+    /**
+     * @param maxListingCacheSize the maximum number of bytes of rendered directory listings to cache, 0 to disable caching
+     */
+    public void setMaxListingCacheSize(long maxListingCacheSize)
+    {
+        _maxListingCacheSize = maxListingCacheSize;
+        ResourceListing.Cache cache = _listingCache;
+        if (cache != null)
+            cache.setMaxCacheSize(maxListingCacheSize);
+    }
+
 /*
     public void setWelcomeMode(WelcomeMode welcomeMode)
     {
@@ -29,9 +29,8 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
-import ab.eazy.http.DateGenerator;
 import ab.eazy.http.HttpField;
-import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpMethod;
 import ab.eazy.io.ArrayByteBufferPool;
 import ab.eazy.io.ByteBufferPool;
 import ab.eazy.io.Connection;
@@ -54,7 +53,6 @@ import ab.eazy.util.component.LifeCycle;
 import ab.eazy.util.resource.FileSystemPool;
 import ab.eazy.util.resource.Resource;
 import ab.eazy.util.resource.ResourceFactory;
-import ab.eazy.util.thread.AutoLock;
 import ab.eazy.util.thread.QueuedThreadPool;
 import ab.eazy.util.thread.ScheduledExecutorScheduler;
 import ab.eazy.util.thread.Scheduler;
@@ -77,10 +75,9 @@ public class Server extends Handler.Abstract implements Attributes
     private final List<Handler> _handlers = new ArrayList<>();
 
     private final Context _serverContext = new ServerContext();
-    private final AutoLock _dateLock = new AutoLock();
+    private final DateClock _dateClock;
     private Request.Handler _errorHandler = new ErrorHandler();
     private RequestLog _requestLog;
-    private volatile DateField _dateField;
     private long _stopTimeout;
     private File _tempDirectory;
 
@@ -98,10 +95,27 @@ public class Server extends Handler.Abstract implements Attributes
      */
     public Server(@Name("port") int port)
     {
-        _threadPool = new QueuedThreadPool();
+        this(null, port);
+    }
+
+    /**
+     * Convenience constructor
+     * Creates server with the passed {@link ThreadPool} and a {@link ServerConnector} at the passed port.
+     *
+     * @param threadPool The thread pool of the server, or null for a default {@link QueuedThreadPool}.
+     * The thread pool should implement {@link ab.eazy.util.thread.TryExecutor} and
+     * {@link ThreadPool.SizedThreadPool} to be used by the connectors as a {@link QueuedThreadPool} would.
+     * @param port The port of a network HTTP connector (or 0 for a randomly allocated port).
+     * @see ab.eazy.util.thread.WorkStealingThreadPool
+     */
+    public Server(@Name("threadPool") ThreadPool threadPool, @Name("port") int port)
+    {
+        _threadPool = threadPool != null ? threadPool : new QueuedThreadPool();
         installBean(_threadPool);
         _scheduler = new ScheduledExecutorScheduler();
         installBean(_scheduler);
+        _dateClock = new DateClock(_scheduler);
+        installBean(_dateClock);
         _bufferPool = new ArrayByteBufferPool();
         installBean(_bufferPool);
         installBean(FileSystemPool.INSTANCE, false);
@@ -121,8 +135,9 @@ public class Server extends Handler.Abstract implements Attributes
             return false;
         }
 
+        // A CONNECT request has an authority rather than a path.
         String path = Request.getPathInContext(request);
-        if (!path.startsWith("/")) {
+        if (!HttpMethod.CONNECT.is(request.getMethod()) && (path == null || !path.startsWith("/"))) {
             return false;
         }
 
@@ -226,7 +241,33 @@ public class Server extends Handler.Abstract implements Attributes
      */
     public void addHandler(Handler handler)
     {
-      _handlers.add(handler);
+        if (handler instanceof Handler.Abstract abstractHandler)
+            abstractHandler.setServer(this);
+        _handlers.add(handler);
+        addBean(handler);
+    }
+
+    /**
+     * <p>Add a connector, for example a {@link UnixDomainServerConnector}, in addition to
+     * the {@link ServerConnector} created by the constructor.</p>
+     *
+     * @param connector the connector, which must have been created for this server
+     */
+    public void addConnector(Connector connector)
+    {
+        if (connector.getServer() != this)
+            throw new IllegalArgumentException("Connector " + connector + " cannot be shared among server " + connector.getServer() + " and server " + this);
+        _connectors.add(connector);
+        addBean(connector);
+    }
+
+    /**
+     * @param connector the connector to remove
+     */
+    public void removeConnector(Connector connector)
+    {
+        if (_connectors.remove(connector))
+            removeBean(connector);
     }
 
     /**
@@ -267,24 +308,16 @@ public class Server extends Handler.Abstract implements Attributes
      */
     public HttpField getDateField()
     {
-        long now = System.currentTimeMillis();
-        long seconds = now / 1000;
-        DateField df = _dateField;
+        return _dateClock.getDateField();
+    }
 
-        if (df == null || df._seconds != seconds)
-        {
-            try (AutoLock ignore = _dateLock.lock())
-            {
-                df = _dateField;
-                if (df == null || df._seconds != seconds)
-                {
-                    HttpField field = new ResponseHttpFields.PersistentPreEncodedHttpField(HttpHeader.DATE, DateGenerator.formatDate(now));
-                    _dateField = new DateField(seconds, field);
-                    return field;
-                }
-            }
-        }
-        return df._dateField;
+    /**
+     * @return the clock that keeps the {@code Date} field and any registered
+     * {@link ab.eazy.util.DateCache}s up to date every second.
+     */
+    public DateClock getDateClock()
+    {
+        return _dateClock;
     }
 
     @Override
@@ -536,19 +569,6 @@ public class Server extends Handler.Abstract implements Attributes
         return String.format("%s[stop=%d]", super.toString(), getStopTimeout());
     }
 
-    private static class DateField
-    {
-        final long _seconds;
-        final HttpField _dateField;
-
-        public DateField(long seconds, HttpField dateField)
-        {
-            super();
-            _seconds = seconds;
-            _dateField = dateField;
-        }
-    }
-
     class ServerContext extends Attributes.Wrapper implements Context
     {
         private final File jettyBase = IO.asFile(System.getProperty("jetty.base"));
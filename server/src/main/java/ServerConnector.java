@@ -67,6 +67,14 @@ import ab.eazy.util.thread.Scheduler;
  * which should allow optimal performance even if all the connections used are performing
  * significant non-blocking work in the callback tasks.
  * </p>
+ * <h2>Reuse Port Listeners</h2>
+ * <p>
+ * By default all the acceptors share a single server channel and therefore a single kernel accept queue.
+ * With {@link #setReusePortListeners(int)} the connector binds several server channels to the same
+ * host and port with {@code SO_REUSEPORT}, so that the kernel spreads the incoming connections over
+ * several accept queues. If there are no acceptor threads, each channel is registered with its own
+ * {@link ManagedSelector}, and the connections it accepts are handled by that same selector.
+ * </p>
  */
 @ManagedObject("HTTP connector using NIO ByteChannels and Selectors")
 public class ServerConnector extends AbstractNetworkConnector
@@ -74,11 +82,13 @@ public class ServerConnector extends AbstractNetworkConnector
     private final SelectorManager _manager;
     private final AtomicReference<Closeable> _acceptor = new AtomicReference<>();
     private volatile ServerSocketChannel _acceptChannel;
+    private volatile ServerSocketChannel[] _acceptChannels;
     private volatile boolean _inheritChannel = false;
     private volatile int _localPort = -1;
     private volatile int _acceptQueueSize = 0;
     private volatile boolean _reuseAddress = true;
     private volatile boolean _reusePort = false;
+    private volatile int _reusePortListeners = 1;
     private volatile boolean _acceptedTcpNoDelay = true;
     private volatile int _acceptedReceiveBufferSize = -1;
     private volatile int _acceptedSendBufferSize = -1;
@@ -162,7 +172,10 @@ public class ServerConnector extends AbstractNetworkConnector
     @Override
     protected void doStart() throws Exception
     {
-        addBean(_acceptChannel);
+        for (ServerSocketChannel channel : _acceptChannels)
+        {
+            addBean(channel);
+        }
 
         for (EventListener l : getBeans(SelectorManager.SelectorManagerListener.class))
             _manager.addEventListener(l);
@@ -170,10 +183,25 @@ public class ServerConnector extends AbstractNetworkConnector
         super.doStart();
 
         if (getAcceptors() == 0)
+            _acceptor.set(newSelectorAcceptor());
+    }
+
+    private Closeable newSelectorAcceptor() throws IOException
+    {
+        ServerSocketChannel[] channels = _acceptChannels;
+        if (channels.length == 1)
+        {
+            channels[0].configureBlocking(false);
+            return _manager.acceptor(channels[0]);
+        }
+
+        Closeable[] acceptors = new Closeable[channels.length];
+        for (int i = 0; i < channels.length; i++)
         {
-            _acceptChannel.configureBlocking(false);
-            _acceptor.set(_manager.acceptor(_acceptChannel));
+            channels[i].configureBlocking(false);
+            acceptors[i] = _manager.acceptor(channels[i], i);
         }
+        return () -> close(acceptors);
     }
 
     @Override
@@ -183,8 +211,12 @@ public class ServerConnector extends AbstractNetworkConnector
 
         super.doStop();
 
-        removeBean(_acceptChannel);
+        for (ServerSocketChannel channel : _acceptChannels)
+        {
+            removeBean(channel);
+        }
         _acceptChannel = null;
+        _acceptChannels = null;
 
         for (EventListener l : getBeans(EventListener.class))
         {
@@ -238,6 +270,7 @@ public class ServerConnector extends AbstractNetworkConnector
         if (isStarted())
             throw new IllegalStateException(getState());
         _acceptChannel = acceptChannel;
+        _acceptChannels = new ServerSocketChannel[]{acceptChannel};
         _acceptChannel.configureBlocking(true);
         _localPort = _acceptChannel.socket().getLocalPort();
         if (_localPort <= 0)
@@ -250,10 +283,50 @@ public class ServerConnector extends AbstractNetworkConnector
         if (_acceptChannel == null)
         {
             open(openAcceptChannel());
+            openReusePortListeners();
             super.open();
         }
     }
 
+    private void openReusePortListeners() throws IOException
+    {
+        int listeners = getReusePortListeners();
+        // Each acceptor thread blocks on the accept of a single channel.
+        if (getAcceptors() > 0 && listeners > getAcceptors())
+        {
+            LOG.warn("Limiting reuse port listeners to the {} acceptors of {}", getAcceptors(), this);
+            listeners = getAcceptors();
+        }
+        if (listeners <= 1)
+            return;
+
+        if (!Boolean.TRUE.equals(_acceptChannel.getOption(StandardSocketOptions.SO_REUSEPORT)))
+        {
+            LOG.warn("Unable to open {} reuse port listeners, SO_REUSEPORT not enabled on {}", listeners, _acceptChannel);
+            return;
+        }
+
+        ServerSocketChannel[] channels = new ServerSocketChannel[listeners];
+        channels[0] = _acceptChannel;
+        try
+        {
+            // Bind to the local port, as the configured port may be 0.
+            for (int i = 1; i < listeners; i++)
+            {
+                channels[i] = bindAcceptChannel(_localPort, true);
+                channels[i].configureBlocking(true);
+            }
+        }
+        catch (Throwable x)
+        {
+            close(channels);
+            _acceptChannel = null;
+            _acceptChannels = null;
+            throw x;
+        }
+        _acceptChannels = channels;
+    }
+
     /**
      * Called by {@link #open()} to obtain the accepting channel.
      *
@@ -273,25 +346,37 @@ public class ServerConnector extends AbstractNetworkConnector
         }
 
         if (serverChannel == null)
+            serverChannel = bindAcceptChannel(getPort(), isReusePort() || getReusePortListeners() > 1);
+
+        return serverChannel;
+    }
+
+    private ServerSocketChannel bindAcceptChannel(int port, boolean reusePort) throws IOException
+    {
+        InetSocketAddress bindAddress = getHost() == null ? new InetSocketAddress(port) : new InetSocketAddress(getHost(), port);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        setSocketOption(serverChannel, StandardSocketOptions.SO_REUSEADDR, getReuseAddress());
+        setSocketOption(serverChannel, StandardSocketOptions.SO_REUSEPORT, reusePort);
+        try
         {
-            InetSocketAddress bindAddress = getHost() == null ? new InetSocketAddress(getPort()) : new InetSocketAddress(getHost(), getPort());
-            serverChannel = ServerSocketChannel.open();
-            setSocketOption(serverChannel, StandardSocketOptions.SO_REUSEADDR, getReuseAddress());
-            setSocketOption(serverChannel, StandardSocketOptions.SO_REUSEPORT, isReusePort());
-            try
-            {
-                serverChannel.bind(bindAddress, getAcceptQueueSize());
-            }
-            catch (Throwable e)
-            {
-                IO.close(serverChannel);
-                throw new IOException("Failed to bind to " + bindAddress, e);
-            }
+            serverChannel.bind(bindAddress, getAcceptQueueSize());
+        }
+        catch (Throwable e)
+        {
+            IO.close(serverChannel);
+            throw new IOException("Failed to bind to " + bindAddress, e);
         }
-
         return serverChannel;
     }
 
+    private static void close(Closeable[] closeables)
+    {
+        for (Closeable closeable : closeables)
+        {
+            IO.close(closeable);
+        }
+    }
+
     private <T> void setSocketOption(ServerSocketChannel channel, SocketOption<T> option, T value)
     {
         try
@@ -314,7 +399,11 @@ public class ServerConnector extends AbstractNetworkConnector
         // to be closed by the SelectorManager when the
         // SelectorManager is stopped (as a bean) in doStop().
         if (getAcceptors() > 0)
-            IO.close(_acceptChannel);
+        {
+            ServerSocketChannel[] channels = _acceptChannels;
+            if (channels != null)
+                close(channels);
+        }
 
         _localPort = -2;
     }
@@ -322,7 +411,8 @@ public class ServerConnector extends AbstractNetworkConnector
     @Override
     public void accept(int acceptorID) throws IOException
     {
-        ServerSocketChannel serverChannel = _acceptChannel;
+        ServerSocketChannel[] channels = _acceptChannels;
+        ServerSocketChannel serverChannel = channels == null ? null : channels[acceptorID % channels.length];
         if (serverChannel != null && serverChannel.isOpen())
         {
             SocketChannel channel = serverChannel.accept();
@@ -435,6 +525,33 @@ public class ServerConnector extends AbstractNetworkConnector
         _reusePort = reusePort;
     }
 
+    /**
+     * @return the number of server channels bound to the same host and port with {@code SO_REUSEPORT}
+     */
+    @ManagedAttribute("The number of SO_REUSEPORT listeners")
+    public int getReusePortListeners()
+    {
+        return _reusePortListeners;
+    }
+
+    /**
+     * <p>Set the number of server channels to bind to the same host and port with {@code SO_REUSEPORT}.</p>
+     * <p>If greater than 1, {@code SO_REUSEPORT} is enabled on all the channels, and the kernel spreads
+     * incoming connections over their accept queues. Each acceptor thread accepts from a single channel,
+     * so the number of listeners is limited to the number of acceptors. If there are no acceptor threads,
+     * each channel is registered with a different selector, so the number of listeners should not exceed
+     * the number of selectors.</p>
+     *
+     * @param listeners the number of server channels
+     * @see #setReusePort(boolean)
+     */
+    public void setReusePortListeners(int listeners)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _reusePortListeners = Math.max(1, listeners);
+    }
+
     /**
      * @return whether the accepted socket gets {@link java.net.SocketOptions#TCP_NODELAY TCP_NODELAY} enabled.
      * @see Socket#getTcpNoDelay()
@@ -509,7 +626,7 @@ public class ServerConnector extends AbstractNetworkConnector
             {
                 if (_acceptor.get() == null)
                 {
-                    Closeable acceptor = _manager.acceptor(_acceptChannel);
+                    Closeable acceptor = newSelectorAcceptor();
                     if (!_acceptor.compareAndSet(null, acceptor))
                         acceptor.close();
                 }
@@ -540,6 +657,23 @@ public class ServerConnector extends AbstractNetworkConnector
             ServerConnector.this.accepted((SocketChannel)channel);
         }
 
+        @Override
+        protected void accepted(SelectableChannel channel, ManagedSelector selector) throws IOException
+        {
+            ServerSocketChannel[] channels = _acceptChannels;
+            if (channels == null || channels.length == 1)
+            {
+                super.accepted(channel, selector);
+                return;
+            }
+
+            // Keep the connection on the selector of its listener.
+            SocketChannel socketChannel = (SocketChannel)channel;
+            socketChannel.configureBlocking(false);
+            configure(socketChannel.socket());
+            accept(socketChannel, null, selector);
+        }
+
         @Override
         protected SocketChannelEndPoint newEndPoint(SelectableChannel channel, ManagedSelector selector, SelectionKey selectionKey) throws IOException
         {
@@ -0,0 +1,365 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EventListener;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.Connection;
+import ab.eazy.io.EndPoint;
+import ab.eazy.io.ManagedSelector;
+import ab.eazy.io.SelectorManager;
+import ab.eazy.io.SocketChannelEndPoint;
+import ab.eazy.util.IO;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.Name;
+import ab.eazy.util.thread.Scheduler;
+
+/**
+ * <p>A {@link Connector} implementation for Unix-Domain server socket channels.</p>
+ * <p>UnixDomainServerConnector "listens" to a {@link #setUnixDomainPath(Path) Unix-Domain path}
+ * and behaves like {@link ServerConnector} with respect to acceptors, selectors and connection factories.</p>
+ * <p>Important: the Unix-Domain path must be less than 108 bytes.
+ * This limit is set by the way Unix-Domain sockets work at the OS level.</p>
+ * <p>The path is deleted when the connector is stopped.</p>
+ */
+@ManagedObject
+public class UnixDomainServerConnector extends AbstractConnector
+{
+    public static final int MAX_UNIX_DOMAIN_PATH_LENGTH = 107;
+
+    private final AtomicReference<Closeable> _acceptor = new AtomicReference<>();
+    private final SelectorManager _manager;
+    private volatile ServerSocketChannel _acceptChannel;
+    private volatile Path _unixDomainPath;
+    private volatile boolean _inheritChannel;
+    private volatile int _acceptQueueSize;
+    private volatile int _acceptedReceiveBufferSize = -1;
+    private volatile int _acceptedSendBufferSize = -1;
+
+    public UnixDomainServerConnector(
+        @Name("server") Server server,
+        @Name("factories") ConnectionFactory... factories)
+    {
+        this(server, null, null, null, -1, -1, factories);
+    }
+
+    public UnixDomainServerConnector(
+        @Name("server") Server server,
+        @Name("acceptors") int acceptors,
+        @Name("selectors") int selectors,
+        @Name("factories") ConnectionFactory... factories)
+    {
+        this(server, null, null, null, acceptors, selectors, factories);
+    }
+
+    public UnixDomainServerConnector(
+        @Name("server") Server server,
+        @Name("executor") Executor executor,
+        @Name("scheduler") Scheduler scheduler,
+        @Name("bufferPool") ByteBufferPool bufferPool,
+        @Name("acceptors") int acceptors,
+        @Name("selectors") int selectors,
+        @Name("factories") ConnectionFactory... factories)
+    {
+        super(server, executor, scheduler, bufferPool, acceptors, factories.length > 0 ? factories : new ConnectionFactory[]{new HttpConnectionFactory()});
+        _manager = newSelectorManager(getExecutor(), getScheduler(), selectors);
+        installBean(_manager, true);
+    }
+
+    protected SelectorManager newSelectorManager(Executor executor, Scheduler scheduler, int selectors)
+    {
+        return new UnixDomainSelectorManager(executor, scheduler, selectors);
+    }
+
+    @ManagedAttribute("The Unix-Domain path this connector listens to")
+    public Path getUnixDomainPath()
+    {
+        return _unixDomainPath;
+    }
+
+    public void setUnixDomainPath(Path unixDomainPath)
+    {
+        _unixDomainPath = unixDomainPath;
+    }
+
+    @ManagedAttribute("Whether this connector uses a server channel inherited from the JVM")
+    public boolean isInheritChannel()
+    {
+        return _inheritChannel;
+    }
+
+    /**
+     * @param inheritChannel whether this connector uses a channel inherited from the JVM
+     * @see System#inheritedChannel()
+     */
+    public void setInheritChannel(boolean inheritChannel)
+    {
+        _inheritChannel = inheritChannel;
+    }
+
+    @ManagedAttribute("The accept queue size (backlog) for the server socket")
+    public int getAcceptQueueSize()
+    {
+        return _acceptQueueSize;
+    }
+
+    public void setAcceptQueueSize(int acceptQueueSize)
+    {
+        _acceptQueueSize = acceptQueueSize;
+    }
+
+    @ManagedAttribute("The SO_RCVBUF option for accepted sockets")
+    public int getAcceptedReceiveBufferSize()
+    {
+        return _acceptedReceiveBufferSize;
+    }
+
+    public void setAcceptedReceiveBufferSize(int acceptedReceiveBufferSize)
+    {
+        _acceptedReceiveBufferSize = acceptedReceiveBufferSize;
+    }
+
+    @ManagedAttribute("The SO_SNDBUF option for accepted sockets")
+    public int getAcceptedSendBufferSize()
+    {
+        return _acceptedSendBufferSize;
+    }
+
+    public void setAcceptedSendBufferSize(int acceptedSendBufferSize)
+    {
+        _acceptedSendBufferSize = acceptedSendBufferSize;
+    }
+
+    @ManagedAttribute("The Selector Manager")
+    public SelectorManager getSelectorManager()
+    {
+        return _manager;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        for (EventListener l : getBeans(SelectorManager.SelectorManagerListener.class))
+        {
+            _manager.addEventListener(l);
+        }
+
+        _acceptChannel = openAcceptChannel();
+        addBean(_acceptChannel);
+
+        super.doStart();
+
+        if (getAcceptors() == 0)
+        {
+            _acceptChannel.configureBlocking(false);
+            _acceptor.set(_manager.acceptor(_acceptChannel));
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        _acceptor.set(null);
+
+        super.doStop();
+
+        removeBean(_acceptChannel);
+        IO.close(_acceptChannel);
+        _acceptChannel = null;
+        Path unixDomainPath = getUnixDomainPath();
+        if (unixDomainPath != null)
+            Files.deleteIfExists(unixDomainPath);
+
+        for (EventListener l : getBeans(EventListener.class))
+        {
+            _manager.removeEventListener(l);
+        }
+    }
+
+    /**
+     * Called by {@link #doStart()} to obtain the accepting channel.
+     *
+     * @return ServerSocketChannel used to accept connections.
+     * @throws IOException if unable to obtain or bind the server channel
+     */
+    protected ServerSocketChannel openAcceptChannel() throws IOException
+    {
+        ServerSocketChannel serverChannel = null;
+        if (isInheritChannel())
+        {
+            Channel channel = System.inheritedChannel();
+            if (channel instanceof ServerSocketChannel)
+                serverChannel = (ServerSocketChannel)channel;
+            else
+                LOG.warn("Unable to use System.inheritedChannel() [{}]. Trying a new Unix-Domain ServerSocketChannel at {}", channel, getUnixDomainPath());
+        }
+
+        if (serverChannel == null)
+        {
+            Path unixDomainPath = getUnixDomainPath();
+            if (unixDomainPath == null)
+                throw new IllegalStateException("Missing Unix-Domain path");
+            if (unixDomainPath.toAbsolutePath().toString().length() > MAX_UNIX_DOMAIN_PATH_LENGTH)
+                throw new IOException("Unix-Domain path too long: " + unixDomainPath);
+
+            UnixDomainSocketAddress bindAddress = UnixDomainSocketAddress.of(unixDomainPath);
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            try
+            {
+                serverChannel.bind(bindAddress, getAcceptQueueSize());
+            }
+            catch (Throwable e)
+            {
+                IO.close(serverChannel);
+                throw new IOException("Failed to bind to " + bindAddress, e);
+            }
+        }
+
+        serverChannel.configureBlocking(true);
+        return serverChannel;
+    }
+
+    @Override
+    public void accept(int acceptorID) throws IOException
+    {
+        ServerSocketChannel serverChannel = _acceptChannel;
+        if (serverChannel != null && serverChannel.isOpen())
+        {
+            SocketChannel channel = serverChannel.accept();
+            accepted(channel);
+        }
+    }
+
+    private void accepted(SocketChannel channel) throws IOException
+    {
+        channel.configureBlocking(false);
+        configure(channel);
+        _manager.accept(channel);
+    }
+
+    protected void configure(SocketChannel channel) throws IOException
+    {
+        // Unix-Domain sockets support neither TCP_NODELAY nor SO_REUSEADDR.
+        if (_acceptedReceiveBufferSize > -1)
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, _acceptedReceiveBufferSize);
+        if (_acceptedSendBufferSize > -1)
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, _acceptedSendBufferSize);
+    }
+
+    @Override
+    public Object getTransport()
+    {
+        return _acceptChannel;
+    }
+
+    protected SocketChannelEndPoint newEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey key) throws IOException
+    {
+        SocketChannelEndPoint endpoint = new SocketChannelEndPoint(channel, selector, key, getScheduler());
+        endpoint.setIdleTimeout(getIdleTimeout());
+        return endpoint;
+    }
+
+    @Override
+    public void setAccepting(boolean accepting)
+    {
+        super.setAccepting(accepting);
+        if (getAcceptors() > 0)
+            return;
+
+        try
+        {
+            if (accepting)
+            {
+                if (_acceptor.get() == null)
+                {
+                    Closeable acceptor = _manager.acceptor(_acceptChannel);
+                    if (!_acceptor.compareAndSet(null, acceptor))
+                        acceptor.close();
+                }
+            }
+            else
+            {
+                Closeable acceptor = _acceptor.get();
+                if (acceptor != null && _acceptor.compareAndSet(acceptor, null))
+                    acceptor.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s]", super.toString(), getUnixDomainPath());
+    }
+
+    protected class UnixDomainSelectorManager extends SelectorManager
+    {
+        public UnixDomainSelectorManager(Executor executor, Scheduler scheduler, int selectors)
+        {
+            super(executor, scheduler, selectors);
+        }
+
+        @Override
+        protected void accepted(SelectableChannel channel) throws IOException
+        {
+            UnixDomainServerConnector.this.accepted((SocketChannel)channel);
+        }
+
+        @Override
+        protected SocketChannelEndPoint newEndPoint(SelectableChannel channel, ManagedSelector selector, SelectionKey selectionKey) throws IOException
+        {
+            return UnixDomainServerConnector.this.newEndPoint((SocketChannel)channel, selector, selectionKey);
+        }
+
+        @Override
+        public Connection newConnection(SelectableChannel channel, EndPoint endpoint, Object attachment) throws IOException
+        {
+            return getDefaultConnectionFactory().newConnection(UnixDomainServerConnector.this, endpoint);
+        }
+
+        @Override
+        protected void endPointOpened(EndPoint endpoint)
+        {
+            super.endPointOpened(endpoint);
+            onEndPointOpened(endpoint);
+        }
+
+        @Override
+        protected void endPointClosed(EndPoint endpoint)
+        {
+            onEndPointClosed(endpoint);
+            super.endPointClosed(endpoint);
+        }
+    }
+}
@@ -0,0 +1,561 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.eazy.http.HttpStatus;
+import ab.eazy.server.Handler;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.util.Callback;
+import ab.eazy.util.NanoTime;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.ManagedOperation;
+import ab.eazy.util.thread.AutoLock;
+import ab.eazy.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Handler.Wrapper} that limits the number of concurrent requests handled
+ * by its child {@link Handler}, adapting the limit to the measured request latency.</p>
+ * <p>Unlike a fixed limit, which is either too low to use the server capacity or too high
+ * to prevent requests from queuing in the thread pool until they all time out, the limit is
+ * recomputed every {@link #getSampleWindow() sample window} with a gradient algorithm:</p>
+ * <ul>
+ *   <li>the average latency of the requests completed during the window is compared to the
+ *   base latency, that is the minimum latency observed, which estimates the latency of the
+ *   requests when they do not queue; the base latency slowly drifts towards the minimum
+ *   latency of recent windows, to follow changes of the application;</li>
+ *   <li>while the average latency is within the {@link #getTolerance() tolerance} of the
+ *   base latency, the limit grows by its square root, but only if the requests in flight
+ *   actually reached half of the limit;</li>
+ *   <li>when the average latency rises, which means that requests are queuing somewhere,
+ *   the limit is reduced in proportion to the latency gradient, at most by half;</li>
+ *   <li>when requests fail, for example because they timed out, the limit is reduced
+ *   multiplicatively by the {@link #getBackoffRatio() backoff ratio}.</li>
+ * </ul>
+ * <p>The new limit is {@link #getSmoothing() smoothed} with the previous one, and bounded
+ * between {@link #getMinLimit()} and {@link #getMaxLimit()}.</p>
+ * <p>Requests in excess of the limit are either rejected immediately with a {@code 503}
+ * status, or queued if {@link #getMaxQueueSize()} is positive. Queued requests are resumed
+ * in arrival order as soon as the concurrency drops below the limit, or are rejected with
+ * a {@code 503} status if they stay queued longer than {@link #getMaxQueueTime()}.</p>
+ */
+@ManagedObject
+public class ConcurrencyLimitHandler extends Handler.Wrapper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimitHandler.class);
+    /**
+     * The number of windows over which the base latency drifts towards the recent minimum latency.
+     */
+    private static final int DRIFT_WINDOWS = 100;
+
+    private final AutoLock _lock = new AutoLock();
+    private final Deque<Queued> _queue = new ArrayDeque<>();
+    private final AtomicInteger _inflight = new AtomicInteger();
+    private final AtomicInteger _windowMaxInflight = new AtomicInteger();
+    private final AtomicLong _windowEnd = new AtomicLong(NanoTime.now());
+    private final AtomicLong _windowMinLatency = new AtomicLong(Long.MAX_VALUE);
+    private final LongAdder _windowLatencies = new LongAdder();
+    private final LongAdder _windowSamples = new LongAdder();
+    private final LongAdder _windowFailures = new LongAdder();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _expired = new LongAdder();
+    private volatile double _limit = 20;
+    private volatile int _queued;
+    private double _baseLatency;
+    private double _averageLatency;
+    private int _minLimit = 1;
+    private int _maxLimit = 1000;
+    private long _sampleWindow = 100;
+    private double _tolerance = 1.5;
+    private double _smoothing = 0.2;
+    private double _backoffRatio = 0.9;
+    private int _maxQueueSize;
+    private long _maxQueueTime = 1000;
+
+    public ConcurrencyLimitHandler()
+    {
+    }
+
+    public ConcurrencyLimitHandler(Handler handler)
+    {
+        super(handler);
+    }
+
+    /**
+     * @return the current limit of concurrent requests
+     */
+    @ManagedAttribute("The current limit of concurrent requests")
+    public int getLimit()
+    {
+        return (int)_limit;
+    }
+
+    /**
+     * @param limit the initial limit of concurrent requests
+     */
+    public void setLimit(int limit)
+    {
+        _limit = Math.max(1, limit);
+    }
+
+    @ManagedAttribute("The minimum limit of concurrent requests")
+    public int getMinLimit()
+    {
+        return _minLimit;
+    }
+
+    public void setMinLimit(int minLimit)
+    {
+        if (minLimit < 1)
+            throw new IllegalArgumentException("Invalid min limit " + minLimit);
+        _minLimit = minLimit;
+    }
+
+    @ManagedAttribute("The maximum limit of concurrent requests")
+    public int getMaxLimit()
+    {
+        return _maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit)
+    {
+        _maxLimit = maxLimit;
+    }
+
+    /**
+     * @return the period in ms over which request latencies are sampled before the limit is recomputed
+     */
+    @ManagedAttribute("The period in ms over which latencies are sampled")
+    public long getSampleWindow()
+    {
+        return _sampleWindow;
+    }
+
+    public void setSampleWindow(long sampleWindow)
+    {
+        _sampleWindow = sampleWindow;
+    }
+
+    /**
+     * @return the ratio by which the average latency may exceed the base latency before the limit is reduced
+     */
+    @ManagedAttribute("The tolerated ratio of average over base latency")
+    public double getTolerance()
+    {
+        return _tolerance;
+    }
+
+    public void setTolerance(double tolerance)
+    {
+        if (tolerance < 1)
+            throw new IllegalArgumentException("Invalid tolerance " + tolerance);
+        _tolerance = tolerance;
+    }
+
+    /**
+     * @return the weight, between 0 and 1, of a newly computed limit with respect to the previous limit
+     */
+    @ManagedAttribute("The weight of a new limit over the previous limit")
+    public double getSmoothing()
+    {
+        return _smoothing;
+    }
+
+    public void setSmoothing(double smoothing)
+    {
+        if (smoothing <= 0 || smoothing > 1)
+            throw new IllegalArgumentException("Invalid smoothing " + smoothing);
+        _smoothing = smoothing;
+    }
+
+    /**
+     * @return the ratio by which the limit is multiplied when requests fail
+     */
+    @ManagedAttribute("The ratio by which the limit is reduced when requests fail")
+    public double getBackoffRatio()
+    {
+        return _backoffRatio;
+    }
+
+    public void setBackoffRatio(double backoffRatio)
+    {
+        if (backoffRatio <= 0 || backoffRatio > 1)
+            throw new IllegalArgumentException("Invalid backoff ratio " + backoffRatio);
+        _backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @return the maximum number of requests queued when the limit is reached, or 0 to reject them immediately
+     */
+    @ManagedAttribute("The maximum number of queued requests")
+    public int getMaxQueueSize()
+    {
+        return _maxQueueSize;
+    }
+
+    public void setMaxQueueSize(int maxQueueSize)
+    {
+        _maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @return the maximum time in ms a request may be queued before it is rejected
+     */
+    @ManagedAttribute("The maximum time in ms a request may be queued")
+    public long getMaxQueueTime()
+    {
+        return _maxQueueTime;
+    }
+
+    public void setMaxQueueTime(long maxQueueTime)
+    {
+        _maxQueueTime = maxQueueTime;
+    }
+
+    @ManagedAttribute("The number of requests being handled")
+    public int getRequestsInFlight()
+    {
+        return _inflight.get();
+    }
+
+    @ManagedAttribute("The number of queued requests")
+    public int getQueuedRequests()
+    {
+        return _queued;
+    }
+
+    @ManagedAttribute("The number of requests rejected because the limit was reached")
+    public long getRejectedRequests()
+    {
+        return _rejected.sum();
+    }
+
+    @ManagedAttribute("The number of requests rejected because they were queued for too long")
+    public long getExpiredRequests()
+    {
+        return _expired.sum();
+    }
+
+    @ManagedAttribute("The estimated latency in ms of requests that do not queue")
+    public double getBaseLatency()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return _baseLatency / 1_000_000D;
+        }
+    }
+
+    @ManagedAttribute("The average latency in ms of the last sample window")
+    public double getAverageLatency()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return _averageLatency / 1_000_000D;
+        }
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _rejected.reset();
+        _expired.reset();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        List<Queued> queued;
+        try (AutoLock ignored = _lock.lock())
+        {
+            queued = new ArrayList<>(_queue);
+            _queue.clear();
+            _queued = 0;
+        }
+        for (Queued entry : queued)
+        {
+            entry.reject();
+        }
+        super.doStop();
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        Handler next = getHandler();
+        if (next == null)
+            return false;
+
+        if (tryAcquire())
+            return handle(next, request, response, callback);
+
+        Queued entry = null;
+        if (_maxQueueSize > 0)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                if (_queue.size() < _maxQueueSize)
+                {
+                    entry = new Queued(next, request, response, callback);
+                    _queue.addLast(entry);
+                    _queued = _queue.size();
+                }
+            }
+        }
+
+        if (entry == null)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Rejecting {} limit={} {}", request, getLimit(), this);
+            _rejected.increment();
+            Response.writeError(request, response, callback, HttpStatus.SERVICE_UNAVAILABLE_503);
+            return true;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Queued {} limit={} {}", request, getLimit(), this);
+        entry.schedule(request.getComponents().getScheduler());
+        // A request may have completed after the tryAcquire() above, but before the entry was queued.
+        resume();
+        return true;
+    }
+
+    private boolean handle(Handler next, Request request, Response response, Callback callback) throws Exception
+    {
+        Permit permit = new Permit(callback);
+        try
+        {
+            if (next.handle(request, response, permit))
+                return true;
+            permit.release(false);
+            return false;
+        }
+        catch (Throwable x)
+        {
+            permit.release(false);
+            throw x;
+        }
+    }
+
+    private boolean tryAcquire()
+    {
+        while (true)
+        {
+            int inflight = _inflight.get();
+            if (inflight >= (int)_limit)
+                return false;
+            if (_inflight.compareAndSet(inflight, inflight + 1))
+            {
+                _windowMaxInflight.accumulateAndGet(inflight + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    private void release(long latency, boolean failed)
+    {
+        _inflight.decrementAndGet();
+
+        if (latency >= 0)
+        {
+            _windowLatencies.add(latency);
+            _windowSamples.increment();
+            if (latency < _windowMinLatency.get())
+                _windowMinLatency.accumulateAndGet(latency, Math::min);
+            if (failed)
+                _windowFailures.increment();
+            long now = NanoTime.now();
+            long windowEnd = _windowEnd.get();
+            if (!NanoTime.isBefore(now, windowEnd) && _windowEnd.compareAndSet(windowEnd, now + TimeUnit.MILLISECONDS.toNanos(_sampleWindow)))
+                updateLimit();
+        }
+
+        if (_queued > 0)
+            resume();
+    }
+
+    private void updateLimit()
+    {
+        long samples = _windowSamples.sumThenReset();
+        long latencies = _windowLatencies.sumThenReset();
+        long failures = _windowFailures.sumThenReset();
+        long minLatency = _windowMinLatency.getAndSet(Long.MAX_VALUE);
+        int maxInflight = _windowMaxInflight.getAndSet(_inflight.get());
+        if (samples == 0)
+            return;
+
+        try (AutoLock ignored = _lock.lock())
+        {
+            _averageLatency = (double)latencies / samples;
+            if (_baseLatency == 0 || minLatency < _baseLatency)
+                _baseLatency = minLatency;
+            else
+                _baseLatency += (minLatency - _baseLatency) / DRIFT_WINDOWS;
+
+            double limit = _limit;
+            double newLimit;
+            if (failures > 0)
+            {
+                newLimit = limit * _backoffRatio;
+            }
+            else
+            {
+                double gradient = Math.max(0.5, Math.min(1.0, _tolerance * _baseLatency / _averageLatency));
+                newLimit = limit * gradient + Math.sqrt(limit);
+                newLimit = limit * (1 - _smoothing) + newLimit * _smoothing;
+                // Only grow the limit if it was actually needed.
+                if (newLimit > limit && maxInflight < limit / 2)
+                    return;
+            }
+            _limit = Math.max(_minLimit, Math.min(_maxLimit, newLimit));
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Limit {} -> {} samples={} failures={} inflight={} latency={}/{}ns {}",
+                    limit, _limit, samples, failures, maxInflight, _averageLatency, _baseLatency, this);
+        }
+    }
+
+    private void resume()
+    {
+        List<Queued> resumed = null;
+        try (AutoLock ignored = _lock.lock())
+        {
+            while (!_queue.isEmpty() && tryAcquire())
+            {
+                if (resumed == null)
+                    resumed = new ArrayList<>();
+                resumed.add(_queue.pollFirst());
+            }
+            _queued = _queue.size();
+        }
+        if (resumed != null)
+        {
+            for (Queued entry : resumed)
+            {
+                entry.resume();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,limit=%d,inflight=%d,queued=%d}", getClass().getSimpleName(), hashCode(), getState(), getLimit(), _inflight.get(), _queued);
+    }
+
+    /**
+     * <p>The completion of an admitted request, that releases its permit and samples its latency.</p>
+     */
+    private class Permit extends Callback.Nested
+    {
+        private final long _begin = NanoTime.now();
+        private boolean _failed;
+
+        private Permit(Callback callback)
+        {
+            super(callback);
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            _failed = true;
+            super.failed(x);
+        }
+
+        @Override
+        public void completed()
+        {
+            release(true);
+        }
+
+        private void release(boolean sample)
+        {
+            ConcurrencyLimitHandler.this.release(sample ? NanoTime.since(_begin) : -1, _failed);
+        }
+    }
+
+    private class Queued extends SuspendedRequest
+    {
+        private final Handler _handler;
+        private Scheduler.Task _expiry;
+
+        private Queued(Handler handler, Request request, Response response, Callback callback)
+        {
+            super(request, response, callback);
+            _handler = handler;
+        }
+
+        private void schedule(Scheduler scheduler)
+        {
+            Scheduler.Task expiry = scheduler.schedule(this::expire, _maxQueueTime, TimeUnit.MILLISECONDS);
+            try (AutoLock ignored = _lock.lock())
+            {
+                // The entry may have already been resumed.
+                if (_queue.contains(this))
+                    _expiry = expiry;
+                else
+                    expiry.cancel();
+            }
+        }
+
+        private void expire()
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                if (!_queue.remove(this))
+                    return;
+                _queued = _queue.size();
+            }
+            _expired.increment();
+            reject();
+        }
+
+        private void reject()
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Rejecting queued {} {}", _request, ConcurrencyLimitHandler.this);
+            Response.writeError(_request, _response, _callback, HttpStatus.SERVICE_UNAVAILABLE_503);
+        }
+
+        private void resume()
+        {
+            Scheduler.Task expiry;
+            try (AutoLock ignored = _lock.lock())
+            {
+                expiry = _expiry;
+            }
+            if (expiry != null)
+                expiry.cancel();
+            _request.getContext().execute(this);
+        }
+
+        @Override
+        protected boolean handle() throws Exception
+        {
+            return ConcurrencyLimitHandler.this.handle(_handler, _request, _response, _callback);
+        }
+    }
+}
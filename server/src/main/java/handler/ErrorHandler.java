@@ -22,12 +22,15 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
@@ -36,6 +39,7 @@ import ab.eazy.http.HttpField;
 import ab.eazy.http.HttpFields;
 import ab.eazy.http.HttpHeader;
 import ab.eazy.http.HttpStatus;
+import ab.eazy.http.HttpURI;
 import ab.eazy.http.MimeTypes.Type;
 import ab.eazy.http.PreEncodedHttpField;
 import ab.eazy.http.QuotedQualityCSV;
@@ -43,10 +47,12 @@ import ab.eazy.io.ByteBufferOutputStream;
 import ab.eazy.io.ByteBufferPool;
 import ab.eazy.io.Content;
 import ab.eazy.io.RetainableByteBuffer;
+import ab.eazy.server.HttpConfiguration;
 import ab.eazy.server.Request;
 import ab.eazy.server.Response;
 import ab.eazy.server.Server;
 import ab.eazy.util.Attributes;
+import ab.eazy.util.BufferUtil;
 import ab.eazy.util.Callback;
 import ab.eazy.util.ExceptionUtil;
 import ab.eazy.util.StringUtil;
@@ -60,6 +66,12 @@ import org.slf4j.LoggerFactory;
  * An ErrorHandler is registered with {@link Server#setErrorHandler(Request.Handler)}.
  * It is called by the {@link Response#writeError(Request, Response, Callback, int, String)}
  * to generate an error page.
+ * <p>Error pages with the default message of their status code, that do not show the exception
+ * causes or stacks, depend only on the status code, the content type and charset, and the request URI.
+ * They are rendered once and cached as pre-encoded bytes around the URI, so that repeated errors are
+ * served by copying the cached page and the URI into a pooled buffer, see {@link #setMaxCachedPages(int)}.
+ * The cache is only enabled by default for this class, not for subclasses, which may render other
+ * request data.</p>
  */
 @ManagedObject
 public class ErrorHandler implements Request.Handler
@@ -71,12 +83,17 @@ public class ErrorHandler implements Request.Handler
     public static final String ERROR_CONTEXT = "ab.eazy.server.error_context";
     public static final Set<String> ERROR_METHODS = Set.of("GET", "POST", "HEAD");
     public static final HttpField ERROR_CACHE_CONTROL = new PreEncodedHttpField(HttpHeader.CACHE_CONTROL, "must-revalidate,no-cache,no-store");
+    // Rendered in place of the request URI in the error pages to cache.
+    private static final String URI_PLACEHOLDER = "/ab.eazy.server.error_uri.c9f1e07a";
+    private static final HttpURI URI_PLACEHOLDER_URI = HttpURI.from(URI_PLACEHOLDER);
 
     boolean _showStacks = false;
     boolean _showCauses = false;
     boolean _showMessageInTitle = true;
     String _defaultResponseMimeType = Type.TEXT_HTML.asString();
     HttpField _cacheControl = new PreEncodedHttpField(HttpHeader.CACHE_CONTROL, "must-revalidate,no-cache,no-store");
+    int _maxCachedPages = getClass() == ErrorHandler.class ? 256 : 0;
+    private final ConcurrentMap<ErrorPageKey, ErrorPage> _cachedPages = new ConcurrentHashMap<>();
 
     public ErrorHandler()
     {
@@ -201,53 +218,38 @@ public class ErrorHandler implements Request.Handler
                 return false;
         }
 
-        int bufferSize = request.getConnectionMetaData().getHttpConfiguration().getOutputBufferSize();
+        HttpConfiguration httpConfiguration = request.getConnectionMetaData().getHttpConfiguration();
+        int bufferSize = httpConfiguration.getOutputBufferSize();
         bufferSize = Math.min(8192, bufferSize); // TODO ?
         ByteBufferPool byteBufferPool = request.getComponents().getByteBufferPool();
-        RetainableByteBuffer buffer = byteBufferPool.acquire(bufferSize, false);
 
-        try
+        // Pages that only depend on the request through its URI are served from the cache,
+        // when the URI is rendered verbatim, without any escaping.
+        // Only the pages with the default message are cached, so that the cache is not filled
+        // by the distinct messages of exceptions or of requests that are not valid.
+        if (_maxCachedPages > 0 && (cause == null || !_showCauses && !_showStacks) && isCacheable(charset) &&
+            Objects.equals(message, HttpStatus.getMessage(code)))
         {
-            // write into the response aggregate buffer and flush it asynchronously.
-            // Looping to reduce size if buffer overflows
-            boolean showStacks = isShowStacks();
-            while (true)
+            String uri = request.getHttpURI().toString();
+            if (isVerbatim(uri))
             {
-                try
+                ErrorPageKey key = new ErrorPageKey(code, type, charset, httpConfiguration);
+                ErrorPage page = _cachedPages.get(key);
+                if (page == null)
+                    page = cacheErrorPage(request, key, cause, byteBufferPool, bufferSize);
+                if (page != ErrorPage.NOT_CACHEABLE)
                 {
-                    buffer.clear();
-                    ByteBufferOutputStream out = new ByteBufferOutputStream(buffer.getByteBuffer());
-                    PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, charset));
-
-                    switch (type)
-                    {
-                        case TEXT_HTML -> writeErrorHtml(request, writer, charset, code, message, cause, showStacks);
-                        case TEXT_JSON, APPLICATION_JSON -> writeErrorJson(request, writer, code, message, cause, showStacks);
-                        case TEXT_PLAIN -> writeErrorPlain(request, writer, code, message, cause, showStacks);
-                        default -> throw new IllegalStateException();
-                    }
-
-                    writer.flush();
-                    break;
+                    page.write(response, byteBufferPool, uri, callback);
+                    return true;
                 }
-                catch (BufferOverflowException e)
-                {
-                    if (showStacks)
-                    {
-                        if (LOG.isDebugEnabled())
-                            LOG.debug("Disable stacks for " + e);
+            }
+        }
 
-                        showStacks = false;
-                        continue;
-                    }
-                    if (LOG.isDebugEnabled())
-                        LOG.warn("Error page too large: >{} {} {} {}", bufferSize, code, message, request, e);
-                    else
-                        LOG.warn("Error page too large: >{} {} {} {}", bufferSize, code, message, request);
+        RetainableByteBuffer buffer = byteBufferPool.acquire(bufferSize, false);
 
-                    break;
-                }
-            }
+        try
+        {
+            render(request, buffer, type, charset, code, message, cause, bufferSize);
 
             if (!buffer.hasRemaining())
             {
@@ -269,6 +271,133 @@ public class ErrorHandler implements Request.Handler
         }
     }
 
+    /**
+     * @return whether the whole page was rendered, rather than truncated at the buffer size
+     */
+    private boolean render(Request request, RetainableByteBuffer buffer, Type type, Charset charset, int code, String message, Throwable cause, int bufferSize) throws IOException
+    {
+        // write into the response aggregate buffer and flush it asynchronously.
+        // Looping to reduce size if buffer overflows
+        boolean showStacks = isShowStacks();
+        while (true)
+        {
+            try
+            {
+                buffer.clear();
+                ByteBufferOutputStream out = new ByteBufferOutputStream(buffer.getByteBuffer());
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, charset));
+
+                switch (type)
+                {
+                    case TEXT_HTML -> writeErrorHtml(request, writer, charset, code, message, cause, showStacks);
+                    case TEXT_JSON, APPLICATION_JSON -> writeErrorJson(request, writer, code, message, cause, showStacks);
+                    case TEXT_PLAIN -> writeErrorPlain(request, writer, code, message, cause, showStacks);
+                    default -> throw new IllegalStateException();
+                }
+
+                writer.flush();
+                return true;
+            }
+            catch (BufferOverflowException e)
+            {
+                if (showStacks)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Disable stacks for " + e);
+
+                    showStacks = false;
+                    continue;
+                }
+                if (LOG.isDebugEnabled())
+                    LOG.warn("Error page too large: >{} {} {} {}", bufferSize, code, message, request, e);
+                else
+                    LOG.warn("Error page too large: >{} {} {} {}", bufferSize, code, message, request);
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * <p>Renders the error page for the given key, with a placeholder in place of the request URI,
+     * and caches it split around the placeholder, if there is room in the cache.</p>
+     *
+     * @return the page, or {@link ErrorPage#NOT_CACHEABLE} if the rendered page is truncated
+     * or does not contain the request URI exactly once
+     */
+    private ErrorPage cacheErrorPage(Request request, ErrorPageKey key, Throwable cause, ByteBufferPool byteBufferPool, int bufferSize) throws IOException
+    {
+        Request placeholderRequest = new Request.Wrapper(request)
+        {
+            @Override
+            public HttpURI getHttpURI()
+            {
+                return URI_PLACEHOLDER_URI;
+            }
+        };
+
+        RetainableByteBuffer buffer = byteBufferPool.acquire(bufferSize, false);
+        byte[] bytes;
+        try
+        {
+            boolean rendered = render(placeholderRequest, buffer, key.type(), key.charset(), key.code(), HttpStatus.getMessage(key.code()), cause, bufferSize);
+            bytes = rendered ? BufferUtil.toArray(buffer.getByteBuffer()) : new byte[0];
+        }
+        finally
+        {
+            buffer.release();
+        }
+
+        ErrorPage page = ErrorPage.NOT_CACHEABLE;
+        String rendered = new String(bytes, StandardCharsets.ISO_8859_1);
+        int index = rendered.indexOf(URI_PLACEHOLDER);
+        if (index >= 0 && rendered.indexOf(URI_PLACEHOLDER, index + 1) < 0)
+        {
+            int suffix = index + URI_PLACEHOLDER.length();
+            page = new ErrorPage(key.type().getContentTypeField(key.charset()),
+                Arrays.copyOfRange(bytes, 0, index),
+                Arrays.copyOfRange(bytes, suffix, bytes.length));
+        }
+
+        if (_cachedPages.size() < _maxCachedPages)
+        {
+            ErrorPage existing = _cachedPages.putIfAbsent(key, page);
+            if (existing != null)
+                return existing;
+        }
+        return page;
+    }
+
+    private static boolean isCacheable(Charset charset)
+    {
+        // The charsets that encode the URI as ASCII, and the placeholder as a single byte sequence.
+        return charset == StandardCharsets.ISO_8859_1 || charset == StandardCharsets.UTF_8 || charset == StandardCharsets.US_ASCII;
+    }
+
+    /**
+     * @return whether the URI is written as is in all error pages, without any HTML or JSON escaping
+     */
+    private static boolean isVerbatim(String uri)
+    {
+        for (int i = 0; i < uri.length(); i++)
+        {
+            char c = uri.charAt(i);
+            if (c <= ' ' || c >= 0x7F)
+                return false;
+            switch (c)
+            {
+                case '&', '<', '>', '\'', '"', '\\' ->
+                {
+                    return false;
+                }
+                default ->
+                {
+                }
+            }
+        }
+        return true;
+    }
+
     protected void writeErrorHtml(Request request, Writer writer, Charset charset, int code, String message, Throwable cause, boolean showStacks) throws IOException
     {
         if (message == null)
@@ -464,6 +593,7 @@ public class ErrorHandler implements Request.Handler
     public void setShowStacks(boolean showStacks)
     {
         _showStacks = showStacks;
+        _cachedPages.clear();
     }
 
     /**
@@ -481,6 +611,7 @@ public class ErrorHandler implements Request.Handler
     public void setShowCauses(boolean showCauses)
     {
         _showCauses = showCauses;
+        _cachedPages.clear();
     }
 
     @ManagedAttribute("Whether the error message is shown in the error page title")
@@ -496,6 +627,39 @@ public class ErrorHandler implements Request.Handler
     public void setShowMessageInTitle(boolean showMessageInTitle)
     {
         _showMessageInTitle = showMessageInTitle;
+        _cachedPages.clear();
+    }
+
+    /**
+     * @return the max number of rendered error pages that are cached
+     */
+    @ManagedAttribute("The max number of rendered error pages that are cached")
+    public int getMaxCachedPages()
+    {
+        return _maxCachedPages;
+    }
+
+    /**
+     * <p>Set the max number of rendered error pages that are cached, by status code,
+     * content type and charset. Only the pages with the default message of their status code are cached.</p>
+     * <p>The default is 256 for this class and 0 for subclasses. Subclasses that enable the cache
+     * must only render the request through its URI, and not for example its headers or attributes.</p>
+     *
+     * @param maxCachedPages the max number of cached error pages, or 0 to not cache error pages
+     */
+    public void setMaxCachedPages(int maxCachedPages)
+    {
+        _maxCachedPages = maxCachedPages;
+        _cachedPages.clear();
+    }
+
+    /**
+     * @return the number of rendered error pages that are cached
+     */
+    @ManagedAttribute("The number of rendered error pages that are cached")
+    public int getCachedPages()
+    {
+        return _cachedPages.size();
     }
 
     /**
@@ -580,6 +744,49 @@ public class ErrorHandler implements Request.Handler
         }
     }
 
+    private record ErrorPageKey(int code, Type type, Charset charset, HttpConfiguration httpConfiguration)
+    {
+    }
+
+    /**
+     * A rendered error page, pre-encoded and split around the request URI.
+     */
+    private static class ErrorPage
+    {
+        private static final ErrorPage NOT_CACHEABLE = new ErrorPage(null, null, null);
+
+        private final HttpField _contentType;
+        private final byte[] _prefix;
+        private final byte[] _suffix;
+
+        private ErrorPage(HttpField contentType, byte[] prefix, byte[] suffix)
+        {
+            _contentType = contentType;
+            _prefix = prefix;
+            _suffix = suffix;
+        }
+
+        private void write(Response response, ByteBufferPool byteBufferPool, String uri, Callback callback)
+        {
+            RetainableByteBuffer buffer = byteBufferPool.acquire(_prefix.length + uri.length() + _suffix.length, false);
+            try
+            {
+                ByteBuffer byteBuffer = buffer.getByteBuffer();
+                BufferUtil.clear(byteBuffer);
+                BufferUtil.append(byteBuffer, _prefix);
+                BufferUtil.append(byteBuffer, uri);
+                BufferUtil.append(byteBuffer, _suffix);
+                response.getHeaders().put(_contentType);
+                response.write(true, byteBuffer, new WriteErrorCallback(callback, byteBufferPool, buffer));
+            }
+            catch (Throwable x)
+            {
+                byteBufferPool.removeAndRelease(buffer);
+                throw x;
+            }
+        }
+    }
+
     /**
      * The callback used by
      * {@link ErrorHandler#generateAcceptableResponse(Request, Response, Callback, String, List, int, String, Throwable)}
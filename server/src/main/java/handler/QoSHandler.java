@@ -0,0 +1,399 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import ab.eazy.http.HttpStatus;
+import ab.eazy.server.Handler;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.server.Server;
+import ab.eazy.util.Callback;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.ManagedOperation;
+import ab.eazy.util.thread.AutoLock;
+import ab.eazy.util.thread.Scheduler;
+import ab.eazy.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A quality of service {@link Handler.Wrapper} that limits the number of requests
+ * concurrently handled by its child {@link Handler}.</p>
+ * <p>Requests in excess of {@link #getMaxRequests()} are suspended in a queue of their
+ * priority, without holding a thread: the handler returns {@code true} and the request
+ * is resumed later by the thread that completes another request, dispatching it to the
+ * {@link ab.eazy.server.Context} executor. Suspended requests are resumed from the queue
+ * of the highest priority first, and in arrival order within the same priority.</p>
+ * <p>The priority of a request is computed by a {@link #setPriorityFunction(ToIntFunction)
+ * priority function}, for example from its path or from a header; a larger value is a higher
+ * priority. Typically, expensive requests such as searches or reports are given a low
+ * priority, so that they cannot starve cheap requests on the same server.</p>
+ * <p>Requests that remain suspended longer than {@link #getMaxSuspend()}, or that arrive
+ * when {@link #getMaxSuspendedRequests()} requests are already suspended, are rejected
+ * with a {@code 503} status.</p>
+ */
+@ManagedObject
+public class QoSHandler extends Handler.Wrapper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(QoSHandler.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final NavigableMap<Integer, Deque<Suspended>> _queues = new TreeMap<>();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _expired = new LongAdder();
+    private ToIntFunction<Request> _priorityFunction = request -> 0;
+    private int _maxRequests;
+    // The max requests in use, computed at start if _maxRequests is not positive.
+    private int _limit;
+    private int _maxSuspendedRequests = 1024;
+    private long _maxSuspend = 30_000;
+    private int _requests;
+    private int _suspended;
+
+    public QoSHandler()
+    {
+    }
+
+    public QoSHandler(Handler handler)
+    {
+        super(handler);
+    }
+
+    public ToIntFunction<Request> getPriorityFunction()
+    {
+        return _priorityFunction;
+    }
+
+    /**
+     * @param priorityFunction the function that computes the priority of a request,
+     * where a larger value is a higher priority
+     */
+    public void setPriorityFunction(ToIntFunction<Request> priorityFunction)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _priorityFunction = priorityFunction;
+    }
+
+    /**
+     * @return the maximum number of requests concurrently handled by the child handler,
+     * or a non-positive value for half the maximum number of threads of the server
+     */
+    @ManagedAttribute("The maximum number of concurrent requests")
+    public int getMaxRequests()
+    {
+        return _maxRequests;
+    }
+
+    /**
+     * @param maxRequests the maximum number of requests concurrently handled by the child handler,
+     * or a non-positive value for half the maximum number of threads of the server
+     */
+    public void setMaxRequests(int maxRequests)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _maxRequests = maxRequests;
+    }
+
+    @ManagedAttribute("The maximum number of suspended requests")
+    public int getMaxSuspendedRequests()
+    {
+        return _maxSuspendedRequests;
+    }
+
+    public void setMaxSuspendedRequests(int maxSuspendedRequests)
+    {
+        _maxSuspendedRequests = maxSuspendedRequests;
+    }
+
+    /**
+     * @return the maximum time in ms a request may be suspended
+     */
+    @ManagedAttribute("The maximum time in ms a request may be suspended")
+    public long getMaxSuspend()
+    {
+        return _maxSuspend;
+    }
+
+    public void setMaxSuspend(long maxSuspend)
+    {
+        _maxSuspend = maxSuspend;
+    }
+
+    @ManagedAttribute("The number of requests being handled")
+    public int getActiveRequests()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return _requests;
+        }
+    }
+
+    @ManagedAttribute("The number of suspended requests")
+    public int getSuspendedRequests()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return _suspended;
+        }
+    }
+
+    @ManagedAttribute("The number of requests rejected because too many requests were suspended")
+    public long getRejectedRequests()
+    {
+        return _rejected.sum();
+    }
+
+    @ManagedAttribute("The number of requests rejected because they were suspended for too long")
+    public long getExpiredRequests()
+    {
+        return _expired.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _rejected.reset();
+        _expired.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        int limit = _maxRequests;
+        if (limit <= 0)
+        {
+            Server server = getServer();
+            ThreadPool threadPool = server == null ? null : server.getThreadPool();
+            int maxThreads = threadPool instanceof ThreadPool.SizedThreadPool sized ? sized.getMaxThreads() : 0;
+            limit = maxThreads > 0 ? Math.max(1, maxThreads / 2) : 256;
+        }
+        try (AutoLock ignored = _lock.lock())
+        {
+            _limit = limit;
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        List<Suspended> suspended = new ArrayList<>();
+        try (AutoLock ignored = _lock.lock())
+        {
+            for (Deque<Suspended> queue : _queues.values())
+            {
+                suspended.addAll(queue);
+            }
+            _queues.clear();
+            _suspended = 0;
+        }
+        for (Suspended entry : suspended)
+        {
+            entry.reject();
+        }
+        super.doStop();
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        Handler next = getHandler();
+        if (next == null)
+            return false;
+
+        int priority = _priorityFunction.applyAsInt(request);
+        Suspended entry = null;
+        boolean reject = false;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_requests < _limit)
+            {
+                _requests++;
+            }
+            else if (_suspended < _maxSuspendedRequests)
+            {
+                entry = new Suspended(next, request, response, callback, priority);
+                _queues.computeIfAbsent(priority, p -> new ArrayDeque<>()).addLast(entry);
+                _suspended++;
+            }
+            else
+            {
+                reject = true;
+            }
+        }
+
+        if (reject)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Rejecting {} {}", request, this);
+            _rejected.increment();
+            Response.writeError(request, response, callback, HttpStatus.SERVICE_UNAVAILABLE_503);
+            return true;
+        }
+
+        if (entry != null)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Suspending {} priority={} {}", request, priority, this);
+            entry.schedule(request.getComponents().getScheduler());
+            return true;
+        }
+
+        return handle(next, request, response, callback);
+    }
+
+    private boolean handle(Handler next, Request request, Response response, Callback callback) throws Exception
+    {
+        Callback completion = new Callback.Nested(callback)
+        {
+            @Override
+            public void completed()
+            {
+                release();
+            }
+        };
+        try
+        {
+            if (next.handle(request, response, completion))
+                return true;
+            release();
+            return false;
+        }
+        catch (Throwable x)
+        {
+            release();
+            throw x;
+        }
+    }
+
+    /**
+     * <p>Releases the permit of a completed request, passing it
+     * on to the suspended request of the highest priority, if any.</p>
+     */
+    private void release()
+    {
+        Suspended resumed = null;
+        try (AutoLock ignored = _lock.lock())
+        {
+            // Queues are removed when empty, so the last one has the highest priority request.
+            Map.Entry<Integer, Deque<Suspended>> entry = _queues.lastEntry();
+            if (entry == null)
+            {
+                _requests--;
+            }
+            else
+            {
+                Deque<Suspended> queue = entry.getValue();
+                resumed = queue.pollFirst();
+                if (queue.isEmpty())
+                    _queues.remove(entry.getKey());
+                _suspended--;
+            }
+        }
+        if (resumed != null)
+            resumed.resume();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,max=%d}", getClass().getSimpleName(), hashCode(), getState(), _limit);
+    }
+
+    private class Suspended extends SuspendedRequest
+    {
+        private final Handler _handler;
+        private final int _priority;
+        private Scheduler.Task _expiry;
+        private boolean _resumed;
+
+        private Suspended(Handler handler, Request request, Response response, Callback callback, int priority)
+        {
+            super(request, response, callback);
+            _handler = handler;
+            _priority = priority;
+        }
+
+        private void schedule(Scheduler scheduler)
+        {
+            Scheduler.Task expiry = scheduler.schedule(this::expire, _maxSuspend, TimeUnit.MILLISECONDS);
+            try (AutoLock ignored = _lock.lock())
+            {
+                if (!_resumed)
+                {
+                    _expiry = expiry;
+                    return;
+                }
+            }
+            expiry.cancel();
+        }
+
+        private void expire()
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                Deque<Suspended> queue = _queues.get(_priority);
+                if (queue == null || !queue.remove(this))
+                    return;
+                if (queue.isEmpty())
+                    _queues.remove(_priority);
+                _suspended--;
+            }
+            _expired.increment();
+            reject();
+        }
+
+        private void reject()
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Rejecting suspended {} {}", _request, QoSHandler.this);
+            Response.writeError(_request, _response, _callback, HttpStatus.SERVICE_UNAVAILABLE_503);
+        }
+
+        private void resume()
+        {
+            Scheduler.Task expiry;
+            try (AutoLock ignored = _lock.lock())
+            {
+                _resumed = true;
+                expiry = _expiry;
+            }
+            if (expiry != null)
+                expiry.cancel();
+            if (LOG.isDebugEnabled())
+                LOG.debug("Resuming {} priority={} {}", _request, _priority, QoSHandler.this);
+            _request.getContext().execute(this);
+        }
+
+        @Override
+        protected boolean handle() throws Exception
+        {
+            return QoSHandler.this.handle(_handler, _request, _response, _callback);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import ab.eazy.http.HttpCookie;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.server.Handler;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.server.Server;
+import ab.eazy.util.Callback;
+import ab.eazy.util.NanoTime;
+import ab.eazy.util.ProcessorUtils;
+import ab.eazy.util.TypeUtil;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.ManagedOperation;
+import ab.eazy.util.thread.AutoLock;
+import ab.eazy.util.thread.Sweeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Handler.Wrapper} that limits the rate of requests of each client.</p>
+ * <p>Clients are identified by a {@link #setKeyFunction(Function) key function}, by default
+ * the remote address, or alternatively the value of a {@link #byHeader(String) header} or of
+ * a {@link #byCookie(String) cookie}, falling back to the remote address when absent.</p>
+ * <p>Each client has a token bucket, that holds up to {@link #getBurst()} tokens and is refilled
+ * at {@link #getRate()} tokens per second; each request takes a token. The bucket is stored as
+ * the single time at which it will be full again, so that refilling is computed lazily when
+ * a request arrives, and a bucket costs one entry in a table with millions of clients.</p>
+ * <p>When the bucket of a client is empty, the request is either delayed until a token is
+ * available, if that is within {@link #getMaxDelay()}, without holding a thread while waiting;
+ * or rejected with a {@code 429} status and a {@code Retry-After} header.</p>
+ * <p>The buckets are kept in a table split into stripes, each with its own lock, so that
+ * requests from different clients rarely contend. The table is bounded by
+ * {@link #getMaxEntries()}: when a stripe is full, its least recently used bucket is evicted.
+ * Buckets that are full again carry no information, so they are periodically removed by the
+ * server {@link Sweeper}, or by a {@link Sweeper} of this handler if the server has none.</p>
+ */
+@ManagedObject
+public class RateLimitHandler extends Handler.Wrapper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitHandler.class);
+
+    private final LongAdder _delayed = new LongAdder();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _evicted = new LongAdder();
+    private Function<Request, String> _keyFunction = byRemoteAddress();
+    private double _rate = 10;
+    private int _burst = 20;
+    private long _maxDelay;
+    private int _maxEntries = 100_000;
+    private long _sweepPeriod = 10_000;
+    private Sweeper _sweeper;
+    private Stripe[] _stripes;
+    private long _interval;
+    private long _tolerance;
+    private long _maxDelayNanos;
+
+    public RateLimitHandler()
+    {
+    }
+
+    public RateLimitHandler(Handler handler)
+    {
+        super(handler);
+    }
+
+    /**
+     * @return a key function that identifies clients by their remote address
+     */
+    public static Function<Request, String> byRemoteAddress()
+    {
+        return Request::getRemoteAddr;
+    }
+
+    /**
+     * @param name the name of the header, for example an API key header
+     * @return a key function that identifies clients by the value of the given header
+     */
+    public static Function<Request, String> byHeader(String name)
+    {
+        return request -> request.getHeaders().get(name);
+    }
+
+    /**
+     * @param name the name of the cookie, for example a session cookie
+     * @return a key function that identifies clients by the value of the given cookie
+     */
+    public static Function<Request, String> byCookie(String name)
+    {
+        return request ->
+        {
+            for (HttpCookie cookie : Request.getCookies(request))
+            {
+                if (name.equals(cookie.getName()))
+                    return cookie.getValue();
+            }
+            return null;
+        };
+    }
+
+    public Function<Request, String> getKeyFunction()
+    {
+        return _keyFunction;
+    }
+
+    /**
+     * @param keyFunction the function that identifies the client of a request;
+     * the remote address is used when the function returns null
+     */
+    public void setKeyFunction(Function<Request, String> keyFunction)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _keyFunction = keyFunction;
+    }
+
+    /**
+     * @return the rate in requests per second allowed for each client
+     */
+    @ManagedAttribute("The rate in requests per second allowed for each client")
+    public double getRate()
+    {
+        return _rate;
+    }
+
+    public void setRate(double rate)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        if (rate <= 0)
+            throw new IllegalArgumentException("Invalid rate " + rate);
+        _rate = rate;
+    }
+
+    /**
+     * @return the number of requests a client may send at once after being idle
+     */
+    @ManagedAttribute("The number of requests a client may send in a burst")
+    public int getBurst()
+    {
+        return _burst;
+    }
+
+    public void setBurst(int burst)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        if (burst < 1)
+            throw new IllegalArgumentException("Invalid burst " + burst);
+        _burst = burst;
+    }
+
+    /**
+     * @return the maximum time in ms a request is delayed to conform to the rate, or 0 to reject it immediately
+     */
+    @ManagedAttribute("The maximum time in ms a request may be delayed")
+    public long getMaxDelay()
+    {
+        return _maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _maxDelay = maxDelay;
+    }
+
+    /**
+     * @return the maximum number of clients whose bucket is remembered
+     */
+    @ManagedAttribute("The maximum number of client buckets")
+    public int getMaxEntries()
+    {
+        return _maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the period in ms of the removal of the full buckets, if this handler has its own {@link Sweeper}
+     */
+    public long getSweepPeriod()
+    {
+        return _sweepPeriod;
+    }
+
+    public void setSweepPeriod(long sweepPeriod)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _sweepPeriod = sweepPeriod;
+    }
+
+    @ManagedAttribute("The number of client buckets")
+    public int getEntries()
+    {
+        Stripe[] stripes = _stripes;
+        if (stripes == null)
+            return 0;
+        int entries = 0;
+        for (Stripe stripe : stripes)
+        {
+            entries += stripe.size();
+        }
+        return entries;
+    }
+
+    @ManagedAttribute("The number of requests delayed")
+    public long getDelayedRequests()
+    {
+        return _delayed.sum();
+    }
+
+    @ManagedAttribute("The number of requests rejected")
+    public long getRejectedRequests()
+    {
+        return _rejected.sum();
+    }
+
+    @ManagedAttribute("The number of buckets evicted because the table was full")
+    public long getEvictedEntries()
+    {
+        return _evicted.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _delayed.reset();
+        _rejected.reset();
+        _evicted.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        _interval = Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / _rate));
+        _tolerance = _interval * (_burst - 1);
+        _maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(_maxDelay);
+
+        int count = Math.max(16, TypeUtil.ceilToNextPowerOfTwo(4 * ProcessorUtils.availableProcessors()));
+        int capacity = Math.max(1, _maxEntries / count);
+        Stripe[] stripes = new Stripe[count];
+        for (int i = 0; i < count; i++)
+        {
+            stripes[i] = new Stripe(capacity);
+        }
+        _stripes = stripes;
+
+        Server server = getServer();
+        _sweeper = server == null ? null : server.getBean(Sweeper.class);
+        if (_sweeper == null)
+        {
+            if (server == null)
+                throw new IllegalStateException("No Server for " + this);
+            _sweeper = new Sweeper(server.getScheduler(), _sweepPeriod);
+            addBean(_sweeper, true);
+        }
+
+        super.doStart();
+
+        for (Stripe stripe : stripes)
+        {
+            _sweeper.offer(stripe);
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        for (Stripe stripe : _stripes)
+        {
+            _sweeper.remove(stripe);
+        }
+        super.doStop();
+        if (getBean(Sweeper.class) == _sweeper)
+            removeBean(_sweeper);
+        _sweeper = null;
+        _stripes = null;
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        Handler next = getHandler();
+        if (next == null)
+            return false;
+
+        String key = _keyFunction.apply(request);
+        if (key == null)
+            key = Request.getRemoteAddr(request);
+
+        Stripe[] stripes = _stripes;
+        int hash = key.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+        long delay = stripe.acquire(key, NanoTime.now());
+
+        if (delay == 0)
+            return next.handle(request, response, callback);
+
+        if (delay <= _maxDelayNanos)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Delaying {}ns {} for {}", delay, request, key);
+            _delayed.increment();
+            SuspendedRequest delayed = new SuspendedRequest(request, response, callback)
+            {
+                @Override
+                protected boolean handle() throws Exception
+                {
+                    return next.handle(_request, _response, _callback);
+                }
+            };
+            request.getComponents().getScheduler().schedule(() -> request.getContext().execute(delayed), delay, TimeUnit.NANOSECONDS);
+            return true;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Rejecting {} for {}", request, key);
+        _rejected.increment();
+        response.getHeaders().put(HttpHeader.RETRY_AFTER, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(delay + TimeUnit.SECONDS.toNanos(1) - 1)));
+        Response.writeError(request, response, callback, HttpStatus.TOO_MANY_REQUESTS_429);
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,rate=%s,burst=%d}", getClass().getSimpleName(), hashCode(), getState(), _rate, _burst);
+    }
+
+    /**
+     * <p>A bucket, stored as the theoretical arrival time of the next request:
+     * a time in the past means that the bucket is full.</p>
+     */
+    private static class Bucket
+    {
+        private long _next;
+
+        private Bucket(long next)
+        {
+            _next = next;
+        }
+    }
+
+    private class Stripe implements Sweeper.Sweepable
+    {
+        private final AutoLock _lock = new AutoLock();
+        private final Map<String, Bucket> _buckets;
+
+        private Stripe(int capacity)
+        {
+            _buckets = new LinkedHashMap<>(16, 0.75F, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest)
+                {
+                    if (size() <= capacity)
+                        return false;
+                    _evicted.increment();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * <p>Takes a token from the bucket of the given client.</p>
+         *
+         * @param key the client key
+         * @param now the current nano time
+         * @return 0 if a token was taken, the time to wait in ns if a token was reserved,
+         * or, if the time to wait exceeds the maximum delay, that time without reserving a token
+         */
+        private long acquire(String key, long now)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                Bucket bucket = _buckets.get(key);
+                if (bucket == null)
+                {
+                    _buckets.put(key, new Bucket(now + _interval));
+                    return 0;
+                }
+
+                long next = NanoTime.isBefore(bucket._next, now) ? now : bucket._next;
+                long delay = next - _tolerance - now;
+                if (delay <= 0)
+                {
+                    bucket._next = next + _interval;
+                    return 0;
+                }
+                if (delay <= _maxDelayNanos)
+                    bucket._next = next + _interval;
+                return delay;
+            }
+        }
+
+        private int size()
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                return _buckets.size();
+            }
+        }
+
+        @Override
+        public boolean sweep()
+        {
+            long now = NanoTime.now();
+            try (AutoLock ignored = _lock.lock())
+            {
+                _buckets.values().removeIf(bucket -> NanoTime.isBeforeOrSame(bucket._next, now));
+            }
+            // Never remove this stripe from the Sweeper.
+            return false;
+        }
+    }
+}
@@ -8,11 +8,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
 
 import ab.eazy.http.CompressedContentFormat;
 import ab.eazy.http.HttpMethod;
 import ab.eazy.http.HttpURI;
 import ab.eazy.http.MimeTypes;
+import ab.eazy.http.content.DigestEtagHttpContentFactory;
 import ab.eazy.http.content.FileMappingHttpContentFactory;
 import ab.eazy.http.content.HttpContent;
 import ab.eazy.http.content.PreCompressedHttpContentFactory;
@@ -48,19 +50,24 @@ public class ResourceHandler extends ab.eazy.server.Handler.Abstract
 
     private ByteBufferPool _byteBufferPool = new ArrayByteBufferPool();
     private ResourceService _resourceService;
+    // The content factory without digests, that setStrongEtags() wraps.
+    private HttpContent.Factory _contentFactory;
     private Resource _baseResource;
     private MimeTypes _mimeTypes = new MimeTypes.Mutable();
 //    private List<String> _welcomes = List.of("index.html");
     private boolean _useFileMapping = true;
     private String _rootDir = ".";
+    private final Server _server;
 
     public ResourceHandler(String rootDir, Server server)
     {
         _rootDir = rootDir;
+        _server = server;
         _resourceService = new ResourceService(rootDir);
         Path rootPath = Paths.get(rootDir).toAbsolutePath().normalize();
         if (Files.isDirectory(rootPath)) {
-            _resourceService.setHttpContentFactory(newHttpContentFactory());
+            _contentFactory = newHttpContentFactory();
+            _resourceService.setHttpContentFactory(_contentFactory);
             ResourceFactory resourceFactory = ResourceFactory.of(server);
             _baseResource = resourceFactory.newResource(rootPath);
             LOG.info("Root directory is " + rootDir);
@@ -153,6 +160,30 @@ public class ResourceHandler extends ab.eazy.server.Handler.Abstract
         return _resourceService.isDirAllowed();
     }
 
+    /**
+     * @param dirAllowed If true, directory listings are returned if no welcome file is found. Else 403 Forbidden.
+     */
+    public void setDirAllowed(boolean dirAllowed)
+    {
+        _resourceService.setDirAllowed(dirAllowed);
+    }
+
+    /**
+     * @return the maximum number of bytes of rendered directory listings to cache
+     */
+    public long getMaxListingCacheSize()
+    {
+        return _resourceService.getMaxListingCacheSize();
+    }
+
+    /**
+     * @param maxListingCacheSize the maximum number of bytes of rendered directory listings to cache, 0 to disable caching
+     */
+    public void setMaxListingCacheSize(long maxListingCacheSize)
+    {
+        _resourceService.setMaxListingCacheSize(maxListingCacheSize);
+    }
+
     /**
      * @return True if ETag processing is done
      */
@@ -161,6 +192,35 @@ public class ResourceHandler extends ab.eazy.server.Handler.Abstract
         return _resourceService.isEtags();
     }
 
+    /**
+     * @param etags True if ETag processing is done
+     */
+    public void setEtags(boolean etags)
+    {
+        _resourceService.setEtags(etags);
+    }
+
+    /**
+     * <p>Use strong ETags computed from a digest of the content instead of weak ETags
+     * computed from the last modified time and size.</p>
+     * <p>Digests are computed in the background by the {@link Server} thread pool and
+     * content is served with its weak ETag until its digest is known.</p>
+     * <p>Calling this method again with another index file replaces the digests, rather
+     * than digesting the content twice.</p>
+     *
+     * @param indexFile the file where digests are persisted across restarts, or null to keep them in memory only
+     * @see DigestEtagHttpContentFactory
+     */
+    public void setStrongEtags(Path indexFile)
+    {
+        if (_contentFactory == null)
+            return;
+        if (!(_resourceService.getHttpContentFactory() instanceof DigestEtagHttpContentFactory digests) ||
+            !Objects.equals(digests.getIndexFile(), indexFile))
+            _resourceService.setHttpContentFactory(new DigestEtagHttpContentFactory(_contentFactory, _server.getThreadPool(), indexFile));
+        _resourceService.setEtags(true);
+    }
+
     public boolean isUseFileMapping()
     {
         return _useFileMapping;
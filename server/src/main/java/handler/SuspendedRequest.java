@@ -0,0 +1,60 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler;
+
+import ab.eazy.http.HttpStatus;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.util.Callback;
+
+/**
+ * <p>A request accepted by a handler that returned {@code true} from {@code handle()}
+ * without handling it yet, for example to queue or to delay it, and that is handled
+ * later by {@link #run()}, typically on the executor of the request context.</p>
+ * <p>As the request has already been accepted, a request that is not handled is answered
+ * with a {@code 404} status, and a failure of the handling with an error response.</p>
+ */
+abstract class SuspendedRequest implements Runnable
+{
+    protected final Request _request;
+    protected final Response _response;
+    protected final Callback _callback;
+
+    SuspendedRequest(Request request, Response response, Callback callback)
+    {
+        _request = request;
+        _response = response;
+        _callback = callback;
+    }
+
+    /**
+     * @return whether the request was handled
+     * @throws Exception if the handling fails
+     */
+    protected abstract boolean handle() throws Exception;
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            if (!handle())
+                Response.writeError(_request, _response, _callback, HttpStatus.NOT_FOUND_404);
+        }
+        catch (Throwable x)
+        {
+            Response.writeError(_request, _response, _callback, x);
+        }
+    }
+}
@@ -15,6 +15,8 @@ package ab.eazy.server.handler.gzip;
 
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.Deflater;
 
 import ab.eazy.http.EtagUtils;
@@ -33,11 +35,15 @@ import ab.eazy.util.AsciiLowerCaseSet;
 import ab.eazy.util.Callback;
 import ab.eazy.util.IncludeExclude;
 import ab.eazy.util.StringUtil;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.ManagedOperation;
 import ab.eazy.util.compression.DeflaterPool;
 import ab.eazy.util.compression.InflaterPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+@ManagedObject
 public class GzipHandler extends Handler.Abstract
 {
     public static final String GZIP_HANDLER_ETAGS = "o.e.j.s.h.gzip.GzipHandler.etag";
@@ -53,6 +59,13 @@ public class GzipHandler extends Handler.Abstract
     private int _minGzipSize = DEFAULT_MIN_GZIP_SIZE;
     private boolean _syncFlush = false;
     private int _inflateBufferSize = -1;
+    private long _maxInflatedSize = -1;
+    private int _maxInflateRatio = -1;
+    private final LongAdder _inflatedRequests = new LongAdder();
+    private final LongAdder _inflateFailures = new LongAdder();
+    private final LongAdder _inflateCompressedBytes = new LongAdder();
+    private final LongAdder _inflatedBytes = new LongAdder();
+    private final LongAdder _inflateNanos = new LongAdder();
     // non-static, as other GzipHandler instances may have different configurations
     private final IncludeExclude<String> _methods = new IncludeExclude<>();
     private final IncludeExclude<String> _inflatePaths = new IncludeExclude<>(PathSpecSet.class);
@@ -515,6 +528,113 @@ public class GzipHandler extends Handler.Abstract
         _inflateBufferSize = size;
     }
 
+    /**
+     * Get the max number of bytes that may be inflated from a compressed request.
+     *
+     * @return the max inflated size in bytes, or -1 for no limit.
+     * @see #setMaxInflatedSize(long)
+     */
+    @ManagedAttribute("The max number of bytes inflated from a request, or -1 for no limit")
+    public long getMaxInflatedSize()
+    {
+        return _maxInflatedSize;
+    }
+
+    /**
+     * <p>Set the max number of bytes that may be inflated from a compressed request.</p>
+     * <p>The limit is enforced while inflating, so that no more than one inflate buffer
+     * of content beyond the limit is ever produced; the request content then fails
+     * with a {@code 413} status.</p>
+     *
+     * @param maxInflatedSize the max inflated size in bytes, or -1 for no limit.
+     */
+    public void setMaxInflatedSize(long maxInflatedSize)
+    {
+        _maxInflatedSize = maxInflatedSize;
+    }
+
+    /**
+     * Get the max ratio between the inflated and the compressed bytes of a request.
+     *
+     * @return the max inflate ratio, or -1 for no limit.
+     * @see #setMaxInflateRatio(int)
+     */
+    @ManagedAttribute("The max ratio between inflated and compressed request bytes, or -1 for no limit")
+    public int getMaxInflateRatio()
+    {
+        return _maxInflateRatio;
+    }
+
+    /**
+     * <p>Set the max ratio between the inflated and the compressed bytes of a request.</p>
+     * <p>The ratio is checked as the content is inflated, once more than one inflate buffer
+     * of content has been produced, so that compression bombs are rejected with a {@code 413}
+     * status before they are fully inflated.</p>
+     *
+     * @param maxInflateRatio the max inflate ratio, or -1 for no limit.
+     */
+    public void setMaxInflateRatio(int maxInflateRatio)
+    {
+        _maxInflateRatio = maxInflateRatio;
+    }
+
+    @ManagedAttribute("The number of requests inflated")
+    public long getInflatedRequests()
+    {
+        return _inflatedRequests.sum();
+    }
+
+    @ManagedAttribute("The number of requests whose content failed to inflate")
+    public long getInflateFailures()
+    {
+        return _inflateFailures.sum();
+    }
+
+    @ManagedAttribute("The number of compressed request bytes inflated")
+    public long getInflateCompressedBytes()
+    {
+        return _inflateCompressedBytes.sum();
+    }
+
+    @ManagedAttribute("The number of request bytes produced by inflation")
+    public long getInflatedBytes()
+    {
+        return _inflatedBytes.sum();
+    }
+
+    @ManagedAttribute("The total time in ms spent inflating requests")
+    public long getInflateTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_inflateNanos.sum());
+    }
+
+    @ManagedAttribute("The inflate throughput in bytes produced per second")
+    public long getInflateRate()
+    {
+        long nanos = _inflateNanos.sum();
+        return nanos == 0 ? 0 : _inflatedBytes.sum() * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _inflatedRequests.reset();
+        _inflateFailures.reset();
+        _inflateCompressedBytes.reset();
+        _inflatedBytes.reset();
+        _inflateNanos.reset();
+    }
+
+    void onInflated(long compressedBytes, long inflatedBytes, long inflateNanos, Throwable failure)
+    {
+        _inflatedRequests.increment();
+        if (failure != null)
+            _inflateFailures.increment();
+        _inflateCompressedBytes.add(compressedBytes);
+        _inflatedBytes.add(inflatedBytes);
+        _inflateNanos.add(inflateNanos);
+    }
+
     @Override
     public boolean handle(Request request, Response response, Callback callback) throws Exception
     {
@@ -566,7 +686,12 @@ public class GzipHandler extends Handler.Abstract
         if (inflatable && tryInflate || etagMatches)
         {
             // Wrap the request to update the fields and do any inflation
-            request = new GzipRequest(request, inflatable && tryInflate ? getInflateBufferSize() : -1);
+            boolean inflate = inflatable && tryInflate;
+            GzipRequest gzipRequest = new GzipRequest(this, request, inflate ? getInflateBufferSize() : -1);
+            // Return the inflater to the pool also when the response is not deflated.
+            if (inflate)
+                Request.addCompletionListener(gzipRequest, x -> gzipRequest.destroy());
+            request = gzipRequest;
         }
 
         if (tryDeflate && _vary != null)
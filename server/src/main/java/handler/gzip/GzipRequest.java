@@ -28,28 +28,30 @@ import ab.eazy.io.RetainableByteBuffer;
 import ab.eazy.io.content.ContentSourceTransformer;
 import ab.eazy.server.Components;
 import ab.eazy.server.Request;
+import ab.eazy.util.NanoTime;
 import ab.eazy.util.compression.InflaterPool;
 
 public class GzipRequest extends Request.Wrapper
 {
     private static final HttpField X_CE_GZIP = new PreEncodedHttpField("X-Content-Encoding", "gzip");
 
-    // TODO: use InflaterPool from somewhere.
-    private static final InflaterPool __inflaterPool = new InflaterPool(-1, true);
-
+    private final GzipHandler _handler;
     private final HttpFields _fields;
     private Decoder _decoder;
     private GzipTransformer _gzipTransformer;
 
-    public GzipRequest(Request request, int inflateBufferSize)
+    public GzipRequest(GzipHandler handler, Request request, int inflateBufferSize)
     {
         super(request);
+        _handler = handler;
         _fields = updateRequestFields(request, inflateBufferSize > 0);
 
         if (inflateBufferSize > 0)
         {
             Components components = getComponents();
-            _decoder = new Decoder(__inflaterPool, components.getByteBufferPool(), inflateBufferSize);
+            _decoder = new Decoder(handler.getInflaterPool(), components.getByteBufferPool(), inflateBufferSize);
+            _decoder.setMaxInflatedSize(handler.getMaxInflatedSize());
+            _decoder.setMaxInflateRatio(handler.getMaxInflateRatio());
             _gzipTransformer = new GzipTransformer(getWrapped(), _decoder);
         }
     }
@@ -137,8 +139,13 @@ public class GzipRequest extends Request.Wrapper
 
     void destroy()
     {
-        if (_decoder != null)
-            _decoder.destroy();
+        // May be called both when the response completes and when the request completes.
+        Decoder decoder = _decoder;
+        if (decoder == null)
+            return;
+        _decoder = null;
+        _handler.onInflated(decoder.getCompressedBytes(), decoder.getInflatedBytes(), decoder._inflateNanos, decoder._failure);
+        decoder.destroy();
     }
 
     static class GzipTransformer extends ContentSourceTransformer
@@ -172,7 +179,17 @@ public class GzipRequest extends Request.Wrapper
             // Retain the input chunk because its ByteBuffer will be referenced by the Inflater.
             if (retain)
                 _chunk.retain();
-            RetainableByteBuffer decodedBuffer = _decoder.decode(_chunk);
+            RetainableByteBuffer decodedBuffer;
+            try
+            {
+                decodedBuffer = _decoder.decode(_chunk);
+            }
+            catch (Throwable x)
+            {
+                _chunk.release();
+                _chunk = null;
+                throw x;
+            }
 
             if (decodedBuffer != null && decodedBuffer.hasRemaining())
             {
@@ -196,6 +213,8 @@ public class GzipRequest extends Request.Wrapper
     static class Decoder extends GZIPContentDecoder
     {
         private RetainableByteBuffer _decoded;
+        private long _inflateNanos;
+        private Throwable _failure;
 
         Decoder(InflaterPool inflaterPool, ByteBufferPool bufferPool, int bufferSize)
         {
@@ -204,7 +223,20 @@ public class GzipRequest extends Request.Wrapper
 
         public RetainableByteBuffer decode(Content.Chunk chunk)
         {
-            decodeChunks(chunk.getByteBuffer());
+            long begin = NanoTime.now();
+            try
+            {
+                decodeChunks(chunk.getByteBuffer());
+            }
+            catch (Throwable x)
+            {
+                _failure = x;
+                throw x;
+            }
+            finally
+            {
+                _inflateNanos += NanoTime.since(begin);
+            }
             RetainableByteBuffer decoded = _decoded;
             _decoded = null;
             return decoded;
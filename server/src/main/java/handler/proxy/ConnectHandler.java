@@ -0,0 +1,337 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.eazy.http.HttpMethod;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.http.HttpURI;
+import ab.eazy.io.ClientConnectionFactory;
+import ab.eazy.io.ClientConnector;
+import ab.eazy.io.Connection;
+import ab.eazy.io.EndPoint;
+import ab.eazy.io.Transport;
+import ab.eazy.server.Handler;
+import ab.eazy.server.HttpStream;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.server.Server;
+import ab.eazy.server.TunnelSupport;
+import ab.eazy.util.Callback;
+import ab.eazy.util.Promise;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.ManagedOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Handler} that implements {@code CONNECT} tunnelling, and forwards any other
+ * request to the wrapped handler.</p>
+ * <p>A {@code CONNECT} request opens a connection to the requested destination with a
+ * {@link ClientConnector} that shares the thread pool, scheduler and buffer pool of the
+ * {@link Server}. Once connected, a {@code 200} response is sent and the client endpoint is
+ * upgraded, via the {@link TunnelSupport} of the request, to a connection that pumps bytes to
+ * the upstream endpoint, while another connection pumps the bytes of the upstream endpoint
+ * back to the client. Each {@link Tunnel} is a managed bean that exposes its idle time and the
+ * bytes transferred and throughput in each direction.</p>
+ * <p>Destinations that are not accepted by {@link #validateDestination(String, int)} are
+ * rejected with a {@code 403} status, while failures to connect are reported with a
+ * {@code 502} status, or a {@code 504} status if the connect timed out.</p>
+ */
+@ManagedObject
+public class ConnectHandler extends Handler.Wrapper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectHandler.class);
+
+    private final Set<Tunnel> _tunnels = ConcurrentHashMap.newKeySet();
+    private final LongAdder _tunnelsTotal = new LongAdder();
+    private final LongAdder _upstreamBytes = new LongAdder();
+    private final LongAdder _downstreamBytes = new LongAdder();
+    private final LongAdder _idleExpirations = new LongAdder();
+    private final LongAdder _connectFailures = new LongAdder();
+    private final ClientConnector _clientConnector;
+    private long _idleTimeout = 30000;
+    private int _bufferSize = 4096;
+
+    public ConnectHandler()
+    {
+        this(null);
+    }
+
+    public ConnectHandler(Handler handler)
+    {
+        this(handler, new ClientConnector());
+    }
+
+    public ConnectHandler(Handler handler, ClientConnector clientConnector)
+    {
+        super(handler);
+        _clientConnector = clientConnector;
+        addBean(_clientConnector);
+    }
+
+    /**
+     * @return the {@link ClientConnector} that connects to the tunnel destinations
+     */
+    public ClientConnector getClientConnector()
+    {
+        return _clientConnector;
+    }
+
+    /**
+     * @return the time in ms after which a tunnel is closed if no bytes were transferred in either direction
+     */
+    @ManagedAttribute("The tunnel idle timeout in ms")
+    public long getIdleTimeout()
+    {
+        return _idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout)
+    {
+        _idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the size in bytes of the buffer used to pump bytes in each direction of a tunnel
+     */
+    @ManagedAttribute("The size in bytes of the tunnel buffers")
+    public int getBufferSize()
+    {
+        return _bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize)
+    {
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * @return a snapshot of the open tunnels
+     */
+    @ManagedAttribute(value = "The open tunnels", readonly = true)
+    public List<Tunnel> getTunnels()
+    {
+        return new ArrayList<>(_tunnels);
+    }
+
+    @ManagedAttribute("The number of open tunnels")
+    public int getTunnelCount()
+    {
+        return _tunnels.size();
+    }
+
+    @ManagedAttribute("The number of tunnels opened")
+    public long getTunnelsTotal()
+    {
+        return _tunnelsTotal.sum();
+    }
+
+    /**
+     * @return the number of bytes transferred from the clients to the upstream servers by closed tunnels
+     */
+    @ManagedAttribute("The number of bytes transferred upstream by closed tunnels")
+    public long getUpstreamBytes()
+    {
+        return _upstreamBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes transferred from the upstream servers to the clients by closed tunnels
+     */
+    @ManagedAttribute("The number of bytes transferred downstream by closed tunnels")
+    public long getDownstreamBytes()
+    {
+        return _downstreamBytes.sum();
+    }
+
+    @ManagedAttribute("The number of tunnels closed because they were idle")
+    public long getIdleExpirations()
+    {
+        return _idleExpirations.sum();
+    }
+
+    @ManagedAttribute("The number of failed connects to tunnel destinations")
+    public long getConnectFailures()
+    {
+        return _connectFailures.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _tunnelsTotal.reset();
+        _upstreamBytes.reset();
+        _downstreamBytes.reset();
+        _idleExpirations.reset();
+        _connectFailures.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        Server server = getServer();
+        if (server != null && !_clientConnector.isStarted())
+        {
+            if (_clientConnector.getExecutor() == null)
+                _clientConnector.setExecutor(server.getThreadPool());
+            if (_clientConnector.getScheduler() == null)
+                _clientConnector.setScheduler(server.getScheduler());
+            if (_clientConnector.getByteBufferPool() == null)
+                _clientConnector.setByteBufferPool(server.getByteBufferPool());
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        for (Tunnel tunnel : _tunnels)
+        {
+            tunnel.close(null);
+        }
+        super.doStop();
+    }
+
+    /**
+     * <p>Checks whether a tunnel may be opened to the given destination.</p>
+     *
+     * @param host the destination host
+     * @param port the destination port
+     * @return whether the destination is allowed, by default {@code true}
+     */
+    protected boolean validateDestination(String host, int port)
+    {
+        return true;
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        if (!HttpMethod.CONNECT.is(request.getMethod()))
+            return super.handle(request, response, callback);
+
+        HttpURI uri = request.getHttpURI();
+        String host = uri.getHost();
+        int port = uri.getPort();
+        if (host == null || port <= 0)
+        {
+            Response.writeError(request, response, callback, HttpStatus.BAD_REQUEST_400);
+            return true;
+        }
+
+        if (!validateDestination(host, port))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Destination {}:{} forbidden for {}", host, port, request);
+            Response.writeError(request, response, callback, HttpStatus.FORBIDDEN_403);
+            return true;
+        }
+
+        TunnelSupport tunnelSupport = request.getTunnelSupport();
+        if (tunnelSupport == null)
+        {
+            Response.writeError(request, response, callback, HttpStatus.NOT_IMPLEMENTED_501);
+            return true;
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Connecting to {}:{} for {}", host, port, request);
+
+        Tunnel tunnel = new Tunnel(this, host, port, getIdleTimeout());
+        Map<String, Object> context = new HashMap<>();
+        context.put(Transport.class.getName(), Transport.TCP_IP);
+        context.put(ClientConnector.CLIENT_CONNECTION_FACTORY_CONTEXT_KEY, (ClientConnectionFactory)(endPoint, ctx) ->
+            newTunnelConnection(endPoint, tunnel, false));
+        context.put(ClientConnector.CONNECTION_PROMISE_CONTEXT_KEY, new Promise<Connection>()
+        {
+            @Override
+            public void succeeded(Connection result)
+            {
+                TunnelConnection upstream = (TunnelConnection)result;
+                TunnelConnection downstream = newTunnelConnection(tunnelSupport.getEndPoint(), tunnel, true);
+                downstream.setPeer(upstream);
+                upstream.setPeer(downstream);
+                tunnel.setConnections(downstream, upstream);
+                _tunnels.add(tunnel);
+                _tunnelsTotal.increment();
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Opened {} for {}", tunnel, request);
+
+                // The client endpoint is upgraded to the tunnel once the response is sent.
+                request.setAttribute(HttpStream.UPGRADE_CONNECTION_ATTRIBUTE, downstream);
+                response.setStatus(HttpStatus.OK_200);
+                callback.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Could not connect to {}:{}", host, port, x);
+                _connectFailures.increment();
+                Response.writeError(request, response, callback, isTimeout(x) ? HttpStatus.GATEWAY_TIMEOUT_504 : HttpStatus.BAD_GATEWAY_502);
+            }
+        });
+        _clientConnector.connect(new InetSocketAddress(host, port), context);
+        return true;
+    }
+
+    private static boolean isTimeout(Throwable failure)
+    {
+        return failure instanceof TimeoutException || failure instanceof SocketTimeoutException;
+    }
+
+    private TunnelConnection newTunnelConnection(EndPoint endPoint, Tunnel tunnel, boolean downstream)
+    {
+        // The endpoints expire every idle timeout, and the tunnel is closed if neither direction was active.
+        endPoint.setIdleTimeout(getIdleTimeout());
+        TunnelConnection connection = new TunnelConnection(endPoint, _clientConnector.getExecutor(), _clientConnector.getByteBufferPool(), tunnel, downstream);
+        connection.setInputBufferSize(getBufferSize());
+        return connection;
+    }
+
+    void onTunnelIdleExpired(Tunnel tunnel)
+    {
+        _idleExpirations.increment();
+    }
+
+    void onTunnelClosed(Tunnel tunnel)
+    {
+        if (_tunnels.remove(tunnel))
+        {
+            _upstreamBytes.add(tunnel.getUpstreamBytes());
+            _downstreamBytes.add(tunnel.getDownstreamBytes());
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Closed {}", tunnel);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,tunnels=%d}", getClass().getSimpleName(), hashCode(), getState(), getTunnelCount());
+    }
+}
@@ -0,0 +1,99 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ab.eazy.http.MetaData;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.util.Callback;
+
+/**
+ * <p>A client request being proxied, and the upstream request built from it.</p>
+ * <p>The exchange is completed only once, either successfully when the upstream
+ * response has been forwarded, or with a failure.</p>
+ */
+class ProxyExchange
+{
+    private final AtomicBoolean _completed = new AtomicBoolean();
+    private final ProxyHandler _handler;
+    private final Request _request;
+    private final Response _response;
+    private final Callback _callback;
+    private final MetaData.Request _upstreamRequest;
+    private final boolean _hasContent;
+
+    ProxyExchange(ProxyHandler handler, Request request, Response response, Callback callback, MetaData.Request upstreamRequest, boolean hasContent)
+    {
+        _handler = handler;
+        _request = request;
+        _response = response;
+        _callback = callback;
+        _upstreamRequest = upstreamRequest;
+        _hasContent = hasContent;
+    }
+
+    ProxyHandler getHandler()
+    {
+        return _handler;
+    }
+
+    Request getRequest()
+    {
+        return _request;
+    }
+
+    Response getResponse()
+    {
+        return _response;
+    }
+
+    MetaData.Request getUpstreamRequest()
+    {
+        return _upstreamRequest;
+    }
+
+    /**
+     * @return whether the client request has content to forward upstream
+     */
+    boolean hasContent()
+    {
+        return _hasContent;
+    }
+
+    void succeeded()
+    {
+        if (_completed.compareAndSet(false, true))
+            _callback.succeeded();
+    }
+
+    void failed(Throwable failure)
+    {
+        if (_completed.compareAndSet(false, true))
+            _handler.onProxyFailure(_request, _response, _callback, failure);
+    }
+
+    void rejected()
+    {
+        if (_completed.compareAndSet(false, true))
+            _handler.onProxyRejected(_request, _response, _callback);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s %s}", getClass().getSimpleName(), hashCode(), _upstreamRequest.getMethod(), _upstreamRequest.getHttpURI());
+    }
+}
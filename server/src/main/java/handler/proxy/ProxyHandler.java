@@ -0,0 +1,425 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.http.HttpURI;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+import ab.eazy.io.ClientConnector;
+import ab.eazy.server.Handler;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.server.Server;
+import ab.eazy.util.AsciiLowerCaseSet;
+import ab.eazy.util.Callback;
+import ab.eazy.util.StringUtil;
+import ab.eazy.util.URIUtil;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.ManagedOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An asynchronous HTTP/1.1 proxy {@link Handler}.</p>
+ * <p>Each request is forwarded to the upstream server returned by {@link #rewriteTarget(Request)}
+ * over a connection taken from a per destination {@link UpstreamPool}, and the upstream response
+ * is forwarded back to the client. Request and response bodies are streamed: each request
+ * {@link ab.eazy.io.Content.Chunk} is written upstream and released when the write completes,
+ * and each upstream response buffer is written downstream before more bytes are read from
+ * upstream, so no message is buffered whole and a slow peer applies back-pressure to the other.</p>
+ * <p>Upstream connections are created by a {@link ClientConnector} that shares the thread pool,
+ * scheduler and buffer pool of the {@link Server}, and are kept alive and reused when both the
+ * request and the response allow it. At most {@link #getMaxConnectionsPerDestination()} connections
+ * are opened to each destination; requests in excess wait in a queue of at most
+ * {@link #getMaxRequestsQueuedPerDestination()} requests for a connection to be released.</p>
+ * <p>Hop-by-hop headers are not forwarded, and the {@code X-Forwarded-For}, {@code X-Forwarded-Proto}
+ * and {@code X-Forwarded-Host} headers are added to the upstream request.
+ * Failures to connect to or talk to the upstream server are reported to the client with a
+ * {@code 502} status, or a {@code 504} status if the upstream server timed out.</p>
+ *
+ * @see Reverse
+ */
+@ManagedObject
+public abstract class ProxyHandler extends Handler.Abstract
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyHandler.class);
+    private static final Set<String> HOP_HEADERS = new AsciiLowerCaseSet();
+
+    static
+    {
+        HOP_HEADERS.add(HttpHeader.CONNECTION.asString());
+        HOP_HEADERS.add(HttpHeader.KEEP_ALIVE.asString());
+        HOP_HEADERS.add(HttpHeader.PROXY_AUTHORIZATION.asString());
+        HOP_HEADERS.add(HttpHeader.PROXY_AUTHENTICATE.asString());
+        HOP_HEADERS.add(HttpHeader.PROXY_CONNECTION.asString());
+        HOP_HEADERS.add(HttpHeader.TRANSFER_ENCODING.asString());
+        HOP_HEADERS.add(HttpHeader.TE.asString());
+        HOP_HEADERS.add(HttpHeader.TRAILER.asString());
+        HOP_HEADERS.add(HttpHeader.UPGRADE.asString());
+    }
+
+    private final ConcurrentMap<String, UpstreamPool> _pools = new ConcurrentHashMap<>();
+    private final LongAdder _requests = new LongAdder();
+    private final LongAdder _failures = new LongAdder();
+    private final ClientConnector _clientConnector;
+    private int _maxConnectionsPerDestination = 64;
+    private int _maxRequestsQueuedPerDestination = 1024;
+    private int _requestHeaderSize = 8192;
+    private boolean _preserveHost;
+
+    protected ProxyHandler()
+    {
+        this(new ClientConnector());
+    }
+
+    protected ProxyHandler(ClientConnector clientConnector)
+    {
+        _clientConnector = clientConnector;
+        _clientConnector.setIdleTimeout(Duration.ofSeconds(30));
+        addBean(_clientConnector);
+    }
+
+    /**
+     * @return the {@link ClientConnector} that connects to the upstream servers
+     */
+    public ClientConnector getClientConnector()
+    {
+        return _clientConnector;
+    }
+
+    @ManagedAttribute("The maximum number of connections per upstream destination")
+    public int getMaxConnectionsPerDestination()
+    {
+        return _maxConnectionsPerDestination;
+    }
+
+    public void setMaxConnectionsPerDestination(int maxConnectionsPerDestination)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _maxConnectionsPerDestination = maxConnectionsPerDestination;
+    }
+
+    @ManagedAttribute("The maximum number of requests queued per upstream destination")
+    public int getMaxRequestsQueuedPerDestination()
+    {
+        return _maxRequestsQueuedPerDestination;
+    }
+
+    public void setMaxRequestsQueuedPerDestination(int maxRequestsQueuedPerDestination)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _maxRequestsQueuedPerDestination = maxRequestsQueuedPerDestination;
+    }
+
+    /**
+     * @return the maximum size in bytes of the headers of the upstream requests and responses
+     */
+    @ManagedAttribute("The maximum size in bytes of the upstream headers")
+    public int getRequestHeaderSize()
+    {
+        return _requestHeaderSize;
+    }
+
+    public void setRequestHeaderSize(int requestHeaderSize)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _requestHeaderSize = requestHeaderSize;
+    }
+
+    /**
+     * @return whether the {@code Host} header of the client request is forwarded upstream,
+     * rather than replaced with the authority of the upstream server
+     */
+    @ManagedAttribute("Whether the client Host header is forwarded upstream")
+    public boolean isPreserveHost()
+    {
+        return _preserveHost;
+    }
+
+    public void setPreserveHost(boolean preserveHost)
+    {
+        _preserveHost = preserveHost;
+    }
+
+    @ManagedAttribute("The number of proxied requests")
+    public long getRequests()
+    {
+        return _requests.sum();
+    }
+
+    @ManagedAttribute("The number of proxied requests that failed")
+    public long getFailures()
+    {
+        return _failures.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _requests.reset();
+        _failures.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        Server server = getServer();
+        if (server != null && !_clientConnector.isStarted())
+        {
+            if (_clientConnector.getExecutor() == null)
+                _clientConnector.setExecutor(server.getThreadPool());
+            if (_clientConnector.getScheduler() == null)
+                _clientConnector.setScheduler(server.getScheduler());
+            if (_clientConnector.getByteBufferPool() == null)
+                _clientConnector.setByteBufferPool(server.getByteBufferPool());
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        for (UpstreamPool pool : _pools.values())
+        {
+            removeBean(pool);
+            pool.close();
+        }
+        _pools.clear();
+        super.doStop();
+    }
+
+    /**
+     * <p>Returns the URI of the upstream resource for the given request.</p>
+     * <p>Only the scheme, host and port of the returned URI select the upstream destination,
+     * while its path and query are sent upstream in the request line.</p>
+     *
+     * @param request the client request
+     * @return the upstream URI, or {@code null} if this handler does not proxy the request
+     */
+    protected abstract HttpURI rewriteTarget(Request request);
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        HttpURI target = rewriteTarget(request);
+        if (target == null)
+            return false;
+
+        _requests.increment();
+        if (LOG.isDebugEnabled())
+            LOG.debug("Proxying {} to {}", request, target);
+
+        HttpFields.Mutable fields = HttpFields.build(request.getHeaders().size() + 4);
+        copyRequestHeaders(request, target, fields);
+
+        String pathQuery = target.getPathQuery();
+        HttpURI uri = HttpURI.from(StringUtil.isEmpty(pathQuery) ? "/" : pathQuery);
+        long contentLength = request.getLength();
+        // A HTTP/1.1 request has content only if it declares its length or transfer encoding.
+        boolean hasContent = contentLength > 0 || contentLength < 0 && request.getHeaders().contains(HttpHeader.TRANSFER_ENCODING);
+        MetaData.Request upstream = new MetaData.Request(request.getMethod(), uri, HttpVersion.HTTP_1_1, fields, hasContent ? contentLength : 0);
+
+        String scheme = target.getScheme() == null ? "http" : target.getScheme();
+        int port = URIUtil.normalizePortForScheme(scheme, target.getPort());
+        String host = target.getHost();
+        UpstreamPool pool = _pools.get(host + ":" + port);
+        if (pool == null)
+        {
+            pool = _pools.computeIfAbsent(host + ":" + port, key -> new UpstreamPool(this, host, port));
+            addBean(pool);
+        }
+        pool.send(new ProxyExchange(this, request, response, callback, upstream, hasContent));
+        return true;
+    }
+
+    /**
+     * <p>Copies the end-to-end headers of the client request to the upstream request headers,
+     * and adds the {@code Host} and the {@code X-Forwarded-*} headers.</p>
+     *
+     * @param request the client request
+     * @param target the upstream URI
+     * @param fields the upstream request headers
+     */
+    protected void copyRequestHeaders(Request request, HttpURI target, HttpFields.Mutable fields)
+    {
+        HttpFields headers = request.getHeaders();
+        Set<String> connectionTokens = connectionTokens(headers);
+        for (HttpField field : headers)
+        {
+            String name = field.getName();
+            if (HOP_HEADERS.contains(name) || connectionTokens != null && connectionTokens.contains(name))
+                continue;
+            // Interim responses are not forwarded, so the client expectation is handled by this server.
+            if (field.getHeader() == HttpHeader.EXPECT || field.getHeader() == HttpHeader.HOST && !isPreserveHost())
+                continue;
+            fields.add(field);
+        }
+        if (!isPreserveHost() || !fields.contains(HttpHeader.HOST))
+        {
+            int port = target.getPort();
+            fields.put(HttpHeader.HOST, port > 0 && port != URIUtil.getDefaultPortForScheme(target.getScheme()) ? target.getHost() + ":" + port : target.getHost());
+        }
+
+        String remoteAddr = Request.getRemoteAddr(request);
+        if (remoteAddr != null)
+            fields.add(HttpHeader.X_FORWARDED_FOR, remoteAddr);
+        fields.add(HttpHeader.X_FORWARDED_PROTO, request.isSecure() ? "https" : "http");
+        String host = headers.get(HttpHeader.HOST);
+        if (host != null)
+            fields.add(HttpHeader.X_FORWARDED_HOST, host);
+    }
+
+    /**
+     * <p>Copies the end-to-end headers of the upstream response to the client response headers.</p>
+     *
+     * @param upstream the upstream response headers
+     * @param fields the client response headers
+     */
+    protected void copyResponseHeaders(HttpFields upstream, HttpFields.Mutable fields)
+    {
+        Set<String> connectionTokens = connectionTokens(upstream);
+        for (HttpField field : upstream)
+        {
+            String name = field.getName();
+            if (HOP_HEADERS.contains(name) || connectionTokens != null && connectionTokens.contains(name))
+                continue;
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.DATE || header == HttpHeader.SERVER)
+                fields.put(field);
+            else
+                fields.add(field);
+        }
+    }
+
+    private static Set<String> connectionTokens(HttpFields fields)
+    {
+        HttpField connection = fields.getField(HttpHeader.CONNECTION);
+        if (connection == null)
+            return null;
+        Set<String> tokens = new AsciiLowerCaseSet();
+        for (String value : fields.getCSV(HttpHeader.CONNECTION, false))
+        {
+            tokens.add(value);
+        }
+        return tokens;
+    }
+
+    /**
+     * <p>Invoked when a proxied request fails, to complete the client response.</p>
+     * <p>If the client response is not committed, an error response is written with status
+     * {@code 504} if the upstream server timed out, or {@code 502} otherwise.</p>
+     *
+     * @param request the client request
+     * @param response the client response
+     * @param callback the client callback
+     * @param failure the cause of the failure
+     */
+    protected void onProxyFailure(Request request, Response response, Callback callback, Throwable failure)
+    {
+        _failures.increment();
+        if (LOG.isDebugEnabled())
+            LOG.debug("Proxy failure {}", request, failure);
+        if (response.isCommitted())
+        {
+            callback.failed(failure);
+            return;
+        }
+        int status = isTimeout(failure) ? HttpStatus.GATEWAY_TIMEOUT_504 : HttpStatus.BAD_GATEWAY_502;
+        Response.writeError(request, response, callback, status);
+    }
+
+    private static boolean isTimeout(Throwable failure)
+    {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof TimeoutException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * <p>Invoked when a proxied request cannot be queued, because too many requests
+     * are already waiting for a connection to the upstream destination.</p>
+     *
+     * @param request the client request
+     * @param response the client response
+     * @param callback the client callback
+     */
+    protected void onProxyRejected(Request request, Response response, Callback callback)
+    {
+        _failures.increment();
+        Response.writeError(request, response, callback, HttpStatus.SERVICE_UNAVAILABLE_503);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,destinations=%d}", getClass().getSimpleName(), hashCode(), getState(), _pools.size());
+    }
+
+    /**
+     * <p>A reverse proxy that forwards all requests to the same upstream server,
+     * prefixing the request path with the path of the upstream URI.</p>
+     */
+    public static class Reverse extends ProxyHandler
+    {
+        private final HttpURI _upstream;
+
+        /**
+         * @param upstream the URI of the upstream server, for example {@code http://localhost:8081/app}
+         */
+        public Reverse(String upstream)
+        {
+            this(HttpURI.from(upstream));
+        }
+
+        public Reverse(HttpURI upstream)
+        {
+            if (upstream.getHost() == null)
+                throw new IllegalArgumentException("No upstream host " + upstream);
+            _upstream = upstream;
+        }
+
+        @ManagedAttribute("The upstream URI")
+        public String getUpstream()
+        {
+            return _upstream.toString();
+        }
+
+        @Override
+        protected HttpURI rewriteTarget(Request request)
+        {
+            HttpURI uri = request.getHttpURI();
+            return HttpURI.build(_upstream)
+                .path(URIUtil.addEncodedPaths(_upstream.getPath(), uri.getPath()))
+                .query(uri.getQuery());
+        }
+    }
+}
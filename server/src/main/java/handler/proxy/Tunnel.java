@@ -0,0 +1,221 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ab.eazy.util.NanoTime;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@code CONNECT} tunnel between a client and an upstream server, established by a {@link ConnectHandler}.</p>
+ * <p>The tunnel is made of two {@link TunnelConnection}s, one for the client endpoint and one for the
+ * upstream endpoint, each pumping the bytes it reads to the endpoint of the other.</p>
+ * <p>The tunnel expires when no bytes have been read in either direction for {@link #getIdleTimeout()} ms,
+ * so that a tunnel that only transfers data in one direction does not expire because the other
+ * direction is idle.</p>
+ */
+@ManagedObject
+public class Tunnel
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Tunnel.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final AtomicBoolean _closed = new AtomicBoolean();
+    private final ConnectHandler _handler;
+    private final String _host;
+    private final int _port;
+    private final long _idleTimeout;
+    private final long _created = NanoTime.now();
+    private volatile long _lastActivity = _created;
+    private volatile long _closedAt;
+    private volatile long _upstreamBytes;
+    private volatile long _downstreamBytes;
+    private TunnelConnection _downstream;
+    private TunnelConnection _upstream;
+    private int _open = 2;
+
+    Tunnel(ConnectHandler handler, String host, int port, long idleTimeout)
+    {
+        _handler = handler;
+        _host = host;
+        _port = port;
+        _idleTimeout = idleTimeout;
+    }
+
+    void setConnections(TunnelConnection downstream, TunnelConnection upstream)
+    {
+        _downstream = downstream;
+        _upstream = upstream;
+    }
+
+    @ManagedAttribute("The upstream host")
+    public String getHost()
+    {
+        return _host;
+    }
+
+    @ManagedAttribute("The upstream port")
+    public int getPort()
+    {
+        return _port;
+    }
+
+    @ManagedAttribute("The idle timeout in ms")
+    public long getIdleTimeout()
+    {
+        return _idleTimeout;
+    }
+
+    /**
+     * @return the time in ms since bytes were last read in either direction
+     */
+    @ManagedAttribute("The time in ms since bytes were last transferred")
+    public long getIdleFor()
+    {
+        return NanoTime.millisSince(_lastActivity);
+    }
+
+    /**
+     * @return the time in ms the tunnel has been open, or was open if it is closed
+     */
+    @ManagedAttribute("The time in ms the tunnel has been open")
+    public long getDuration()
+    {
+        long closedAt = _closedAt;
+        return TimeUnit.NANOSECONDS.toMillis(closedAt == 0 ? NanoTime.since(_created) : NanoTime.elapsed(_created, closedAt));
+    }
+
+    /**
+     * @return the number of bytes transferred from the client to the upstream server
+     */
+    @ManagedAttribute("The number of bytes transferred from the client to the upstream server")
+    public long getUpstreamBytes()
+    {
+        return _upstreamBytes;
+    }
+
+    /**
+     * @return the number of bytes transferred from the upstream server to the client
+     */
+    @ManagedAttribute("The number of bytes transferred from the upstream server to the client")
+    public long getDownstreamBytes()
+    {
+        return _downstreamBytes;
+    }
+
+    /**
+     * @return the average number of bytes per second transferred from the client to the upstream server
+     */
+    @ManagedAttribute("The average upstream throughput in bytes per second")
+    public long getUpstreamThroughput()
+    {
+        return throughput(getUpstreamBytes());
+    }
+
+    /**
+     * @return the average number of bytes per second transferred from the upstream server to the client
+     */
+    @ManagedAttribute("The average downstream throughput in bytes per second")
+    public long getDownstreamThroughput()
+    {
+        return throughput(getDownstreamBytes());
+    }
+
+    private long throughput(long bytes)
+    {
+        long duration = getDuration();
+        return duration == 0 ? bytes * 1000 : bytes * 1000 / duration;
+    }
+
+    /**
+     * <p>Records bytes read by one of the tunnel connections.</p>
+     * <p>Each direction is pumped by a single {@link ab.eazy.util.IteratingCallback},
+     * so each counter has a single writer.</p>
+     *
+     * @param connection the connection that read the bytes
+     * @param bytes the number of bytes read
+     */
+    void onBytes(TunnelConnection connection, int bytes)
+    {
+        _lastActivity = NanoTime.now();
+        if (connection == _downstream)
+            _upstreamBytes += bytes;
+        else
+            _downstreamBytes += bytes;
+    }
+
+    /**
+     * <p>Checks whether the tunnel is idle, closing it if it is.</p>
+     *
+     * @param timeout the idle timeout of one of the tunnel endpoints
+     * @return whether the tunnel has been closed
+     */
+    boolean onIdleExpired(TimeoutException timeout)
+    {
+        if (getIdleFor() < _idleTimeout)
+            return false;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Idle timeout {}", this);
+        _handler.onTunnelIdleExpired(this);
+        close(timeout);
+        return true;
+    }
+
+    void close(Throwable failure)
+    {
+        if (_closed.compareAndSet(false, true))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Closing {}", this, failure);
+            TunnelConnection downstream = _downstream;
+            TunnelConnection upstream = _upstream;
+            if (downstream != null)
+                downstream.getEndPoint().close(failure);
+            if (upstream != null)
+                upstream.getEndPoint().close(failure);
+        }
+    }
+
+    void onClosed(TunnelConnection connection)
+    {
+        boolean closed;
+        try (AutoLock ignored = _lock.lock())
+        {
+            closed = --_open == 0;
+        }
+        if (closed)
+        {
+            _closedAt = NanoTime.now();
+            _handler.onTunnelClosed(this);
+        }
+        else
+        {
+            // Closing one side of the tunnel closes the other.
+            close(null);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s:%d,up=%d,down=%d,%dms}", getClass().getSimpleName(), hashCode(), _host, _port, getUpstreamBytes(), getDownstreamBytes(), getDuration());
+    }
+}
@@ -0,0 +1,185 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+import ab.eazy.io.AbstractConnection;
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.Connection;
+import ab.eazy.io.EndPoint;
+import ab.eazy.io.RetainableByteBuffer;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.Callback;
+import ab.eazy.util.IteratingCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>One side of a {@link Tunnel}, that pumps the bytes read from its {@link EndPoint}
+ * to the {@link EndPoint} of the other side.</p>
+ * <p>Bytes are filled into a pooled {@link RetainableByteBuffer} and the same buffer is
+ * written to the other side, so bytes are never copied. This connection is not fill interested
+ * while the write is pending, so a slow reader on one side applies back-pressure to the writer
+ * on the other side. The buffer is reused while bytes keep flowing, and is returned to the pool
+ * when no bytes are available, so that idle tunnels hold no buffers.</p>
+ */
+class TunnelConnection extends AbstractConnection implements Connection.UpgradeTo
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TunnelConnection.class);
+
+    private final Pump _pump = new Pump();
+    private final ByteBufferPool _bufferPool;
+    private final Tunnel _tunnel;
+    private final boolean _downstream;
+    private TunnelConnection _peer;
+    private ByteBuffer _prefilled;
+
+    TunnelConnection(EndPoint endPoint, Executor executor, ByteBufferPool bufferPool, Tunnel tunnel, boolean downstream)
+    {
+        super(endPoint, executor);
+        _bufferPool = bufferPool;
+        _tunnel = tunnel;
+        _downstream = downstream;
+    }
+
+    void setPeer(TunnelConnection peer)
+    {
+        _peer = peer;
+    }
+
+    @Override
+    public void onUpgradeTo(ByteBuffer buffer)
+    {
+        // Bytes sent by the client after the CONNECT request, and already read by the HTTP connection.
+        _prefilled = buffer;
+    }
+
+    @Override
+    public void onOpen()
+    {
+        super.onOpen();
+        // The upstream side is opened before the CONNECT response is sent, and must not
+        // pump bytes until the client side has replaced the HTTP connection.
+        if (_downstream)
+            start();
+    }
+
+    private void start()
+    {
+        ByteBuffer prefilled = _prefilled;
+        _prefilled = null;
+        if (BufferUtil.hasContent(prefilled))
+        {
+            _tunnel.onBytes(this, prefilled.remaining());
+            _peer.getEndPoint().write(Callback.from(this::start, _tunnel::close), prefilled);
+            return;
+        }
+        _peer.fillInterested();
+        fillInterested();
+    }
+
+    @Override
+    public void onFillable()
+    {
+        _pump.iterate();
+    }
+
+    @Override
+    public boolean onIdleExpired(TimeoutException timeout)
+    {
+        // The endpoints of the tunnel are idle, unless bytes flow in the other direction.
+        _tunnel.onIdleExpired(timeout);
+        return false;
+    }
+
+    @Override
+    public void onClose(Throwable cause)
+    {
+        super.onClose(cause);
+        // Closing the tunnel closes the peer endpoint, failing any pending write of the pump.
+        _tunnel.onClosed(this);
+        // The buffer is released when the pump completes, which may be after a concurrent process().
+        _pump.abort(cause == null ? new AsynchronousCloseException() : cause);
+    }
+
+    @Override
+    public String toConnectionString()
+    {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), _tunnel);
+    }
+
+    private class Pump extends IteratingCallback
+    {
+        private RetainableByteBuffer _buffer;
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            if (_buffer == null)
+                _buffer = _bufferPool.acquire(getInputBufferSize(), false);
+            // The previous write consumed the buffer, which is filled again from its start.
+            _buffer.clear();
+            ByteBuffer byteBuffer = _buffer.getByteBuffer();
+            int filled = getEndPoint().fill(byteBuffer);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Filled {} from {}", filled, TunnelConnection.this);
+
+            if (filled > 0)
+            {
+                _tunnel.onBytes(TunnelConnection.this, filled);
+                _peer.getEndPoint().write(this, byteBuffer);
+                return Action.SCHEDULED;
+            }
+
+            release();
+
+            if (filled == 0)
+            {
+                fillInterested();
+                return Action.IDLE;
+            }
+
+            // Propagate the half close, the endpoints close when both directions are shutdown.
+            _peer.getEndPoint().shutdownOutput();
+            return Action.SUCCEEDED;
+        }
+
+        private void release()
+        {
+            RetainableByteBuffer buffer = _buffer;
+            _buffer = null;
+            if (buffer != null)
+                buffer.release();
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable cause)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Failed {}", TunnelConnection.this, cause);
+            release();
+            _tunnel.close(cause);
+        }
+
+        @Override
+        public InvocationType getInvocationType()
+        {
+            return InvocationType.NON_BLOCKING;
+        }
+    }
+}
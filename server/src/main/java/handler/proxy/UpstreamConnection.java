@@ -0,0 +1,600 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+import ab.eazy.http.HttpException;
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpGenerator;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpHeaderValue;
+import ab.eazy.http.HttpMethod;
+import ab.eazy.http.HttpParser;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+import ab.eazy.io.AbstractConnection;
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.Content;
+import ab.eazy.io.EndPoint;
+import ab.eazy.io.EofException;
+import ab.eazy.io.RetainableByteBuffer;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.IteratingCallback;
+import ab.eazy.util.Pool;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A HTTP/1.1 connection to an upstream server, that proxies one {@link ProxyExchange} at a time.</p>
+ * <p>The upstream request is generated by a {@link HttpGenerator} and sent by a {@link Sender},
+ * while the upstream response is parsed by a {@link HttpParser} and forwarded to the client
+ * by a {@link Receiver}. The two run concurrently, so that an upstream server may respond
+ * before it has read the whole request.</p>
+ * <p>The connection is fill interested whenever the receiver is not running, so that the upstream
+ * server closing an idle connection is noticed and the connection is removed from the pool.</p>
+ */
+class UpstreamConnection extends AbstractConnection implements HttpParser.ResponseHandler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamConnection.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final ByteBufferPool _bufferPool;
+    private final UpstreamPool _pool;
+    private final Pool.Entry<UpstreamConnection> _entry;
+    private final int _headerSize;
+    private final HttpGenerator _generator = new HttpGenerator();
+    private final HttpParser _parser;
+    private final HttpFields.Mutable _responseHeaders = HttpFields.build();
+    private volatile ProxyExchange _exchange;
+    private Sender _sender;
+    private Receiver _receiver;
+    private RetainableByteBuffer _input;
+    private boolean _requestComplete;
+    private boolean _responseComplete;
+    private HttpVersion _version;
+    private int _status;
+    private ByteBuffer _content;
+    private boolean _messageComplete;
+    private Throwable _parseFailure;
+
+    UpstreamConnection(EndPoint endPoint, Executor executor, ByteBufferPool bufferPool, UpstreamPool pool, Pool.Entry<UpstreamConnection> entry, int headerSize)
+    {
+        super(endPoint, executor);
+        _bufferPool = bufferPool;
+        _pool = pool;
+        _entry = entry;
+        _headerSize = headerSize;
+        _parser = new HttpParser(this, headerSize);
+    }
+
+    boolean isOpen()
+    {
+        return getEndPoint().isOpen();
+    }
+
+    @Override
+    public void onOpen()
+    {
+        super.onOpen();
+        fillInterested();
+    }
+
+    /**
+     * <p>Sends the upstream request of the given exchange and forwards its response.</p>
+     *
+     * @param exchange the exchange to proxy
+     */
+    void send(ProxyExchange exchange)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Sending {} on {}", exchange, this);
+        Sender sender = new Sender(exchange);
+        try (AutoLock ignored = _lock.lock())
+        {
+            _requestComplete = false;
+            _responseComplete = false;
+            _messageComplete = false;
+            _parseFailure = null;
+            _content = null;
+            _responseHeaders.clear();
+            _parser.setHeadResponse(HttpMethod.HEAD.is(exchange.getUpstreamRequest().getMethod()));
+            _sender = sender;
+            _receiver = new Receiver(exchange);
+            _exchange = exchange;
+        }
+        sender.iterate();
+    }
+
+    @Override
+    public void onFillable()
+    {
+        Receiver receiver;
+        try (AutoLock ignored = _lock.lock())
+        {
+            receiver = _exchange == null ? null : _receiver;
+        }
+        if (receiver != null)
+            receiver.iterate();
+        else
+            onFillableIdle();
+    }
+
+    private void onFillableIdle()
+    {
+        // No exchange is in progress, so the only expected event is the upstream server closing the connection.
+        RetainableByteBuffer buffer = _bufferPool.acquire(getInputBufferSize(), false);
+        try
+        {
+            int filled = getEndPoint().fill(buffer.getByteBuffer());
+            if (filled == 0)
+            {
+                fillInterested();
+                return;
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("Unexpected {} while idle {}", filled < 0 ? "EOF" : "bytes", this);
+            close();
+        }
+        catch (Throwable x)
+        {
+            close();
+        }
+        finally
+        {
+            buffer.release();
+        }
+    }
+
+    @Override
+    protected boolean onReadTimeout(TimeoutException timeout)
+    {
+        fail(timeout);
+        return true;
+    }
+
+    @Override
+    public void onClose(Throwable cause)
+    {
+        super.onClose(cause);
+        fail(cause == null ? new EofException("Upstream connection closed") : cause);
+        _pool.remove(_entry);
+    }
+
+    private void fail(Throwable failure)
+    {
+        ProxyExchange exchange = _exchange;
+        Sender sender;
+        Receiver receiver;
+        try (AutoLock ignored = _lock.lock())
+        {
+            sender = _sender;
+            receiver = _receiver;
+        }
+        if (exchange == null)
+            return;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Failing {} on {}", exchange, this, failure);
+        // The exchange may have been completed already with an early response.
+        exchange.failed(failure);
+        // The connection cannot be reused, and closing it fails the pending reads and writes.
+        getEndPoint().close(failure);
+        if (sender != null)
+            sender.abort(failure);
+        if (receiver != null)
+            receiver.abort(failure);
+    }
+
+    private void requestComplete(ProxyExchange exchange)
+    {
+        boolean complete;
+        try (AutoLock ignored = _lock.lock())
+        {
+            _requestComplete = true;
+            complete = _responseComplete;
+        }
+        if (complete)
+            exchangeComplete(exchange);
+    }
+
+    private void responseComplete(ProxyExchange exchange)
+    {
+        boolean complete;
+        Sender sender;
+        try (AutoLock ignored = _lock.lock())
+        {
+            _responseComplete = true;
+            complete = _requestComplete;
+            sender = _sender;
+        }
+        if (complete)
+        {
+            exchangeComplete(exchange);
+        }
+        else
+        {
+            // The response is complete, but the request is still being sent: either the sender
+            // is just completing its last write, and it will complete the exchange, or the upstream
+            // server responded before reading the whole request, and the connection cannot be reused.
+            exchange.succeeded();
+            if (sender != null && sender.isAwaitingContent())
+                close();
+        }
+    }
+
+    private void exchangeComplete(ProxyExchange exchange)
+    {
+        boolean reuse = _generator.isPersistent() && isPersistent() && isOpen();
+        if (LOG.isDebugEnabled())
+            LOG.debug("Completed {} reuse={} on {}", exchange, reuse, this);
+        _generator.reset();
+        _parser.reset();
+        try (AutoLock ignored = _lock.lock())
+        {
+            _sender = null;
+            _receiver = null;
+        }
+        _exchange = null;
+        // Release the connection before completing the exchange,
+        // so that it can be reused by the next request of the same client.
+        if (reuse)
+        {
+            fillInterested();
+            _pool.release(this, _entry);
+        }
+        else
+        {
+            close();
+        }
+        exchange.succeeded();
+    }
+
+    private boolean isPersistent()
+    {
+        if (_parser.isClose() || _parser.isClosed())
+            return false;
+        HttpField connection = _responseHeaders.getField(HttpHeader.CONNECTION);
+        if (_version == HttpVersion.HTTP_1_1)
+            return connection == null || !connection.contains(HttpHeaderValue.CLOSE.asString());
+        return connection != null && connection.contains(HttpHeaderValue.KEEP_ALIVE.asString());
+    }
+
+    @Override
+    public void startResponse(HttpVersion version, int status, String reason)
+    {
+        _version = version;
+        _status = status;
+    }
+
+    @Override
+    public void parsedHeader(HttpField field)
+    {
+        _responseHeaders.add(field);
+    }
+
+    @Override
+    public boolean headerComplete()
+    {
+        ProxyExchange exchange = _exchange;
+        Response response = exchange.getResponse();
+        response.setStatus(_status);
+        exchange.getHandler().copyResponseHeaders(_responseHeaders, response.getHeaders());
+        return false;
+    }
+
+    @Override
+    public boolean content(ByteBuffer item)
+    {
+        _content = item;
+        // Stop parsing, so that the content is written before more is parsed.
+        return true;
+    }
+
+    @Override
+    public boolean contentComplete()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean messageComplete()
+    {
+        _messageComplete = true;
+        return true;
+    }
+
+    @Override
+    public void earlyEOF()
+    {
+        _parseFailure = new EofException("Early EOF from upstream");
+    }
+
+    @Override
+    public void badMessage(HttpException failure)
+    {
+        _parseFailure = (Throwable)failure;
+    }
+
+    @Override
+    public String toConnectionString()
+    {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), _exchange);
+    }
+
+    /**
+     * <p>Sends the upstream request, reading the content of the client request one
+     * {@link Content.Chunk} at a time, and writing it without copying.</p>
+     */
+    private class Sender extends IteratingCallback
+    {
+        private final ProxyExchange _exchange;
+        private final MetaData.Request _info;
+        private RetainableByteBuffer _header;
+        private RetainableByteBuffer _chunk;
+        private Content.Chunk _contentChunk;
+        private boolean _last;
+        private volatile boolean _awaitingContent;
+
+        private Sender(ProxyExchange exchange)
+        {
+            _exchange = exchange;
+            _info = exchange.getUpstreamRequest();
+        }
+
+        /**
+         * @return whether the sender is waiting for content from the client
+         */
+        private boolean isAwaitingContent()
+        {
+            return _awaitingContent;
+        }
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            _awaitingContent = false;
+            while (true)
+            {
+                if (_contentChunk == null && !_last)
+                {
+                    if (_exchange.hasContent())
+                    {
+                        Request request = _exchange.getRequest();
+                        Content.Chunk chunk = request.read();
+                        if (chunk == null)
+                        {
+                            _awaitingContent = true;
+                            request.demand(this::iterate);
+                            return Action.IDLE;
+                        }
+                        if (Content.Chunk.isFailure(chunk))
+                            throw chunk.getFailure();
+                        _contentChunk = chunk;
+                        _last = chunk.isLast();
+                    }
+                    else
+                    {
+                        _last = true;
+                    }
+                }
+
+                ByteBuffer header = _header == null ? null : _header.getByteBuffer();
+                ByteBuffer chunk = _chunk == null ? null : _chunk.getByteBuffer();
+                ByteBuffer content = _contentChunk == null ? null : _contentChunk.getByteBuffer();
+                HttpGenerator.Result result = _generator.generateRequest(_info, header, chunk, content, _last);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("generate: {} for {} ({},{},{})@{}",
+                        result,
+                        this,
+                        BufferUtil.toSummaryString(header),
+                        BufferUtil.toSummaryString(content),
+                        _last,
+                        _generator.getState());
+
+                switch (result)
+                {
+                    case NEED_INFO:
+                        throw new IllegalStateException("No request info");
+
+                    case NEED_HEADER:
+                    {
+                        _header = _bufferPool.acquire(_headerSize, false);
+                        continue;
+                    }
+                    case HEADER_OVERFLOW:
+                    {
+                        throw new IllegalStateException("Request header too large");
+                    }
+                    case NEED_CHUNK:
+                    {
+                        _chunk = _bufferPool.acquire(HttpGenerator.CHUNK_SIZE, false);
+                        continue;
+                    }
+                    case NEED_CHUNK_TRAILER:
+                    {
+                        _chunk.release();
+                        _chunk = _bufferPool.acquire(_headerSize, false);
+                        continue;
+                    }
+                    case FLUSH:
+                    {
+                        ByteBuffer[] buffers = new ByteBuffer[3];
+                        int count = 0;
+                        if (BufferUtil.hasContent(header))
+                            buffers[count++] = header;
+                        if (BufferUtil.hasContent(chunk))
+                            buffers[count++] = chunk;
+                        if (BufferUtil.hasContent(content))
+                            buffers[count++] = content;
+                        if (count == 0)
+                            succeeded();
+                        else
+                            getEndPoint().write(this, count == 3 ? buffers : Arrays.copyOf(buffers, count));
+                        return Action.SCHEDULED;
+                    }
+                    case SHUTDOWN_OUT:
+                    case CONTINUE:
+                    {
+                        continue;
+                    }
+                    case DONE:
+                    {
+                        // The content has been written, so the chunk can be released.
+                        if (_contentChunk != null)
+                        {
+                            _contentChunk.release();
+                            _contentChunk = null;
+                        }
+                        if (_last)
+                            return Action.SUCCEEDED;
+                        continue;
+                    }
+                    default:
+                    {
+                        throw new IllegalStateException("generateRequest=" + result);
+                    }
+                }
+            }
+        }
+
+        private void release()
+        {
+            if (_header != null)
+                _header.release();
+            _header = null;
+            if (_chunk != null)
+                _chunk.release();
+            _chunk = null;
+            if (_contentChunk != null)
+                _contentChunk.release();
+            _contentChunk = null;
+        }
+
+        @Override
+        protected void onCompleteSuccess()
+        {
+            release();
+            requestComplete(_exchange);
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable cause)
+        {
+            release();
+            fail(cause);
+        }
+    }
+
+    /**
+     * <p>Receives the upstream response, parsing it from a pooled buffer and writing each
+     * parsed content slice to the client without copying; the buffer is filled again only
+     * once its content has been written, so a slow client slows down the upstream server.</p>
+     */
+    private class Receiver extends IteratingCallback
+    {
+        private final ProxyExchange _exchange;
+        private boolean _handled;
+        private boolean _lastWritten;
+
+        private Receiver(ProxyExchange exchange)
+        {
+            _exchange = exchange;
+        }
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            while (true)
+            {
+                if (_parseFailure != null)
+                    throw _parseFailure;
+
+                ByteBuffer content = _content;
+                if (content != null)
+                {
+                    _content = null;
+                    if (content.hasRemaining())
+                    {
+                        _exchange.getResponse().write(false, content, this);
+                        return Action.SCHEDULED;
+                    }
+                }
+
+                if (_messageComplete)
+                {
+                    if (_lastWritten)
+                        return Action.SUCCEEDED;
+                    _lastWritten = true;
+                    _exchange.getResponse().write(true, BufferUtil.EMPTY_BUFFER, this);
+                    return Action.SCHEDULED;
+                }
+
+                // Parse again after a content event, even if all the bytes have been consumed,
+                // as the parser may have stopped just before the end of the message.
+                if (_input != null && (_input.hasRemaining() || _handled))
+                {
+                    _handled = _parser.parseNext(_input.getByteBuffer());
+                    continue;
+                }
+
+                if (_input == null)
+                    _input = _bufferPool.acquire(getInputBufferSize(), false);
+                int filled = getEndPoint().fill(_input.getByteBuffer());
+                if (filled > 0)
+                    continue;
+
+                releaseInput();
+                if (filled == 0)
+                {
+                    fillInterested();
+                    return Action.IDLE;
+                }
+
+                // EOF may complete a response delimited by the end of the connection.
+                _parser.atEOF();
+                _parser.parseNext(BufferUtil.EMPTY_BUFFER);
+                if (!_messageComplete && _content == null && _parseFailure == null)
+                    throw new EofException("Upstream closed");
+            }
+        }
+
+        private void releaseInput()
+        {
+            if (_input != null)
+                _input.release();
+            _input = null;
+        }
+
+        @Override
+        protected void onCompleteSuccess()
+        {
+            releaseInput();
+            responseComplete(_exchange);
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable cause)
+        {
+            releaseInput();
+            fail(cause);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ab.eazy.io.ClientConnectionFactory;
+import ab.eazy.io.ClientConnector;
+import ab.eazy.io.Connection;
+import ab.eazy.io.EofException;
+import ab.eazy.io.Transport;
+import ab.eazy.util.ConcurrentPool;
+import ab.eazy.util.Pool;
+import ab.eazy.util.Promise;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The pool of connections to an upstream destination.</p>
+ * <p>Connections are pooled in a {@link ConcurrentPool} of at most
+ * {@link ProxyHandler#getMaxConnectionsPerDestination()} entries.
+ * A request is sent over an idle connection if there is one, or over a new connection
+ * if the pool is not full; otherwise it is queued until a connection is released.
+ * A released connection is passed directly to the oldest queued request, if any.</p>
+ */
+@ManagedObject
+public class UpstreamPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamPool.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final Deque<ProxyExchange> _queue = new ArrayDeque<>();
+    private final ProxyHandler _handler;
+    private final String _host;
+    private final int _port;
+    private final Pool<UpstreamConnection> _pool;
+    private boolean _closed;
+
+    UpstreamPool(ProxyHandler handler, String host, int port)
+    {
+        _handler = handler;
+        _host = host;
+        _port = port;
+        // Prefer the first idle connection, so that the connections in excess idle out.
+        _pool = new ConcurrentPool<>(ConcurrentPool.StrategyType.FIRST, handler.getMaxConnectionsPerDestination());
+    }
+
+    @ManagedAttribute("The upstream host")
+    public String getHost()
+    {
+        return _host;
+    }
+
+    @ManagedAttribute("The upstream port")
+    public int getPort()
+    {
+        return _port;
+    }
+
+    @ManagedAttribute("The number of connections")
+    public int getConnectionCount()
+    {
+        return _pool.size();
+    }
+
+    @ManagedAttribute("The number of idle connections")
+    public int getIdleConnectionCount()
+    {
+        return _pool.getIdleCount();
+    }
+
+    @ManagedAttribute("The number of connections in use")
+    public int getActiveConnectionCount()
+    {
+        return _pool.getInUseCount();
+    }
+
+    @ManagedAttribute("The number of requests waiting for a connection")
+    public int getQueuedRequestCount()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return _queue.size();
+        }
+    }
+
+    void send(ProxyExchange exchange)
+    {
+        while (true)
+        {
+            Pool.Entry<UpstreamConnection> entry = _pool.acquire();
+            Pool.Entry<UpstreamConnection> reserved = null;
+            if (entry == null)
+            {
+                boolean rejected = false;
+                try (AutoLock ignored = _lock.lock())
+                {
+                    // Try again with the lock held, so that a connection released
+                    // concurrently is either acquired here or passed to the queue.
+                    entry = _pool.acquire();
+                    if (entry == null)
+                    {
+                        reserved = _closed ? null : _pool.reserve();
+                        if (reserved == null)
+                        {
+                            if (!_closed && _queue.size() < _handler.getMaxRequestsQueuedPerDestination())
+                                _queue.addLast(exchange);
+                            else
+                                rejected = true;
+                        }
+                    }
+                }
+
+                if (rejected)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Rejected {} {}", exchange, this);
+                    exchange.rejected();
+                    return;
+                }
+
+                if (reserved != null)
+                {
+                    connect(reserved, exchange);
+                    return;
+                }
+
+                if (entry == null)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Queued {} {}", exchange, this);
+                    return;
+                }
+            }
+
+            UpstreamConnection connection = entry.getPooled();
+            if (connection.isOpen())
+            {
+                connection.send(exchange);
+                return;
+            }
+            // The connection was closed by the upstream server while idle.
+            entry.remove();
+        }
+    }
+
+    private void connect(Pool.Entry<UpstreamConnection> entry, ProxyExchange exchange)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Connecting for {} {}", exchange, this);
+        ClientConnector connector = _handler.getClientConnector();
+        Map<String, Object> context = new HashMap<>();
+        context.put(Transport.class.getName(), Transport.TCP_IP);
+        context.put(ClientConnector.CLIENT_CONNECTION_FACTORY_CONTEXT_KEY, (ClientConnectionFactory)(endPoint, ctx) ->
+            new UpstreamConnection(endPoint, connector.getExecutor(), connector.getByteBufferPool(), this, entry, _handler.getRequestHeaderSize()));
+        context.put(ClientConnector.CONNECTION_PROMISE_CONTEXT_KEY, new Promise<Connection>()
+        {
+            @Override
+            public void succeeded(Connection result)
+            {
+                UpstreamConnection connection = (UpstreamConnection)result;
+                if (entry.enable(connection, true))
+                {
+                    connection.send(exchange);
+                }
+                else
+                {
+                    connection.close();
+                    exchange.failed(new EofException("Upstream pool closed"));
+                }
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Could not connect to {}:{}", _host, _port, x);
+                entry.remove();
+                exchange.failed(x);
+                proceed();
+            }
+        });
+        try
+        {
+            connector.connect(new InetSocketAddress(_host, _port), context);
+        }
+        catch (Throwable x)
+        {
+            entry.remove();
+            exchange.failed(x);
+        }
+    }
+
+    /**
+     * <p>Returns a connection to the pool after a successful exchange,
+     * passing it directly to the oldest queued request, if any.</p>
+     *
+     * @param connection the idle connection
+     * @param entry the pool entry of the connection
+     */
+    void release(UpstreamConnection connection, Pool.Entry<UpstreamConnection> entry)
+    {
+        ProxyExchange next;
+        boolean released = false;
+        try (AutoLock ignored = _lock.lock())
+        {
+            next = _queue.pollFirst();
+            if (next == null)
+                released = entry.release();
+        }
+        if (next != null)
+            connection.send(next);
+        else if (!released)
+            connection.close();
+    }
+
+    /**
+     * <p>Removes a closed connection from the pool, opening a new
+     * connection for the oldest queued request, if any.</p>
+     *
+     * @param entry the pool entry of the closed connection
+     */
+    void remove(Pool.Entry<UpstreamConnection> entry)
+    {
+        entry.remove();
+        proceed();
+    }
+
+    private void proceed()
+    {
+        ProxyExchange next = null;
+        Pool.Entry<UpstreamConnection> reserved = null;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (!_closed && !_queue.isEmpty())
+            {
+                reserved = _pool.reserve();
+                if (reserved != null)
+                    next = _queue.pollFirst();
+            }
+        }
+        if (next != null)
+            connect(reserved, next);
+    }
+
+    void close()
+    {
+        List<ProxyExchange> queued;
+        try (AutoLock ignored = _lock.lock())
+        {
+            _closed = true;
+            queued = new ArrayList<>(_queue);
+            _queue.clear();
+        }
+        for (ProxyExchange exchange : queued)
+        {
+            exchange.rejected();
+        }
+        for (Pool.Entry<UpstreamConnection> entry : _pool.terminate())
+        {
+            UpstreamConnection connection = entry.getPooled();
+            if (connection != null)
+                connection.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s:%d,connections=%d,idle=%d,queued=%d}",
+            getClass().getSimpleName(), hashCode(), _host, _port, getConnectionCount(), getIdleConnectionCount(), getQueuedRequestCount());
+    }
+}
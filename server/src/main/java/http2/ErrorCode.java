@@ -0,0 +1,61 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+/**
+ * <p>The error codes of {@code RST_STREAM} and {@code GOAWAY} frames, as defined by RFC 9113, section 7.</p>
+ */
+public enum ErrorCode
+{
+    NO_ERROR(0x0),
+    PROTOCOL_ERROR(0x1),
+    INTERNAL_ERROR(0x2),
+    FLOW_CONTROL_ERROR(0x3),
+    SETTINGS_TIMEOUT(0x4),
+    STREAM_CLOSED(0x5),
+    FRAME_SIZE_ERROR(0x6),
+    REFUSED_STREAM(0x7),
+    CANCEL(0x8),
+    COMPRESSION_ERROR(0x9),
+    CONNECT_ERROR(0xA),
+    ENHANCE_YOUR_CALM(0xB),
+    INADEQUATE_SECURITY(0xC),
+    HTTP_1_1_REQUIRED(0xD);
+
+    private final int _code;
+
+    ErrorCode(int code)
+    {
+        _code = code;
+    }
+
+    public int getCode()
+    {
+        return _code;
+    }
+
+    /**
+     * @param code an error code received from the remote peer
+     * @return the matching constant, or {@code null} for an unknown code
+     */
+    public static ErrorCode from(int code)
+    {
+        for (ErrorCode errorCode : values())
+        {
+            if (errorCode._code == code)
+                return errorCode;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,348 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import ab.eazy.util.BufferUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Parses the client connection preface and the HTTP/2 frames that follow it.</p>
+ * <p>Frames are only parsed when they are whole in the buffer, so the buffer must be able to hold
+ * a frame of the maximum frame size, plus its header. The payloads passed to the {@link Listener}
+ * are slices of the buffer, so that {@code DATA} frames are not copied; {@code HEADERS} frames
+ * followed by {@code CONTINUATION} frames are aggregated into a header block that is only
+ * notified when it is complete.</p>
+ * <p>Violations of RFC 9113 that affect the whole connection stop the parsing, while those that
+ * only affect a stream are notified and the parsing continues.</p>
+ */
+class FrameParser
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FrameParser.class);
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Listener _listener;
+    private final int _maxFrameSize;
+    private final int _maxHeaderBlockSize;
+    private int _prefaceIndex;
+    private boolean _settingsExpected = true;
+    private ByteBuffer _headerBlock;
+    private int _continuationStreamId;
+    private boolean _continuationEndStream;
+    private boolean _failed;
+
+    /**
+     * @param listener the listener of parsed frames
+     * @param maxFrameSize the maximum frame size advertised to the client
+     * @param maxHeaderBlockSize the maximum size of a header block split across frames
+     * @param prefaceIndex the number of preface bytes already consumed by another connection
+     */
+    FrameParser(Listener listener, int maxFrameSize, int maxHeaderBlockSize, int prefaceIndex)
+    {
+        _listener = listener;
+        _maxFrameSize = maxFrameSize;
+        _maxHeaderBlockSize = maxHeaderBlockSize;
+        _prefaceIndex = prefaceIndex;
+    }
+
+    boolean isFailed()
+    {
+        return _failed;
+    }
+
+    /**
+     * <p>Parses the preface or one frame.</p>
+     *
+     * @param buffer the buffer to parse, in flush mode
+     * @return whether something was parsed, so that parsing may continue,
+     * or {@code false} if more bytes are needed, or if the connection failed
+     */
+    boolean parse(ByteBuffer buffer)
+    {
+        if (_failed)
+            return false;
+
+        if (_prefaceIndex < PREFACE.length)
+        {
+            while (_prefaceIndex < PREFACE.length)
+            {
+                if (!buffer.hasRemaining())
+                    return false;
+                if (buffer.get() != PREFACE[_prefaceIndex++])
+                    return fail(ErrorCode.PROTOCOL_ERROR, "invalid_preface");
+            }
+            return true;
+        }
+
+        if (buffer.remaining() < FrameType.HEADER_LENGTH)
+            return false;
+
+        int position = buffer.position();
+        int length = ((buffer.get(position) & 0xFF) << 16) | (buffer.getShort(position + 1) & 0xFFFF);
+        if (length > _maxFrameSize)
+            return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_frame_length");
+        if (buffer.remaining() < FrameType.HEADER_LENGTH + length)
+            return false;
+
+        int type = buffer.get(position + 3) & 0xFF;
+        int flags = buffer.get(position + 4) & 0xFF;
+        int streamId = buffer.getInt(position + 5) & 0x7F_FF_FF_FF;
+        ByteBuffer payload = buffer.slice(position + FrameType.HEADER_LENGTH, length);
+        buffer.position(position + FrameType.HEADER_LENGTH + length);
+
+        FrameType frameType = FrameType.from(type);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Parsed {}/{} length={} flags={} stream={}", frameType, type, length, flags, streamId);
+
+        if (_settingsExpected)
+        {
+            // The client preface ends with a SETTINGS frame, see RFC 9113, section 3.4.
+            if (frameType != FrameType.SETTINGS || (flags & FrameType.ACK) != 0)
+                return fail(ErrorCode.PROTOCOL_ERROR, "invalid_preface");
+            _settingsExpected = false;
+        }
+
+        if (_continuationStreamId != 0 && (frameType != FrameType.CONTINUATION || streamId != _continuationStreamId))
+            return fail(ErrorCode.PROTOCOL_ERROR, "expected_continuation_frame");
+
+        if (frameType == null)
+            return true;
+
+        return switch (frameType)
+        {
+            case DATA -> parseData(payload, flags, streamId);
+            case HEADERS -> parseHeaders(payload, flags, streamId);
+            case PRIORITY -> parsePriority(payload, streamId);
+            case RST_STREAM -> parseReset(payload, streamId);
+            case SETTINGS -> parseSettings(payload, flags, streamId);
+            case PUSH_PROMISE -> fail(ErrorCode.PROTOCOL_ERROR, "invalid_push_promise");
+            case PING -> parsePing(payload, flags, streamId);
+            case GO_AWAY -> parseGoAway(payload, streamId);
+            case WINDOW_UPDATE -> parseWindowUpdate(payload, streamId);
+            case CONTINUATION -> parseContinuation(payload, flags, streamId);
+        };
+    }
+
+    private boolean parseData(ByteBuffer payload, int flags, int streamId)
+    {
+        if (streamId == 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_data_frame");
+        int length = payload.remaining();
+        ByteBuffer data = unpad(payload, flags);
+        if (data == null)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_data_frame_padding");
+        _listener.onData(streamId, data, length, (flags & FrameType.END_STREAM) != 0);
+        return true;
+    }
+
+    private boolean parseHeaders(ByteBuffer payload, int flags, int streamId)
+    {
+        if (streamId == 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_headers_frame");
+        ByteBuffer fragment = unpad(payload, flags);
+        if (fragment == null)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_headers_frame_padding");
+        boolean endStream = (flags & FrameType.END_STREAM) != 0;
+        if ((flags & FrameType.PRIORITY_FLAG) != 0)
+        {
+            if (fragment.remaining() < 5)
+                return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_headers_frame");
+            int parentStreamId = fragment.getInt() & 0x7F_FF_FF_FF;
+            // Skip the weight, priorities are not supported.
+            fragment.get();
+            if (parentStreamId == streamId)
+            {
+                _listener.onStreamFailure(streamId, ErrorCode.PROTOCOL_ERROR, "invalid_priority");
+                return true;
+            }
+        }
+
+        if ((flags & FrameType.END_HEADERS) != 0)
+        {
+            _listener.onHeaders(streamId, fragment, endStream);
+            return true;
+        }
+
+        if (fragment.remaining() > _maxHeaderBlockSize)
+            return fail(ErrorCode.ENHANCE_YOUR_CALM, "header_block_too_large");
+        if (_headerBlock == null)
+            _headerBlock = BufferUtil.allocate(Math.max(1024, fragment.remaining() * 2));
+        BufferUtil.clear(_headerBlock);
+        _headerBlock = append(_headerBlock, fragment);
+        _continuationStreamId = streamId;
+        _continuationEndStream = endStream;
+        return true;
+    }
+
+    private boolean parseContinuation(ByteBuffer payload, int flags, int streamId)
+    {
+        if (_continuationStreamId == 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "unexpected_continuation_frame");
+        if (_headerBlock.remaining() + payload.remaining() > _maxHeaderBlockSize)
+            return fail(ErrorCode.ENHANCE_YOUR_CALM, "header_block_too_large");
+        _headerBlock = append(_headerBlock, payload);
+        if ((flags & FrameType.END_HEADERS) != 0)
+        {
+            _continuationStreamId = 0;
+            _listener.onHeaders(streamId, _headerBlock, _continuationEndStream);
+        }
+        return true;
+    }
+
+    private boolean parsePriority(ByteBuffer payload, int streamId)
+    {
+        if (streamId == 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_priority_frame");
+        if (payload.remaining() != 5)
+        {
+            _listener.onStreamFailure(streamId, ErrorCode.FRAME_SIZE_ERROR, "invalid_priority_frame");
+            return true;
+        }
+        int parentStreamId = payload.getInt() & 0x7F_FF_FF_FF;
+        if (parentStreamId == streamId)
+            _listener.onStreamFailure(streamId, ErrorCode.PROTOCOL_ERROR, "invalid_priority");
+        return true;
+    }
+
+    private boolean parseReset(ByteBuffer payload, int streamId)
+    {
+        if (streamId == 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_rst_stream_frame");
+        if (payload.remaining() != 4)
+            return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_rst_stream_frame");
+        _listener.onReset(streamId, payload.getInt());
+        return true;
+    }
+
+    private boolean parseSettings(ByteBuffer payload, int flags, int streamId)
+    {
+        if (streamId != 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_settings_frame");
+        boolean ack = (flags & FrameType.ACK) != 0;
+        if (ack && payload.hasRemaining() || payload.remaining() % 6 != 0)
+            return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_settings_frame");
+        Map<Integer, Integer> settings = Settings.parse(payload);
+        ErrorCode error = Settings.validate(settings);
+        if (error != null)
+            return fail(error, "invalid_settings_frame");
+        _listener.onSettings(settings, ack);
+        return true;
+    }
+
+    private boolean parsePing(ByteBuffer payload, int flags, int streamId)
+    {
+        if (streamId != 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_ping_frame");
+        if (payload.remaining() != 8)
+            return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_ping_frame");
+        _listener.onPing(payload.getLong(), (flags & FrameType.ACK) != 0);
+        return true;
+    }
+
+    private boolean parseGoAway(ByteBuffer payload, int streamId)
+    {
+        if (streamId != 0)
+            return fail(ErrorCode.PROTOCOL_ERROR, "invalid_go_away_frame");
+        if (payload.remaining() < 8)
+            return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_go_away_frame");
+        int lastStreamId = payload.getInt() & 0x7F_FF_FF_FF;
+        _listener.onGoAway(lastStreamId, payload.getInt());
+        return true;
+    }
+
+    private boolean parseWindowUpdate(ByteBuffer payload, int streamId)
+    {
+        if (payload.remaining() != 4)
+            return fail(ErrorCode.FRAME_SIZE_ERROR, "invalid_window_update_frame");
+        _listener.onWindowUpdate(streamId, payload.getInt() & 0x7F_FF_FF_FF);
+        return true;
+    }
+
+    private static ByteBuffer unpad(ByteBuffer payload, int flags)
+    {
+        if ((flags & FrameType.PADDED) == 0)
+            return payload;
+        if (!payload.hasRemaining())
+            return null;
+        int padding = payload.get() & 0xFF;
+        if (padding > payload.remaining())
+            return null;
+        return payload.slice(payload.position(), payload.remaining() - padding);
+    }
+
+    private static ByteBuffer append(ByteBuffer block, ByteBuffer fragment)
+    {
+        if (BufferUtil.space(block) < fragment.remaining())
+        {
+            ByteBuffer larger = BufferUtil.allocate(Math.max(block.capacity() * 2, block.remaining() + fragment.remaining()));
+            BufferUtil.append(larger, block);
+            block = larger;
+        }
+        BufferUtil.append(block, fragment);
+        return block;
+    }
+
+    private boolean fail(ErrorCode error, String reason)
+    {
+        _failed = true;
+        _listener.onConnectionFailure(error, reason);
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{preface=%b,continuation=%d}", getClass().getSimpleName(), hashCode(), _prefaceIndex >= PREFACE.length, _continuationStreamId);
+    }
+
+    /**
+     * <p>The listener of the frames parsed by a {@link FrameParser}, that runs in the parsing thread.</p>
+     */
+    interface Listener
+    {
+        /**
+         * @param streamId the stream id
+         * @param data the data, without padding
+         * @param length the length of the frame, that counts against the flow control windows
+         * @param endStream whether the frame ends the stream
+         */
+        void onData(int streamId, ByteBuffer data, int length, boolean endStream);
+
+        /**
+         * @param streamId the stream id
+         * @param headerBlock the whole header block, valid only during this call
+         * @param endStream whether the frame ends the stream
+         */
+        void onHeaders(int streamId, ByteBuffer headerBlock, boolean endStream);
+
+        void onReset(int streamId, int error);
+
+        void onSettings(Map<Integer, Integer> settings, boolean ack);
+
+        void onPing(long payload, boolean ack);
+
+        void onGoAway(int lastStreamId, int error);
+
+        void onWindowUpdate(int streamId, int delta);
+
+        void onStreamFailure(int streamId, ErrorCode error, String reason);
+
+        void onConnectionFailure(ErrorCode error, String reason);
+    }
+}
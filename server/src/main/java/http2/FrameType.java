@@ -0,0 +1,80 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>The frame types of RFC 9113, section 6, with their flags and the frame header codec.</p>
+ */
+enum FrameType
+{
+    DATA(0x0),
+    HEADERS(0x1),
+    PRIORITY(0x2),
+    RST_STREAM(0x3),
+    SETTINGS(0x4),
+    PUSH_PROMISE(0x5),
+    PING(0x6),
+    GO_AWAY(0x7),
+    WINDOW_UPDATE(0x8),
+    CONTINUATION(0x9);
+
+    static final int HEADER_LENGTH = 9;
+    static final int END_STREAM = 0x01;
+    static final int ACK = 0x01;
+    static final int END_HEADERS = 0x04;
+    static final int PADDED = 0x08;
+    static final int PRIORITY_FLAG = 0x20;
+
+    private static final FrameType[] TYPES = values();
+
+    private final int _type;
+
+    FrameType(int type)
+    {
+        _type = type;
+    }
+
+    int getType()
+    {
+        return _type;
+    }
+
+    /**
+     * @param type a frame type received from the remote peer
+     * @return the matching constant, or {@code null} for an unknown type, that must be ignored
+     */
+    static FrameType from(int type)
+    {
+        return type < TYPES.length ? TYPES[type] : null;
+    }
+
+    /**
+     * <p>Writes a frame header.</p>
+     *
+     * @param buffer the buffer to write to, in fill mode
+     * @param length the length of the frame payload
+     * @param flags the frame flags
+     * @param streamId the stream id, or zero for connection frames
+     */
+    void putHeader(ByteBuffer buffer, int length, int flags, int streamId)
+    {
+        buffer.put((byte)(length >>> 16));
+        buffer.putShort((short)length);
+        buffer.put((byte)_type);
+        buffer.put((byte)flags);
+        buffer.putInt(streamId);
+    }
+}
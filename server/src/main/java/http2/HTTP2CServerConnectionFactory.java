@@ -0,0 +1,209 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+
+import ab.eazy.http.BadMessageException;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpHeaderValue;
+import ab.eazy.http.HttpMethod;
+import ab.eazy.http.MetaData;
+import ab.eazy.http.hpack.HpackContext;
+import ab.eazy.io.Connection;
+import ab.eazy.io.EndPoint;
+import ab.eazy.server.AbstractConnectionFactory;
+import ab.eazy.server.ConnectionFactory;
+import ab.eazy.server.Connector;
+import ab.eazy.server.HttpConfiguration;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.annotation.Name;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link ConnectionFactory} for HTTP/2 in clear text, the {@code h2c} protocol.</p>
+ * <p>A connection may start with HTTP/2 directly, when this factory is the default one of the
+ * connector or is detected by a {@link ab.eazy.server.DetectorConnectionFactory}, or may be upgraded
+ * from HTTP/1.1, either with the HTTP/2 preface sent with prior knowledge, or with an
+ * {@code Upgrade: h2c} request, that becomes the first stream of the HTTP/2 connection.</p>
+ * <pre>{@code
+ * HttpConfiguration config = new HttpConfiguration();
+ * ServerConnector connector = new ServerConnector(server,
+ *     new HttpConnectionFactory(config),
+ *     new HTTP2CServerConnectionFactory(config));
+ * }</pre>
+ */
+@ManagedObject("The h2c connection factory")
+public class HTTP2CServerConnectionFactory extends AbstractConnectionFactory implements ConnectionFactory.Upgrading, ConnectionFactory.Detecting, HttpConfiguration.ConnectionFactory
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HTTP2CServerConnectionFactory.class);
+    // The part of the preface consumed by the HTTP/1.1 parser as a "PRI * HTTP/2.0" request.
+    private static final int PRIOR_KNOWLEDGE_PREFACE_LENGTH = "PRI * HTTP/2.0\r\n\r\n".length();
+
+    private final HttpConfiguration _config;
+    private int _maxConcurrentStreams = 128;
+    private int _initialSessionRecvWindow = 1024 * 1024;
+    private int _initialStreamRecvWindow = 512 * 1024;
+    private int _maxFrameSize = Settings.DEFAULT_MAX_FRAME_SIZE;
+    private int _maxDynamicTableSize = HpackContext.DEFAULT_MAX_TABLE_SIZE;
+
+    public HTTP2CServerConnectionFactory()
+    {
+        this(new HttpConfiguration());
+    }
+
+    public HTTP2CServerConnectionFactory(@Name("config") HttpConfiguration config)
+    {
+        super("h2c");
+        _config = Objects.requireNonNull(config);
+        installBean(_config);
+    }
+
+    @Override
+    public HttpConfiguration getHttpConfiguration()
+    {
+        return _config;
+    }
+
+    @ManagedAttribute("The max number of concurrent streams per connection")
+    public int getMaxConcurrentStreams()
+    {
+        return _maxConcurrentStreams;
+    }
+
+    public void setMaxConcurrentStreams(int maxConcurrentStreams)
+    {
+        _maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    @ManagedAttribute("The initial size of the connection receive window")
+    public int getInitialSessionRecvWindow()
+    {
+        return _initialSessionRecvWindow;
+    }
+
+    public void setInitialSessionRecvWindow(int initialSessionRecvWindow)
+    {
+        if (initialSessionRecvWindow < Settings.DEFAULT_WINDOW_SIZE)
+            throw new IllegalArgumentException("Invalid connection window " + initialSessionRecvWindow);
+        _initialSessionRecvWindow = initialSessionRecvWindow;
+    }
+
+    @ManagedAttribute("The initial size of the stream receive window")
+    public int getInitialStreamRecvWindow()
+    {
+        return _initialStreamRecvWindow;
+    }
+
+    public void setInitialStreamRecvWindow(int initialStreamRecvWindow)
+    {
+        if (initialStreamRecvWindow <= 0)
+            throw new IllegalArgumentException("Invalid stream window " + initialStreamRecvWindow);
+        _initialStreamRecvWindow = initialStreamRecvWindow;
+    }
+
+    @ManagedAttribute("The max frame size")
+    public int getMaxFrameSize()
+    {
+        return _maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize)
+    {
+        if (maxFrameSize < Settings.DEFAULT_MAX_FRAME_SIZE || maxFrameSize > Settings.MAX_MAX_FRAME_SIZE)
+            throw new IllegalArgumentException("Invalid max frame size " + maxFrameSize);
+        _maxFrameSize = maxFrameSize;
+    }
+
+    @ManagedAttribute("The max size of the HPACK dynamic tables")
+    public int getMaxDynamicTableSize()
+    {
+        return _maxDynamicTableSize;
+    }
+
+    public void setMaxDynamicTableSize(int maxDynamicTableSize)
+    {
+        _maxDynamicTableSize = maxDynamicTableSize;
+    }
+
+    @Override
+    public Detection detect(ByteBuffer buffer)
+    {
+        byte[] preface = FrameParser.PREFACE;
+        int length = Math.min(buffer.remaining(), preface.length);
+        for (int i = 0; i < length; i++)
+        {
+            if (buffer.get(buffer.position() + i) != preface[i])
+                return Detection.NOT_RECOGNIZED;
+        }
+        return length == preface.length ? Detection.RECOGNIZED : Detection.NEED_MORE_BYTES;
+    }
+
+    @Override
+    public Connection newConnection(Connector connector, EndPoint endPoint)
+    {
+        return configure(new HTTP2ServerConnection(this, connector, _config, endPoint, 0, null, null), connector, endPoint);
+    }
+
+    @Override
+    public Connection upgradeConnection(Connector connector, EndPoint endPoint, MetaData.Request upgradeRequest, HttpFields.Mutable responseFields) throws BadMessageException
+    {
+        if (HttpMethod.PRI.is(upgradeRequest.getMethod()))
+        {
+            // The preface sent with prior knowledge, see RFC 9113, section 3.3.
+            HTTP2ServerConnection connection = new HTTP2ServerConnection(this, connector, _config, endPoint, PRIOR_KNOWLEDGE_PREFACE_LENGTH, null, null);
+            return configure(connection, connector, endPoint);
+        }
+
+        // The request content would have to be received over HTTP/1.1
+        // before switching protocol, so such requests are not upgraded.
+        HttpFields fields = upgradeRequest.getHttpFields();
+        if (upgradeRequest.getContentLength() > 0 || fields.contains(HttpHeader.TRANSFER_ENCODING))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Not upgrading request with content {}", upgradeRequest);
+            return null;
+        }
+
+        String value = fields.get(HttpHeader.HTTP2_SETTINGS);
+        if (value == null)
+            return null;
+
+        Map<Integer, Integer> settings;
+        try
+        {
+            ByteBuffer payload = ByteBuffer.wrap(Base64.getUrlDecoder().decode(value));
+            if (payload.remaining() % 6 != 0)
+                throw new IllegalArgumentException("Invalid length");
+            settings = Settings.parse(payload);
+        }
+        catch (IllegalArgumentException x)
+        {
+            throw new BadMessageException("Invalid HTTP2-Settings header", x);
+        }
+        if (Settings.validate(settings) != null)
+            throw new BadMessageException("Invalid HTTP2-Settings header");
+
+        responseFields.put(HttpHeader.CONNECTION, HttpHeaderValue.UPGRADE.asString());
+        responseFields.put(HttpHeader.UPGRADE, getProtocol());
+        HTTP2ServerConnection connection = new HTTP2ServerConnection(this, connector, _config, endPoint, 0, upgradeRequest, settings);
+        return configure(connection, connector, endPoint);
+    }
+}
@@ -0,0 +1,549 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import ab.eazy.http.HttpField;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpMethod;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+import ab.eazy.http.hpack.HpackEncoder;
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.EofException;
+import ab.eazy.io.RetainableByteBuffer;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.Callback;
+import ab.eazy.util.IteratingCallback;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Serializes the frames of a HTTP/2 connection and writes them, with a gathering write of
+ * as many frames as possible at each iteration.</p>
+ * <p>Control frames are written first, in order. Then the frames of the streams are generated
+ * when they are written, rather than when they are queued, because header blocks must be HPACK
+ * encoded in the same order they are written, and because {@code DATA} frames must fit the flow
+ * control windows at that time. The frame headers are generated into a single pooled buffer,
+ * while the payloads of {@code DATA} frames are slices of the application buffers, that are not
+ * copied. A stream whose send window is exhausted is skipped, and resumed when a
+ * {@code WINDOW_UPDATE} frame is received.</p>
+ * <p>The send windows of the connection and of its streams are guarded by the lock of this flusher.</p>
+ */
+class HTTP2Flusher extends IteratingCallback
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HTTP2Flusher.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final ArrayDeque<Control> _controls = new ArrayDeque<>();
+    private final ArrayDeque<Send> _sends = new ArrayDeque<>();
+    private final List<ByteBuffer> _buffers = new ArrayList<>();
+    private final List<RetainableByteBuffer> _retained = new ArrayList<>();
+    private final List<Callback> _completed = new ArrayList<>();
+    private final HTTP2ServerConnection _connection;
+    private final ByteBufferPool _bufferPool;
+    private final HpackEncoder _encoder;
+    private final int _bufferSize;
+    private final int _headerBlockSize;
+    private RetainableByteBuffer _accumulator;
+    private int _region;
+    private int _sendWindow = Settings.DEFAULT_WINDOW_SIZE;
+    private int _initialStreamSendWindow = Settings.DEFAULT_WINDOW_SIZE;
+    private int _maxFrameSize = Settings.DEFAULT_MAX_FRAME_SIZE;
+    private Throwable _terminated;
+
+    HTTP2Flusher(HTTP2ServerConnection connection, ByteBufferPool bufferPool, HpackEncoder encoder, int bufferSize, int headerBlockSize)
+    {
+        _connection = connection;
+        _bufferPool = bufferPool;
+        _encoder = encoder;
+        _bufferSize = bufferSize;
+        _headerBlockSize = headerBlockSize;
+    }
+
+    /**
+     * <p>Queues a connection frame, or a frame without flow control.</p>
+     *
+     * @param frame the whole frame, in flush mode
+     * @param callback the callback completed when the frame is written
+     */
+    void control(ByteBuffer frame, Callback callback)
+    {
+        Throwable terminated;
+        try (AutoLock ignored = _lock.lock())
+        {
+            terminated = _terminated;
+            if (terminated == null)
+                _controls.add(new Control(frame, callback));
+        }
+        if (terminated == null)
+            iterate();
+        else
+            callback.failed(terminated);
+    }
+
+    /**
+     * <p>Queues a response, or part of it, with the semantic of {@link ab.eazy.server.HttpStream#send}.</p>
+     */
+    void send(HTTP2Stream stream, MetaData.Request request, MetaData.Response response, boolean last, ByteBuffer content, Callback callback)
+    {
+        Throwable terminated;
+        try (AutoLock ignored = _lock.lock())
+        {
+            terminated = _terminated;
+            if (terminated == null)
+                _sends.add(new Send(stream, request, response, last, content, callback));
+        }
+        if (terminated == null)
+            iterate();
+        else
+            callback.failed(terminated);
+    }
+
+    /**
+     * @return the initial send window of new streams
+     */
+    int getInitialStreamSendWindow()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return _initialStreamSendWindow;
+        }
+    }
+
+    void setRemoteMaxFrameSize(int maxFrameSize)
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            _maxFrameSize = maxFrameSize;
+        }
+    }
+
+    void setRemoteMaxTableSize(int maxTableSize)
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            _encoder.setRemoteMaxTableSize(maxTableSize);
+        }
+    }
+
+    /**
+     * <p>Applies a change of {@code SETTINGS_INITIAL_WINDOW_SIZE} to the send windows of all streams.</p>
+     *
+     * @param initialWindow the new initial window
+     * @param streams the streams of the connection
+     * @return whether no window overflowed
+     */
+    boolean onInitialStreamSendWindow(int initialWindow, Collection<HTTP2Stream> streams)
+    {
+        boolean valid = true;
+        try (AutoLock ignored = _lock.lock())
+        {
+            int delta = initialWindow - _initialStreamSendWindow;
+            _initialStreamSendWindow = initialWindow;
+            for (HTTP2Stream stream : streams)
+            {
+                long window = (long)stream._sendWindow + delta;
+                if (window > Settings.MAX_WINDOW_SIZE)
+                    valid = false;
+                else
+                    stream._sendWindow = (int)window;
+            }
+        }
+        if (valid)
+            iterate();
+        return valid;
+    }
+
+    /**
+     * <p>Enlarges a send window after a {@code WINDOW_UPDATE} frame.</p>
+     *
+     * @param stream the stream, or {@code null} for the connection window
+     * @param delta the window increment
+     * @return whether the window did not overflow
+     */
+    boolean onWindowUpdate(HTTP2Stream stream, int delta)
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            long window = (stream == null ? _sendWindow : stream._sendWindow) + (long)delta;
+            if (window > Settings.MAX_WINDOW_SIZE)
+                return false;
+            if (stream == null)
+                _sendWindow = (int)window;
+            else
+                stream._sendWindow = (int)window;
+        }
+        iterate();
+        return true;
+    }
+
+    /**
+     * <p>Fails the pending send of a stream that has been reset.</p>
+     *
+     * @param stream the stream
+     * @param failure the reason of the reset
+     */
+    void remove(HTTP2Stream stream, Throwable failure)
+    {
+        Send removed = null;
+        try (AutoLock ignored = _lock.lock())
+        {
+            for (Iterator<Send> iterator = _sends.iterator(); iterator.hasNext();)
+            {
+                Send send = iterator.next();
+                if (send._stream == stream)
+                {
+                    iterator.remove();
+                    removed = send;
+                    break;
+                }
+            }
+        }
+        if (removed != null)
+            removed._callback.failed(failure);
+    }
+
+    /**
+     * <p>Fails the pending frames, and any frame queued later.</p>
+     *
+     * @param failure the reason of the termination
+     */
+    void terminate(Throwable failure)
+    {
+        abort(failure);
+        // Also fail the frames when the abort is too late.
+        failQueued(failure);
+    }
+
+    @Override
+    protected Action process() throws Throwable
+    {
+        complete();
+
+        int maxFrameSize;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminated != null)
+                throw _terminated;
+            if (_controls.isEmpty() && _sends.isEmpty())
+            {
+                release();
+                return Action.IDLE;
+            }
+
+            if (_accumulator == null)
+                _accumulator = _bufferPool.acquire(_bufferSize, false);
+            ByteBuffer accumulator = _accumulator.getByteBuffer();
+            accumulator.clear();
+            _region = 0;
+            maxFrameSize = _maxFrameSize;
+
+            while (!_controls.isEmpty())
+            {
+                Control control = _controls.peek();
+                if (accumulator.remaining() < control._frame.remaining())
+                    break;
+                accumulator.put(control._frame);
+                _completed.add(_controls.poll()._callback);
+            }
+
+            for (Iterator<Send> iterator = _sends.iterator(); iterator.hasNext();)
+            {
+                Send send = iterator.next();
+                if (!generate(send, accumulator, maxFrameSize))
+                {
+                    if (accumulator.remaining() < minimumSpace(maxFrameSize))
+                        break;
+                    continue;
+                }
+                iterator.remove();
+                _completed.add(send._failure == null ? send._callback : Callback.from(send._callback, send._failure));
+            }
+
+            region();
+        }
+
+        if (_buffers.isEmpty())
+        {
+            // All the streams are stalled by flow control.
+            complete();
+            release();
+            return Action.IDLE;
+        }
+
+        ByteBuffer[] buffers = _buffers.toArray(ByteBuffer[]::new);
+        _buffers.clear();
+        if (LOG.isDebugEnabled())
+            LOG.debug("Writing {} buffers {} bytes {}", buffers.length, BufferUtil.remaining(buffers), this);
+        _connection.onBytesOut(BufferUtil.remaining(buffers));
+        _connection.getEndPoint().write(this, buffers);
+        return Action.SCHEDULED;
+    }
+
+    private int minimumSpace(int maxFrameSize)
+    {
+        // Enough to frame a header block of the maximum size, and a DATA frame.
+        return FrameType.HEADER_LENGTH * (2 + _headerBlockSize / maxFrameSize);
+    }
+
+    /**
+     * <p>Generates the frames of a send, as far as the accumulator space and the flow control windows allow.</p>
+     *
+     * @return whether the send has been completely generated
+     */
+    private boolean generate(Send send, ByteBuffer accumulator, int maxFrameSize)
+    {
+        HTTP2Stream stream = send._stream;
+        if (accumulator.remaining() < minimumSpace(maxFrameSize))
+            return false;
+
+        if (send._response != null)
+        {
+            RetainableByteBuffer block = encode(send._response);
+            if (block == null)
+            {
+                send._failure = new IllegalStateException("Response header too large");
+                return true;
+            }
+            boolean endStream = send._last && !send._content.hasRemaining() && send._trailers == null && !send._interim;
+            headers(accumulator, stream.getStreamId(), block.getByteBuffer(), endStream, maxFrameSize);
+            send._response = null;
+            if (endStream)
+                return true;
+        }
+
+        ByteBuffer content = send._content;
+        while (content.hasRemaining())
+        {
+            if (accumulator.remaining() < FrameType.HEADER_LENGTH)
+                return false;
+            int window = Math.min(Math.min(_sendWindow, stream._sendWindow), maxFrameSize);
+            if (window <= 0)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Stalled session={} stream={} {}", _sendWindow, stream._sendWindow, stream);
+                return false;
+            }
+            int length = Math.min(window, content.remaining());
+            boolean endStream = send._last && send._trailers == null && length == content.remaining();
+            FrameType.DATA.putHeader(accumulator, length, endStream ? FrameType.END_STREAM : 0, stream.getStreamId());
+            region();
+            _buffers.add(content.slice(content.position(), length));
+            content.position(content.position() + length);
+            _sendWindow -= length;
+            stream._sendWindow -= length;
+            if (endStream)
+                return true;
+        }
+
+        if (!send._last)
+            return true;
+
+        if (send._trailers != null)
+        {
+            RetainableByteBuffer block = encode(new MetaData(HttpVersion.HTTP_2, send._trailers));
+            if (block == null)
+            {
+                send._failure = new IllegalStateException("Response trailers too large");
+                return true;
+            }
+            headers(accumulator, stream.getStreamId(), block.getByteBuffer(), true, maxFrameSize);
+            return true;
+        }
+
+        // The end of the stream without content.
+        FrameType.DATA.putHeader(accumulator, 0, FrameType.END_STREAM, stream.getStreamId());
+        return true;
+    }
+
+    /**
+     * @return the encoded header block, or {@code null} if it could be too large,
+     * in which case the HPACK state is not modified
+     */
+    private RetainableByteBuffer encode(MetaData metaData)
+    {
+        if (maxEncodedLength(metaData) > _headerBlockSize)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Header block too large {}", metaData);
+            return null;
+        }
+        RetainableByteBuffer block = _bufferPool.acquire(_headerBlockSize, false);
+        _retained.add(block);
+        ByteBuffer byteBuffer = block.getByteBuffer();
+        int position = BufferUtil.flipToFill(byteBuffer);
+        _encoder.encode(byteBuffer, metaData);
+        BufferUtil.flipToFlush(byteBuffer, position);
+        return block;
+    }
+
+    private static int maxEncodedLength(MetaData metaData)
+    {
+        // A field is at most a representation byte, the name and the value,
+        // each with up to 5 bytes of length, plus the :status and a table size update.
+        int length = 32;
+        for (HttpField field : metaData.getHttpFields())
+        {
+            length += 16 + field.getName().length() + (field.getValue() == null ? 0 : field.getValue().length());
+        }
+        return length;
+    }
+
+    private void headers(ByteBuffer accumulator, int streamId, ByteBuffer block, boolean endStream, int maxFrameSize)
+    {
+        FrameType type = FrameType.HEADERS;
+        int flags = endStream ? FrameType.END_STREAM : 0;
+        while (true)
+        {
+            int length = Math.min(maxFrameSize, block.remaining());
+            boolean endHeaders = length == block.remaining();
+            type.putHeader(accumulator, length, endHeaders ? flags | FrameType.END_HEADERS : flags, streamId);
+            region();
+            _buffers.add(block.slice(block.position(), length));
+            block.position(block.position() + length);
+            if (endHeaders)
+                return;
+            type = FrameType.CONTINUATION;
+            flags = 0;
+        }
+    }
+
+    /**
+     * <p>Adds the bytes accumulated since the last region to the buffers to write.</p>
+     */
+    private void region()
+    {
+        ByteBuffer accumulator = _accumulator.getByteBuffer();
+        int position = accumulator.position();
+        if (position > _region)
+            _buffers.add(accumulator.slice(_region, position - _region));
+        _region = position;
+    }
+
+    private void complete()
+    {
+        for (RetainableByteBuffer buffer : _retained)
+        {
+            buffer.release();
+        }
+        _retained.clear();
+        for (Callback callback : _completed)
+        {
+            callback.succeeded();
+        }
+        _completed.clear();
+    }
+
+    private void release()
+    {
+        // Idle connections do not hold a buffer.
+        if (_accumulator != null)
+        {
+            _accumulator.release();
+            _accumulator = null;
+        }
+    }
+
+    private void failQueued(Throwable failure)
+    {
+        List<Callback> failed = new ArrayList<>();
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminated == null)
+                _terminated = failure;
+            _controls.forEach(control -> failed.add(control._callback));
+            _controls.clear();
+            _sends.forEach(send -> failed.add(send._callback));
+            _sends.clear();
+        }
+        failed.forEach(callback -> callback.failed(failure));
+    }
+
+    @Override
+    protected void onCompleteFailure(Throwable cause)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Failed {}", this, cause);
+        _buffers.clear();
+        _retained.forEach(RetainableByteBuffer::release);
+        _retained.clear();
+        List<Callback> completed = new ArrayList<>(_completed);
+        _completed.clear();
+        completed.forEach(callback -> callback.failed(cause));
+        failQueued(cause instanceof EofException ? cause : new EofException(cause));
+        release();
+        _connection.onWriteFailure(cause);
+    }
+
+    @Override
+    public InvocationType getInvocationType()
+    {
+        return InvocationType.NON_BLOCKING;
+    }
+
+    @Override
+    public String toString()
+    {
+        try (AutoLock ignored = _lock.tryLock())
+        {
+            return String.format("%s@%x{window=%d,controls=%d,sends=%d}", getClass().getSimpleName(), hashCode(), _sendWindow, _controls.size(), _sends.size());
+        }
+    }
+
+    private static class Control
+    {
+        private final ByteBuffer _frame;
+        private final Callback _callback;
+
+        private Control(ByteBuffer frame, Callback callback)
+        {
+            _frame = frame;
+            _callback = callback;
+        }
+    }
+
+    private static class Send
+    {
+        private final HTTP2Stream _stream;
+        private final ByteBuffer _content;
+        private final boolean _last;
+        private final boolean _interim;
+        private final HttpFields _trailers;
+        private final Callback _callback;
+        private MetaData.Response _response;
+        private Throwable _failure;
+
+        private Send(HTTP2Stream stream, MetaData.Request request, MetaData.Response response, boolean last, ByteBuffer content, Callback callback)
+        {
+            _stream = stream;
+            _response = response;
+            _interim = response != null && HttpStatus.isInformational(response.getStatus());
+            _last = last && !_interim;
+            // Responses to HEAD requests and interim responses have no content.
+            boolean noContent = _interim || HttpMethod.HEAD.is(request.getMethod());
+            _content = content == null || noContent ? BufferUtil.EMPTY_BUFFER : content;
+            _trailers = _last ? stream.getTrailers() : null;
+            _callback = callback;
+        }
+    }
+}
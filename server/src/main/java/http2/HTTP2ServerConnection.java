@@ -0,0 +1,822 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.eazy.http.BadMessageException;
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.http.HttpURI;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+import ab.eazy.http.Trailers;
+import ab.eazy.http.hpack.HpackContext;
+import ab.eazy.http.hpack.HpackDecoder;
+import ab.eazy.http.hpack.HpackEncoder;
+import ab.eazy.http.hpack.HpackException;
+import ab.eazy.io.ByteBufferPool;
+import ab.eazy.io.Connection;
+import ab.eazy.io.Content;
+import ab.eazy.io.EndPoint;
+import ab.eazy.io.EofException;
+import ab.eazy.io.RetainableByteBuffer;
+import ab.eazy.server.AbstractMetaDataConnection;
+import ab.eazy.server.Connector;
+import ab.eazy.server.HttpConfiguration;
+import ab.eazy.server.internal.HttpChannelState;
+import ab.eazy.util.Attributes;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.Callback;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Connection} that handles the HTTP/2 protocol in clear text, as defined by RFC 9113.</p>
+ * <p>Frames are parsed in the thread that reads from the network, while each stream is handled
+ * by a {@link HttpChannelState}, in a thread of its own, so that streams progress concurrently.
+ * The request content is not copied: {@code DATA} frames become chunks that retain the network
+ * buffer, which is replaced by a new one when it must be reused for more bytes.</p>
+ * <p>The receive windows are credited back to the client once half of them has been consumed
+ * by the application, and the send windows are handled by the {@link HTTP2Flusher}.
+ * Stream priorities are ignored, and server push is not supported.</p>
+ */
+public class HTTP2ServerConnection extends AbstractMetaDataConnection implements Connection.UpgradeTo, Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HTTP2ServerConnection.class);
+    private static final EnumSet<HttpHeader> UPGRADE_HEADERS = EnumSet.of(HttpHeader.CONNECTION, HttpHeader.UPGRADE, HttpHeader.HTTP2_SETTINGS);
+
+    private final AutoLock _lock = new AutoLock();
+    private final Listener _listener = new Listener();
+    private final Map<Integer, HTTP2Stream> _streams = new ConcurrentHashMap<>();
+    private final Attributes.Lazy _attributes = new Attributes.Lazy();
+    private final AtomicBoolean _goAway = new AtomicBoolean();
+    private final LongAdder _bytesIn = new LongAdder();
+    private final LongAdder _bytesOut = new LongAdder();
+    private final LongAdder _requests = new LongAdder();
+    private final ByteBufferPool _bufferPool;
+    private final FrameParser _parser;
+    private final HpackDecoder _decoder;
+    private final HTTP2Flusher _flusher;
+    private final int _maxConcurrentStreams;
+    private final int _initialSessionRecvWindow;
+    private final int _initialStreamRecvWindow;
+    private final int _maxFrameSize;
+    private final MetaData.Request _upgradeRequest;
+    private final Map<Integer, Integer> _upgradeSettings;
+    private volatile boolean _remoteGoAway;
+    private RetainableByteBuffer _networkBuffer;
+    private int _lastStreamId;
+    // Guarded by _lock.
+    private int _recvWindow = Settings.DEFAULT_WINDOW_SIZE;
+    private int _recvConsumed;
+
+    /**
+     * @param factory the factory with the HTTP/2 configuration
+     * @param connector the connector
+     * @param httpConfiguration the HTTP configuration
+     * @param endPoint the endpoint
+     * @param prefaceIndex the number of bytes of the client preface already consumed
+     * @param upgradeRequest the HTTP/1.1 request that upgraded to this connection, or {@code null}
+     * @param upgradeSettings the settings of the {@code HTTP2-Settings} header of the upgrade request, or {@code null}
+     */
+    public HTTP2ServerConnection(HTTP2CServerConnectionFactory factory, Connector connector, HttpConfiguration httpConfiguration, EndPoint endPoint,
+                                 int prefaceIndex, MetaData.Request upgradeRequest, Map<Integer, Integer> upgradeSettings)
+    {
+        super(connector, httpConfiguration, endPoint);
+        _bufferPool = connector.getByteBufferPool();
+        _maxConcurrentStreams = factory.getMaxConcurrentStreams();
+        _initialSessionRecvWindow = factory.getInitialSessionRecvWindow();
+        _initialStreamRecvWindow = factory.getInitialStreamRecvWindow();
+        _maxFrameSize = factory.getMaxFrameSize();
+        _upgradeRequest = upgradeRequest;
+        _upgradeSettings = upgradeSettings;
+        int requestHeaderSize = httpConfiguration.getRequestHeaderSize();
+        _parser = new FrameParser(_listener, _maxFrameSize, Math.max(requestHeaderSize, _maxFrameSize), prefaceIndex);
+        _decoder = new HpackDecoder(requestHeaderSize);
+        _decoder.setMaxTableCapacity(factory.getMaxDynamicTableSize());
+        HpackEncoder encoder = new HpackEncoder(factory.getMaxDynamicTableSize());
+        _flusher = new HTTP2Flusher(this, _bufferPool, encoder, httpConfiguration.getOutputBufferSize(), httpConfiguration.getResponseHeaderSize());
+    }
+
+    HTTP2Flusher getFlusher()
+    {
+        return _flusher;
+    }
+
+    /**
+     * @return the number of open streams
+     */
+    public int getStreamCount()
+    {
+        return _streams.size();
+    }
+
+    @Override
+    public String getId()
+    {
+        return String.format("%s@%x", getRemoteSocketAddress(), hashCode());
+    }
+
+    @Override
+    public HttpVersion getHttpVersion()
+    {
+        return HttpVersion.HTTP_2;
+    }
+
+    @Override
+    public String getProtocol()
+    {
+        return HttpVersion.HTTP_2.asString();
+    }
+
+    @Override
+    public boolean isPersistent()
+    {
+        return true;
+    }
+
+    @Override
+    public Object removeAttribute(String name)
+    {
+        return _attributes.removeAttribute(name);
+    }
+
+    @Override
+    public Object setAttribute(String name, Object attribute)
+    {
+        return _attributes.setAttribute(name, attribute);
+    }
+
+    @Override
+    public Object getAttribute(String name)
+    {
+        return _attributes.getAttribute(name);
+    }
+
+    @Override
+    public Set<String> getAttributeNameSet()
+    {
+        return _attributes.getAttributeNameSet();
+    }
+
+    @Override
+    public void clearAttributes()
+    {
+        _attributes.clearAttributes();
+    }
+
+    @Override
+    public long getMessagesIn()
+    {
+        return _requests.longValue();
+    }
+
+    @Override
+    public long getMessagesOut()
+    {
+        return _requests.longValue();
+    }
+
+    @Override
+    public long getBytesIn()
+    {
+        return _bytesIn.longValue();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return _bytesOut.longValue();
+    }
+
+    void onBytesOut(long bytes)
+    {
+        _bytesOut.add(bytes);
+    }
+
+    @Override
+    public void onUpgradeTo(ByteBuffer buffer)
+    {
+        if (_networkBuffer == null)
+            _networkBuffer = _bufferPool.acquire(getNetworkBufferSize(), false);
+        BufferUtil.append(_networkBuffer.getByteBuffer(), buffer);
+    }
+
+    private int getNetworkBufferSize()
+    {
+        // The buffer must hold a whole frame.
+        return Math.max(getInputBufferSize(), FrameType.HEADER_LENGTH + _maxFrameSize);
+    }
+
+    @Override
+    public void onOpen()
+    {
+        super.onOpen();
+
+        // The server preface, see RFC 9113, section 3.4.
+        Map<Integer, Integer> settings = new LinkedHashMap<>();
+        settings.put(Settings.ENABLE_PUSH, 0);
+        settings.put(Settings.MAX_CONCURRENT_STREAMS, _maxConcurrentStreams);
+        settings.put(Settings.INITIAL_WINDOW_SIZE, _initialStreamRecvWindow);
+        settings.put(Settings.MAX_HEADER_LIST_SIZE, getHttpConfiguration().getRequestHeaderSize());
+        if (_maxFrameSize != Settings.DEFAULT_MAX_FRAME_SIZE)
+            settings.put(Settings.MAX_FRAME_SIZE, _maxFrameSize);
+        if (_decoder.getMaxTableCapacity() != HpackContext.DEFAULT_MAX_TABLE_SIZE)
+            settings.put(Settings.HEADER_TABLE_SIZE, _decoder.getMaxTableCapacity());
+        ByteBuffer preface = ByteBuffer.allocate(FrameType.HEADER_LENGTH + 6 * settings.size() + FrameType.HEADER_LENGTH + 4);
+        Settings.putFrame(preface, settings);
+        if (_initialSessionRecvWindow > Settings.DEFAULT_WINDOW_SIZE)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                _recvWindow = _initialSessionRecvWindow;
+            }
+            putWindowUpdate(preface, 0, _initialSessionRecvWindow - Settings.DEFAULT_WINDOW_SIZE);
+        }
+        _flusher.control(preface.flip(), Callback.NOOP);
+
+        if (_upgradeRequest != null)
+        {
+            // The upgrade request is the request of stream 1, see RFC 7540, section 3.2.
+            _listener.onSettings(_upgradeSettings, false, false);
+            MetaData.Request upgraded = new MetaData.Request(_upgradeRequest.getBeginNanoTime(), _upgradeRequest.getMethod(), _upgradeRequest.getHttpURI(),
+                HttpVersion.HTTP_2, HttpFields.build(_upgradeRequest.getHttpFields(), UPGRADE_HEADERS), -1);
+            _lastStreamId = 1;
+            HTTP2Stream stream = newStream(1);
+            execute(stream.onRequest(upgraded, true));
+        }
+
+        if (_networkBuffer != null && _networkBuffer.hasRemaining())
+            getExecutor().execute(this);
+        else
+            fillInterested();
+    }
+
+    @Override
+    public void run()
+    {
+        onFillable();
+    }
+
+    @Override
+    public void onFillable()
+    {
+        try
+        {
+            while (true)
+            {
+                if (_networkBuffer == null)
+                    _networkBuffer = _bufferPool.acquire(getNetworkBufferSize(), false);
+                ByteBuffer byteBuffer = _networkBuffer.getByteBuffer();
+
+                if (_parser.isFailed())
+                {
+                    // Discard the bytes after a connection error, until the client closes.
+                    BufferUtil.clear(byteBuffer);
+                }
+                else
+                {
+                    boolean parsed = true;
+                    while (parsed)
+                    {
+                        parsed = _parser.parse(byteBuffer);
+                    }
+                }
+
+                if (_networkBuffer.isRetained())
+                {
+                    // The buffer is retained by request content chunks, use another one.
+                    RetainableByteBuffer buffer = _bufferPool.acquire(getNetworkBufferSize(), false);
+                    BufferUtil.append(buffer.getByteBuffer(), byteBuffer);
+                    _networkBuffer.release();
+                    _networkBuffer = buffer;
+                    byteBuffer = buffer.getByteBuffer();
+                }
+                else
+                {
+                    BufferUtil.compact(byteBuffer);
+                }
+
+                int filled = getEndPoint().fill(byteBuffer);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Filled {} {}", filled, this);
+
+                if (filled > 0)
+                {
+                    _bytesIn.add(filled);
+                    continue;
+                }
+
+                if (!byteBuffer.hasRemaining())
+                    releaseNetworkBuffer();
+
+                if (filled == 0)
+                {
+                    fillInterested();
+                    return;
+                }
+
+                releaseNetworkBuffer();
+                onEndOfInput();
+                return;
+            }
+        }
+        catch (Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Failure while reading {}", this, x);
+            releaseNetworkBuffer();
+            failStreams(x, true);
+            getEndPoint().close(x);
+        }
+    }
+
+    private void releaseNetworkBuffer()
+    {
+        if (_networkBuffer != null)
+        {
+            _networkBuffer.release();
+            _networkBuffer = null;
+        }
+    }
+
+    private void onEndOfInput()
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("End of input {}", this);
+        failStreams(new EofException("Connection closed by client"), true);
+        getEndPoint().close();
+    }
+
+    @Override
+    public boolean onIdleExpired(TimeoutException timeout)
+    {
+        if (_streams.isEmpty())
+        {
+            // Close idle connections gracefully, or abruptly if that was already attempted.
+            return !goAway(ErrorCode.NO_ERROR, "idle_timeout");
+        }
+        // Stream idle timeouts are checked when the connection is idle.
+        for (HTTP2Stream stream : _streams.values())
+        {
+            execute(stream.onIdleExpired(timeout));
+        }
+        return false;
+    }
+
+    @Override
+    public void onClose(Throwable cause)
+    {
+        super.onClose(cause);
+        EofException failure = new EofException("Connection closed");
+        if (cause != null)
+            failure.initCause(cause);
+        failStreams(failure, true);
+        _flusher.terminate(failure);
+    }
+
+    void onWriteFailure(Throwable failure)
+    {
+        failStreams(failure, false);
+        getEndPoint().close(failure);
+    }
+
+    private void failStreams(Throwable failure, boolean remote)
+    {
+        for (HTTP2Stream stream : new ArrayList<>(_streams.values()))
+        {
+            execute(stream.onFailure(failure, remote));
+        }
+    }
+
+    private HTTP2Stream newStream(int streamId)
+    {
+        HTTP2Stream stream = new HTTP2Stream(this, new HttpChannelState(this), streamId, _flusher.getInitialStreamSendWindow(), _initialStreamRecvWindow);
+        _streams.put(streamId, stream);
+        _requests.increment();
+        if (LOG.isDebugEnabled())
+            LOG.debug("New stream {} {}", stream, this);
+        return stream;
+    }
+
+    /**
+     * <p>Removes a stream after its channel completed, and resets it if the request is not fully received.</p>
+     *
+     * @param stream the stream
+     * @param failure the failure of the channel, or {@code null}
+     */
+    void onStreamCompleted(HTTP2Stream stream, Throwable failure)
+    {
+        _streams.remove(stream.getStreamId());
+        if (!stream.isReset())
+        {
+            if (failure != null)
+                reset(stream.getStreamId(), ErrorCode.INTERNAL_ERROR);
+            else if (!stream.isRemotelyClosed())
+                // The response is complete before the request, see RFC 9113, section 8.1.
+                reset(stream.getStreamId(), ErrorCode.NO_ERROR);
+        }
+        if (_remoteGoAway && _streams.isEmpty())
+            _flusher.control(BufferUtil.EMPTY_BUFFER, Callback.from(getEndPoint()::close));
+    }
+
+    /**
+     * <p>Credits the receive windows for request content consumed by the application.</p>
+     *
+     * @param stream the stream whose content has been consumed, or {@code null} to only credit the connection
+     * @param length the number of bytes consumed
+     */
+    void onDataConsumed(HTTP2Stream stream, int length)
+    {
+        int sessionDelta = 0;
+        int streamDelta = 0;
+        try (AutoLock ignored = _lock.lock())
+        {
+            _recvConsumed += length;
+            if (_recvConsumed >= _initialSessionRecvWindow / 2)
+            {
+                sessionDelta = _recvConsumed;
+                _recvConsumed = 0;
+                _recvWindow += sessionDelta;
+            }
+            if (stream != null && !stream.isRemotelyClosed())
+            {
+                stream._recvConsumed += length;
+                if (stream._recvConsumed >= _initialStreamRecvWindow / 2)
+                {
+                    streamDelta = stream._recvConsumed;
+                    stream._recvConsumed = 0;
+                    stream._recvWindow += streamDelta;
+                }
+            }
+        }
+        if (sessionDelta == 0 && streamDelta == 0)
+            return;
+        ByteBuffer frames = ByteBuffer.allocate(2 * (FrameType.HEADER_LENGTH + 4));
+        if (sessionDelta > 0)
+            putWindowUpdate(frames, 0, sessionDelta);
+        if (streamDelta > 0)
+            putWindowUpdate(frames, stream.getStreamId(), streamDelta);
+        _flusher.control(frames.flip(), Callback.NOOP);
+    }
+
+    private static void putWindowUpdate(ByteBuffer buffer, int streamId, int delta)
+    {
+        FrameType.WINDOW_UPDATE.putHeader(buffer, 4, 0, streamId);
+        buffer.putInt(delta);
+    }
+
+    private void reset(int streamId, ErrorCode error)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Reset #{} {} {}", streamId, error, this);
+        ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH + 4);
+        FrameType.RST_STREAM.putHeader(frame, 4, 0, streamId);
+        frame.putInt(error.getCode());
+        _flusher.control(frame.flip(), Callback.NOOP);
+    }
+
+    private void reset(HTTP2Stream stream, ErrorCode error, String reason)
+    {
+        reset(stream.getStreamId(), error);
+        execute(stream.onFailure(new IOException(String.format("%s/%s", error, reason)), false));
+    }
+
+    /**
+     * <p>Sends a {@code GOAWAY} frame, then shuts down the output, so that the
+     * connection is closed when the client closes it, or when it is idle.</p>
+     *
+     * @return whether the {@code GOAWAY} frame was sent by this call
+     */
+    private boolean goAway(ErrorCode error, String reason)
+    {
+        if (!_goAway.compareAndSet(false, true))
+            return false;
+        if (LOG.isDebugEnabled())
+            LOG.debug("GoAway {}/{} {}", error, reason, this);
+        byte[] debug = reason.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH + 8 + debug.length);
+        FrameType.GO_AWAY.putHeader(frame, 8 + debug.length, 0, 0);
+        frame.putInt(_lastStreamId);
+        frame.putInt(error.getCode());
+        frame.put(debug);
+        _flusher.control(frame.flip(), Callback.from(getEndPoint()::shutdownOutput));
+        return true;
+    }
+
+    private void execute(Runnable task)
+    {
+        if (task == null)
+            return;
+        try
+        {
+            getExecutor().execute(task);
+        }
+        catch (RejectedExecutionException x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Could not execute {}", task, x);
+            getEndPoint().close(x);
+        }
+    }
+
+    @Override
+    public String toConnectionString()
+    {
+        return String.format("%s@%x[streams=%d,last=%d,%s]", getClass().getSimpleName(), hashCode(), _streams.size(), _lastStreamId, _flusher);
+    }
+
+    /**
+     * <p>The listener of the frames, invoked in the thread that reads from the network.</p>
+     */
+    private class Listener implements FrameParser.Listener
+    {
+        @Override
+        public void onData(int streamId, ByteBuffer data, int length, boolean endStream)
+        {
+            boolean overflow;
+            try (AutoLock ignored = _lock.lock())
+            {
+                _recvWindow -= length;
+                overflow = _recvWindow < 0;
+            }
+            if (overflow)
+            {
+                onConnectionFailure(ErrorCode.FLOW_CONTROL_ERROR, "session_window_exceeded");
+                return;
+            }
+
+            HTTP2Stream stream = _streams.get(streamId);
+            if (stream == null)
+            {
+                if (streamId > _lastStreamId)
+                {
+                    onConnectionFailure(ErrorCode.PROTOCOL_ERROR, "unexpected_data_frame");
+                    return;
+                }
+                // A stream that has been closed, see RFC 9113, section 6.1.
+                onDataConsumed(null, length);
+                reset(streamId, ErrorCode.STREAM_CLOSED);
+                return;
+            }
+
+            if (stream.isRemotelyClosed())
+            {
+                onDataConsumed(null, length);
+                reset(stream, ErrorCode.STREAM_CLOSED, "unexpected_data_frame");
+                return;
+            }
+
+            try (AutoLock ignored = _lock.lock())
+            {
+                stream._recvWindow -= length;
+                overflow = stream._recvWindow < 0;
+            }
+            if (overflow)
+            {
+                onDataConsumed(null, length);
+                reset(stream, ErrorCode.FLOW_CONTROL_ERROR, "stream_window_exceeded");
+                return;
+            }
+
+            // The padding is consumed immediately.
+            int padding = length - data.remaining();
+            if (padding > 0)
+                onDataConsumed(stream, padding);
+
+            Content.Chunk chunk;
+            if (data.hasRemaining())
+            {
+                _networkBuffer.retain();
+                chunk = Content.Chunk.asChunk(data, endStream, _networkBuffer);
+            }
+            else
+            {
+                chunk = endStream ? Content.Chunk.EOF : null;
+            }
+            if (chunk != null)
+                execute(stream.offer(chunk));
+        }
+
+        @Override
+        public void onHeaders(int streamId, ByteBuffer headerBlock, boolean endStream)
+        {
+            HTTP2Stream stream = _streams.get(streamId);
+            MetaData metaData;
+            try
+            {
+                metaData = _decoder.decode(headerBlock);
+            }
+            catch (HpackException.SessionException x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Invalid header block {}", HTTP2ServerConnection.this, x);
+                onConnectionFailure(ErrorCode.COMPRESSION_ERROR, "invalid_header_block");
+                return;
+            }
+            catch (HpackException.StreamException x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Invalid request {}", HTTP2ServerConnection.this, x);
+                if (stream != null)
+                    reset(stream, ErrorCode.PROTOCOL_ERROR, "invalid_trailers");
+                else if (streamId % 2 == 0 || streamId <= _lastStreamId)
+                    onConnectionFailure(ErrorCode.PROTOCOL_ERROR, "invalid_stream_id");
+                else if (x.getStatus() == HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE_431)
+                    onBadRequest(streamId, endStream, x);
+                else
+                    onInvalidRequest(streamId);
+                return;
+            }
+
+            if (stream != null)
+            {
+                // Trailers, see RFC 9113, section 8.1.
+                if (stream.isRemotelyClosed())
+                    reset(stream, ErrorCode.STREAM_CLOSED, "unexpected_headers_frame");
+                else if (!endStream || metaData instanceof MetaData.Request || metaData instanceof MetaData.Response)
+                    reset(stream, ErrorCode.PROTOCOL_ERROR, "invalid_trailers");
+                else
+                    execute(stream.offer(new Trailers(metaData.getHttpFields())));
+                return;
+            }
+
+            if (streamId % 2 == 0 || streamId <= _lastStreamId)
+            {
+                onConnectionFailure(streamId % 2 == 0 ? ErrorCode.PROTOCOL_ERROR : ErrorCode.STREAM_CLOSED, "invalid_stream_id");
+                return;
+            }
+            _lastStreamId = streamId;
+
+            if (!(metaData instanceof MetaData.Request request))
+            {
+                onInvalidRequest(streamId);
+                return;
+            }
+
+            if (_goAway.get() || _streams.size() >= _maxConcurrentStreams)
+            {
+                reset(streamId, ErrorCode.REFUSED_STREAM);
+                return;
+            }
+
+            HTTP2Stream newStream = newStream(streamId);
+            execute(newStream.onRequest(request, endStream));
+        }
+
+        private void onInvalidRequest(int streamId)
+        {
+            // Malformed requests are stream errors, see RFC 9113, section 8.1.1.
+            _lastStreamId = Math.max(_lastStreamId, streamId);
+            reset(streamId, ErrorCode.PROTOCOL_ERROR);
+        }
+
+        private void onBadRequest(int streamId, boolean endStream, HpackException.StreamException failure)
+        {
+            // Respond with the error status, rather than resetting the stream.
+            _lastStreamId = streamId;
+            HTTP2Stream stream = newStream(streamId);
+            stream.onRequest(new MetaData.Request("GET", HttpURI.from("/badMessage"), HttpVersion.HTTP_2, HttpFields.EMPTY), endStream);
+            execute(stream.getHttpChannel().onFailure(new BadMessageException(failure.getStatus(), failure.getMessage())));
+        }
+
+        @Override
+        public void onReset(int streamId, int error)
+        {
+            HTTP2Stream stream = _streams.get(streamId);
+            if (stream != null)
+                execute(stream.onFailure(new EofException(String.format("Reset by client %s", ErrorCode.from(error))), true));
+            else if (streamId > _lastStreamId)
+                onConnectionFailure(ErrorCode.PROTOCOL_ERROR, "unexpected_rst_stream_frame");
+        }
+
+        @Override
+        public void onSettings(Map<Integer, Integer> settings, boolean ack)
+        {
+            onSettings(settings, ack, true);
+        }
+
+        private void onSettings(Map<Integer, Integer> settings, boolean ack, boolean reply)
+        {
+            if (ack)
+                return;
+            for (Map.Entry<Integer, Integer> entry : settings.entrySet())
+            {
+                int value = entry.getValue();
+                switch (entry.getKey())
+                {
+                    case Settings.HEADER_TABLE_SIZE -> _flusher.setRemoteMaxTableSize(value);
+                    case Settings.MAX_FRAME_SIZE -> _flusher.setRemoteMaxFrameSize(value);
+                    case Settings.INITIAL_WINDOW_SIZE ->
+                    {
+                        if (!_flusher.onInitialStreamSendWindow(value, _streams.values()))
+                        {
+                            onConnectionFailure(ErrorCode.FLOW_CONTROL_ERROR, "invalid_initial_window_size");
+                            return;
+                        }
+                    }
+                    default ->
+                    {
+                    }
+                }
+            }
+            if (reply)
+            {
+                ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH);
+                FrameType.SETTINGS.putHeader(frame, 0, FrameType.ACK, 0);
+                _flusher.control(frame.flip(), Callback.NOOP);
+            }
+        }
+
+        @Override
+        public void onPing(long payload, boolean ack)
+        {
+            if (ack)
+                return;
+            ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH + 8);
+            FrameType.PING.putHeader(frame, 8, FrameType.ACK, 0);
+            frame.putLong(payload);
+            _flusher.control(frame.flip(), Callback.NOOP);
+        }
+
+        @Override
+        public void onGoAway(int lastStreamId, int error)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Received GoAway {} {}", ErrorCode.from(error), HTTP2ServerConnection.this);
+            _remoteGoAway = true;
+            if (_streams.isEmpty())
+                _flusher.control(BufferUtil.EMPTY_BUFFER, Callback.from(getEndPoint()::close));
+        }
+
+        @Override
+        public void onWindowUpdate(int streamId, int delta)
+        {
+            if (streamId == 0)
+            {
+                if (delta == 0)
+                    onConnectionFailure(ErrorCode.PROTOCOL_ERROR, "invalid_window_update_frame");
+                else if (!_flusher.onWindowUpdate(null, delta))
+                    onConnectionFailure(ErrorCode.FLOW_CONTROL_ERROR, "session_window_overflow");
+                return;
+            }
+
+            HTTP2Stream stream = _streams.get(streamId);
+            if (stream == null)
+            {
+                if (streamId > _lastStreamId)
+                    onConnectionFailure(ErrorCode.PROTOCOL_ERROR, "unexpected_window_update_frame");
+                return;
+            }
+            if (delta == 0)
+                reset(stream, ErrorCode.PROTOCOL_ERROR, "invalid_window_update_frame");
+            else if (!_flusher.onWindowUpdate(stream, delta))
+                reset(stream, ErrorCode.FLOW_CONTROL_ERROR, "stream_window_overflow");
+        }
+
+        @Override
+        public void onStreamFailure(int streamId, ErrorCode error, String reason)
+        {
+            HTTP2Stream stream = _streams.get(streamId);
+            if (stream != null)
+                reset(stream, error, reason);
+            else
+                reset(streamId, error);
+        }
+
+        @Override
+        public void onConnectionFailure(ErrorCode error, String reason)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Connection failure {}/{} {}", error, reason, HTTP2ServerConnection.this);
+            goAway(error, reason);
+            failStreams(new IOException(String.format("%s/%s", error, reason)), false);
+        }
+    }
+}
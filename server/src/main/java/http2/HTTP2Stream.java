@@ -0,0 +1,343 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpStatus;
+import ab.eazy.http.MetaData;
+import ab.eazy.io.Content;
+import ab.eazy.server.HttpChannel;
+import ab.eazy.server.HttpStream;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.Callback;
+import ab.eazy.util.NanoTime;
+import ab.eazy.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A HTTP/2 stream that carries one request and its response, exposed to the
+ * {@link HttpChannel} as a {@link HttpStream}.</p>
+ * <p>The request content is queued as it is received, as chunks that retain the network buffer,
+ * and the flow control window of the stream is only credited back to the client when the
+ * chunks are read by the application, so that a slow application applies back-pressure to
+ * the client without buffering more than the window.</p>
+ */
+class HTTP2Stream implements HttpStream
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HTTP2Stream.class);
+
+    private final AutoLock _lock = new AutoLock();
+    private final ArrayDeque<Content.Chunk> _chunks = new ArrayDeque<>();
+    private final AtomicBoolean _completed = new AtomicBoolean();
+    private final HTTP2ServerConnection _connection;
+    private final HttpChannel _channel;
+    private final int _streamId;
+    private boolean _demand;
+    private Content.Chunk _terminal;
+    private volatile boolean _remoteClosed;
+    private volatile boolean _reset;
+    private volatile MetaData.Response _response;
+    private volatile long _idleTimeout;
+    private volatile long _activity = NanoTime.now();
+    // Guarded by the lock of the HTTP2Flusher.
+    int _sendWindow;
+    // Guarded by the lock of the HTTP2ServerConnection.
+    int _recvWindow;
+    int _recvConsumed;
+
+    HTTP2Stream(HTTP2ServerConnection connection, HttpChannel channel, int streamId, int sendWindow, int recvWindow)
+    {
+        _connection = connection;
+        _channel = channel;
+        _streamId = streamId;
+        _sendWindow = sendWindow;
+        _recvWindow = recvWindow;
+        _channel.initialize();
+        _channel.setHttpStream(this);
+    }
+
+    int getStreamId()
+    {
+        return _streamId;
+    }
+
+    HttpChannel getHttpChannel()
+    {
+        return _channel;
+    }
+
+    boolean isRemotelyClosed()
+    {
+        return _remoteClosed;
+    }
+
+    boolean isReset()
+    {
+        return _reset;
+    }
+
+    /**
+     * @param request the request
+     * @param endStream whether the request has no content
+     * @return the task that handles the request
+     */
+    Runnable onRequest(MetaData.Request request, boolean endStream)
+    {
+        if (endStream)
+            offer(Content.Chunk.EOF);
+        return _channel.onRequest(request);
+    }
+
+    /**
+     * <p>Queues request content, or the request trailers.</p>
+     *
+     * @param chunk the chunk, that is released if the stream has been reset
+     * @return the task that notifies the application, or {@code null}
+     */
+    Runnable offer(Content.Chunk chunk)
+    {
+        _activity = NanoTime.now();
+        boolean queued;
+        boolean demand = false;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (chunk.isLast())
+                _remoteClosed = true;
+            queued = _terminal == null;
+            if (queued)
+            {
+                _chunks.add(chunk);
+                demand = _demand;
+                _demand = false;
+            }
+        }
+        if (!queued)
+            discard(chunk);
+        return demand ? _channel.onContentAvailable() : null;
+    }
+
+    /**
+     * <p>Fails this stream, after a reset or the close of the connection.</p>
+     *
+     * @param failure the failure
+     * @param remote whether the failure comes from the client
+     * @return the task that notifies the application, or {@code null}
+     */
+    Runnable onFailure(Throwable failure, boolean remote)
+    {
+        _reset = true;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminal != null)
+                return null;
+            _terminal = Content.Chunk.from(failure, true);
+            _demand = false;
+        }
+        discard();
+        _connection.getFlusher().remove(this, failure);
+        return remote ? _channel.onRemoteFailure(failure) : _channel.onFailure(failure);
+    }
+
+    /**
+     * @return the task that notifies the application of the idle timeout, or {@code null} if not idle
+     */
+    Runnable onIdleExpired(TimeoutException timeout)
+    {
+        long idleTimeout = _idleTimeout;
+        if (idleTimeout <= 0 || NanoTime.millisSince(_activity) < idleTimeout)
+            return null;
+        _activity = NanoTime.now();
+        return _channel.onIdleTimeout(timeout);
+    }
+
+    /**
+     * @return the trailers of the committed response, or {@code null} if there are none
+     */
+    HttpFields getTrailers()
+    {
+        MetaData.Response response = _response;
+        Supplier<HttpFields> supplier = response == null ? null : response.getTrailersSupplier();
+        HttpFields trailers = supplier == null ? null : supplier.get();
+        return trailers == null || trailers.size() == 0 ? null : trailers;
+    }
+
+    @Override
+    public String getId()
+    {
+        return Integer.toString(_streamId);
+    }
+
+    @Override
+    public Content.Chunk read()
+    {
+        Content.Chunk chunk;
+        try (AutoLock ignored = _lock.lock())
+        {
+            chunk = _chunks.poll();
+            if (chunk == null)
+                return _terminal;
+            if (chunk.isLast())
+                _terminal = Content.Chunk.next(chunk);
+        }
+        _activity = NanoTime.now();
+        if (chunk.hasRemaining())
+            _connection.onDataConsumed(this, chunk.remaining());
+        return chunk;
+    }
+
+    @Override
+    public void demand()
+    {
+        boolean available;
+        try (AutoLock ignored = _lock.lock())
+        {
+            available = !_chunks.isEmpty() || _terminal != null;
+            if (!available)
+                _demand = true;
+        }
+        if (available)
+        {
+            Runnable task = _channel.onContentAvailable();
+            if (task != null)
+                task.run();
+        }
+    }
+
+    @Override
+    public void prepareResponse(HttpFields.Mutable headers)
+    {
+    }
+
+    @Override
+    public void send(MetaData.Request request, MetaData.Response response, boolean last, ByteBuffer content, Callback callback)
+    {
+        if (response == null)
+        {
+            if (!last && BufferUtil.isEmpty(content))
+            {
+                callback.succeeded();
+                return;
+            }
+        }
+        else if (!HttpStatus.isInformational(response.getStatus()))
+        {
+            if (_response != null)
+            {
+                callback.failed(new IllegalStateException("Committed"));
+                return;
+            }
+            _response = response;
+        }
+        _activity = NanoTime.now();
+        _connection.getFlusher().send(this, request, response, last, content, callback);
+    }
+
+    @Override
+    public long getIdleTimeout()
+    {
+        return _idleTimeout;
+    }
+
+    @Override
+    public void setIdleTimeout(long idleTimeoutMs)
+    {
+        _idleTimeout = idleTimeoutMs;
+    }
+
+    @Override
+    public boolean isCommitted()
+    {
+        return _response != null;
+    }
+
+    @Override
+    public Throwable consumeAvailable()
+    {
+        // Unread content is discarded by resetting the stream on completion,
+        // so only the content already received is consumed to credit the connection window.
+        while (true)
+        {
+            Content.Chunk chunk = read();
+            if (chunk == null)
+                return null;
+            chunk.release();
+            if (chunk.isLast())
+                return null;
+        }
+    }
+
+    @Override
+    public void succeeded()
+    {
+        complete(null);
+    }
+
+    @Override
+    public void failed(Throwable x)
+    {
+        complete(x);
+    }
+
+    private void complete(Throwable failure)
+    {
+        if (!_completed.compareAndSet(false, true))
+            return;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Completed {}", this, failure);
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminal == null)
+                _terminal = Content.Chunk.from(failure == null ? new IllegalStateException("Completed") : failure, true);
+        }
+        discard();
+        _connection.onStreamCompleted(this, failure);
+    }
+
+    private void discard()
+    {
+        while (true)
+        {
+            Content.Chunk chunk;
+            try (AutoLock ignored = _lock.lock())
+            {
+                chunk = _chunks.poll();
+            }
+            if (chunk == null)
+                return;
+            discard(chunk);
+        }
+    }
+
+    private void discard(Content.Chunk chunk)
+    {
+        // The discarded content still counts against the connection window.
+        int length = chunk.remaining();
+        chunk.release();
+        if (length > 0)
+            _connection.onDataConsumed(null, length);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x#%d{remoteClosed=%b,reset=%b,committed=%b}", getClass().getSimpleName(), hashCode(), _streamId, _remoteClosed, _reset, isCommitted());
+    }
+}
@@ -0,0 +1,110 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>The parameters of {@code SETTINGS} frames, as defined by RFC 9113, section 6.5.2.</p>
+ */
+final class Settings
+{
+    static final int HEADER_TABLE_SIZE = 0x1;
+    static final int ENABLE_PUSH = 0x2;
+    static final int MAX_CONCURRENT_STREAMS = 0x3;
+    static final int INITIAL_WINDOW_SIZE = 0x4;
+    static final int MAX_FRAME_SIZE = 0x5;
+    static final int MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int MAX_MAX_FRAME_SIZE = 0xFFFFFF;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    private Settings()
+    {
+    }
+
+    /**
+     * <p>Parses the payload of a {@code SETTINGS} frame; later values of a parameter replace earlier ones.</p>
+     *
+     * @param payload the payload, whose length must be a multiple of 6
+     * @return the parameters in order of appearance
+     */
+    static Map<Integer, Integer> parse(ByteBuffer payload)
+    {
+        Map<Integer, Integer> settings = new LinkedHashMap<>();
+        while (payload.remaining() >= 6)
+        {
+            int id = payload.getShort() & 0xFFFF;
+            int value = payload.getInt();
+            settings.put(id, value);
+        }
+        return settings;
+    }
+
+    /**
+     * @param settings the parameters received from the remote peer
+     * @return the error to fail the connection with, or {@code null} if the parameters are valid
+     */
+    static ErrorCode validate(Map<Integer, Integer> settings)
+    {
+        for (Map.Entry<Integer, Integer> entry : settings.entrySet())
+        {
+            int value = entry.getValue();
+            switch (entry.getKey())
+            {
+                case ENABLE_PUSH ->
+                {
+                    if (value != 0 && value != 1)
+                        return ErrorCode.PROTOCOL_ERROR;
+                }
+                case INITIAL_WINDOW_SIZE ->
+                {
+                    // Values above 2^31-1 wrap to negative integers.
+                    if (value < 0)
+                        return ErrorCode.FLOW_CONTROL_ERROR;
+                }
+                case MAX_FRAME_SIZE ->
+                {
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_MAX_FRAME_SIZE)
+                        return ErrorCode.PROTOCOL_ERROR;
+                }
+                default ->
+                {
+                    // Unknown parameters must be ignored.
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>Writes a whole {@code SETTINGS} frame.</p>
+     *
+     * @param buffer the buffer to write to, in fill mode
+     * @param settings the parameters to send
+     */
+    static void putFrame(ByteBuffer buffer, Map<Integer, Integer> settings)
+    {
+        FrameType.SETTINGS.putHeader(buffer, settings.size() * 6, 0, 0);
+        for (Map.Entry<Integer, Integer> entry : settings.entrySet())
+        {
+            buffer.putShort(entry.getKey().shortValue());
+            buffer.putInt(entry.getValue());
+        }
+    }
+}
@@ -41,6 +41,7 @@ import ab.eazy.http.HttpParser;
 import ab.eazy.http.HttpScheme;
 import ab.eazy.http.HttpStatus;
 import ab.eazy.http.HttpURI;
+import ab.eazy.http.HttpURICache;
 import ab.eazy.http.HttpVersion;
 import ab.eazy.http.MetaData;
 import ab.eazy.http.Trailers;
@@ -179,6 +180,7 @@ public class HttpConnection extends AbstractMetaDataConnection implements Runnab
         HttpParser parser = new HttpParser(_requestHandler, getHttpConfiguration().getRequestHeaderSize(), compliance);
         parser.setHeaderCacheSize(getHttpConfiguration().getHeaderCacheSize());
         parser.setHeaderCacheCaseSensitive(getHttpConfiguration().isHeaderCacheCaseSensitive());
+        parser.setUriCache(getHttpConfiguration().getUriCache());
         return parser;
     }
 
@@ -805,6 +807,12 @@ public class HttpConnection extends AbstractMetaDataConnection implements Runnab
                             BufferUtil.clear(_content);
                         }
 
+                        // Content that fits after the header is copied into the header buffer,
+                        // so that small responses are written with a single, non-gathering, write.
+                        if (BufferUtil.hasContent(headerByteBuffer) && BufferUtil.isEmpty(chunkByteBuffer) &&
+                            BufferUtil.hasContent(_content) && _content.remaining() <= BufferUtil.space(headerByteBuffer))
+                            BufferUtil.append(headerByteBuffer, _content);
+
                         int gatherWrite = 0;
                         long bytes = 0;
                         if (BufferUtil.hasContent(headerByteBuffer))
@@ -1100,7 +1108,8 @@ public class HttpConnection extends AbstractMetaDataConnection implements Runnab
         {
             _id = _streamIdGenerator.getAndIncrement();
             _method = method;
-            _uri = uri == null ? null : HttpURI.build(method, uri);
+            HttpURICache uriCache = getHttpConfiguration().getUriCache();
+            _uri = uri == null ? null : uriCache == null ? HttpURI.build(method, uri) : uriCache.build(method, uri);
             _version = Objects.requireNonNull(version);
 
             if (_uri != null && _uri.getPath() == null && _uri.getScheme() != null && _uri.hasAuthority())
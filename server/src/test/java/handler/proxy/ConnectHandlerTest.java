@@ -0,0 +1,133 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.handler.proxy;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import ab.eazy.server.Server;
+import ab.eazy.server.ServerConnector;
+
+import nut.annotations.Test;
+import static nut.Assert.*;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+public class ConnectHandlerTest
+{
+    private static String readResponseHead(InputStream input) throws Exception
+    {
+        StringBuilder head = new StringBuilder();
+        while (head.indexOf("\r\n\r\n") < 0)
+        {
+            int b = input.read();
+            if (b < 0)
+                break;
+            head.append((char)b);
+        }
+        return head.toString();
+    }
+
+    @Test
+    public void testConnectRoundTrip() throws Exception
+    {
+        try (ServerSocket upstream = new ServerSocket(0))
+        {
+            Thread echo = new Thread(() ->
+            {
+                try (Socket socket = upstream.accept())
+                {
+                    socket.getInputStream().transferTo(socket.getOutputStream());
+                }
+                catch (Exception ignored)
+                {
+                }
+            });
+            echo.start();
+
+            Server server = new Server(0);
+            ConnectHandler connectHandler = new ConnectHandler();
+            server.addHandler(connectHandler);
+            server.start();
+            try
+            {
+                int port = ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+                String authority = "localhost:" + upstream.getLocalPort();
+                try (Socket client = new Socket("localhost", port))
+                {
+                    client.setSoTimeout(5000);
+                    OutputStream output = client.getOutputStream();
+                    InputStream input = client.getInputStream();
+                    output.write(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n").getBytes(ISO_8859_1));
+                    output.flush();
+
+                    String head = readResponseHead(input);
+                    assertTrue(head.startsWith("HTTP/1.1 200 "), head);
+
+                    byte[] bytes = "hello tunnel".getBytes(ISO_8859_1);
+                    output.write(bytes);
+                    output.flush();
+                    assertEquals(new String(input.readNBytes(bytes.length), ISO_8859_1), "hello tunnel");
+                    assertEquals(connectHandler.getTunnelCount(), 1);
+
+                    client.shutdownOutput();
+                    assertEquals(input.read(), -1);
+                }
+                echo.join(5000);
+                long end = System.nanoTime() + 5_000_000_000L;
+                while (connectHandler.getTunnelCount() > 0 && System.nanoTime() < end)
+                    Thread.sleep(10);
+                assertEquals(connectHandler.getTunnelCount(), 0);
+                assertEquals(connectHandler.getTunnelsTotal(), 1L);
+            }
+            finally
+            {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectRejectedDestination() throws Exception
+    {
+        Server server = new Server(0);
+        server.addHandler(new ConnectHandler()
+        {
+            @Override
+            protected boolean validateDestination(String host, int port)
+            {
+                return false;
+            }
+        });
+        server.start();
+        try
+        {
+            int port = ((ServerConnector)server.getConnectors()[0]).getLocalPort();
+            try (Socket client = new Socket("localhost", port))
+            {
+                client.setSoTimeout(5000);
+                client.getOutputStream().write("CONNECT localhost:1 HTTP/1.1\r\nHost: localhost:1\r\n\r\n".getBytes(ISO_8859_1));
+                client.getOutputStream().flush();
+                String head = readResponseHead(client.getInputStream());
+                assertTrue(head.startsWith("HTTP/1.1 403 "), head);
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+}
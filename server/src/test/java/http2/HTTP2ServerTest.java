@@ -0,0 +1,472 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.server.http2;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ab.eazy.http.HttpFields;
+import ab.eazy.http.HttpHeader;
+import ab.eazy.http.HttpURI;
+import ab.eazy.http.HttpVersion;
+import ab.eazy.http.MetaData;
+import ab.eazy.http.hpack.HpackDecoder;
+import ab.eazy.http.hpack.HpackEncoder;
+import ab.eazy.io.Content;
+import ab.eazy.server.Handler;
+import ab.eazy.server.HttpConfiguration;
+import ab.eazy.server.HttpConnectionFactory;
+import ab.eazy.server.LocalConnector;
+import ab.eazy.server.Request;
+import ab.eazy.server.Response;
+import ab.eazy.server.Server;
+import ab.eazy.util.BufferUtil;
+import ab.eazy.util.Callback;
+import ab.eazy.util.FutureCallback;
+
+import nut.annotations.Test;
+import static nut.Assert.*;
+
+/**
+ * <p>Frame level tests of {@link HTTP2ServerConnection}, over a {@link LocalConnector}.</p>
+ */
+public class HTTP2ServerTest
+{
+    private static final String CONTENT = "0123456789".repeat(10);
+
+    private Server _server;
+    private LocalConnector _connector;
+    private HTTP2CServerConnectionFactory _h2c;
+
+    private void start(boolean priorKnowledgeOnly) throws Exception
+    {
+        _server = new Server(0);
+        HttpConfiguration config = new HttpConfiguration();
+        _h2c = new HTTP2CServerConnectionFactory(config);
+        _h2c.setInitialStreamRecvWindow(1024);
+        _connector = priorKnowledgeOnly
+            ? new LocalConnector(_server, _h2c)
+            : new LocalConnector(_server, new HttpConnectionFactory(config), _h2c);
+        _server.addConnector(_connector);
+        _server.addHandler(new Handler.Abstract()
+        {
+            @Override
+            public boolean handle(Request request, Response response, Callback callback) throws Exception
+            {
+                if ("POST".equals(request.getMethod()))
+                {
+                    String content = Content.Source.asString(request, StandardCharsets.ISO_8859_1);
+                    Content.Sink.write(response, true, Integer.toString(content.length()), callback);
+                }
+                else
+                {
+                    response.getHeaders().put(HttpHeader.CONTENT_LENGTH, CONTENT.length());
+                    Content.Sink.write(response, true, CONTENT, callback);
+                }
+                return true;
+            }
+        });
+        _server.start();
+    }
+
+    private void stop() throws Exception
+    {
+        _server.stop();
+    }
+
+    @Test
+    public void testPriorKnowledge() throws Exception
+    {
+        start(true);
+        try (FrameClient client = new FrameClient(_connector.connect()))
+        {
+            client.sendPreface(Map.of());
+            client.sendHeaders(1, get(), true);
+
+            Frame settings = client.receive(FrameType.SETTINGS);
+            assertEquals(settings.flags(), 0);
+            Map<Integer, Integer> serverSettings = Settings.parse(settings.payload());
+            assertEquals(serverSettings.get(Settings.ENABLE_PUSH).intValue(), 0);
+            assertEquals(serverSettings.get(Settings.INITIAL_WINDOW_SIZE).intValue(), 1024);
+
+            // The connection receive window is enlarged with the server preface.
+            Frame windowUpdate = client.receive(FrameType.WINDOW_UPDATE);
+            assertEquals(windowUpdate.streamId(), 0);
+            assertEquals(windowUpdate.payload().getInt(), _h2c.getInitialSessionRecvWindow() - Settings.DEFAULT_WINDOW_SIZE);
+
+            assertEquals(client.receiveResponse(1).getStatus(), 200);
+            assertEquals(client.receiveContent(1), CONTENT);
+            assertTrue(client.received(FrameType.SETTINGS, FrameType.ACK), "settings ack");
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    @Test
+    public void testPriorKnowledgeFromHttp11() throws Exception
+    {
+        start(false);
+        try (FrameClient client = new FrameClient(_connector.connect()))
+        {
+            // The preface is first parsed as a "PRI * HTTP/2.0" request by the HTTP/1.1 connection.
+            client.sendPreface(Map.of());
+            client.sendHeaders(1, get(), true);
+
+            client.receive(FrameType.SETTINGS);
+            assertEquals(client.receiveResponse(1).getStatus(), 200);
+            assertEquals(client.receiveContent(1), CONTENT);
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    @Test
+    public void testUpgrade() throws Exception
+    {
+        start(false);
+        try (FrameClient client = new FrameClient(_connector.connect()))
+        {
+            // HTTP2-Settings with SETTINGS_MAX_CONCURRENT_STREAMS=100.
+            client.send(BufferUtil.toBuffer("""
+                GET /upgrade HTTP/1.1\r
+                Host: localhost\r
+                Connection: Upgrade, HTTP2-Settings\r
+                Upgrade: h2c\r
+                HTTP2-Settings: AAMAAABk\r
+                \r
+                """, StandardCharsets.ISO_8859_1));
+
+            String head = client.receiveHead();
+            assertTrue(head.startsWith("HTTP/1.1 101 "), head);
+            assertTrue(head.toLowerCase().contains("upgrade: h2c"), head);
+
+            // The upgrade request is the request of stream 1.
+            client.sendPreface(Map.of());
+            client.receive(FrameType.SETTINGS);
+            assertEquals(client.receiveResponse(1).getStatus(), 200);
+            assertEquals(client.receiveContent(1), CONTENT);
+
+            // The next request uses stream 3.
+            client.sendHeaders(3, get(), true);
+            assertEquals(client.receiveResponse(3).getStatus(), 200);
+            assertEquals(client.receiveContent(3), CONTENT);
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    @Test
+    public void testSendWindow() throws Exception
+    {
+        start(true);
+        try (FrameClient client = new FrameClient(_connector.connect()))
+        {
+            // A small stream window, so that the response content is stalled.
+            client.sendPreface(Map.of(Settings.INITIAL_WINDOW_SIZE, 10));
+            client.sendHeaders(1, get(), true);
+
+            assertEquals(client.receiveResponse(1).getStatus(), 200);
+            StringBuilder content = new StringBuilder();
+            boolean last = client.receiveData(1, content, 5000);
+            assertFalse(last);
+            // No more content is sent until the window is opened.
+            assertFalse(client.receiveData(1, content, 500));
+            assertEquals(content.toString(), CONTENT.substring(0, 10));
+
+            // Opening the stream window releases the rest of the content.
+            client.sendWindowUpdate(1, CONTENT.length() - 10);
+            while (!last)
+            {
+                last = client.receiveData(1, content, 5000);
+            }
+            assertEquals(content.toString(), CONTENT);
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    @Test
+    public void testRecvWindow() throws Exception
+    {
+        start(true);
+        try (FrameClient client = new FrameClient(_connector.connect()))
+        {
+            client.sendPreface(Map.of());
+            client.sendHeaders(1, post(), false);
+
+            // The stream window is credited back once half of it has been consumed.
+            client.sendData(1, 600, false);
+            Frame windowUpdate = client.receive(FrameType.WINDOW_UPDATE, 1);
+            assertEquals(windowUpdate.payload().getInt(), 600);
+
+            client.sendData(1, 1024, true);
+            assertEquals(client.receiveResponse(1).getStatus(), 200);
+            assertEquals(client.receiveContent(1), "1624");
+
+            // More content than the stream window is a stream error.
+            client.sendHeaders(3, post(), false);
+            client.sendData(3, 1025, false);
+            Frame reset = client.receive(FrameType.RST_STREAM, 3);
+            assertEquals(reset.payload().getInt(), ErrorCode.FLOW_CONTROL_ERROR.getCode());
+
+            // The connection is still usable.
+            client.sendHeaders(5, get(), true);
+            assertEquals(client.receiveResponse(5).getStatus(), 200);
+            assertEquals(client.receiveContent(5), CONTENT);
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    private static MetaData.Request get()
+    {
+        return new MetaData.Request("GET", HttpURI.from("http://localhost/"), HttpVersion.HTTP_2, HttpFields.EMPTY);
+    }
+
+    private static MetaData.Request post()
+    {
+        return new MetaData.Request("POST", HttpURI.from("http://localhost/"), HttpVersion.HTTP_2, HttpFields.EMPTY);
+    }
+
+    private record Frame(FrameType type, int flags, int streamId, ByteBuffer payload)
+    {
+        boolean isEndStream()
+        {
+            return (flags & FrameType.END_STREAM) != 0;
+        }
+    }
+
+    /**
+     * <p>A minimal HTTP/2 client, that writes and reads raw frames.</p>
+     */
+    private static class FrameClient implements Closeable
+    {
+        private final LocalConnector.Client _client;
+        private final HpackEncoder _encoder = new HpackEncoder();
+        private final HpackDecoder _decoder = new HpackDecoder(0);
+        private final List<Frame> _received = new ArrayList<>();
+        private ByteBuffer _buffer = BufferUtil.allocate(64 * 1024);
+        private FutureCallback _fillable;
+
+        private FrameClient(LocalConnector.Client client)
+        {
+            _client = client;
+        }
+
+        void send(ByteBuffer buffer) throws Exception
+        {
+            _client.send(buffer);
+        }
+
+        void sendPreface(Map<Integer, Integer> settings) throws Exception
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(FrameParser.PREFACE.length + FrameType.HEADER_LENGTH + 6 * settings.size());
+            buffer.put(FrameParser.PREFACE);
+            Settings.putFrame(buffer, settings);
+            send(buffer.flip());
+        }
+
+        void sendHeaders(int streamId, MetaData metaData, boolean endStream) throws Exception
+        {
+            ByteBuffer block = ByteBuffer.allocate(1024);
+            _encoder.encode(block, metaData);
+            block.flip();
+            ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH + block.remaining());
+            FrameType.HEADERS.putHeader(frame, block.remaining(), FrameType.END_HEADERS | (endStream ? FrameType.END_STREAM : 0), streamId);
+            frame.put(block);
+            send(frame.flip());
+        }
+
+        void sendData(int streamId, int length, boolean endStream) throws Exception
+        {
+            ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH + length);
+            FrameType.DATA.putHeader(frame, length, endStream ? FrameType.END_STREAM : 0, streamId);
+            frame.put("x".repeat(length).getBytes(StandardCharsets.ISO_8859_1));
+            send(frame.flip());
+        }
+
+        void sendWindowUpdate(int streamId, int delta) throws Exception
+        {
+            ByteBuffer frame = ByteBuffer.allocate(FrameType.HEADER_LENGTH + 4);
+            FrameType.WINDOW_UPDATE.putHeader(frame, 4, 0, streamId);
+            frame.putInt(delta);
+            send(frame.flip());
+        }
+
+        /**
+         * @return the head of an HTTP/1.1 response, that precedes the HTTP/2 frames after an upgrade
+         */
+        String receiveHead() throws Exception
+        {
+            while (true)
+            {
+                String bytes = BufferUtil.toString(_buffer, StandardCharsets.ISO_8859_1);
+                int end = bytes.indexOf("\r\n\r\n");
+                if (end >= 0)
+                {
+                    _buffer.position(_buffer.position() + end + 4);
+                    return bytes.substring(0, end + 4);
+                }
+                if (!fill(5000))
+                    throw new TimeoutException();
+            }
+        }
+
+        /**
+         * @return whether a frame of the given type and flags was received, and skipped, before
+         */
+        boolean received(FrameType type, int flags)
+        {
+            return _received.stream().anyMatch(frame -> frame.type() == type && frame.flags() == flags);
+        }
+
+        Frame receive(FrameType type) throws Exception
+        {
+            return receive(type, 0);
+        }
+
+        /**
+         * <p>Receives frames until one of the given type and stream, skipping the others.</p>
+         */
+        Frame receive(FrameType type, int streamId) throws Exception
+        {
+            while (true)
+            {
+                Frame frame = receiveFrame(5000);
+                if (frame == null)
+                    throw new TimeoutException("No " + type + " frame for stream " + streamId);
+                if (frame.type() == type && frame.streamId() == streamId)
+                    return frame;
+            }
+        }
+
+        MetaData.Response receiveResponse(int streamId) throws Exception
+        {
+            Frame headers = receive(FrameType.HEADERS, streamId);
+            assertTrue((headers.flags() & FrameType.END_HEADERS) != 0, "end headers");
+            return (MetaData.Response)_decoder.decode(headers.payload());
+        }
+
+        String receiveContent(int streamId) throws Exception
+        {
+            StringBuilder content = new StringBuilder();
+            while (!receiveData(streamId, content, 5000))
+            {
+            }
+            return content.toString();
+        }
+
+        /**
+         * <p>Receives the next {@code DATA} frame of a stream, skipping the other frames.</p>
+         *
+         * @return whether the frame ended the stream, or {@code false} if no frame was received in time
+         */
+        boolean receiveData(int streamId, StringBuilder content, long timeout) throws Exception
+        {
+            while (true)
+            {
+                Frame frame = receiveFrame(timeout);
+                if (frame == null)
+                    return false;
+                if (frame.type() == FrameType.DATA && frame.streamId() == streamId)
+                {
+                    content.append(BufferUtil.toString(frame.payload(), StandardCharsets.ISO_8859_1));
+                    return frame.isEndStream();
+                }
+            }
+        }
+
+        private Frame receiveFrame(long timeout) throws Exception
+        {
+            while (true)
+            {
+                if (_buffer.remaining() >= FrameType.HEADER_LENGTH)
+                {
+                    int position = _buffer.position();
+                    int length = (_buffer.get(position) & 0xFF) << 16 | (_buffer.getShort(position + 1) & 0xFFFF);
+                    if (_buffer.remaining() >= FrameType.HEADER_LENGTH + length)
+                    {
+                        FrameType type = FrameType.from(_buffer.get(position + 3));
+                        int flags = _buffer.get(position + 4) & 0xFF;
+                        int streamId = _buffer.getInt(position + 5) & 0x7FFFFFFF;
+                        ByteBuffer payload = ByteBuffer.allocate(length);
+                        payload.put(_buffer.slice(position + FrameType.HEADER_LENGTH, length)).flip();
+                        _buffer.position(position + FrameType.HEADER_LENGTH + length);
+                        Frame frame = new Frame(type, flags, streamId, payload);
+                        _received.add(frame);
+                        return frame;
+                    }
+                }
+                if (!fill(timeout))
+                    return null;
+            }
+        }
+
+        private boolean fill(long timeout) throws Exception
+        {
+            BufferUtil.compact(_buffer);
+            if (BufferUtil.space(_buffer) == 0)
+            {
+                ByteBuffer buffer = BufferUtil.allocate(_buffer.capacity() * 2);
+                BufferUtil.append(buffer, _buffer);
+                _buffer = buffer;
+            }
+            while (true)
+            {
+                int filled = _client.getEndPoint().fill(_buffer);
+                if (filled > 0)
+                    return true;
+                if (filled < 0)
+                    return false;
+                if (_fillable == null)
+                {
+                    _fillable = new FutureCallback();
+                    _client.getEndPoint().fillInterested(_fillable);
+                }
+                try
+                {
+                    _fillable.get(timeout, TimeUnit.MILLISECONDS);
+                    _fillable = null;
+                }
+                catch (TimeoutException x)
+                {
+                    // Keep the fill interest for the next fill.
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            _client.close();
+        }
+    }
+}
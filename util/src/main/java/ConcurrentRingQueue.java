@@ -0,0 +1,405 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A bounded, lock free, multi producer and multi consumer {@link BlockingQueue} backed by a ring buffer.</p>
+ * <p>Each slot of the ring has a sequence number, that tells producers whether the slot is free for the
+ * current lap of the ring, and consumers whether the slot has been filled for the current lap.
+ * Producers and consumers claim slots by incrementing the tail and the head with a single CAS,
+ * so that they never block each other, unlike {@link BlockingArrayQueue} whose head and tail
+ * are protected by locks, which convoy under contention.</p>
+ * <p>Consumers that find the queue empty in {@link #take()} or {@link #poll(long, TimeUnit)} register
+ * themselves as waiters and park; producers unpark one waiter per element offered, if there is any.
+ * Producers of a full queue in {@link #put(Object)} or {@link #offer(Object, long, TimeUnit)} spin and
+ * park briefly until there is space.</p>
+ * <p>This queue may be passed as the job queue of a {@link ab.eazy.util.thread.QueuedThreadPool}.</p>
+ * <p>The {@link #iterator()} is weakly consistent and does not support removal,
+ * so {@link #remove(Object)} is not supported.</p>
+ *
+ * @param <E> The element type
+ */
+public class ConcurrentRingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+    /**
+     * The head offset in the {@link #_indexes} array, displaced by a cache line to avoid false sharing.
+     */
+    private static final int HEAD_OFFSET = MemoryUtils.getLongsPerCacheLine() - 1;
+    /**
+     * The tail offset in the {@link #_indexes} array, displaced by a cache line from the head to avoid false sharing with it.
+     */
+    private static final int TAIL_OFFSET = HEAD_OFFSET + MemoryUtils.getLongsPerCacheLine();
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray _indexes = new AtomicLongArray(TAIL_OFFSET + MemoryUtils.getLongsPerCacheLine());
+    private final Queue<Thread> _waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicLongArray _sequences;
+    private final AtomicReferenceArray<E> _elements;
+    private final int _mask;
+
+    /**
+     * @param capacity the capacity of the queue, rounded up to a power of two, and at least 2
+     */
+    public ConcurrentRingQueue(int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        // A ring of one slot cannot tell a full slot from a free one of the next lap,
+        // since both have the same sequence number, so the ring has at least 2 slots.
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        if (size <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            _sequences.set(i, i);
+        }
+        _elements = new AtomicReferenceArray<>(size);
+        _mask = size - 1;
+    }
+
+    /**
+     * @return the maximum number of elements in this queue
+     */
+    public int getCapacity()
+    {
+        return _mask + 1;
+    }
+
+    @Override
+    public boolean offer(E e)
+    {
+        Objects.requireNonNull(e);
+        long tail = _indexes.get(TAIL_OFFSET);
+        while (true)
+        {
+            int index = (int)tail & _mask;
+            long delta = _sequences.get(index) - tail;
+            if (delta == 0)
+            {
+                if (_indexes.compareAndSet(TAIL_OFFSET, tail, tail + 1))
+                {
+                    _elements.lazySet(index, e);
+                    // A volatile write, so that it is ordered before reading the waiters.
+                    _sequences.set(index, tail + 1);
+                    signal();
+                    return true;
+                }
+                tail = _indexes.get(TAIL_OFFSET);
+            }
+            else if (delta < 0)
+            {
+                // The slot still holds the element of the previous lap.
+                return false;
+            }
+            else
+            {
+                tail = _indexes.get(TAIL_OFFSET);
+            }
+        }
+    }
+
+    @Override
+    public E poll()
+    {
+        long head = _indexes.get(HEAD_OFFSET);
+        while (true)
+        {
+            int index = (int)head & _mask;
+            long delta = _sequences.get(index) - (head + 1);
+            if (delta == 0)
+            {
+                if (_indexes.compareAndSet(HEAD_OFFSET, head, head + 1))
+                {
+                    E e = _elements.get(index);
+                    _elements.lazySet(index, null);
+                    // Make the slot available to the producers of the next lap.
+                    _sequences.lazySet(index, head + _mask + 1);
+                    return e;
+                }
+                head = _indexes.get(HEAD_OFFSET);
+            }
+            else if (delta < 0)
+            {
+                // The slot has not been filled yet.
+                return null;
+            }
+            else
+            {
+                head = _indexes.get(HEAD_OFFSET);
+            }
+        }
+    }
+
+    @Override
+    public E peek()
+    {
+        while (true)
+        {
+            long head = _indexes.get(HEAD_OFFSET);
+            int index = (int)head & _mask;
+            if (_sequences.get(index) != head + 1)
+                return null;
+            E e = _elements.get(index);
+            if (e != null && _indexes.get(HEAD_OFFSET) == head)
+                return e;
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        return poll(-1);
+    }
+
+    @Override
+    public E poll(long time, TimeUnit unit) throws InterruptedException
+    {
+        return poll(Math.max(0, unit.toNanos(time)));
+    }
+
+    private E poll(long nanos) throws InterruptedException
+    {
+        E e = poll();
+        if (e != null || nanos == 0)
+            return e;
+
+        Thread thread = Thread.currentThread();
+        long deadline = NanoTime.now() + nanos;
+        while (true)
+        {
+            _waiters.offer(thread);
+
+            // Poll again after registering as a waiter, so that an element
+            // offered before the registration is not missed.
+            e = poll();
+            if (e != null)
+            {
+                unwait(thread, true);
+                return e;
+            }
+
+            if (nanos < 0)
+            {
+                LockSupport.park(this);
+            }
+            else
+            {
+                long remaining = deadline - NanoTime.now();
+                if (remaining <= 0)
+                    return unwait(thread, false);
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            if (Thread.interrupted())
+            {
+                unwait(thread, true);
+                throw new InterruptedException();
+            }
+
+            e = poll();
+            if (e != null)
+            {
+                unwait(thread, true);
+                return e;
+            }
+            // Spurious wakeup, or another consumer took the element.
+            _waiters.remove(thread);
+        }
+    }
+
+    /**
+     * <p>Deregister the current thread as a waiter.</p>
+     * <p>If a producer already removed the thread from the waiters to unpark it,
+     * the signal must not be lost: the element is taken if still there,
+     * or the signal is passed on to another waiter.</p>
+     *
+     * @param thread the current thread
+     * @param pass whether the signal must be passed on to another waiter,
+     * because the current thread already has an element or will not take one
+     * @return an element taken on behalf of a producer signal, or null
+     */
+    private E unwait(Thread thread, boolean pass)
+    {
+        if (_waiters.remove(thread))
+            return null;
+        if (!pass)
+        {
+            E e = poll();
+            if (e != null)
+                return e;
+        }
+        if (!isEmpty())
+            signal();
+        return null;
+    }
+
+    private void signal()
+    {
+        if (_waiters.isEmpty())
+            return;
+        Thread waiter = _waiters.poll();
+        if (waiter != null)
+            LockSupport.unpark(waiter);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException
+    {
+        offer(e, -1);
+    }
+
+    @Override
+    public boolean offer(E e, long time, TimeUnit unit) throws InterruptedException
+    {
+        return offer(e, Math.max(0, unit.toNanos(time)));
+    }
+
+    private boolean offer(E e, long nanos) throws InterruptedException
+    {
+        if (offer(e))
+            return true;
+        if (nanos == 0)
+            return false;
+
+        // Producers rarely find the queue full, so they just back off.
+        long deadline = NanoTime.now() + nanos;
+        long park = 1000;
+        while (!offer(e))
+        {
+            if (nanos > 0 && NanoTime.now() - deadline >= 0)
+                return false;
+            LockSupport.parkNanos(this, park);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            park = Math.min(park * 2, MAX_PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public int size()
+    {
+        while (true)
+        {
+            long head = _indexes.get(HEAD_OFFSET);
+            long tail = _indexes.get(TAIL_OFFSET);
+            if (_indexes.get(HEAD_OFFSET) == head)
+                return (int)Math.max(0, Math.min(tail - head, getCapacity()));
+        }
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        long head = _indexes.get(HEAD_OFFSET);
+        return _sequences.get((int)head & _mask) != head + 1;
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        return getCapacity() - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        while (n < maxElements)
+        {
+            E e = poll();
+            if (e == null)
+                break;
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public void clear()
+    {
+        while (poll() != null)
+        {
+        }
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return a weakly consistent iterator over a snapshot of the elements, that does not support removal
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        List<E> elements = new ArrayList<>();
+        long head = _indexes.get(HEAD_OFFSET);
+        long tail = _indexes.get(TAIL_OFFSET);
+        for (long i = head; i < tail && i - head <= _mask; i++)
+        {
+            int index = (int)i & _mask;
+            E e = _elements.get(index);
+            if (e != null && _sequences.get(index) == i + 1)
+                elements.add(e);
+        }
+        Iterator<E> iterator = elements.iterator();
+        return new Iterator<>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next()
+            {
+                return iterator.next();
+            }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[size=%d,capacity=%d]", getClass().getSimpleName(), hashCode(), size(), getCapacity());
+    }
+}
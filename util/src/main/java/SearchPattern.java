@@ -26,6 +26,10 @@ import java.util.Arrays;
  * <p>The algorithm has an average-case complexity of O(n)
  * on random text and O(nm) in the worst case, where
  * {@code m = pattern length} and {@code n = length of data to search}.
+ *
+ * <p>For patterns such as multipart boundaries, that are usually 30 to 70 bytes long,
+ * the skips are close to the pattern length, which is more than scanning candidate
+ * positions 8 bytes at a time can achieve without SIMD instructions.</p>
  */
 public class SearchPattern
 {
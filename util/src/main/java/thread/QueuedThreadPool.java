@@ -73,6 +73,9 @@ import org.slf4j.LoggerFactory;
  *   <li>{@link #getBusyThreads() busyThreads} = utilizedThreads + leasedThreads</li>
  *   <li>{@link #getIdleThreads() idleThreads} = readyThreads - availableReservedThreads</li>
  * </ul>
+ * <p>The job queue may be passed to the constructor, and defaults to a bounded {@link BlockingArrayQueue}.
+ * With many threads offering and polling jobs, a {@link ab.eazy.util.ConcurrentRingQueue}, whose offer
+ * and poll are lock free, avoids the convoying of threads on the locks of the job queue.</p>
  */
 @ManagedObject("A thread pool")
 public class QueuedThreadPool extends ContainerLifeCycle implements ThreadFactory, SizedThreadPool, TryExecutor, VirtualThreads.Configurable
@@ -0,0 +1,390 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.util.thread;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import ab.eazy.util.VirtualThreads;
+import ab.eazy.util.annotation.ManagedAttribute;
+import ab.eazy.util.annotation.ManagedObject;
+import ab.eazy.util.component.ContainerLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link ab.eazy.util.thread.ThreadPool.SizedThreadPool} backed by a {@link ForkJoinPool}
+ * in asynchronous mode, where every worker thread has its own deque of tasks.</p>
+ * <p>Tasks executed from a worker thread, for example the tasks produced by a selector
+ * or by an {@link ExecutionStrategy} running in the pool, are pushed to the deque of that
+ * worker rather than to a queue shared by all threads, so that they are likely to be run
+ * by the thread that produced them while their data is still in its CPU caches.
+ * Tasks executed from other threads are submitted to the pool's shared submission queues.
+ * Idle workers steal tasks from the deques of busy workers.</p>
+ * <p>Like {@link QueuedThreadPool}, this pool has a {@link ThreadPoolBudget} and a
+ * {@link ReservedThreadExecutor} to implement {@link TryExecutor}, so it can be used as
+ * the thread pool of a server.</p>
+ * <p>The number of threads of a {@link ForkJoinPool} cannot be changed once the pool is
+ * created, so the minimum and maximum number of threads and the idle timeout can only be
+ * set before this pool is started.</p>
+ */
+@ManagedObject("A work stealing thread pool")
+public class WorkStealingThreadPool extends ContainerLifeCycle implements ThreadPool.SizedThreadPool, TryExecutor, VirtualThreads.Configurable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WorkStealingThreadPool.class);
+
+    private final ThreadPoolBudget _budget = new ThreadPoolBudget(this);
+    private volatile ForkJoinPool _pool;
+    private String _name = "wstp" + hashCode();
+    private int _maxThreads;
+    private int _minThreads;
+    private int _idleTimeout;
+    private int _reservedThreads = -1;
+    private TryExecutor _tryExecutor = TryExecutor.NO_TRY;
+    private int _priority = Thread.NORM_PRIORITY;
+    private boolean _daemon;
+    private Executor _virtualThreadsExecutor;
+
+    public WorkStealingThreadPool()
+    {
+        this(200, 8);
+    }
+
+    public WorkStealingThreadPool(int maxThreads)
+    {
+        this(maxThreads, Math.min(8, maxThreads));
+    }
+
+    public WorkStealingThreadPool(int maxThreads, int minThreads)
+    {
+        this(maxThreads, minThreads, 60000);
+    }
+
+    public WorkStealingThreadPool(int maxThreads, int minThreads, int idleTimeout)
+    {
+        if (maxThreads < minThreads)
+            throw new IllegalArgumentException("max threads (" + maxThreads + ") cannot be less than min threads (" + minThreads + ")");
+        _maxThreads = maxThreads;
+        _minThreads = minThreads;
+        _idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the name of the this thread pool
+     */
+    @ManagedAttribute("name of this thread pool")
+    public String getName()
+    {
+        return _name;
+    }
+
+    /**
+     * Set the name of this thread pool, used to name threads.
+     * @param name the name of this thread pool, used to name threads
+     */
+    public void setName(String name)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _name = name;
+    }
+
+    @Override
+    @ManagedAttribute("minimum number of threads in the pool")
+    public int getMinThreads()
+    {
+        return _minThreads;
+    }
+
+    @Override
+    public void setMinThreads(int threads)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _minThreads = threads;
+    }
+
+    @Override
+    @ManagedAttribute("maximum number of threads in the pool")
+    public int getMaxThreads()
+    {
+        return _maxThreads;
+    }
+
+    @Override
+    public void setMaxThreads(int threads)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _budget.check(threads);
+        _maxThreads = threads;
+    }
+
+    /**
+     * @return the maximum thread idle time in ms.
+     * @see #setIdleTimeout(int)
+     */
+    @ManagedAttribute("maximum time a thread may be idle in ms")
+    public int getIdleTimeout()
+    {
+        return _idleTimeout;
+    }
+
+    /**
+     * <p>Sets the maximum thread idle time in ms.</p>
+     * <p>Threads that are idle for longer than this
+     * period may be stopped, down to the minimum number of threads.</p>
+     *
+     * @param idleTimeout the maximum thread idle time in ms.
+     * @see #getIdleTimeout()
+     */
+    public void setIdleTimeout(int idleTimeout)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return number of reserved threads or -1 to indicate that the number is heuristically determined
+     * @see #setReservedThreads(int)
+     */
+    @ManagedAttribute("the number of reserved threads in the pool")
+    public int getReservedThreads()
+    {
+        if (isStarted())
+            return getBean(ReservedThreadExecutor.class).getCapacity();
+        return _reservedThreads;
+    }
+
+    /**
+     * Sets the number of reserved threads.
+     *
+     * @param reservedThreads number of reserved threads or -1 to determine the number heuristically
+     * @see #getReservedThreads()
+     */
+    public void setReservedThreads(int reservedThreads)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _reservedThreads = reservedThreads;
+    }
+
+    public void setThreadsPriority(int priority)
+    {
+        _priority = priority;
+    }
+
+    public int getThreadsPriority()
+    {
+        return _priority;
+    }
+
+    /**
+     * @return whether this thread pool uses daemon threads
+     * @see #setDaemon(boolean)
+     */
+    @ManagedAttribute("whether this thread pool uses daemon threads")
+    public boolean isDaemon()
+    {
+        return _daemon;
+    }
+
+    /**
+     * @param daemon whether this thread pool uses daemon threads
+     * @see Thread#setDaemon(boolean)
+     */
+    public void setDaemon(boolean daemon)
+    {
+        _daemon = daemon;
+    }
+
+    @Override
+    @ManagedAttribute("number of threads in the pool")
+    public int getThreads()
+    {
+        ForkJoinPool pool = _pool;
+        return pool == null ? 0 : pool.getPoolSize();
+    }
+
+    @Override
+    @ManagedAttribute("number of idle threads in the pool")
+    public int getIdleThreads()
+    {
+        ForkJoinPool pool = _pool;
+        return pool == null ? 0 : Math.max(0, pool.getPoolSize() - pool.getActiveThreadCount());
+    }
+
+    /**
+     * @return an estimate of the number of tasks queued in the workers deques and in the submission queues
+     */
+    @ManagedAttribute("number of tasks queued in the pool")
+    public long getQueueSize()
+    {
+        ForkJoinPool pool = _pool;
+        return pool == null ? 0 : pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+    }
+
+    /**
+     * @return an estimate of the number of tasks stolen by a worker from the deque of another worker
+     */
+    @ManagedAttribute("number of tasks stolen from the deques of other threads")
+    public long getStealCount()
+    {
+        ForkJoinPool pool = _pool;
+        return pool == null ? 0 : pool.getStealCount();
+    }
+
+    @Override
+    public void execute(Runnable job)
+    {
+        ForkJoinPool pool = _pool;
+        if (pool == null)
+            throw new RejectedExecutionException(toString());
+        // Executed from a worker of the pool, the job is pushed to the deque of that worker.
+        pool.execute(new Job(job));
+    }
+
+    @Override
+    public boolean tryExecute(Runnable task)
+    {
+        TryExecutor tryExecutor = _tryExecutor;
+        return tryExecutor != null && tryExecutor.tryExecute(task);
+    }
+
+    @Override
+    @ManagedAttribute(value = "thread pool is low on threads", readonly = true)
+    public boolean isLowOnThreads()
+    {
+        return getThreads() == getMaxThreads() && getQueueSize() >= getIdleThreads();
+    }
+
+    @Override
+    public Executor getVirtualThreadsExecutor()
+    {
+        return _virtualThreadsExecutor;
+    }
+
+    @Override
+    public void setVirtualThreadsExecutor(Executor executor)
+    {
+        try
+        {
+            VirtualThreads.Configurable.super.setVirtualThreadsExecutor(executor);
+            _virtualThreadsExecutor = executor;
+        }
+        catch (UnsupportedOperationException ignored)
+        {
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        _budget.check(_maxThreads);
+        // Asynchronous mode runs the tasks of a worker deque in FIFO order, as the jobs of a
+        // thread pool are not forked subtasks that must be joined; the pool never rejects a job.
+        _pool = new ForkJoinPool(_maxThreads, this::newThread, null, true,
+            _minThreads, _maxThreads, 1, pool -> true, Math.max(1, _idleTimeout), TimeUnit.MILLISECONDS);
+
+        _tryExecutor = new ReservedThreadExecutor(this, _reservedThreads);
+        addBean(_tryExecutor);
+
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        removeBean(_tryExecutor);
+        _tryExecutor = TryExecutor.NO_TRY;
+        ForkJoinPool pool = _pool;
+        _pool = null;
+        if (pool != null)
+            pool.shutdownNow();
+        _budget.reset();
+    }
+
+    @Override
+    public void join() throws InterruptedException
+    {
+        ForkJoinPool pool = _pool;
+        if (pool != null)
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ThreadPoolBudget getThreadPoolBudget()
+    {
+        return _budget;
+    }
+
+    protected ForkJoinWorkerThread newThread(ForkJoinPool pool)
+    {
+        ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool)
+        {
+        };
+        thread.setDaemon(isDaemon());
+        thread.setPriority(getThreadsPriority());
+        thread.setName(getName() + "-" + thread.getId());
+        return thread;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s]@%x{%s,%d<=%d<=%d,i=%d,q=%d,s=%d,%s}",
+            getClass().getSimpleName(),
+            _name,
+            hashCode(),
+            getState(),
+            getMinThreads(),
+            getThreads(),
+            getMaxThreads(),
+            getIdleThreads(),
+            getQueueSize(),
+            getStealCount(),
+            _tryExecutor);
+    }
+
+    /**
+     * <p>Runs a job, logging rather than propagating its failure,
+     * which would otherwise terminate the worker thread.</p>
+     */
+    private record Job(Runnable job) implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                job.run();
+            }
+            catch (Throwable x)
+            {
+                LOG.warn("Job failed", x);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return job.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.eazy.util;
+
+import java.util.concurrent.TimeUnit;
+
+import nut.annotations.Test;
+import static nut.Assert.*;
+
+public class ConcurrentRingQueueTest
+{
+    @Test
+    public void testCapacityOne()
+    {
+        ConcurrentRingQueue<String> queue = new ConcurrentRingQueue<>(1);
+        assertEquals(queue.getCapacity(), 2);
+
+        // The second element must not overwrite the first one.
+        assertTrue(queue.offer("a"), "offer a");
+        assertTrue(queue.offer("b"), "offer b");
+        assertFalse(queue.offer("c"));
+        assertEquals(queue.size(), 2);
+
+        assertEquals(queue.poll(), "a");
+        assertEquals(queue.poll(), "b");
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testCapacityRoundedUp()
+    {
+        assertEquals(new ConcurrentRingQueue<>(2).getCapacity(), 2);
+        assertEquals(new ConcurrentRingQueue<>(3).getCapacity(), 4);
+        assertEquals(new ConcurrentRingQueue<>(64).getCapacity(), 64);
+        assertEquals(new ConcurrentRingQueue<>(65).getCapacity(), 128);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCapacity()
+    {
+        new ConcurrentRingQueue<>(0);
+    }
+
+    @Test
+    public void testWrapAround()
+    {
+        ConcurrentRingQueue<Integer> queue = new ConcurrentRingQueue<>(4);
+        for (int lap = 0; lap < 10; lap++)
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                assertTrue(queue.offer(lap * 4 + i), "offer " + lap + "/" + i);
+            }
+            assertFalse(queue.offer(-1));
+            for (int i = 0; i < 4; i++)
+            {
+                assertEquals(queue.poll().intValue(), lap * 4 + i);
+            }
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void testTakeFromOtherThread() throws Exception
+    {
+        ConcurrentRingQueue<String> queue = new ConcurrentRingQueue<>(1);
+        Thread producer = new Thread(() ->
+        {
+            try
+            {
+                for (int i = 0; i < 100; i++)
+                {
+                    queue.put("e" + i);
+                }
+            }
+            catch (InterruptedException ignored)
+            {
+            }
+        });
+        producer.start();
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(queue.poll(5, TimeUnit.SECONDS), "e" + i);
+        }
+        producer.join(5000);
+        assertNull(queue.poll());
+    }
+}